@@ -121,7 +121,9 @@ public class BlazeModuleSystem extends BlazeModuleSystemBase {
     ImmutableList.Builder<ExternalLibrary> libraries = ImmutableList.builder();
     for (BlazeLibrary library :
         BlazeLibraryCollector.getLibraries(
-            ProjectViewManager.getInstance(project).getProjectViewSet(), blazeProjectData)) {
+            project,
+            ProjectViewManager.getInstance(project).getProjectViewSet(),
+            blazeProjectData)) {
       if (library instanceof AarLibrary) {
         ExternalLibrary externalLibrary = toExternalLibrary(project, (AarLibrary) library, decoder);
         if (externalLibrary != null) {
@@ -18,10 +18,14 @@ package com.google.idea.blaze.android.libraries;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.android.SdkConstants;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.android.sync.model.AarLibrary;
@@ -51,12 +55,12 @@ import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.PathUtil;
-import com.intellij.util.io.ZipUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -74,6 +78,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import javax.annotation.Nullable;
 
 /**
@@ -98,6 +104,10 @@ import javax.annotation.Nullable;
 public class UnpackedAars {
   private static final Logger logger = Logger.getInstance(UnpackedAars.class);
 
+  // skip re-extracting AARs whose timestamp changed, but whose contents didn't
+  private static final BoolExperiment skipUnchangedAars =
+      new BoolExperiment("aswb.unpacked.aars.skip.unchanged", true);
+
   private final Project project;
   private final File cacheDir;
 
@@ -172,7 +182,8 @@ public class UnpackedAars {
     }
 
     ImmutableMap<String, File> cacheFiles = readFileState();
-    ImmutableMap<String, AarAndJar> projectState = getArtifactsToCache(viewSet, projectData);
+    ImmutableMap<String, AarAndJar> projectState =
+        getArtifactsToCache(project, viewSet, projectData);
     ImmutableMap<String, BlazeArtifact> aarOutputs =
         projectState.entrySet().stream()
             .collect(toImmutableMap(Map.Entry::getKey, e -> e.getValue().aar));
@@ -213,14 +224,21 @@ public class UnpackedAars {
           .run();
 
       // update cache files, and remove files if required
-      List<ListenableFuture<?>> futures = new ArrayList<>(copyLocally(projectState, updatedKeys));
+      List<ListenableFuture<Boolean>> copyFutures = copyLocally(projectState, updatedKeys);
+      List<ListenableFuture<?>> futures = new ArrayList<>(copyFutures);
       if (removeMissingFiles) {
         futures.addAll(deleteCacheEntries(removedKeys));
       }
 
       Futures.allAsList(futures).get();
-      if (!updatedKeys.isEmpty()) {
-        context.output(PrintOutput.log(String.format("Copied %d AARs", updatedKeys.size())));
+      long copied = copyFutures.stream().filter(Futures::getUnchecked).count();
+      if (copied > 0) {
+        context.output(PrintOutput.log(String.format("Copied %d AARs", copied)));
+      }
+      if (copied < updatedKeys.size()) {
+        context.output(
+            PrintOutput.log(
+                String.format("Skipped %d unchanged AARs", updatedKeys.size() - copied)));
       }
       if (!removedKeys.isEmpty()) {
         context.output(PrintOutput.log(String.format("Removed %d AARs", removedKeys.size())));
@@ -404,9 +422,9 @@ public class UnpackedAars {
    * cached.
    */
   private static ImmutableMap<String, AarAndJar> getArtifactsToCache(
-      ProjectViewSet projectViewSet, BlazeProjectData projectData) {
+      Project project, ProjectViewSet projectViewSet, BlazeProjectData projectData) {
     Collection<BlazeLibrary> libraries =
-        BlazeLibraryCollector.getLibraries(projectViewSet, projectData);
+        BlazeLibraryCollector.getLibraries(project, projectViewSet, projectData);
     List<AarLibrary> aarLibraries =
         libraries.stream()
             .filter(library -> library instanceof AarLibrary)
@@ -452,33 +470,36 @@ public class UnpackedAars {
     return cachedFiles;
   }
 
-  private Collection<ListenableFuture<?>> copyLocally(
+  private List<ListenableFuture<Boolean>> copyLocally(
       ImmutableMap<String, AarAndJar> toCache, Set<String> updatedKeys) {
     FileOperationProvider ops = FileOperationProvider.getInstance();
-    List<ListenableFuture<?>> futures = new ArrayList<>();
-    updatedKeys.forEach(
-        key ->
-            futures.add(FetchExecutor.EXECUTOR.submit(() -> copyLocally(ops, toCache.get(key)))));
-    return futures;
+    return updatedKeys.stream()
+        .map(key -> FetchExecutor.EXECUTOR.submit(() -> copyLocally(ops, toCache.get(key))))
+        .collect(toImmutableList());
   }
 
-  private void copyLocally(FileOperationProvider ops, AarAndJar aarAndJar) {
+  /**
+   * Extracts the AAR and copies its merged jar into the cache, unless the cached copy was
+   * extracted from an AAR with the same contents. Returns true if anything was copied.
+   */
+  private boolean copyLocally(FileOperationProvider ops, AarAndJar aarAndJar) {
     String cacheKey = cacheKeyForAar(aarAndJar.aar);
     File aarDir = aarDirForKey(cacheKey);
+    File stampFile = new File(aarDir, STAMP_FILE_NAME);
+    String digest = skipUnchangedAars.getValue() ? contentDigest(aarAndJar.aar) : null;
+    if (digest != null
+        && digest.equals(readStampFile(stampFile))
+        && (aarAndJar.jar == null || ops.exists(jarFileForKey(cacheKey)))) {
+      // only the timestamp changed; update the stamp so it isn't reported as changed again
+      setStampTimestamp(ops, stampFile, aarAndJar.aar);
+      return false;
+    }
     try {
       if (ops.exists(aarDir)) {
         ops.deleteRecursively(aarDir, true);
       }
       ops.mkdirs(aarDir);
-      // TODO(brendandouglas): decompress via ZipInputStream so we don't require a local file
-      File toCopy = getOrCreateLocalFile(aarAndJar.aar);
-      ZipUtil.extract(
-          toCopy,
-          aarDir,
-          // Skip jars. The merged jar will be synchronized by JarTraits.
-          (dir, name) -> !name.endsWith(".jar"));
-
-      createStampFile(ops, aarDir, aarAndJar.aar);
+      extract(aarAndJar.aar, aarDir);
 
       // copy merged jar
       if (aarAndJar.jar != null) {
@@ -489,26 +510,101 @@ public class UnpackedAars {
         }
       }
 
+      // written last, so a partially extracted AAR is never considered up to date
+      createStampFile(ops, stampFile, aarAndJar.aar, digest);
     } catch (IOException e) {
       logger.warn(String.format("Failed to extract AAR %s to %s", aarAndJar.aar, aarDir), e);
     }
+    return true;
   }
 
+  /**
+   * Extracts the parts of the AAR used by the IDE, reading it as a stream so remote AARs don't need
+   * to be copied to a local file first.
+   */
+  private static void extract(BlazeArtifact aar, File aarDir) throws IOException {
+    Path root = aarDir.toPath().toAbsolutePath().normalize();
+    Set<Path> createdDirectories = new HashSet<>();
+    try (ZipInputStream zip = new ZipInputStream(aar.getInputStream())) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.isDirectory() || !shouldExtract(entry.getName())) {
+          continue;
+        }
+        Path destination = root.resolve(entry.getName()).normalize();
+        if (!destination.startsWith(root)) {
+          throw new IOException("AAR entry outside of the target directory: " + entry.getName());
+        }
+        Path parent = destination.getParent();
+        if (createdDirectories.add(parent)) {
+          Files.createDirectories(parent);
+        }
+        Files.copy(zip, destination, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+
+  /**
+   * Whether the IDE uses the given AAR entry. Jars are skipped: the merged jar from blaze is used
+   * instead.
+   */
+  private static boolean shouldExtract(String entryName) {
+    return entryName.startsWith(SdkConstants.FD_RES + "/")
+        || entryName.equals(SdkConstants.FN_RESOURCE_TEXT)
+        || entryName.equals(SdkConstants.FN_PUBLIC_TXT)
+        || entryName.equals(SdkConstants.FN_ANDROID_MANIFEST_XML);
+  }
+
+  /**
+   * Returns a digest of the AAR's contents, or null if it can't be read. Remote AARs use their ID,
+   * which changes with their contents, so they needn't be downloaded.
+   */
+  @Nullable
+  private static String contentDigest(BlazeArtifact aar) {
+    if (aar instanceof RemoteOutputArtifact) {
+      return ((RemoteOutputArtifact) aar).getHashId();
+    }
+    try (HashingInputStream stream =
+        new HashingInputStream(Hashing.sha256(), aar.getInputStream())) {
+      ByteStreams.exhaust(stream);
+      return stream.hash().toString();
+    } catch (IOException e) {
+      logger.warn("Failed to compute digest of AAR " + aar, e);
+      return null;
+    }
+  }
+
+  /** Returns the digest recorded in the stamp file, or null if there is none. */
+  @Nullable
+  private static String readStampFile(File stampFile) {
+    try {
+      return new String(Files.readAllBytes(stampFile.toPath()), UTF_8);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Writes the stamp file, recording the digest of the AAR it was extracted from (if known). */
   private static void createStampFile(
-      FileOperationProvider fileOps, File aarDir, BlazeArtifact aar) {
-    File stampFile = new File(aarDir, STAMP_FILE_NAME);
+      FileOperationProvider fileOps, File stampFile, BlazeArtifact aar, @Nullable String digest) {
     try {
-      stampFile.createNewFile();
-      if (!(aar instanceof LocalFileArtifact)) {
-        // no need to set the timestamp for remote artifacts
-        return;
-      }
-      long sourceTime = fileOps.getFileModifiedTime(((LocalFileArtifact) aar).getFile());
-      if (!fileOps.setFileModifiedTime(stampFile, sourceTime)) {
-        logger.warn("Failed to set AAR cache timestamp for " + aar);
-      }
+      Files.write(stampFile.toPath(), digest != null ? digest.getBytes(UTF_8) : new byte[0]);
     } catch (IOException e) {
-      logger.warn("Failed to set AAR cache timestamp for " + aar, e);
+      logger.warn("Failed to create AAR cache stamp for " + aar, e);
+      return;
+    }
+    setStampTimestamp(fileOps, stampFile, aar);
+  }
+
+  private static void setStampTimestamp(
+      FileOperationProvider fileOps, File stampFile, BlazeArtifact aar) {
+    if (!(aar instanceof LocalFileArtifact)) {
+      // no need to set the timestamp for remote artifacts
+      return;
+    }
+    long sourceTime = fileOps.getFileModifiedTime(((LocalFileArtifact) aar).getFile());
+    if (!fileOps.setFileModifiedTime(stampFile, sourceTime)) {
+      logger.warn("Failed to set AAR cache timestamp for " + aar);
     }
   }
 
@@ -527,20 +623,4 @@ public class UnpackedAars {
                     }))
         .collect(toImmutableList());
   }
-
-  /** Returns a locally-accessible file mirroring the contents of this {@link BlazeArtifact}. */
-  private static File getOrCreateLocalFile(BlazeArtifact artifact) throws IOException {
-    if (artifact instanceof LocalFileArtifact) {
-      return ((LocalFileArtifact) artifact).getFile();
-    }
-    File tmpFile =
-        FileUtil.createTempFile(
-            "local-aar-file",
-            Integer.toHexString(artifactKey(artifact).hashCode()),
-            /* deleteOnExit= */ true);
-    try (InputStream stream = artifact.getInputStream()) {
-      Files.copy(stream, Paths.get(tmpFile.getPath()), StandardCopyOption.REPLACE_EXISTING);
-      return tmpFile;
-    }
-  }
 }
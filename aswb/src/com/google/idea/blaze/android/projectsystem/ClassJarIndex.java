@@ -0,0 +1,178 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.android.SdkConstants;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.idea.blaze.base.build.BlazeBuildListener;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.aspects.BuildResult;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Maps class file paths to the jars containing them, for the runtime jars of each target's
+ * transitive closure.
+ *
+ * <p>Each target's index is built lazily from the central directories of its jars, and discarded
+ * on sync or after a blaze build, either of which can change the jars' contents. Jars which can't
+ * be read (e.g. because they haven't been built or fetched yet) aren't cached, so they're read
+ * again on the next lookup.
+ */
+final class ClassJarIndex {
+  private static final Logger logger = Logger.getInstance(ClassJarIndex.class);
+
+  // returns the class files in a jar, or null if it can't be read
+  private final Function<File, ImmutableList<String>> jarReader;
+  private final Map<TargetKey, ImmutableListMultimap<String, File>> targetIndices =
+      new ConcurrentHashMap<>();
+  // the class files in each jar, shared between targets with overlapping transitive closures
+  private final Map<File, ImmutableList<String>> jarContents = new ConcurrentHashMap<>();
+
+  ClassJarIndex() {
+    this(ClassJarIndex::readClassFiles);
+  }
+
+  @VisibleForTesting
+  ClassJarIndex(Function<File, ImmutableList<String>> jarReader) {
+    this.jarReader = jarReader;
+  }
+
+  @Nullable
+  static ClassJarIndex getInstance(Project project) {
+    return SyncCache.getInstance(project)
+        .get(ClassJarIndex.class, (p, projectData) -> new ClassJarIndex());
+  }
+
+  /**
+   * Returns the target's jars containing the given class file, in search order.
+   *
+   * @param classFilePath the class file's path within a jar, using '/' as the separator
+   * @param jars the target's jars, in search order. Only called if the target isn't yet indexed.
+   */
+  ImmutableList<File> findJars(TargetKey target, String classFilePath, Supplier<List<File>> jars) {
+    ImmutableListMultimap<String, File> index = targetIndices.get(target);
+    if (index == null) {
+      // built outside of any lock, since reading the jars can be slow. Concurrent lookups for the
+      // same target may each build it.
+      index = buildIndex(target, jars.get());
+    }
+    return index.get(classFilePath);
+  }
+
+  private void clear() {
+    targetIndices.clear();
+    jarContents.clear();
+  }
+
+  private ImmutableListMultimap<String, File> buildIndex(TargetKey target, List<File> jars) {
+    ImmutableListMultimap.Builder<String, File> builder = ImmutableListMultimap.builder();
+    boolean complete = true;
+    for (File jar : new LinkedHashSet<>(jars)) {
+      ImmutableList<String> classFiles = jarContents.get(jar);
+      if (classFiles == null) {
+        classFiles = jarReader.apply(jar);
+        if (classFiles == null) {
+          complete = false;
+          continue;
+        }
+        jarContents.put(jar, classFiles);
+      }
+      classFiles.forEach(classFile -> builder.put(classFile, jar));
+    }
+    ImmutableListMultimap<String, File> index = builder.build();
+    if (complete) {
+      targetIndices.put(target, index);
+    }
+    return index;
+  }
+
+  /**
+   * Lists the class files in a jar through the virtual file system, whose jar roots only read the
+   * zip's central directory. Jars on disk which the VFS hasn't seen yet are read directly.
+   */
+  @Nullable
+  private static ImmutableList<String> readClassFiles(File jar) {
+    VirtualFile jarFile = VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(jar);
+    VirtualFile jarRoot =
+        jarFile != null ? TransitiveClosureClassFileFinder.getJarRootForLocalFile(jarFile) : null;
+    if (jarRoot == null) {
+      return readClassFilesFromDisk(jar);
+    }
+    ImmutableList.Builder<String> classFiles = ImmutableList.builder();
+    collectClassFiles(jarRoot, "", classFiles);
+    return classFiles.build();
+  }
+
+  private static void collectClassFiles(
+      VirtualFile dir, String prefix, ImmutableList.Builder<String> classFiles) {
+    for (VirtualFile child : dir.getChildren()) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        collectClassFiles(child, path + "/", classFiles);
+      } else if (path.endsWith(SdkConstants.DOT_CLASS)) {
+        classFiles.add(path);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  @Nullable
+  static ImmutableList<String> readClassFilesFromDisk(File jar) {
+    if (!jar.exists()) {
+      return null;
+    }
+    // only reads the zip's central directory
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      return zipFile.stream()
+          .map(ZipEntry::getName)
+          .filter(name -> name.endsWith(SdkConstants.DOT_CLASS))
+          .collect(toImmutableList());
+    } catch (IOException e) {
+      logger.warn("Failed to read jar " + jar, e);
+      return null;
+    }
+  }
+
+  /** Discards all indices after a blaze build, since it may have changed the jars' contents. */
+  static final class BuildListener implements BlazeBuildListener {
+    @Override
+    public void buildCompleted(Project project, BuildResult buildResult) {
+      ClassJarIndex index = getInstance(project);
+      if (index != null) {
+        index.clear();
+      }
+    }
+  }
+}
@@ -30,9 +30,11 @@ import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.targetmaps.TransitiveDependencyMap;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -60,6 +62,9 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
     implements BlazeClassFileFinder {
   public static final String CLASS_FINDER_KEY = "TransitiveClosureClassFileFinder";
 
+  public static final BoolExperiment useClassJarIndex =
+      new BoolExperiment("blaze.class.file.finder.jar.index", true);
+
   private final AtomicBoolean pendingJarsRefresh;
 
   public TransitiveClosureClassFileFinder(Module module) {
@@ -86,8 +91,6 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
       return null;
     }
 
-    TargetMap targetMap = blazeProjectData.getTargetMap();
-    ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
     AndroidResourceModuleRegistry registry =
         AndroidResourceModuleRegistry.getInstance(module.getProject());
     TargetIdeInfo target = blazeProjectData.getTargetMap().get(registry.getTargetKey(module));
@@ -96,16 +99,70 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
       return null;
     }
 
+    Project project = module.getProject();
+    if (useClassJarIndex.getValue()) {
+      String classFilePath = className.replace('.', '/') + SdkConstants.DOT_CLASS;
+      return findClassInIndexedJars(project, blazeProjectData, target, classFilePath);
+    }
+
+    String classNamePath = className.replace('.', File.separatorChar) + SdkConstants.DOT_CLASS;
+    return findClassInJars(getClassJars(project, blazeProjectData, target), classNamePath);
+  }
+
+  /**
+   * Looks up the jars containing the class in the per-sync {@link ClassJarIndex}, and searches
+   * only those.
+   */
+  @Nullable
+  private VirtualFile findClassInIndexedJars(
+      Project project, BlazeProjectData projectData, TargetIdeInfo target, String classFilePath) {
+    ClassJarIndex index = ClassJarIndex.getInstance(project);
+    if (index == null) {
+      return null;
+    }
+    List<File> classJars =
+        index.findJars(
+            target.getKey(), classFilePath, () -> getClassJars(project, projectData, target));
+    return findClassInJars(classJars, classFilePath);
+  }
+
+  /** Returns the class file from the first of the given jars containing it. */
+  @Nullable
+  private VirtualFile findClassInJars(List<File> classJars, String classNamePath) {
+    List<File> missingClassJars = Lists.newArrayList();
+    for (File classJarFile : classJars) {
+      VirtualFile classJarVF =
+          VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
+      if (classJarVF == null) {
+        if (classJarFile.exists()) {
+          missingClassJars.add(classJarFile);
+        }
+        continue;
+      }
+      VirtualFile classFile = findClassInJar(classJarVF, classNamePath);
+      if (classFile != null) {
+        return classFile;
+      }
+    }
+
+    maybeRefreshJars(missingClassJars, pendingJarsRefresh);
+    return null;
+  }
+
+  /** The class jars of the target and its transitive dependencies, in search order. */
+  private static List<File> getClassJars(
+      Project project, BlazeProjectData projectData, TargetIdeInfo target) {
+    TargetMap targetMap = projectData.getTargetMap();
+    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+
     // As a potential optimization, we could choose an arbitrary android_binary target
     // that depends on the library to provide a single complete resource jar,
     // instead of having to rely on dynamic class generation.
     // TODO: benchmark to see if optimization is worthwhile.
 
-    String classNamePath = className.replace('.', File.separatorChar) + SdkConstants.DOT_CLASS;
-
     List<LibraryArtifact> jarsToSearch = Lists.newArrayList(target.getJavaIdeInfo().getJars());
     jarsToSearch.addAll(
-        TransitiveDependencyMap.getInstance(module.getProject())
+        TransitiveDependencyMap.getInstance(project)
             .getTransitiveDependencies(target.getKey())
             .stream()
             .map(targetMap::get)
@@ -113,34 +170,20 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
             .flatMap(TransitiveClosureClassFileFinder::getNonResourceJars)
             .collect(Collectors.toList()));
 
-    List<File> missingClassJars = Lists.newArrayList();
+    List<File> classJars = Lists.newArrayList();
     for (LibraryArtifact jar : jarsToSearch) {
       if (jar.getClassJar() == null || jar.getClassJar().isSource()) {
         continue;
       }
 
       ArtifactLocation classJar = jar.getClassJar();
-      File classJarFile =
+      classJars.add(
           Preconditions.checkNotNull(
-              OutputArtifactResolver.resolve(module.getProject(), decoder, classJar),
+              OutputArtifactResolver.resolve(project, decoder, classJar),
               "Fail to find file %s",
-              classJar.getRelativePath());
-      VirtualFile classJarVF =
-          VirtualFileSystemProvider.getInstance().getSystem().findFileByIoFile(classJarFile);
-      if (classJarVF == null) {
-        if (classJarFile.exists()) {
-          missingClassJars.add(classJarFile);
-        }
-        continue;
-      }
-      classFile = findClassInJar(classJarVF, classNamePath);
-      if (classFile != null) {
-        return classFile;
-      }
+              classJar.getRelativePath()));
     }
-
-    maybeRefreshJars(missingClassJars, pendingJarsRefresh);
-    return null;
+    return classJars;
   }
 
   public static Stream<LibraryArtifact> getNonResourceJars(TargetIdeInfo target) {
@@ -163,7 +206,8 @@ public class TransitiveClosureClassFileFinder extends ModuleBasedClassFileFinder
     return jarRoot.findFileByRelativePath(classNamePath);
   }
 
-  private static VirtualFile getJarRootForLocalFile(VirtualFile file) {
+  @Nullable
+  static VirtualFile getJarRootForLocalFile(VirtualFile file) {
     return ApplicationManager.getApplication().isUnitTestMode()
         ? TempFileSystem.getInstance().findFileByPath(file.getPath() + JarFileSystem.JAR_SEPARATOR)
         : JarFileSystem.getInstance().getJarRootForLocalFile(file);
@@ -50,6 +50,7 @@ import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.settings.BuildSystem;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibrarySorter;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
@@ -118,6 +119,7 @@ public class UnpackedAarsTest extends BlazeTestCase {
     applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
     applicationServices.register(RemoteArtifactPrefetcher.class, new DefaultPrefetcher());
     projectServices.register(UnpackedAars.class, new UnpackedAars(project));
+    projectServices.register(SyncCache.class, new SyncCache(project));
     registerExtensionPoint(FileCache.EP_NAME, FileCache.class)
         .registerExtension(new FileCacheAdapter());
     registerExtensionPoint(BlazeSyncPlugin.EP_NAME, BlazeSyncPlugin.class)
@@ -286,6 +288,68 @@ public class UnpackedAarsTest extends BlazeTestCase {
     assertThat(messages).contains("Removed 1 AARs");
   }
 
+  @Test
+  public void testRefresh_unchangedAarNotExtractedAgain() throws IOException {
+    UnpackedAars unpackedAars = UnpackedAars.getInstance(project);
+    String resourceAar = "resource.aar";
+    File aar =
+        AarLibraryFileBuilder.aar(workspaceRoot, resourceAar)
+            .src("res/values/strings.xml", ImmutableList.of(STRINGS_XML_CONTENT))
+            .src("AndroidManifest.xml", ImmutableList.of("<manifest/>"))
+            .src("assets/unused.txt", ImmutableList.of("unused"))
+            .build();
+    ArtifactLocation resourceAarArtifactLocation = generateArtifactLocation(resourceAar);
+    AarLibrary resourceAarLibrary = new AarLibrary(resourceAarArtifactLocation, null);
+
+    syncWithAars(resourceAarArtifactLocation, resourceAarLibrary);
+    File aarDir = unpackedAars.getAarDir(artifactLocationDecoder, resourceAarLibrary);
+    assertThat(aarDir.list())
+        .asList()
+        .containsExactly("aar.timestamp", "res", "AndroidManifest.xml");
+
+    // only the timestamp changes, so the existing directory should be kept
+    File marker = new File(aarDir, "marker");
+    assertThat(marker.createNewFile()).isTrue();
+    assertThat(aar.setLastModified(aar.lastModified() + 10_000)).isTrue();
+    syncWithAars(resourceAarArtifactLocation, resourceAarLibrary);
+
+    assertThat(marker.exists()).isTrue();
+    assertThat(new File(aarDir, "aar.timestamp").lastModified()).isEqualTo(aar.lastModified());
+    String messages = writingOutputSink.getMessages();
+    assertThat(messages).contains("Copied 1 AARs");
+    assertThat(messages).contains("Skipped 1 unchanged AARs");
+  }
+
+  private void syncWithAars(ArtifactLocation aarArtifactLocation, AarLibrary aarLibrary) {
+    BlazeAndroidImportResult importResult =
+        new BlazeAndroidImportResult(
+            ImmutableList.of(),
+            ImmutableMap.of(
+                LibraryKey.libraryNameFromArtifactLocation(aarArtifactLocation), aarLibrary),
+            ImmutableList.of(),
+            ImmutableList.of());
+    BlazeAndroidSyncData syncData =
+        new BlazeAndroidSyncData(importResult, new AndroidSdkPlatform("stable", 15));
+    BlazeProjectData blazeProjectData =
+        MockBlazeProjectDataBuilder.builder(workspaceRoot)
+            .setWorkspaceLanguageSettings(
+                new WorkspaceLanguageSettings(WorkspaceType.ANDROID, ImmutableSet.of()))
+            .setSyncState(new SyncState.Builder().put(syncData).build())
+            .setArtifactLocationDecoder(artifactLocationDecoder)
+            .build();
+    FileCache.EP_NAME
+        .extensions()
+        .forEach(
+            ep ->
+                ep.onSync(
+                    getProject(),
+                    context,
+                    ProjectViewSet.builder().add(ProjectView.builder().build()).build(),
+                    blazeProjectData,
+                    null,
+                    SyncMode.INCREMENTAL));
+  }
+
   private static class WritingOutputSink implements OutputSink<PrintOutput> {
 
     private final Writer writer = new StringWriter();
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.projectsystem;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ClassJarIndex}. */
+@RunWith(JUnit4.class)
+public class ClassJarIndexTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static final TargetKey TARGET = TargetKey.forPlainTarget(Label.create("//foo:target"));
+  private static final TargetKey OTHER_TARGET =
+      TargetKey.forPlainTarget(Label.create("//foo:other"));
+
+  @Test
+  public void testFindJarsReturnsEveryJarContainingClassInOrder() throws IOException {
+    File first = writeJar("first.jar", "com/foo/A.class", "com/foo/B.class");
+    File second = writeJar("second.jar", "com/foo/B.class", "com/foo/res/R.txt");
+    File third = writeJar("third.jar", "com/foo/B.class");
+    ClassJarIndex index = new ClassJarIndex(ClassJarIndex::readClassFilesFromDisk);
+
+    Supplier<List<File>> jars = () -> ImmutableList.of(first, second, third);
+    assertThat(index.findJars(TARGET, "com/foo/B.class", jars))
+        .containsExactly(first, second, third)
+        .inOrder();
+    assertThat(index.findJars(TARGET, "com/foo/A.class", jars)).containsExactly(first);
+    assertThat(index.findJars(TARGET, "com/foo/C.class", jars)).isEmpty();
+    assertThat(index.findJars(TARGET, "com/foo/res/R.txt", jars)).isEmpty();
+  }
+
+  @Test
+  public void testMissingJarNotCached() throws IOException {
+    File present = writeJar("present.jar", "com/foo/A.class");
+    File missing = new File(folder.getRoot(), "missing.jar");
+    ClassJarIndex index = new ClassJarIndex(ClassJarIndex::readClassFilesFromDisk);
+
+    Supplier<List<File>> jars = () -> ImmutableList.of(present, missing);
+    assertThat(index.findJars(TARGET, "com/foo/A.class", jars)).containsExactly(present);
+    assertThat(index.findJars(TARGET, "com/foo/B.class", jars)).isEmpty();
+
+    writeJar("missing.jar", "com/foo/B.class");
+    assertThat(index.findJars(TARGET, "com/foo/B.class", jars)).containsExactly(missing);
+  }
+
+  @Test
+  public void testTargetIndexReused() throws IOException {
+    File jar = writeJar("lib.jar", "com/foo/A.class");
+    AtomicInteger jarReads = new AtomicInteger();
+    AtomicInteger jarListings = new AtomicInteger();
+    ClassJarIndex index =
+        new ClassJarIndex(
+            file -> {
+              jarReads.incrementAndGet();
+              return ImmutableList.of("com/foo/A.class");
+            });
+
+    Supplier<List<File>> jars =
+        () -> {
+          jarListings.incrementAndGet();
+          return ImmutableList.of(jar);
+        };
+    assertThat(index.findJars(TARGET, "com/foo/A.class", jars)).containsExactly(jar);
+    assertThat(index.findJars(TARGET, "com/foo/A.class", jars)).containsExactly(jar);
+    assertThat(index.findJars(TARGET, "com/foo/B.class", jars)).isEmpty();
+
+    assertThat(jarListings.get()).isEqualTo(1);
+    assertThat(jarReads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testJarContentsSharedBetweenTargets() throws IOException {
+    File shared = writeJar("shared.jar", "com/foo/A.class");
+    File other = writeJar("other.jar", "com/foo/B.class");
+    AtomicInteger sharedReads = new AtomicInteger();
+    ClassJarIndex index =
+        new ClassJarIndex(
+            file -> {
+              if (file.equals(shared)) {
+                sharedReads.incrementAndGet();
+                return ImmutableList.of("com/foo/A.class");
+              }
+              return ImmutableList.of("com/foo/B.class");
+            });
+
+    assertThat(index.findJars(TARGET, "com/foo/A.class", () -> ImmutableList.of(shared)))
+        .containsExactly(shared);
+    assertThat(
+            index.findJars(OTHER_TARGET, "com/foo/A.class", () -> ImmutableList.of(other, shared)))
+        .containsExactly(shared);
+    assertThat(sharedReads.get()).isEqualTo(1);
+  }
+
+  private File writeJar(String name, String... entries) throws IOException {
+    File jar = new File(folder.getRoot(), name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.write(new byte[] {1, 2, 3});
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
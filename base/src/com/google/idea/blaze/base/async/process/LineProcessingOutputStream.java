@@ -20,6 +20,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 /** An base output stream which marshals output into newline-delimited segments for processing. */
 public final class LineProcessingOutputStream extends OutputStream {
@@ -34,7 +35,17 @@ public final class LineProcessingOutputStream extends OutputStream {
     boolean processLine(String line);
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+  // don't hold on to a larger buffer than this once it's no longer needed
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+  // bytes of the current, incomplete line. Guarded by 'this'.
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+  private int length;
+  // whether the last line ended with '\r', in which case a following '\n' is part of the same
+  // line break
+  private boolean skipLineFeed;
+
   private volatile boolean closed;
   private final ImmutableList<LineProcessor> lineProcessors;
 
@@ -50,44 +61,68 @@ public final class LineProcessingOutputStream extends OutputStream {
     return new LineProcessingOutputStream(lineProcessors);
   }
 
+  /**
+   * Splits the output into lines, without copying or decoding it more than once. Line breaks are
+   * found in the raw bytes (UTF-8 never uses '\r' or '\n' within a multi-byte character), and
+   * only complete lines are decoded.
+   */
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
-
-        String line = stringBuffer.substring(0, lineBreakIndex);
-
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
+    if (closed) {
+      return;
+    }
+    int lineStart = off;
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c != '\r' && c != '\n') {
+        continue;
+      }
+      if (c == '\n' && skipLineFeed && i == lineStart && length == 0) {
+        // the second half of a '\r\n' split across writes
+        skipLineFeed = false;
+        lineStart = i + 1;
+        continue;
+      }
+      processLine(b, lineStart, i);
+      if (c == '\r' && i + 1 < end && b[i + 1] == '\n') {
+        i++;
+      }
+      skipLineFeed = c == '\r' && i + 1 == end;
+      lineStart = i + 1;
+    }
+    if (lineStart < end) {
+      skipLineFeed = false;
+      append(b, lineStart, end - lineStart);
+    }
+  }
 
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
-          }
-        }
+  /** Processes the buffered bytes, followed by b[start, end), as a single line. */
+  private void processLine(byte[] b, int start, int end) {
+    String line;
+    if (length == 0) {
+      line = new String(b, start, end - start, UTF_8);
+    } else {
+      append(b, start, end - start);
+      line = new String(buffer, 0, length, UTF_8);
+      length = 0;
+      if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+        buffer = new byte[INITIAL_BUFFER_SIZE];
       }
     }
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+  }
+
+  private void append(byte[] b, int off, int len) {
+    if (length + len > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+    }
+    System.arraycopy(b, off, buffer, length, len);
+    length += len;
   }
 
   @Override
@@ -99,13 +99,13 @@ public final class BuildEventProtocolOutputReader {
 
   /** Convert BEP 'target_kind' to our internal format */
   @Nullable
-  private static Kind parseTargetKind(String kind) {
+  static Kind parseTargetKind(String kind) {
     return kind.endsWith(" rule")
         ? Kind.fromRuleName(kind.substring(0, kind.length() - " rule".length()))
         : null;
   }
 
-  private static BlazeTestResult parseTestResult(
+  static BlazeTestResult parseTestResult(
       String label,
       @Nullable Kind kind,
       @Nullable String mnemonic,
@@ -19,6 +19,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.model.primitives.Label;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 
 /** Assists in getting build artifacts from a build operation. */
@@ -31,6 +32,18 @@ public interface BuildResultHelper extends AutoCloseable {
    */
   List<String> getBuildFlags();
 
+  /**
+   * Starts reporting build outputs to the given listener while the build is still running. Returns
+   * {@link Optional#empty()} if this helper can't read build events before the build completes.
+   *
+   * <p>Must be called before the build starts. The returned reader must be closed once the build
+   * process has terminated.
+   */
+  default Optional<StreamingBepReader> streamBuildOutputs(
+      StreamingBepReader.Listener listener, ExecutorService executor) {
+    return Optional.empty();
+  }
+
   /**
    * Parses the BEP output data and returns the corresponding {@link ParsedBepOutput}. May only be
    * called once, after the build is complete.
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Build event protocol implementation to get build results.
@@ -47,6 +48,12 @@ class BuildResultHelperBep implements BuildResultHelper {
     return BuildEventProtocolUtils.getBuildFlags(outputFile);
   }
 
+  @Override
+  public Optional<StreamingBepReader> streamBuildOutputs(
+      StreamingBepReader.Listener listener, ExecutorService executor) {
+    return Optional.of(StreamingBepReader.start(outputFile, listener, executor));
+  }
+
   @Override
   public ParsedBepOutput getBuildOutput(Optional<String> completedBuildId)
       throws GetArtifactsException {
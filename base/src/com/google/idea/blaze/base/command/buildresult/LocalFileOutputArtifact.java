@@ -33,12 +33,32 @@ public class LocalFileOutputArtifact implements OutputArtifact, LocalFileArtifac
   private final File file;
   private final String blazeOutRelativePath;
   private final String configurationMnemonic;
+  @Nullable private final String digest;
 
   public LocalFileOutputArtifact(
       File file, String blazeOutRelativePath, String configurationMnemonic) {
+    this(file, blazeOutRelativePath, configurationMnemonic, null);
+  }
+
+  /**
+   * @param digest the file digest reported by blaze, if any. If present, the file isn't read to
+   *     determine its state.
+   */
+  public LocalFileOutputArtifact(
+      File file,
+      String blazeOutRelativePath,
+      String configurationMnemonic,
+      @Nullable String digest) {
     this.file = file;
     this.blazeOutRelativePath = blazeOutRelativePath;
     this.configurationMnemonic = configurationMnemonic;
+    this.digest = digest;
+  }
+
+  /** The file digest reported by blaze, or null if none was reported. */
+  @Nullable
+  public String getDigest() {
+    return digest;
   }
 
   private long getLastModifiedTime() {
@@ -48,6 +68,9 @@ public class LocalFileOutputArtifact implements OutputArtifact, LocalFileArtifac
   @Override
   @Nullable
   public ArtifactState toArtifactState() {
+    if (digest != null) {
+      return new LocalFileState(getKey(), /* timestamp= */ 0, digest);
+    }
     long lastModifiedTime = getLastModifiedTime();
     return lastModifiedTime == 0 ? null : new LocalFileState(getKey(), lastModifiedTime);
   }
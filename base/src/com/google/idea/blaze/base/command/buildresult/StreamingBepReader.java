@@ -0,0 +1,300 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Queues;
+import com.google.common.collect.SetMultimap;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResult;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a BEP output file while blaze is still writing it, reporting each target's output
+ * artifacts as soon as its TargetCompleted event arrives, and each test action's results as soon
+ * as its TestResult event arrives.
+ *
+ * <p>This only provides an early view of the build outputs; the complete {@link ParsedBepOutput}
+ * should still be read once the build has finished.
+ */
+public final class StreamingBepReader implements AutoCloseable {
+
+  /** Receives output artifacts as targets complete. Called on the reader thread. */
+  public interface Listener {
+    void outputsReported(String outputGroup, ImmutableList<OutputArtifact> outputs);
+
+    /** Called once per test action (i.e. per shard, run and attempt) as it completes. */
+    default void testResultReported(BlazeTestResult result) {}
+  }
+
+  private static final Logger logger = Logger.getInstance(StreamingBepReader.class);
+
+  private static final long POLL_INTERVAL_MILLIS = 50;
+  // how long to keep draining the BEP file after the build finishes before giving up
+  private static final long DRAIN_TIMEOUT_SECONDS = 30;
+
+  /**
+   * Starts tailing the given BEP output file on the provided executor. The file doesn't need to
+   * exist yet. Callers must {@link #close} the reader once the build process has terminated.
+   */
+  public static StreamingBepReader start(
+      File bepOutputFile, Listener listener, ExecutorService executor) {
+    return new StreamingBepReader(bepOutputFile, listener, executor);
+  }
+
+  private final TailingInputStream input;
+  private final Listener listener;
+  private final Future<?> readerFuture;
+
+  // only accessed from the reader thread
+  private final Map<String, String> configIdToMnemonic = new HashMap<>();
+  private final Map<String, NamedSetOfFiles> namedSets = new HashMap<>();
+  private final SetMultimap<String, String> reportedSetsPerOutputGroup = HashMultimap.create();
+  private final Map<String, Kind> labelToKind = new HashMap<>();
+  private final Map<String, String> labelToMnemonic = new HashMap<>();
+  private long startTimeMillis = 0L;
+
+  private StreamingBepReader(File bepOutputFile, Listener listener, ExecutorService executor) {
+    this.input = new TailingInputStream(bepOutputFile);
+    this.listener = listener;
+    this.readerFuture = executor.submit(this::readEvents);
+  }
+
+  private void readEvents() {
+    BuildEventStreamProvider stream =
+        BuildEventStreamProvider.fromInputStream(new BufferedInputStream(input));
+    try {
+      BuildEvent event;
+      while ((event = stream.getNext()) != null) {
+        handleEvent(event);
+      }
+    } catch (BuildEventStreamException e) {
+      // not fatal: the complete output is parsed again once the build finishes
+      logger.warn("Error reading streamed build events", e);
+    } finally {
+      input.closeDelegate();
+    }
+  }
+
+  private void handleEvent(BuildEvent event) {
+    switch (event.getId().getIdCase()) {
+      case STARTED:
+        startTimeMillis = event.getStarted().getStartTimeMillis();
+        return;
+      case CONFIGURATION:
+        configIdToMnemonic.put(
+            event.getId().getConfiguration().getId(), event.getConfiguration().getMnemonic());
+        return;
+      case NAMED_SET:
+        namedSets.put(event.getId().getNamedSet().getId(), event.getNamedSetOfFiles());
+        return;
+      case TARGET_CONFIGURED:
+        recordKind(
+            event.getId().getTargetConfigured().getLabel(), event.getConfigured().getTargetKind());
+        return;
+      case TEST_RESULT:
+        String label = event.getId().getTestResult().getLabel();
+        BlazeTestResult result =
+            BuildEventProtocolOutputReader.parseTestResult(
+                label,
+                labelToKind.get(label),
+                labelToMnemonic.get(label),
+                event.getTestResult(),
+                startTimeMillis);
+        try {
+          listener.testResultReported(result);
+        } catch (RuntimeException e) {
+          logger.warn("Streamed test result listener failed", e);
+        }
+        return;
+      case TARGET_COMPLETED:
+        label = event.getId().getTargetCompleted().getLabel();
+        recordKind(label, event.getCompleted().getTargetKind());
+        String configId = event.getId().getTargetCompleted().getConfiguration().getId();
+        String mnemonic = configIdToMnemonic.get(configId);
+        labelToMnemonic.put(label, mnemonic);
+        if (mnemonic == null) {
+          return;
+        }
+        for (BuildEventStreamProtos.OutputGroup group :
+            event.getCompleted().getOutputGroupList()) {
+          ImmutableList<OutputArtifact> outputs = collectNewOutputs(group, mnemonic);
+          if (outputs.isEmpty()) {
+            continue;
+          }
+          try {
+            listener.outputsReported(group.getName(), outputs);
+          } catch (RuntimeException e) {
+            logger.warn("Streamed build output listener failed", e);
+          }
+        }
+        return;
+      default: // continue
+    }
+  }
+
+  private void recordKind(String label, String targetKind) {
+    Kind kind = BuildEventProtocolOutputReader.parseTargetKind(targetKind);
+    if (kind != null) {
+      labelToKind.put(label, kind);
+    }
+  }
+
+  /**
+   * Returns the outputs in the transitive closure of the group's file sets which haven't already
+   * been reported for this output group.
+   */
+  private ImmutableList<OutputArtifact> collectNewOutputs(
+      BuildEventStreamProtos.OutputGroup group, String mnemonic) {
+    Set<String> reported = reportedSetsPerOutputGroup.get(group.getName());
+    Queue<String> toVisit = Queues.newArrayDeque();
+    for (NamedSetOfFilesId id : group.getFileSetsList()) {
+      if (reported.add(id.getId())) {
+        toVisit.add(id.getId());
+      }
+    }
+    ImmutableList.Builder<OutputArtifact> outputs = ImmutableList.builder();
+    while (!toVisit.isEmpty()) {
+      NamedSetOfFiles set = namedSets.get(toVisit.remove());
+      if (set == null) {
+        continue;
+      }
+      for (BuildEventStreamProtos.File file : set.getFilesList()) {
+        OutputArtifact output = OutputArtifactParser.parseArtifact(file, mnemonic, startTimeMillis);
+        if (output != null) {
+          outputs.add(output);
+        }
+      }
+      for (NamedSetOfFilesId child : set.getFileSetsList()) {
+        if (reported.add(child.getId())) {
+          toVisit.add(child.getId());
+        }
+      }
+    }
+    return outputs.build();
+  }
+
+  /**
+   * Indicates that blaze has finished writing to the BEP output file, and waits for the remaining
+   * events to be processed.
+   */
+  @Override
+  public void close() {
+    input.finished = true;
+    try {
+      readerFuture.get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel();
+    } catch (TimeoutException e) {
+      logger.warn("Timed out reading streamed build events");
+      cancel();
+    } catch (ExecutionException e) {
+      logger.warn("Error reading streamed build events", e);
+    }
+  }
+
+  private void cancel() {
+    input.cancelled = true;
+    readerFuture.cancel(true);
+  }
+
+  /**
+   * An input stream over a file which is still being appended to. Reads block until more data is
+   * available, and only report EOF once the writer has finished.
+   */
+  private static final class TailingInputStream extends InputStream {
+    private final File file;
+    private volatile boolean finished = false;
+    private volatile boolean cancelled = false;
+    @Nullable private InputStream delegate;
+
+    TailingInputStream(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int read = read(b, 0, 1);
+      return read == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (!cancelled) {
+        // read the flag before reading from the file, so we fully drain data written before the
+        // writer finished
+        boolean writerFinished = finished;
+        if (delegate == null && file.exists()) {
+          delegate = new FileInputStream(file);
+        }
+        if (delegate != null) {
+          int read = delegate.read(b, off, len);
+          if (read > 0) {
+            return read;
+          }
+        }
+        if (writerFinished) {
+          return -1;
+        }
+        try {
+          Thread.sleep(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return -1;
+        }
+      }
+      return -1;
+    }
+
+    void closeDelegate() {
+      if (delegate == null) {
+        return;
+      }
+      try {
+        delegate.close();
+      } catch (IOException e) {
+        logger.warn(e);
+      }
+      delegate = null;
+    }
+  }
+}
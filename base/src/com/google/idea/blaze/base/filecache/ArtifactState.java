@@ -15,10 +15,13 @@
  */
 package com.google.idea.blaze.base.filecache;
 
+import com.google.common.base.Strings;
 import com.google.devtools.intellij.model.ProjectData.LocalFile;
 import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import java.io.File;
+import java.util.Objects;
+import javax.annotation.Nullable;
 
 /** Used to diff blaze {@link BlazeArtifact}s from different builds. */
 public interface ArtifactState {
@@ -60,10 +63,14 @@ public interface ArtifactState {
 
   LocalFileOrOutputArtifact serializeToProto();
 
-  /** Serialization state related to local files. */
+  /**
+   * Serialization state related to local files. Files are compared by the digest reported by
+   * blaze, if present, or otherwise by their timestamp.
+   */
   class LocalFileState implements ArtifactState {
     private final String blazeOutPath;
     private final long timestamp;
+    @Nullable private final String digest;
 
     public LocalFileState(LocalFile localFile) {
       this.blazeOutPath =
@@ -71,11 +78,17 @@ public interface ArtifactState {
               ? localFile.getRelativePath()
               : migrateOldKeyFormat(localFile.getPath());
       this.timestamp = localFile.getTimestamp();
+      this.digest = Strings.emptyToNull(localFile.getDigest());
     }
 
     public LocalFileState(String blazeOutPath, long timestamp) {
+      this(blazeOutPath, timestamp, null);
+    }
+
+    public LocalFileState(String blazeOutPath, long timestamp, @Nullable String digest) {
       this.blazeOutPath = blazeOutPath;
       this.timestamp = timestamp;
+      this.digest = digest;
     }
 
     @Override
@@ -85,14 +98,25 @@ public interface ArtifactState {
 
     @Override
     public boolean isMoreRecent(ArtifactState output) {
-      return !(output instanceof LocalFileState) || timestamp < ((LocalFileState) output).timestamp;
+      if (!(output instanceof LocalFileState)) {
+        return true;
+      }
+      LocalFileState other = (LocalFileState) output;
+      if (digest != null || other.digest != null) {
+        // a file touched without changing its contents isn't considered updated
+        return !Objects.equals(digest, other.digest);
+      }
+      return timestamp < other.timestamp;
     }
 
     @Override
     public LocalFileOrOutputArtifact serializeToProto() {
-      return LocalFileOrOutputArtifact.newBuilder()
-          .setLocalFile(LocalFile.newBuilder().setPath(blazeOutPath).setTimestamp(timestamp))
-          .build();
+      LocalFile.Builder builder =
+          LocalFile.newBuilder().setPath(blazeOutPath).setTimestamp(timestamp);
+      if (digest != null) {
+        builder.setDigest(digest);
+      }
+      return LocalFileOrOutputArtifact.newBuilder().setLocalFile(builder).build();
     }
 
     @Override
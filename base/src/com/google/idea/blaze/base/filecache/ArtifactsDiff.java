@@ -23,11 +23,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
 import com.google.idea.blaze.base.io.FileAttributeScanner;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -37,7 +39,8 @@ import javax.annotation.Nullable;
  * A data class representing the diff between two sets of output artifacts.
  *
  * <p>We serialize the last modified time for local files to avoid recomputing it when calculating
- * the diff.
+ * the diff. Where blaze reports a digest for a local file, that's used instead, so the file isn't
+ * read at all.
  */
 @AutoValue
 public abstract class ArtifactsDiff {
@@ -83,15 +86,29 @@ public abstract class ArtifactsDiff {
 
   private static ImmutableMap<String, ArtifactState> computeState(
       Collection<OutputArtifact> artifacts) throws InterruptedException, ExecutionException {
-    boolean hasLocalFiles = artifacts.stream().anyMatch(a -> a instanceof LocalFileArtifact);
-    if (!hasLocalFiles) {
+    List<OutputArtifact> requiringTimestamps =
+        artifacts.stream().filter(ArtifactsDiff::requiresTimestamp).collect(toImmutableList());
+    if (requiringTimestamps.isEmpty()) {
       return artifacts.stream()
           .collect(toImmutableMap(OutputArtifact::getKey, OutputArtifact::toArtifactState));
     }
-    // for local files, diffing requires checking the timestamps, which we multi-thread
-    return FileAttributeScanner.readAttributes(artifacts, TO_ARTIFACT_STATE, FetchExecutor.EXECUTOR)
-        .entrySet().stream()
-        .collect(toImmutableMap(e -> e.getKey().getKey(), Map.Entry::getValue));
+    ImmutableMap.Builder<String, ArtifactState> state = ImmutableMap.builder();
+    artifacts.stream()
+        .filter(a -> !requiresTimestamp(a))
+        .forEach(a -> state.put(a.getKey(), a.toArtifactState()));
+    // for local files without a digest, diffing requires checking the timestamps, which we
+    // multi-thread
+    FileAttributeScanner.readAttributes(
+            requiringTimestamps, TO_ARTIFACT_STATE, FetchExecutor.EXECUTOR)
+        .forEach((artifact, artifactState) -> state.put(artifact.getKey(), artifactState));
+    return state.build();
+  }
+
+  private static boolean requiresTimestamp(OutputArtifact artifact) {
+    if (artifact instanceof LocalFileOutputArtifact) {
+      return ((LocalFileOutputArtifact) artifact).getDigest() == null;
+    }
+    return artifact instanceof LocalFileArtifact;
   }
 
   private static FileAttributeScanner.AttributeReader<OutputArtifact, ArtifactState>
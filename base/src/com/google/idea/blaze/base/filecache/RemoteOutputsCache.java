@@ -125,7 +125,7 @@ public final class RemoteOutputsCache {
             .collect(toImmutableList());
 
     Set<RemoteOutputArtifact> toCache =
-        targetMap.targets().stream()
+        targetMap.stream()
             .flatMap(t -> artifactsToCache(providers, t))
             .distinct()
             .map(outputs::findRemoteOutput)
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TargetStore} over blocks of serialized targets (e.g. sections of an on-disk cache
+ * file). Each block is only read and decoded the first time one of its targets is accessed, and
+ * decoded blocks are softly cached.
+ */
+final class BlockTargetStore implements TargetStore {
+
+  private final ImmutableList<ImmutableList<TargetKey>> blocks;
+  private final ImmutableMap<TargetKey, Integer> blockIndex;
+  private final IntFunction<ImmutableList<IntellijIdeInfo.TargetIdeInfo>> blockReader;
+  private final int size;
+
+  private final AtomicReferenceArray<SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>>>
+      decoded;
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> materialized =
+      new SoftReference<>(null);
+
+  BlockTargetStore(
+      ImmutableList<ImmutableList<TargetKey>> blocks,
+      IntFunction<ImmutableList<IntellijIdeInfo.TargetIdeInfo>> blockReader) {
+    ImmutableMap.Builder<TargetKey, Integer> blockIndex = ImmutableMap.builder();
+    int size = 0;
+    for (int i = 0; i < blocks.size(); i++) {
+      for (TargetKey key : blocks.get(i)) {
+        blockIndex.put(key, i);
+        size++;
+      }
+    }
+    this.blocks = blocks;
+    this.blockIndex = blockIndex.build();
+    this.blockReader = blockReader;
+    this.size = size;
+    this.decoded = new AtomicReferenceArray<>(blocks.size());
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(TargetKey key) {
+    return blockIndex.containsKey(key);
+  }
+
+  @Override
+  @Nullable
+  public TargetIdeInfo get(TargetKey key) {
+    Integer block = blockIndex.get(key);
+    return block != null ? decode(block).get(key) : null;
+  }
+
+  @Override
+  public ImmutableList<TargetKey> getDependencyKeys(TargetKey key) {
+    TargetIdeInfo target = get(key);
+    if (target == null) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> builder = ImmutableList.builder();
+    for (Dependency dep : target.getDependencies()) {
+      builder.add(dep.getTargetKey());
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    return blockIndex.keySet();
+  }
+
+  @Override
+  public Stream<TargetIdeInfo> stream() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    return map != null
+        ? map.values().stream()
+        : IntStream.range(0, blocks.size()).boxed().flatMap(i -> decode(i).values().stream());
+  }
+
+  @Override
+  public ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos() {
+    ImmutableList.Builder<IntellijIdeInfo.TargetIdeInfo> builder =
+        ImmutableList.builderWithExpectedSize(size);
+    for (int i = 0; i < blocks.size(); i++) {
+      builder.addAll(blockReader.apply(i));
+    }
+    return builder.build();
+  }
+
+  private ImmutableMap<TargetKey, TargetIdeInfo> decode(int block) {
+    SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> ref = decoded.get(block);
+    ImmutableMap<TargetKey, TargetIdeInfo> targets = ref != null ? ref.get() : null;
+    if (targets != null) {
+      return targets;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+    for (IntellijIdeInfo.TargetIdeInfo proto : blockReader.apply(block)) {
+      TargetIdeInfo target = TargetIdeInfo.fromProto(proto);
+      if (target != null) {
+        builder.put(target.getKey(), target);
+      }
+    }
+    targets = builder.build();
+    decoded.set(block, new SoftReference<>(targets));
+    return targets;
+  }
+
+  @Override
+  public ImmutableMap<TargetKey, TargetIdeInfo> materialize() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder =
+        ImmutableMap.builderWithExpectedSize(size);
+    for (int i = 0; i < blocks.size(); i++) {
+      builder.putAll(decode(i));
+    }
+    map = builder.build();
+    materialized = new SoftReference<>(map);
+    return map;
+  }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A compact, columnar encoding of a target map.
+ *
+ * <p>Every target key (including dependencies outside the map) is assigned a dense int id, and
+ * keys are stored once in a shared table, indexed by an open-addressed int hash table. Strings
+ * (labels, paths, etc.) are also stored once, in a shared string table. Each target's serialized
+ * proto, with every string replaced by its index in the string table, is stored in a single
+ * contiguous byte array, and dependency edges are stored as int arrays over the dense ids. {@link
+ * TargetIdeInfo} objects are only decoded when accessed, and are softly cached so they can be
+ * reclaimed under memory pressure.
+ */
+final class CompactTargetStore implements TargetStore {
+
+  /** String table indices are written to the encoded protos in this radix. */
+  private static final int STRING_ID_RADIX = Character.MAX_RADIX;
+
+  private final TargetKey[] keys;
+  private final int targetCount;
+
+  /**
+   * Open-addressed hash table from target key to its id + 1, or 0 for an empty slot. Its length is
+   * a power of two.
+   */
+  private final int[] index;
+
+  private final String[] strings;
+
+  /** Serialized target protos, indexed via {@link #offsets}. */
+  private final byte[] encodedTargets;
+
+  private final int[] offsets;
+  private final int[][] dependencies;
+
+  private final AtomicReferenceArray<SoftReference<TargetIdeInfo>> decoded;
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> materialized =
+      new SoftReference<>(null);
+
+  static CompactTargetStore create(Map<TargetKey, TargetIdeInfo> targets) {
+    Map<TargetKey, Integer> ids = new HashMap<>();
+    List<TargetKey> keys = new ArrayList<>(targets.size());
+    for (TargetKey key : targets.keySet()) {
+      ids.put(key, keys.size());
+      keys.add(key);
+    }
+    int targetCount = keys.size();
+
+    Map<String, Integer> stringIds = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    UnaryOperator<String> toStringId =
+        string ->
+            Integer.toString(
+                stringIds.computeIfAbsent(
+                    string,
+                    s -> {
+                      strings.add(ProjectDataInterner.intern(s));
+                      return strings.size() - 1;
+                    }),
+                STRING_ID_RADIX);
+
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    int[] offsets = new int[targetCount + 1];
+    int[][] dependencies = new int[targetCount][];
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo target = targets.get(keys.get(i));
+      try {
+        replaceStrings(target.toProto(), toStringId).writeTo(encoded);
+      } catch (IOException e) {
+        // can't happen when writing to a byte array
+        throw new UncheckedIOException(e);
+      }
+      offsets[i + 1] = encoded.size();
+
+      ImmutableList<Dependency> deps = target.getDependencies();
+      int[] depIds = new int[deps.size()];
+      for (int j = 0; j < deps.size(); j++) {
+        Dependency dep = deps.get(j);
+        Integer id = ids.get(dep.getTargetKey());
+        if (id == null) {
+          id = keys.size();
+          ids.put(dep.getTargetKey(), id);
+          keys.add(dep.getTargetKey());
+        }
+        depIds[j] = id;
+      }
+      dependencies[i] = depIds;
+    }
+    return new CompactTargetStore(
+        keys.toArray(new TargetKey[0]),
+        targetCount,
+        strings.toArray(new String[0]),
+        encoded.toByteArray(),
+        offsets,
+        dependencies);
+  }
+
+  private CompactTargetStore(
+      TargetKey[] keys,
+      int targetCount,
+      String[] strings,
+      byte[] encodedTargets,
+      int[] offsets,
+      int[][] dependencies) {
+    this.keys = keys;
+    this.targetCount = targetCount;
+    this.index = buildIndex(keys);
+    this.strings = strings;
+    this.encodedTargets = encodedTargets;
+    this.offsets = offsets;
+    this.dependencies = dependencies;
+    this.decoded = new AtomicReferenceArray<>(targetCount);
+  }
+
+  private static int[] buildIndex(TargetKey[] keys) {
+    // a power of two at least twice the number of keys, so probe sequences stay short
+    int[] index = new int[Integer.highestOneBit(Math.max(1, 2 * keys.length - 1)) << 1];
+    for (int id = 0; id < keys.length; id++) {
+      int slot = firstSlot(keys[id], index.length);
+      while (index[slot] != 0) {
+        slot = (slot + 1) & (index.length - 1);
+      }
+      index[slot] = id + 1;
+    }
+    return index;
+  }
+
+  private static int firstSlot(TargetKey key, int indexLength) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & (indexLength - 1);
+  }
+
+  /** Returns the id of the given key, or -1 if it isn't a key in this store's table. */
+  private int findId(TargetKey key) {
+    for (int slot = firstSlot(key, index.length); ; slot = (slot + 1) & (index.length - 1)) {
+      int entry = index[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (keys[entry - 1].equals(key)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  private int idOf(TargetKey key) {
+    int id = findId(key);
+    return id < targetCount ? id : -1;
+  }
+
+  @Override
+  public int size() {
+    return targetCount;
+  }
+
+  @Override
+  public boolean contains(TargetKey key) {
+    return idOf(key) != -1;
+  }
+
+  @Override
+  @Nullable
+  public TargetIdeInfo get(TargetKey key) {
+    int id = idOf(key);
+    return id != -1 ? decode(id) : null;
+  }
+
+  /** Returns the keys of the target's direct dependencies, without decoding the target. */
+  @Override
+  public ImmutableList<TargetKey> getDependencyKeys(TargetKey key) {
+    int id = idOf(key);
+    if (id == -1) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<TargetKey> builder = ImmutableList.builder();
+    for (int dep : dependencies[id]) {
+      builder.add(keys[dep]);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    ImmutableSet.Builder<TargetKey> builder = ImmutableSet.builderWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      builder.add(keys[i]);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public Stream<TargetIdeInfo> stream() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    return map != null
+        ? map.values().stream()
+        : IntStream.range(0, targetCount).mapToObj(this::decode);
+  }
+
+  /** Returns the protos for all targets, without building {@link TargetIdeInfo} objects. */
+  @Override
+  public ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos() {
+    ImmutableList.Builder<IntellijIdeInfo.TargetIdeInfo> builder =
+        ImmutableList.builderWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      builder.add(getProto(i));
+    }
+    return builder.build();
+  }
+
+  private IntellijIdeInfo.TargetIdeInfo getProto(int id) {
+    return replaceStrings(
+        getEncodedProto(id), stringId -> strings[Integer.parseInt(stringId, STRING_ID_RADIX)]);
+  }
+
+  /** Returns the target's proto, with each string replaced by its index in the string table. */
+  private IntellijIdeInfo.TargetIdeInfo getEncodedProto(int id) {
+    try {
+      return IntellijIdeInfo.TargetIdeInfo.parser()
+          .parseFrom(encodedTargets, offsets[id], offsets[id + 1] - offsets[id]);
+    } catch (InvalidProtocolBufferException e) {
+      // we wrote these bytes ourselves, so this indicates a programming error
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns a copy of the message with every string field, including those of nested messages,
+   * replaced by the given function.
+   */
+  @SuppressWarnings("unchecked") // Message#toBuilder returns a builder for the same type
+  private static <T extends Message> T replaceStrings(
+      T message, UnaryOperator<String> replacement) {
+    Message.Builder builder = null;
+    for (Map.Entry<FieldDescriptor, Object> entry : message.getAllFields().entrySet()) {
+      FieldDescriptor field = entry.getKey();
+      if (field.getJavaType() != JavaType.STRING && field.getJavaType() != JavaType.MESSAGE) {
+        continue;
+      }
+      if (builder == null) {
+        builder = message.toBuilder();
+      }
+      if (field.isRepeated()) {
+        builder.clearField(field);
+        for (Object value : (List<?>) entry.getValue()) {
+          builder.addRepeatedField(field, replaceFieldStrings(value, replacement));
+        }
+      } else {
+        builder.setField(field, replaceFieldStrings(entry.getValue(), replacement));
+      }
+    }
+    return builder != null ? (T) builder.build() : message;
+  }
+
+  private static Object replaceFieldStrings(Object value, UnaryOperator<String> replacement) {
+    return value instanceof String
+        ? replacement.apply((String) value)
+        : replaceStrings((Message) value, replacement);
+  }
+
+  @VisibleForTesting
+  int stringTableSize() {
+    return strings.length;
+  }
+
+  /**
+   * Returns true if both stores contain the same targets. This compares the encoded targets, so no
+   * {@link TargetIdeInfo} objects are decoded.
+   */
+  boolean contentEquals(CompactTargetStore other) {
+    if (targetCount != other.targetCount) {
+      return false;
+    }
+    boolean sameStrings = Arrays.equals(strings, other.strings);
+    for (int id = 0; id < targetCount; id++) {
+      int otherId = other.idOf(keys[id]);
+      if (otherId == -1) {
+        return false;
+      }
+      if (sameStrings && encodedEquals(id, other, otherId)) {
+        continue;
+      }
+      if (!getProto(id).equals(other.getProto(otherId))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean encodedEquals(int id, CompactTargetStore other, int otherId) {
+    int length = offsets[id + 1] - offsets[id];
+    if (length != other.offsets[otherId + 1] - other.offsets[otherId]) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (encodedTargets[offsets[id] + i] != other.encodedTargets[other.offsets[otherId] + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private TargetIdeInfo decode(int id) {
+    SoftReference<TargetIdeInfo> ref = decoded.get(id);
+    TargetIdeInfo target = ref != null ? ref.get() : null;
+    if (target == null) {
+      target = Preconditions.checkNotNull(TargetIdeInfo.fromProto(getProto(id)));
+      decoded.set(id, new SoftReference<>(target));
+    }
+    return target;
+  }
+
+  /**
+   * Returns a fully decoded map of all targets. This is softly cached, so repeated calls are cheap
+   * unless the JVM is short of memory.
+   */
+  @Override
+  public ImmutableMap<TargetKey, TargetIdeInfo> materialize() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder =
+        ImmutableMap.builderWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      builder.put(keys[i], decode(i));
+    }
+    map = builder.build();
+    materialized = new SoftReference<>(map);
+    return map;
+  }
+}
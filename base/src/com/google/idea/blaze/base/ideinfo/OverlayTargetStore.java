@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import java.lang.ref.SoftReference;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link TargetStore} which applies a set of changes on top of another {@link TargetMap},
+ * without decoding the underlying targets.
+ */
+final class OverlayTargetStore implements TargetStore {
+
+  private final TargetMap base;
+  private final ImmutableMap<TargetKey, TargetIdeInfo> updated;
+  private final ImmutableSet<TargetKey> removed;
+  private final int size;
+
+  private volatile SoftReference<ImmutableMap<TargetKey, TargetIdeInfo>> materialized =
+      new SoftReference<>(null);
+
+  OverlayTargetStore(
+      TargetMap base,
+      ImmutableMap<TargetKey, TargetIdeInfo> updated,
+      ImmutableSet<TargetKey> removed) {
+    this.base = base;
+    this.updated = updated;
+    this.removed = removed;
+    int size = base.size();
+    for (TargetKey key : removed) {
+      if (!updated.containsKey(key) && base.contains(key)) {
+        size--;
+      }
+    }
+    for (TargetKey key : updated.keySet()) {
+      if (!base.contains(key)) {
+        size++;
+      }
+    }
+    this.size = size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(TargetKey key) {
+    if (updated.containsKey(key)) {
+      return true;
+    }
+    return !removed.contains(key) && base.contains(key);
+  }
+
+  @Override
+  @Nullable
+  public TargetIdeInfo get(TargetKey key) {
+    TargetIdeInfo target = updated.get(key);
+    if (target != null) {
+      return target;
+    }
+    return removed.contains(key) ? null : base.get(key);
+  }
+
+  @Override
+  public ImmutableList<TargetKey> getDependencyKeys(TargetKey key) {
+    TargetIdeInfo target = updated.get(key);
+    if (target != null) {
+      ImmutableList.Builder<TargetKey> builder = ImmutableList.builder();
+      target.getDependencies().forEach(dep -> builder.add(dep.getTargetKey()));
+      return builder.build();
+    }
+    return removed.contains(key) ? ImmutableList.of() : base.getDependencyKeys(key);
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    ImmutableSet.Builder<TargetKey> builder = ImmutableSet.builderWithExpectedSize(size);
+    for (TargetKey key : base.keys()) {
+      if (!updated.containsKey(key) && !removed.contains(key)) {
+        builder.add(key);
+      }
+    }
+    return builder.addAll(updated.keySet()).build();
+  }
+
+  @Override
+  public Stream<TargetIdeInfo> stream() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    if (map != null) {
+      return map.values().stream();
+    }
+    return Stream.concat(
+        base.stream()
+            .filter(t -> !updated.containsKey(t.getKey()) && !removed.contains(t.getKey())),
+        updated.values().stream());
+  }
+
+  @Override
+  public ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos() {
+    // the base protos are in the same order as its keys, so there's no need to parse their keys
+    ImmutableList<TargetKey> baseKeys = base.keys().asList();
+    ImmutableList<IntellijIdeInfo.TargetIdeInfo> baseProtos = base.toProtos();
+    Preconditions.checkState(baseKeys.size() == baseProtos.size());
+    ImmutableList.Builder<IntellijIdeInfo.TargetIdeInfo> builder =
+        ImmutableList.builderWithExpectedSize(size);
+    for (int i = 0; i < baseKeys.size(); i++) {
+      TargetKey key = baseKeys.get(i);
+      if (!updated.containsKey(key) && !removed.contains(key)) {
+        builder.add(baseProtos.get(i));
+      }
+    }
+    updated.values().forEach(target -> builder.add(target.toProto()));
+    return builder.build();
+  }
+
+  /**
+   * Returns a fully decoded map of all targets. This is softly cached, so repeated calls are cheap
+   * unless the JVM is short of memory.
+   */
+  @Override
+  public ImmutableMap<TargetKey, TargetIdeInfo> materialize() {
+    ImmutableMap<TargetKey, TargetIdeInfo> map = materialized.get();
+    if (map != null) {
+      return map;
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder =
+        ImmutableMap.builderWithExpectedSize(size);
+    stream().forEach(target -> builder.put(target.getKey(), target));
+    map = builder.build();
+    materialized = new SoftReference<>(map);
+    return map;
+  }
+}
@@ -15,23 +15,83 @@
  */
 package com.google.idea.blaze.base.ideinfo;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.common.experiments.BoolExperiment;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /** Map of configured targets (and soon aspects). */
 public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
-  private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  private static final BoolExperiment useCompactTargetMap =
+      new BoolExperiment("blaze.compact.target.map", false);
+
+  // exactly one of these is non-null
+  @Nullable private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  @Nullable private final TargetStore store;
+  // the diff from the target map this one was derived from, if it was recorded
+  @Nullable private volatile RecordedDiff recordedDiff;
 
   public TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
     this.targetMap = targetMap;
+    this.store = null;
+  }
+
+  private TargetMap(TargetStore store) {
+    this.targetMap = null;
+    this.store = store;
+  }
+
+  /**
+   * Creates a {@link TargetMap} for the project data. Depending on the 'blaze.compact.target.map'
+   * experiment, targets may be stored in a compact encoding and only decoded when accessed.
+   */
+  public static TargetMap create(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
+    return useCompactTargetMap.getValue() ? compact(targetMap) : new TargetMap(targetMap);
+  }
+
+  /** Creates a {@link TargetMap} backed by a compact encoding of the given targets. */
+  public static TargetMap compact(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
+    return new TargetMap(CompactTargetStore.create(targetMap));
+  }
+
+  /**
+   * Creates a {@link TargetMap} over blocks of serialized targets. Each block is only read and
+   * decoded when one of its targets is first accessed.
+   *
+   * @param blocks the keys of the targets in each block
+   * @param blockReader returns the targets in the block with the given index
+   */
+  public static TargetMap lazy(
+      ImmutableList<ImmutableList<TargetKey>> blocks,
+      IntFunction<ImmutableList<IntellijIdeInfo.TargetIdeInfo>> blockReader) {
+    return new TargetMap(new BlockTargetStore(blocks, blockReader));
+  }
+
+  /**
+   * Returns a new {@link TargetMap} with the given targets added or replaced, and the given keys
+   * removed. Unchanged targets are not decoded.
+   */
+  public TargetMap withChanges(
+      ImmutableMap<TargetKey, TargetIdeInfo> updated, ImmutableSet<TargetKey> removed) {
+    if (updated.isEmpty() && removed.isEmpty()) {
+      return this;
+    }
+    return new TargetMap(new OverlayTargetStore(this, updated, removed));
   }
 
   public static TargetMap fromProto(ProjectData.TargetMap proto) {
-    return new TargetMap(
+    return create(
         proto.getTargetsList().stream()
             .map(TargetIdeInfo::fromProto)
             .filter(Objects::nonNull)
@@ -40,26 +100,86 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
 
   @Override
   public ProjectData.TargetMap toProto() {
-    ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
-    targetMap.values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
-    return builder.build();
+    return ProjectData.TargetMap.newBuilder().addAllTargets(toProtos()).build();
+  }
+
+  /** Returns the protos for all targets, in the same order as {@link #keys}. */
+  ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos() {
+    return store != null
+        ? store.toProtos()
+        : targetMap.values().stream().map(TargetIdeInfo::toProto).collect(toImmutableList());
   }
 
   @Nullable
   public TargetIdeInfo get(TargetKey key) {
-    return targetMap.get(key);
+    return store != null ? store.get(key) : targetMap.get(key);
   }
 
   public boolean contains(TargetKey key) {
-    return targetMap.containsKey(key);
+    return store != null ? store.contains(key) : targetMap.containsKey(key);
+  }
+
+  /** Returns the number of targets in the map. */
+  public int size() {
+    return store != null ? store.size() : targetMap.size();
   }
 
+  /**
+   * Returns the keys of the given target's direct dependencies. For compact target maps, this
+   * doesn't require decoding the target.
+   */
+  public ImmutableList<TargetKey> getDependencyKeys(TargetKey key) {
+    if (store != null) {
+      return store.getDependencyKeys(key);
+    }
+    TargetIdeInfo target = targetMap.get(key);
+    return target == null
+        ? ImmutableList.of()
+        : target.getDependencies().stream()
+            .map(Dependency::getTargetKey)
+            .collect(toImmutableList());
+  }
+
+  /** Returns the keys of all targets in the map. This doesn't decode any targets. */
+  public ImmutableSet<TargetKey> keys() {
+    return store != null ? store.keys() : targetMap.keySet();
+  }
+
+  /**
+   * Returns a stream over all targets. For compact or lazy target maps, targets are decoded as the
+   * stream is consumed, without building a map of every decoded target. Prefer this to {@link
+   * #targets} when iterating over the whole map.
+   */
+  public Stream<TargetIdeInfo> stream() {
+    return store != null ? store.stream() : targetMap.values().stream();
+  }
+
+  /**
+   * Returns all targets. For compact or lazy target maps, this decodes every target and keeps them
+   * (softly) reachable, so prefer {@link #stream} or {@link #get} where possible.
+   */
   public ImmutableCollection<TargetIdeInfo> targets() {
-    return targetMap.values();
+    return map().values();
   }
 
+  /**
+   * Returns the underlying map. For compact or lazy target maps, this decodes every target, so
+   * prefer {@link #get}, {@link #keys} or {@link #stream} where possible.
+   */
   public ImmutableMap<TargetKey, TargetIdeInfo> map() {
-    return targetMap;
+    return store != null ? store.materialize() : targetMap;
+  }
+
+  /** Records the targets which changed from the given target map, which this was derived from. */
+  void recordDiff(TargetMap previous, TargetMapDiff diff) {
+    recordedDiff = new RecordedDiff(previous, diff);
+  }
+
+  /** Returns the recorded diff from the given target map, if this was derived from it. */
+  @Nullable
+  TargetMapDiff getRecordedDiff(TargetMap previous) {
+    RecordedDiff recorded = recordedDiff;
+    return recorded != null && recorded.previous.get() == previous ? recorded.diff : null;
   }
 
   @Override
@@ -71,11 +191,26 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
       return false;
     }
     TargetMap other = (TargetMap) o;
-    return Objects.equals(targetMap, other.targetMap);
+    if (store instanceof CompactTargetStore && other.store instanceof CompactTargetStore) {
+      return ((CompactTargetStore) store).contentEquals((CompactTargetStore) other.store);
+    }
+    return size() == other.size() && Objects.equals(map(), other.map());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(targetMap);
+    // only hash the keys, so compact target maps needn't decode their targets
+    return keys().hashCode();
+  }
+
+  private static class RecordedDiff {
+    // weakly held, so the previous target map isn't retained for as long as this one
+    final WeakReference<TargetMap> previous;
+    final TargetMapDiff diff;
+
+    RecordedDiff(TargetMap previous, TargetMapDiff diff) {
+      this.previous = new WeakReference<>(previous);
+      this.diff = diff;
+    }
   }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+
+/** The targets which were added, changed or removed between two {@link TargetMap}s. */
+public final class TargetMapDiff {
+
+  public final ImmutableSet<TargetKey> added;
+  public final ImmutableSet<TargetKey> changed;
+  public final ImmutableSet<TargetKey> removed;
+
+  private TargetMapDiff(
+      ImmutableSet<TargetKey> added,
+      ImmutableSet<TargetKey> changed,
+      ImmutableSet<TargetKey> removed) {
+    this.added = added;
+    this.changed = changed;
+    this.removed = removed;
+  }
+
+  /**
+   * Returns the targets which changed between the two target maps. If the diff was recorded when
+   * the current target map was derived from the previous one, that's reused; otherwise every target
+   * is compared.
+   */
+  public static TargetMapDiff compute(TargetMap previous, TargetMap current) {
+    TargetMapDiff recorded = current.getRecordedDiff(previous);
+    if (recorded != null) {
+      return recorded;
+    }
+    ImmutableSet.Builder<TargetKey> added = ImmutableSet.builder();
+    ImmutableSet.Builder<TargetKey> changed = ImmutableSet.builder();
+    ImmutableSet.Builder<TargetKey> removed = ImmutableSet.builder();
+    current
+        .stream()
+        .forEach(
+            target -> {
+              TargetIdeInfo previousTarget = previous.get(target.getKey());
+              if (previousTarget == null) {
+                added.add(target.getKey());
+              } else if (previousTarget != target && !previousTarget.equals(target)) {
+                // partial syncs generally reuse target objects, so check identity first
+                changed.add(target.getKey());
+              }
+            });
+    for (TargetKey key : previous.keys()) {
+      if (!current.contains(key)) {
+        removed.add(key);
+      }
+    }
+    return new TargetMapDiff(added.build(), changed.build(), removed.build());
+  }
+
+  /**
+   * Records the diff between a target map and one derived from it, given the keys of all targets
+   * which may have been added, changed or removed. Only those targets are compared, and later calls
+   * to {@link #compute} between the two target maps return the recorded diff.
+   */
+  public static TargetMapDiff record(
+      TargetMap previous, TargetMap current, Collection<TargetKey> touchedKeys) {
+    ImmutableSet.Builder<TargetKey> added = ImmutableSet.builder();
+    ImmutableSet.Builder<TargetKey> changed = ImmutableSet.builder();
+    ImmutableSet.Builder<TargetKey> removed = ImmutableSet.builder();
+    for (TargetKey key : touchedKeys) {
+      TargetIdeInfo previousTarget = previous.get(key);
+      TargetIdeInfo target = current.get(key);
+      if (previousTarget == null) {
+        if (target != null) {
+          added.add(key);
+        }
+      } else if (target == null) {
+        removed.add(key);
+      } else if (previousTarget != target && !previousTarget.equals(target)) {
+        changed.add(key);
+      }
+    }
+    TargetMapDiff diff = new TargetMapDiff(added.build(), changed.build(), removed.build());
+    current.recordDiff(previous, diff);
+    return diff;
+  }
+
+  public boolean isEmpty() {
+    return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+  }
+
+  /** Returns the keys of targets which are present in the new target map and differ from before. */
+  public ImmutableSet<TargetKey> addedOrChanged() {
+    return ImmutableSet.<TargetKey>builder().addAll(added).addAll(changed).build();
+  }
+
+  /** Returns the keys of targets present in the old target map which are no longer current. */
+  public ImmutableSet<TargetKey> changedOrRemoved() {
+    return ImmutableSet.<TargetKey>builder().addAll(changed).addAll(removed).build();
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/** An alternative backing store for a {@link TargetMap}, which decodes targets on demand. */
+interface TargetStore {
+
+  int size();
+
+  boolean contains(TargetKey key);
+
+  @Nullable
+  TargetIdeInfo get(TargetKey key);
+
+  /** Returns the keys of the target's direct dependencies. */
+  ImmutableList<TargetKey> getDependencyKeys(TargetKey key);
+
+  /** Returns the keys of all targets, without decoding them. */
+  ImmutableSet<TargetKey> keys();
+
+  /** Returns all targets, decoding them one at a time as the stream is consumed. */
+  Stream<TargetIdeInfo> stream();
+
+  /** Returns the protos for all targets, in the same order as {@link #keys}. */
+  ImmutableList<IntellijIdeInfo.TargetIdeInfo> toProtos();
+
+  /** Returns a fully decoded map of all targets. */
+  ImmutableMap<TargetKey, TargetIdeInfo> materialize();
+}
@@ -68,10 +68,24 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
   @VisibleForTesting
   public static BlazeProjectData fromProto(
       BuildSystem buildSystem, ProjectData.BlazeProjectData proto) {
+    return fromProto(buildSystem, proto, parseTargetData(proto));
+  }
+
+  /**
+   * Parses everything other than the target map from the proto, using the given targets. Only
+   * supports the current version of project data.
+   */
+  static BlazeProjectData fromProto(
+      BuildSystem buildSystem, ProjectData.BlazeProjectData proto, TargetMap targetMap) {
+    return fromProto(
+        buildSystem, proto, ProjectTargetData.fromProto(proto.getTargetData(), targetMap));
+  }
+
+  private static BlazeProjectData fromProto(
+      BuildSystem buildSystem, ProjectData.BlazeProjectData proto, ProjectTargetData targetData) {
     BlazeInfo blazeInfo = BlazeInfo.fromProto(buildSystem, proto.getBlazeInfo());
     WorkspacePathResolver workspacePathResolver =
         WorkspacePathResolver.fromProto(proto.getWorkspacePathResolver());
-    ProjectTargetData targetData = parseTargetData(proto);
     return new BlazeProjectData(
         targetData,
         blazeInfo,
@@ -99,8 +113,17 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
 
   @Override
   public ProjectData.BlazeProjectData toProto() {
+    return toProto(targetData.toProto());
+  }
+
+  /** Returns the proto representation of everything other than the target map. */
+  ProjectData.BlazeProjectData toProtoWithoutTargetMap() {
+    return toProto(targetData.toProtoWithoutTargetMap());
+  }
+
+  private ProjectData.BlazeProjectData toProto(ProjectData.TargetData targetDataProto) {
     return ProjectData.BlazeProjectData.newBuilder()
-        .setTargetData(targetData.toProto())
+        .setTargetData(targetDataProto)
         .setBlazeInfo(blazeInfo.toProto())
         .setBlazeVersionData(blazeVersionData.toProto())
         .setWorkspacePathResolver(workspacePathResolver.toProto())
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.devtools.intellij.model.ProjectData.ProjectDataCacheIndex;
+import com.google.devtools.intellij.model.ProjectData.ProjectDataCacheIndex.Section;
+import com.google.devtools.intellij.model.ProjectData.ProjectDataCacheIndex.TargetBlock;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.intellij.openapi.util.SystemInfo;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A sectioned on-disk format for {@link BlazeProjectData}, indexed by {@link TargetKey}.
+ *
+ * <p>The file consists of a header (magic number and format version), a section containing
+ * everything other than the target map, a series of target blocks each containing delimited {@link
+ * IntellijIdeInfo.TargetIdeInfo} protos, a {@link ProjectDataCacheIndex}, and finally a trailer
+ * giving the location of the index. Each section may be compressed independently.
+ *
+ * <p>When reading, the file is memory-mapped and target blocks are only decoded when one of their
+ * targets is first accessed, so the rest of the project data is available without parsing every
+ * target.
+ */
+public final class ProjectDataCacheFile {
+
+  private static final int MAGIC = 0x42504443; // 'BPDC'
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  // index offset and length
+  private static final int TRAILER_SIZE = 12;
+
+  private static final int TARGETS_PER_BLOCK = 256;
+
+  private ProjectDataCacheFile() {}
+
+  /** Reads project data from the given file. Targets are decoded on demand. */
+  public static BlazeProjectData read(BuildSystem buildSystem, File file) throws IOException {
+    ByteBuffer buffer = map(file);
+    if (buffer.limit() < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a project data cache file: " + file);
+    }
+    int version = buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported project data cache version: " + version);
+    }
+    Section indexSection =
+        Section.newBuilder()
+            .setOffset(buffer.getLong(buffer.limit() - TRAILER_SIZE))
+            .setLength(buffer.getInt(buffer.limit() - 4))
+            .build();
+    ProjectDataCacheIndex index =
+        ProjectDataCacheIndex.parseFrom(readSection(buffer, indexSection));
+
+    ImmutableList.Builder<ImmutableList<TargetKey>> blocks = ImmutableList.builder();
+    ImmutableList.Builder<Section> blockSections = ImmutableList.builder();
+    for (TargetBlock block : index.getTargetBlocksList()) {
+      blocks.add(
+          block.getTargetsList().stream()
+              .map(TargetKey::fromProto)
+              .collect(ImmutableList.toImmutableList()));
+      blockSections.add(block.getSection());
+    }
+    ImmutableList<Section> sections = blockSections.build();
+    TargetMap targetMap =
+        TargetMap.lazy(blocks.build(), i -> readTargetBlock(buffer, sections.get(i)));
+
+    ProjectData.BlazeProjectData proto =
+        ProjectData.BlazeProjectData.parseFrom(readSection(buffer, index.getProjectData()));
+    return BlazeProjectData.fromProto(buildSystem, proto, targetMap);
+  }
+
+  /** Writes the project data to the given file, replacing any existing file atomically. */
+  public static void write(BlazeProjectData projectData, File file) throws IOException {
+    File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    try (CountingOutputStream out =
+        new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+
+      ProjectDataCacheIndex.Builder index = ProjectDataCacheIndex.newBuilder();
+      index.setProjectData(
+          writeSection(out, projectData.toProtoWithoutTargetMap().toByteArray(), true));
+
+      List<IntellijIdeInfo.TargetIdeInfo> targets =
+          projectData.getTargetMap().toProto().getTargetsList();
+      for (List<IntellijIdeInfo.TargetIdeInfo> block :
+          Lists.partition(targets, TARGETS_PER_BLOCK)) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TargetBlock.Builder blockIndex = TargetBlock.newBuilder();
+        for (IntellijIdeInfo.TargetIdeInfo target : block) {
+          target.writeDelimitedTo(bytes);
+          blockIndex.addTargets(target.getKey());
+        }
+        index.addTargetBlocks(
+            blockIndex.setSection(writeSection(out, bytes.toByteArray(), true)));
+      }
+
+      Section indexSection = writeSection(out, index.build().toByteArray(), false);
+      data.writeLong(indexSection.getOffset());
+      data.writeInt(indexSection.getLength());
+    }
+    Files.move(
+        tempFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Section writeSection(CountingOutputStream out, byte[] bytes, boolean compress)
+      throws IOException {
+    long offset = out.getCount();
+    byte[] contents = compress ? compress(bytes) : bytes;
+    out.write(contents);
+    return Section.newBuilder()
+        .setOffset(offset)
+        .setLength(contents.length)
+        .setCompressed(compress)
+        .build();
+  }
+
+  private static byte[] compress(byte[] bytes) throws IOException {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater)) {
+        stream.write(bytes);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Project data cache file too large to map: " + file);
+      }
+      if (!SystemInfo.isWindows) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      // on Windows, a mapped file can't be replaced until the mapping is garbage collected
+      ByteBuffer buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) == -1) {
+          throw new EOFException("Unexpected end of file: " + file);
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  private static byte[] readSection(ByteBuffer buffer, Section section) throws IOException {
+    long end = section.getOffset() + section.getLength();
+    if (section.getOffset() < HEADER_SIZE
+        || section.getLength() < 0
+        || end > buffer.limit() - TRAILER_SIZE) {
+      throw new IOException("Corrupt project data cache file: invalid section " + section);
+    }
+    // duplicate the buffer so concurrent reads don't share a position
+    ByteBuffer slice = buffer.duplicate();
+    slice.position((int) section.getOffset());
+    byte[] bytes = new byte[section.getLength()];
+    slice.get(bytes);
+    if (!section.getCompressed()) {
+      return bytes;
+    }
+    try (InputStream stream = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+      return ByteStreams.toByteArray(stream);
+    }
+  }
+
+  private static ImmutableList<IntellijIdeInfo.TargetIdeInfo> readTargetBlock(
+      ByteBuffer buffer, Section section) {
+    try {
+      InputStream stream = new ByteArrayInputStream(readSection(buffer, section));
+      ImmutableList.Builder<IntellijIdeInfo.TargetIdeInfo> targets = ImmutableList.builder();
+      IntellijIdeInfo.TargetIdeInfo target;
+      while ((target = IntellijIdeInfo.TargetIdeInfo.parseDelimitedFrom(stream)) != null) {
+        targets.add(target);
+      }
+      return targets.build();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.devtools.intellij.model.ProjectData.BlazeIdeInterfaceStateDelta;
+import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
+import com.google.devtools.intellij.model.ProjectData.ProjectDataDelta;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * An append-only log of changes to project data, relative to a base {@link ProjectDataCacheFile}.
+ *
+ * <p>Each sync appends a single {@link ProjectDataDelta} containing only the targets, ide interface
+ * state entries, sync state sections and remote outputs which changed, so saving the results of a
+ * small partial sync doesn't require rewriting the entire cache file. Sync state sections holding
+ * per-target or per-file entries (jdeps and java source packages) are also diffed per entry. Once the log grows large relative to the base file, it
+ * should be compacted by writing a new base file and clearing the log.
+ *
+ * <p>Deltas record the length and modification time of the base file they apply to, so a log left
+ * over from an earlier base file is ignored.
+ */
+public final class ProjectDataDeltaLog {
+
+  private static final Logger logger = Logger.getInstance(ProjectDataDeltaLog.class);
+
+  private final File file;
+  private final File baseFile;
+
+  // the length of the log up to the end of the last complete delta. Anything beyond this (e.g. a
+  // delta partially written before a crash) is overwritten by the next append.
+  private long validLength = 0;
+
+  public ProjectDataDeltaLog(File file, File baseFile) {
+    this.file = file;
+    this.baseFile = baseFile;
+  }
+
+  /** Returns the size of the log, in bytes. */
+  public long size() {
+    return validLength;
+  }
+
+  /** Returns the time the log was last appended to, or 0 if there's no log. */
+  public long lastModified() {
+    return file.lastModified();
+  }
+
+  /**
+   * Applies the changes recorded in the log to the project data read from the base file. Targets
+   * which aren't changed by the log are left undecoded.
+   */
+  public BlazeProjectData replay(BuildSystem buildSystem, BlazeProjectData base)
+      throws IOException {
+    validLength = 0;
+    if (!file.exists()) {
+      return base;
+    }
+    ByteArrayInputStream input = new ByteArrayInputStream(Files.readAllBytes(file.toPath()));
+    int length = input.available();
+
+    ProjectData.BlazeProjectData baseProto = base.toProtoWithoutTargetMap();
+    ProjectData.BlazeProjectData metadata = baseProto;
+    ProjectData.SyncState.Builder syncState = baseProto.getSyncState().toBuilder();
+    Map<String, ProjectData.OutputArtifact> remoteOutputs =
+        byKey(
+            baseProto.getTargetData().getRemoteOutputs().getArtifactsList(),
+            ProjectData.OutputArtifact::getRelativePath);
+    ProjectData.BlazeIdeInterfaceState.Builder ideInterfaceState =
+        baseProto.getTargetData().hasIdeInterfaceState()
+            ? baseProto.getTargetData().getIdeInterfaceState().toBuilder()
+            : null;
+    Map<TargetKey, IntellijIdeInfo.TargetIdeInfo> updatedTargets = new LinkedHashMap<>();
+    Set<TargetKey> removedTargets = new HashSet<>();
+    boolean changed = false;
+    while (true) {
+      ProjectDataDelta delta;
+      try {
+        delta = ProjectDataDelta.parseDelimitedFrom(input);
+      } catch (InvalidProtocolBufferException e) {
+        logger.warn("Ignoring incomplete project data delta", e);
+        break;
+      }
+      if (delta == null) {
+        break;
+      }
+      if (!appliesToBaseFile(delta)) {
+        logger.info("Ignoring project data deltas from a previous cache file");
+        validLength = 0;
+        return base;
+      }
+      validLength = length - input.available();
+      changed = true;
+
+      metadata = delta.getProjectData();
+      for (int fieldNumber : delta.getRemovedSyncStateSectionsList()) {
+        FieldDescriptor field =
+            ProjectData.SyncState.getDescriptor().findFieldByNumber(fieldNumber);
+        if (field != null) {
+          syncState.clearField(field);
+        }
+      }
+      delta.getUpdatedSyncState().getAllFields().forEach(syncState::setField);
+      applyEntryChanges(syncState, delta);
+      applyEntries(
+          remoteOutputs,
+          delta.getUpdatedRemoteOutputsList(),
+          delta.getRemovedRemoteOutputsList(),
+          ProjectData.OutputArtifact::getRelativePath);
+      ideInterfaceState = applyIdeInterfaceState(ideInterfaceState, delta);
+      for (IntellijIdeInfo.TargetKey proto : delta.getRemovedTargetsList()) {
+        TargetKey key = TargetKey.fromProto(proto);
+        updatedTargets.remove(key);
+        removedTargets.add(key);
+      }
+      for (IntellijIdeInfo.TargetIdeInfo target : delta.getUpdatedTargetsList()) {
+        TargetKey key = TargetKey.fromProto(target.getKey());
+        removedTargets.remove(key);
+        updatedTargets.put(key, target);
+      }
+    }
+    if (!changed) {
+      return base;
+    }
+
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> decodedTargets = ImmutableMap.builder();
+    for (IntellijIdeInfo.TargetIdeInfo proto : updatedTargets.values()) {
+      TargetIdeInfo target = TargetIdeInfo.fromProto(proto);
+      if (target != null) {
+        decodedTargets.put(target.getKey(), target);
+      } else {
+        removedTargets.add(TargetKey.fromProto(proto.getKey()));
+      }
+    }
+    TargetMap targetMap =
+        base.getTargetMap()
+            .withChanges(decodedTargets.build(), ImmutableSet.copyOf(removedTargets));
+
+    ProjectData.TargetData.Builder targetData =
+        metadata.getTargetData().toBuilder()
+            .setRemoteOutputs(
+                ProjectData.RemoteOutputArtifacts.newBuilder()
+                    .addAllArtifacts(remoteOutputs.values()));
+    if (ideInterfaceState != null) {
+      targetData.setIdeInterfaceState(ideInterfaceState);
+    } else {
+      targetData.clearIdeInterfaceState();
+    }
+    ProjectData.BlazeProjectData proto =
+        metadata.toBuilder().setSyncState(syncState).setTargetData(targetData).build();
+    return BlazeProjectData.fromProto(buildSystem, proto, targetMap);
+  }
+
+  /**
+   * Applies the changes to the ide interface state recorded in a delta. Returns null if the project
+   * data no longer has an ide interface state.
+   */
+  @Nullable
+  private static ProjectData.BlazeIdeInterfaceState.Builder applyIdeInterfaceState(
+      @Nullable ProjectData.BlazeIdeInterfaceState.Builder state, ProjectDataDelta delta) {
+    ProjectData.TargetData targetData = delta.getProjectData().getTargetData();
+    if (targetData.hasIdeInterfaceState()) {
+      // written in full by an earlier version
+      return targetData.getIdeInterfaceState().toBuilder();
+    }
+    if (!delta.hasIdeInterfaceState()) {
+      return null;
+    }
+    BlazeIdeInterfaceStateDelta changes = delta.getIdeInterfaceState();
+    if (state == null) {
+      state = ProjectData.BlazeIdeInterfaceState.newBuilder();
+    }
+    changes.getRemovedFileToTargetList().forEach(state::removeFileToTarget);
+    state.putAllFileToTarget(changes.getUpdatedFileToTargetMap());
+    Map<String, LocalFileOrOutputArtifact> files =
+        byKey(state.getIdeInfoFilesList(), ProjectDataDeltaLog::artifactKey);
+    applyEntries(
+        files,
+        changes.getUpdatedIdeInfoFilesList(),
+        changes.getRemovedIdeInfoFilesList(),
+        ProjectDataDeltaLog::artifactKey);
+    return state.clearIdeInfoFiles().addAllIdeInfoFiles(files.values());
+  }
+
+  /** Applies the per-entry changes to sync state sections recorded in a delta. */
+  private static void applyEntryChanges(
+      ProjectData.SyncState.Builder syncState, ProjectDataDelta delta) {
+    if (delta.getUpdatedJdepsCount() > 0 || delta.getRemovedJdepsCount() > 0) {
+      ProjectData.TargetToJdepsMap.Builder jdeps =
+          syncState.getJdepsStateBuilder().getTargetToJdepsBuilder();
+      Map<IntellijIdeInfo.TargetKey, ProjectData.TargetToJdepsMap.Entry> entries =
+          byKey(jdeps.getEntriesList(), ProjectData.TargetToJdepsMap.Entry::getKey);
+      applyEntries(
+          entries,
+          delta.getUpdatedJdepsList(),
+          delta.getRemovedJdepsList(),
+          ProjectData.TargetToJdepsMap.Entry::getKey);
+      jdeps.clearEntries().addAllEntries(entries.values());
+    }
+    if (delta.getUpdatedJavaSourcePackagesCount() > 0
+        || delta.getRemovedJavaSourcePackagesCount() > 0) {
+      ProjectData.JavaSourcePackages.Builder packages = syncState.getJavaSourcePackagesBuilder();
+      Map<String, ProjectData.JavaSourcePackages.Entry> entries =
+          byKey(packages.getEntriesList(), ProjectData.JavaSourcePackages.Entry::getFilePath);
+      applyEntries(
+          entries,
+          delta.getUpdatedJavaSourcePackagesList(),
+          delta.getRemovedJavaSourcePackagesList(),
+          ProjectData.JavaSourcePackages.Entry::getFilePath);
+      packages.clearEntries().addAllEntries(entries.values());
+    }
+  }
+
+  /**
+   * Appends the changes from the previously persisted project data to the current project data.
+   * The base file must not be modified between replaying or clearing the log and appending to it.
+   */
+  public void append(BlazeProjectData previous, BlazeProjectData current) throws IOException {
+    ProjectDataDelta delta = computeDelta(previous, current);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    delta.writeDelimitedTo(bytes);
+    try (FileChannel channel =
+        FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.truncate(validLength);
+      channel.position(validLength);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    validLength += bytes.size();
+  }
+
+  /** Removes all deltas from the log, e.g. after writing a new base file. */
+  public void clear() throws IOException {
+    Files.deleteIfExists(file.toPath());
+    validLength = 0;
+  }
+
+  private boolean appliesToBaseFile(ProjectDataDelta delta) {
+    return delta.getBaseLength() == baseFile.length()
+        && delta.getBaseModifiedTime() == baseFile.lastModified();
+  }
+
+  private ProjectDataDelta computeDelta(BlazeProjectData previous, BlazeProjectData current) {
+    ProjectDataDelta.Builder delta =
+        ProjectDataDelta.newBuilder()
+            .setBaseLength(baseFile.length())
+            .setBaseModifiedTime(baseFile.lastModified());
+
+    TargetMap currentTargets = current.getTargetMap();
+    TargetMapDiff diff = TargetMapDiff.compute(previous.getTargetMap(), currentTargets);
+    for (TargetKey key : diff.addedOrChanged()) {
+      delta.addUpdatedTargets(currentTargets.get(key).toProto());
+    }
+    diff.removed.forEach(key -> delta.addRemovedTargets(key.toProto()));
+
+    ProjectData.BlazeProjectData previousProto = previous.toProtoWithoutTargetMap();
+    ProjectData.BlazeProjectData currentProto = current.toProtoWithoutTargetMap();
+
+    ProjectData.SyncState previousSyncState = previousProto.getSyncState();
+    ProjectData.SyncState currentSyncState = currentProto.getSyncState();
+    ProjectData.SyncState.Builder updatedSyncState = ProjectData.SyncState.newBuilder();
+    for (FieldDescriptor field : ProjectData.SyncState.getDescriptor().getFields()) {
+      boolean hadSection = previousSyncState.hasField(field);
+      if (!currentSyncState.hasField(field)) {
+        if (hadSection) {
+          delta.addRemovedSyncStateSections(field.getNumber());
+        }
+        continue;
+      }
+      Object section = currentSyncState.getField(field);
+      if (hadSection && section.equals(previousSyncState.getField(field))) {
+        continue;
+      }
+      if (!hadSection || !diffSectionEntries(field, previousSyncState, currentSyncState, delta)) {
+        updatedSyncState.setField(field, section);
+      }
+    }
+    delta.setUpdatedSyncState(updatedSyncState);
+
+    diffEntries(
+        previousProto.getTargetData().getRemoteOutputs().getArtifactsList(),
+        currentProto.getTargetData().getRemoteOutputs().getArtifactsList(),
+        ProjectData.OutputArtifact::getRelativePath,
+        delta::addUpdatedRemoteOutputs,
+        delta::addRemovedRemoteOutputs);
+
+    if (currentProto.getTargetData().hasIdeInterfaceState()) {
+      delta.setIdeInterfaceState(
+          diffIdeInterfaceState(
+              previousProto.getTargetData().getIdeInterfaceState(),
+              currentProto.getTargetData().getIdeInterfaceState()));
+    }
+
+    ProjectData.BlazeProjectData.Builder projectData = currentProto.toBuilder().clearSyncState();
+    projectData.getTargetDataBuilder().clearRemoteOutputs().clearIdeInterfaceState();
+    return delta.setProjectData(projectData).build();
+  }
+
+  private static BlazeIdeInterfaceStateDelta diffIdeInterfaceState(
+      ProjectData.BlazeIdeInterfaceState previous, ProjectData.BlazeIdeInterfaceState current) {
+    BlazeIdeInterfaceStateDelta.Builder delta = BlazeIdeInterfaceStateDelta.newBuilder();
+    Map<String, IntellijIdeInfo.TargetKey> previousTargets = previous.getFileToTargetMap();
+    Map<String, IntellijIdeInfo.TargetKey> currentTargets = current.getFileToTargetMap();
+    currentTargets.forEach(
+        (file, target) -> {
+          if (!target.equals(previousTargets.get(file))) {
+            delta.putUpdatedFileToTarget(file, target);
+          }
+        });
+    previousTargets.keySet().stream()
+        .filter(file -> !currentTargets.containsKey(file))
+        .forEach(delta::addRemovedFileToTarget);
+    diffEntries(
+        previous.getIdeInfoFilesList(),
+        current.getIdeInfoFilesList(),
+        ProjectDataDeltaLog::artifactKey,
+        delta::addUpdatedIdeInfoFiles,
+        delta::addRemovedIdeInfoFiles);
+    return delta.build();
+  }
+
+  /**
+   * Records the changes to a sync state section made up of per-target or per-file entries, entry
+   * by entry. Returns false if the section isn't diffed per entry, or changed in some other way,
+   * in which case it's written in full.
+   */
+  private static boolean diffSectionEntries(
+      FieldDescriptor field,
+      ProjectData.SyncState previous,
+      ProjectData.SyncState current,
+      ProjectDataDelta.Builder delta) {
+    switch (field.getNumber()) {
+      case ProjectData.SyncState.JDEPS_STATE_FIELD_NUMBER:
+        {
+          ProjectData.JdepsState previousJdeps = previous.getJdepsState();
+          ProjectData.JdepsState currentJdeps = current.getJdepsState();
+          if (!withoutJdepsEntries(previousJdeps).equals(withoutJdepsEntries(currentJdeps))) {
+            return false;
+          }
+          diffEntries(
+              previousJdeps.getTargetToJdeps().getEntriesList(),
+              currentJdeps.getTargetToJdeps().getEntriesList(),
+              ProjectData.TargetToJdepsMap.Entry::getKey,
+              delta::addUpdatedJdeps,
+              delta::addRemovedJdeps);
+          return true;
+        }
+      case ProjectData.SyncState.JAVA_SOURCE_PACKAGES_FIELD_NUMBER:
+        diffEntries(
+            previous.getJavaSourcePackages().getEntriesList(),
+            current.getJavaSourcePackages().getEntriesList(),
+            ProjectData.JavaSourcePackages.Entry::getFilePath,
+            delta::addUpdatedJavaSourcePackages,
+            delta::addRemovedJavaSourcePackages);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static ProjectData.JdepsState withoutJdepsEntries(ProjectData.JdepsState state) {
+    return state.toBuilder().clearTargetToJdeps().build();
+  }
+
+  /**
+   * Records the entries which were added or changed, and the keys of those which were removed.
+   */
+  private static <K, T> void diffEntries(
+      List<T> previous,
+      List<T> current,
+      Function<T, K> key,
+      Consumer<T> updated,
+      Consumer<K> removed) {
+    Map<K, T> previousByKey = byKey(previous, key);
+    Set<K> currentKeys = new HashSet<>();
+    for (T entry : current) {
+      K entryKey = key.apply(entry);
+      currentKeys.add(entryKey);
+      if (!entry.equals(previousByKey.get(entryKey))) {
+        updated.accept(entry);
+      }
+    }
+    previousByKey.keySet().stream().filter(k -> !currentKeys.contains(k)).forEach(removed);
+  }
+
+  /** Applies the entries recorded by {@link #diffEntries}. */
+  private static <K, T> void applyEntries(
+      Map<K, T> entries, List<T> updated, List<K> removed, Function<T, K> key) {
+    removed.forEach(entries::remove);
+    updated.forEach(entry -> entries.put(key.apply(entry), entry));
+  }
+
+  private static <K, T> Map<K, T> byKey(List<T> entries, Function<T, K> key) {
+    Map<K, T> map = new LinkedHashMap<>();
+    entries.forEach(entry -> map.put(key.apply(entry), entry));
+    return map;
+  }
+
+  private static String artifactKey(LocalFileOrOutputArtifact artifact) {
+    if (artifact.hasArtifact()) {
+      return artifact.getArtifact().getRelativePath();
+    }
+    ProjectData.LocalFile file = artifact.getLocalFile();
+    return !file.getRelativePath().isEmpty() ? file.getRelativePath() : file.getPath();
+  }
+}
@@ -15,13 +15,15 @@
  */
 package com.google.idea.blaze.base.model;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.devtools.intellij.model.ProjectData.TargetData;
 import com.google.idea.blaze.base.ideinfo.ProtoWrapper;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
 import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import java.util.Objects;
@@ -45,7 +47,11 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
   }
 
   public static ProjectTargetData fromProto(ProjectData.TargetData proto) {
-    TargetMap targetMap = TargetMap.fromProto(proto.getTargetMap());
+    return fromProto(proto, TargetMap.fromProto(proto.getTargetMap()));
+  }
+
+  /** Parses everything other than the target map from the proto, using the given targets. */
+  static ProjectTargetData fromProto(ProjectData.TargetData proto, TargetMap targetMap) {
     BlazeIdeInterfaceState ideInterfaceState =
         proto.hasIdeInterfaceState()
             ? BlazeIdeInterfaceState.fromProto(proto.getIdeInterfaceState())
@@ -56,10 +62,13 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
 
   @Override
   public TargetData toProto() {
+    return toProtoWithoutTargetMap().toBuilder().setTargetMap(targetMap.toProto()).build();
+  }
+
+  /** Returns the proto representation of everything other than the target map. */
+  TargetData toProtoWithoutTargetMap() {
     ProjectData.TargetData.Builder builder =
-        ProjectData.TargetData.newBuilder()
-            .setTargetMap(targetMap.toProto())
-            .setRemoteOutputs(remoteOutputs.toProto());
+        ProjectData.TargetData.newBuilder().setRemoteOutputs(remoteOutputs.toProto());
     ProtoWrapper.unwrapAndSetIfNotNull(builder::setIdeInterfaceState, ideInterfaceState);
     return builder.build();
   }
@@ -70,7 +79,14 @@ public final class ProjectTargetData implements ProtoWrapper<ProjectData.TargetD
   public ProjectTargetData filter(
       Predicate<TargetKey> targetsToKeep, WorkspaceLanguageSettings settings) {
     TargetMap newTargets =
-        new TargetMap(ImmutableMap.copyOf(Maps.filterKeys(targetMap.map(), targetsToKeep::test)));
+        TargetMap.create(
+            targetMap.keys().stream()
+                .filter(targetsToKeep)
+                .collect(toImmutableMap(key -> key, targetMap::get)));
+    TargetMapDiff.record(
+        targetMap,
+        newTargets,
+        targetMap.keys().stream().filter(targetsToKeep.negate()).collect(toImmutableList()));
     BlazeIdeInterfaceState newState =
         ideInterfaceState != null ? ideInterfaceState.filter(targetsToKeep) : null;
     RemoteOutputArtifacts newOutputs = remoteOutputs.removeUntrackedOutputs(newTargets, settings);
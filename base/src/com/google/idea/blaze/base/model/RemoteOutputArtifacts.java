@@ -112,7 +112,7 @@ public final class RemoteOutputArtifacts
             .filter(p -> p.isActive(settings))
             .collect(toImmutableList());
     ImmutableMap<String, RemoteOutputArtifact> tracked =
-        targets.targets().stream()
+        targets.stream()
             .flatMap(t -> artifactsToTrack(providers, t))
             .distinct()
             .map(this::findRemoteOutput)
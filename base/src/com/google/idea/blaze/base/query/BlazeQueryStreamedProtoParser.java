@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
+import com.google.idea.blaze.base.dependencies.TargetInfo;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.query.BlazeQueryLabelKindParser.RuleTypeAndLabel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Collects the blaze targets output by 'blaze query --output=streamed_proto "targets"'.
+ *
+ * <p>The output is a sequence of length-delimited {@link Target} messages. Each message is parsed
+ * as soon as it has been fully written, so only a partial message is ever buffered.
+ */
+public class BlazeQueryStreamedProtoParser extends OutputStream {
+
+  private final ImmutableList.Builder<TargetInfo> outputList = ImmutableList.builder();
+  private final Predicate<RuleTypeAndLabel> targetFilter;
+
+  private byte[] buffer = new byte[8192];
+  private int bufferLength = 0;
+
+  /** @param targetFilter Ignore targets failing this predicate. */
+  public BlazeQueryStreamedProtoParser(Predicate<RuleTypeAndLabel> targetFilter) {
+    this.targetFilter = targetFilter;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    if (bufferLength + len > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + len));
+    }
+    System.arraycopy(b, off, buffer, bufferLength, len);
+    bufferLength += len;
+    parseCompleteMessages();
+  }
+
+  private void parseCompleteMessages() throws IOException {
+    int start = 0;
+    while (start < bufferLength) {
+      // the varint-encoded length of the next message
+      int pos = start;
+      long size = 0;
+      boolean sizeComplete = false;
+      for (int shift = 0; pos < bufferLength; shift += 7) {
+        if (shift >= 32) {
+          throw new IOException("Malformed streamed_proto output: invalid message length");
+        }
+        byte b = buffer[pos++];
+        size |= (long) (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          sizeComplete = true;
+          break;
+        }
+      }
+      if (!sizeComplete || bufferLength - pos < size) {
+        break;
+      }
+      processTarget(Target.parser().parseFrom(buffer, pos, (int) size));
+      start = pos + (int) size;
+    }
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, bufferLength - start);
+      bufferLength -= start;
+    }
+  }
+
+  private void processTarget(Target target) {
+    if (!target.hasRule()) {
+      return;
+    }
+    Rule rule = target.getRule();
+    String ruleType = rule.getRuleClass();
+    String labelString = rule.getName();
+    if (targetFilter.test(new RuleTypeAndLabel(ruleType, labelString))) {
+      Label label = Label.createIfValid(labelString);
+      if (label != null) {
+        outputList.add(TargetInfo.builder(label, ruleType).build());
+      }
+    }
+  }
+
+  /** Returns all targets parsed to this point. */
+  public synchronized ImmutableList<TargetInfo> getTargets() {
+    return outputList.build();
+  }
+
+  public ImmutableList<TargetExpression> getTargetLabels() {
+    return getTargets().stream().map(info -> info.label).collect(toImmutableList());
+  }
+}
@@ -23,43 +23,57 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import javax.annotation.Nullable;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.annotation.XmlAnyElement;
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlMixed;
-import javax.xml.bind.annotation.XmlRootElement;
-
-/** Used to parse the test.xml generated by the blaze/bazel testing framework. */
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Used to parse the test.xml generated by the blaze/bazel testing framework.
+ *
+ * <p>The XML is read with a streaming (StAX) parser, building the test suites directly rather than
+ * unmarshalling an intermediate document. Unknown elements are skipped.
+ */
 public class BlazeXmlSchema {
 
-  private static final JAXBContext CONTEXT;
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
 
-  static {
-    try {
-      CONTEXT = JAXBContext.newInstance(TestSuite.class, TestSuites.class);
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    // merge adjacent text and CDATA sections
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
   }
 
   public static TestSuite parse(InputStream input) {
     try {
-      Object parsed = CONTEXT.createUnmarshaller().unmarshal(input);
-      return parsed instanceof TestSuites
-          ? ((TestSuites) parsed).convertToTestSuite()
-          : (TestSuite) parsed;
-
-    } catch (JAXBException e) {
+      XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+      try {
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+            throw new XMLStreamException("No root element");
+          }
+        }
+        switch (reader.getLocalName()) {
+          case "testsuites":
+            return parseTestSuites(reader).convertToTestSuite();
+          case "testsuite":
+            return parseTestSuite(reader);
+          default:
+            throw new XMLStreamException("Unexpected root element: " + reader.getLocalName());
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
       throw new RuntimeException("Failed to parse test XML", e);
     }
   }
 
   // optional wrapping XML element. Some test runners don't include it.
-  @XmlRootElement(name = "testsuites")
   static class TestSuites {
-    @XmlElement(name = "testsuite")
     List<TestSuite> testSuites = Lists.newArrayList();
 
     TestSuite convertToTestSuite() {
@@ -70,36 +84,28 @@ public class BlazeXmlSchema {
   }
 
   /** XML output by blaze test runners. */
-  @XmlRootElement(name = "testsuite")
   public static class TestSuite {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public int tests;
-    @XmlAttribute public int failures;
-    @XmlAttribute public int errors;
-    @XmlAttribute public int skipped;
-    @XmlAttribute public int disabled;
-    @XmlAttribute public double time;
-
-    @XmlElement(name = "system-out")
+    public String name;
+    public String classname;
+    public int tests;
+    public int failures;
+    public int errors;
+    public int skipped;
+    public int disabled;
+    public double time;
+
     public String sysOut;
 
-    @XmlElement(name = "system-err")
     public String sysErr;
 
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped error;
 
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped failure;
 
-    @XmlElement(name = "testsuite")
     public List<TestSuite> testSuites = Lists.newArrayList();
 
-    @XmlElement(name = "testdecorator")
     List<TestSuite> testDecorators = Lists.newArrayList();
 
-    @XmlElement(name = "testcase")
     public List<TestCase> testCases = Lists.newArrayList();
 
     /** Used to merge test suites from a single target, split across multiple shards */
@@ -139,25 +145,20 @@ public class BlazeXmlSchema {
 
   /** Individual test case XML output by blaze test runners. */
   public static class TestCase {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public String status;
-    @XmlAttribute public String result;
-    @XmlAttribute public String time;
+    public String name;
+    public String classname;
+    public String status;
+    public String result;
+    public String time;
 
-    @XmlElement(name = "system-out")
     String sysOut;
 
-    @XmlElement(name = "system-err")
     String sysErr;
 
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> errors = Lists.newArrayList();
 
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> failures = Lists.newArrayList();
 
-    @XmlElement(name = "skipped", type = ErrorOrFailureOrSkipped.class)
     public ErrorOrFailureOrSkipped skipped;
   }
 
@@ -168,30 +169,248 @@ public class BlazeXmlSchema {
     }
     return err.content.stream()
         .filter(Objects::nonNull)
-        .map(Object::toString)
         .map(String::trim)
         .filter(s -> !s.isEmpty())
         .collect(joining("\n"));
   }
 
   static class ErrorOrFailureOrSkipped {
-    // Can't use @XmlValue with @XmlElement
-    @XmlMixed
-    @XmlAnyElement(lax = true)
-    private List<Object> content;
+    // the text content, split around any child elements. Null if there's no text
+    @Nullable private List<String> content;
 
-    @XmlAttribute String message;
-    @XmlAttribute String type;
+    String message;
+    String type;
 
-    @XmlElement(name = "expected", type = Values.class)
     Values expected;
 
-    @XmlElement(name = "actual", type = Values.class)
     Values actual;
   }
 
   static class Values {
-    @XmlElement(name = "value", type = String.class)
     List<String> values = new ArrayList<>();
   }
+
+  private static TestSuites parseTestSuites(XMLStreamReader reader) throws XMLStreamException {
+    TestSuites suites = new TestSuites();
+    while (nextChild(reader)) {
+      if (reader.getLocalName().equals("testsuite")) {
+        suites.testSuites.add(parseTestSuite(reader));
+      } else {
+        skipElement(reader);
+      }
+    }
+    return suites;
+  }
+
+  private static TestSuite parseTestSuite(XMLStreamReader reader) throws XMLStreamException {
+    TestSuite suite = new TestSuite();
+    suite.name = reader.getAttributeValue(null, "name");
+    suite.classname = reader.getAttributeValue(null, "classname");
+    suite.tests = parseInt(reader.getAttributeValue(null, "tests"));
+    suite.failures = parseInt(reader.getAttributeValue(null, "failures"));
+    suite.errors = parseInt(reader.getAttributeValue(null, "errors"));
+    suite.skipped = parseInt(reader.getAttributeValue(null, "skipped"));
+    suite.disabled = parseInt(reader.getAttributeValue(null, "disabled"));
+    suite.time = parseDouble(reader.getAttributeValue(null, "time"));
+    while (nextChild(reader)) {
+      switch (reader.getLocalName()) {
+        case "system-out":
+          suite.sysOut = readText(reader);
+          break;
+        case "system-err":
+          suite.sysErr = readText(reader);
+          break;
+        case "error":
+          suite.error = parseErrorOrFailureOrSkipped(reader);
+          break;
+        case "failure":
+          suite.failure = parseErrorOrFailureOrSkipped(reader);
+          break;
+        case "testsuite":
+          suite.testSuites.add(parseTestSuite(reader));
+          break;
+        case "testdecorator":
+          suite.testDecorators.add(parseTestSuite(reader));
+          break;
+        case "testcase":
+          suite.testCases.add(parseTestCase(reader));
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return suite;
+  }
+
+  private static TestCase parseTestCase(XMLStreamReader reader) throws XMLStreamException {
+    TestCase test = new TestCase();
+    test.name = reader.getAttributeValue(null, "name");
+    test.classname = reader.getAttributeValue(null, "classname");
+    test.status = reader.getAttributeValue(null, "status");
+    test.result = reader.getAttributeValue(null, "result");
+    test.time = reader.getAttributeValue(null, "time");
+    while (nextChild(reader)) {
+      switch (reader.getLocalName()) {
+        case "system-out":
+          test.sysOut = readText(reader);
+          break;
+        case "system-err":
+          test.sysErr = readText(reader);
+          break;
+        case "error":
+          test.errors.add(parseErrorOrFailureOrSkipped(reader));
+          break;
+        case "failure":
+          test.failures.add(parseErrorOrFailureOrSkipped(reader));
+          break;
+        case "skipped":
+          test.skipped = parseErrorOrFailureOrSkipped(reader);
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return test;
+  }
+
+  private static ErrorOrFailureOrSkipped parseErrorOrFailureOrSkipped(XMLStreamReader reader)
+      throws XMLStreamException {
+    ErrorOrFailureOrSkipped error = new ErrorOrFailureOrSkipped();
+    error.message = reader.getAttributeValue(null, "message");
+    error.type = reader.getAttributeValue(null, "type");
+    StringBuilder text = new StringBuilder();
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getText());
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          addContent(error, text);
+          switch (reader.getLocalName()) {
+            case "expected":
+              error.expected = parseValues(reader);
+              break;
+            case "actual":
+              error.actual = parseValues(reader);
+              break;
+            default:
+              skipElement(reader);
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+        case XMLStreamConstants.END_DOCUMENT:
+          addContent(error, text);
+          return error;
+        default: // continue
+      }
+    }
+  }
+
+  private static void addContent(ErrorOrFailureOrSkipped error, StringBuilder text) {
+    if (text.length() == 0) {
+      return;
+    }
+    if (error.content == null) {
+      error.content = new ArrayList<>();
+    }
+    error.content.add(text.toString());
+    text.setLength(0);
+  }
+
+  private static Values parseValues(XMLStreamReader reader) throws XMLStreamException {
+    Values values = new Values();
+    while (nextChild(reader)) {
+      if (reader.getLocalName().equals("value")) {
+        values.values.add(readText(reader));
+      } else {
+        skipElement(reader);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Advances to the next child element of the current element, returning false once the current
+   * element ends.
+   */
+  private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          return true;
+        case XMLStreamConstants.END_ELEMENT:
+        case XMLStreamConstants.END_DOCUMENT:
+          return false;
+        default: // continue
+      }
+    }
+  }
+
+  /** Returns the text content of the current element, ignoring any child elements. */
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (depth == 1) {
+            text.append(reader.getText());
+          }
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          return text.toString();
+        default: // continue
+      }
+    }
+    return text.toString();
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          return;
+        default: // continue
+      }
+    }
+  }
+
+  private static int parseInt(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double parseDouble(@Nullable String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
 }
@@ -15,12 +15,16 @@
  */
 package com.google.idea.blaze.base.run.smrunner;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
@@ -51,20 +55,31 @@ import com.intellij.execution.testframework.sm.runner.events.TestSuiteFinishedEv
 import com.intellij.execution.testframework.sm.runner.events.TestSuiteStartedEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 import jetbrains.buildServer.messages.serviceMessages.TestSuiteStarted;
 
-/** Converts blaze test runner xml logs to smRunner events. */
+/**
+ * Converts blaze test runner xml logs to smRunner events.
+ *
+ * <p>Where supported, each test action's results are reported as soon as blaze reports them,
+ * while the rest of the tests are still running. Any remaining results are reported once the blaze
+ * process terminates.
+ */
 public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConverter {
   private static final ErrorOrFailureOrSkipped NO_ERROR = new ErrorOrFailureOrSkipped();
   private static final BoolExperiment removeZeroRunTimeCheck =
       new BoolExperiment("remove.zero.run.time.check", true);
+  private static final BoolExperiment streamTestResults =
+      new BoolExperiment("blaze.test.results.streaming", true);
 
   {
     NO_ERROR.message = "No message"; // cannot be null
@@ -72,6 +87,14 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
 
   private final BlazeTestResultFinderStrategy testResultFinderStrategy;
 
+  /** Test results already reported while the blaze process was running. */
+  private final Set<BlazeTestResult> streamedResults = ConcurrentHashMap.newKeySet();
+
+  // guarded by 'this', which is also held while passing events to the processor
+  @Nullable private StreamingBepReader streamingReader;
+  private boolean terminated = false;
+  private boolean reporterAttached = false;
+
   public BlazeXmlToTestEventsConverter(
       String testFrameworkName,
       TestConsoleProperties testConsoleProperties,
@@ -80,11 +103,74 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
     this.testResultFinderStrategy = testResultFinderStrategy;
   }
 
+  @Override
+  public void onStartTesting() {
+    super.onStartTesting();
+    if (!streamTestResults.getValue()) {
+      return;
+    }
+    synchronized (this) {
+      if (terminated || streamingReader != null) {
+        return;
+      }
+      streamingReader =
+          testResultFinderStrategy
+              .streamTestResults(
+                  new StreamingBepReader.Listener() {
+                    @Override
+                    public void outputsReported(
+                        String outputGroup, ImmutableList<OutputArtifact> outputs) {}
+
+                    @Override
+                    public void testResultReported(BlazeTestResult result) {
+                      processStreamedTestResult(result);
+                    }
+                  },
+                  AppExecutorUtil.getAppExecutorService())
+              .orElse(null);
+    }
+  }
+
+  /** Called on the streaming reader thread as each test action completes. */
+  private void processStreamedTestResult(BlazeTestResult result) {
+    ParsedTargetResults parsed = parseTestXml(result.getLabel(), ImmutableList.of(result));
+    synchronized (this) {
+      if (terminated) {
+        // leave it to be reported with the remaining results
+        return;
+      }
+      attachReporter();
+      processParsedTestResults(parsed);
+      streamedResults.add(result);
+    }
+  }
+
+  private synchronized void attachReporter() {
+    if (!reporterAttached) {
+      reporterAttached = true;
+      getProcessor().onTestsReporterAttached();
+    }
+  }
+
   @Override
   public void flushBufferOnProcessTermination(int exitCode) {
     super.flushBufferOnProcessTermination(exitCode);
+    StreamingBepReader reader;
+    synchronized (this) {
+      terminated = true;
+      reader = streamingReader;
+      streamingReader = null;
+    }
+    if (reader != null) {
+      // wait for any in-flight results, so they're not reported twice
+      reader.close();
+    }
     BlazeTestResults testResults = testResultFinderStrategy.findTestResults();
     if (testResults == null || testResults == BlazeTestResults.NO_RESULTS) {
+      if (!streamedResults.isEmpty()) {
+        testResultFinderStrategy.deleteTemporaryOutputXmlFiles();
+        return;
+      }
       BlazeTestExitStatus exitStatus = BlazeTestExitStatus.forExitCode(exitCode);
       if (exitStatus == null) {
         reportTestRuntimeError(
@@ -100,18 +186,24 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
 
   private void processAllTestResults(BlazeTestResults testResults) {
     onStartTesting();
-    getProcessor().onTestsReporterAttached();
+    attachReporter();
     try {
       List<ListenableFuture<ParsedTargetResults>> futures = new ArrayList<>();
       for (Label label : testResults.perTargetResults.keySet()) {
-        futures.add(
-            FetchExecutor.EXECUTOR.submit(
-                () -> parseTestXml(label, testResults.perTargetResults.get(label))));
+        ImmutableList<BlazeTestResult> remaining =
+            testResults.perTargetResults.get(label).stream()
+                .filter(result -> !streamedResults.contains(result))
+                .collect(toImmutableList());
+        if (!remaining.isEmpty()) {
+          futures.add(FetchExecutor.EXECUTOR.submit(() -> parseTestXml(label, remaining)));
+        }
       }
       List<ParsedTargetResults> parsedResults =
           FuturesUtil.getIgnoringErrors(Futures.allAsList(futures));
       if (parsedResults != null) {
-        parsedResults.forEach(this::processParsedTestResults);
+        synchronized (this) {
+          parsedResults.forEach(this::processParsedTestResults);
+        }
       }
     } finally {
       testResultFinderStrategy.deleteTemporaryOutputXmlFiles();
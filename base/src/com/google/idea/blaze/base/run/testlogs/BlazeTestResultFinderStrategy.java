@@ -15,6 +15,9 @@
  */
 package com.google.idea.blaze.base.run.testlogs;
 
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nullable;
 
 /** A strategy for locating results from 'blaze test' invocation (e.g. output XML files). */
@@ -27,6 +30,18 @@ public interface BlazeTestResultFinderStrategy {
   @Nullable
   BlazeTestResults findTestResults();
 
+  /**
+   * Starts reporting test results to the listener as they become available, while the 'blaze
+   * test' invocation is still running. Returns empty if results can't be streamed.
+   *
+   * <p>The returned reader must be closed once the process terminates, before calling {@link
+   * #findTestResults}.
+   */
+  default Optional<StreamingBepReader> streamTestResults(
+      StreamingBepReader.Listener listener, ExecutorService executor) {
+    return Optional.empty();
+  }
+
   /** Remove any temporary files used by this result finder. */
   void deleteTemporaryOutputXmlFiles();
 }
@@ -16,12 +16,15 @@
 package com.google.idea.blaze.base.run.testlogs;
 
 import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolOutputReader;
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
 import com.google.idea.blaze.base.io.InputStreamProvider;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A strategy for locating results from a single 'blaze test' invocation (e.g. output XML files).
@@ -39,6 +42,12 @@ public final class BuildEventProtocolTestFinderStrategy implements BlazeTestResu
     this.outputFile = bepOutputFile;
   }
 
+  @Override
+  public Optional<StreamingBepReader> streamTestResults(
+      StreamingBepReader.Listener listener, ExecutorService executor) {
+    return Optional.of(StreamingBepReader.start(outputFile, listener, executor));
+  }
+
   @Override
   public BlazeTestResults findTestResults() {
     try (InputStream inputStream =
@@ -17,7 +17,6 @@ package com.google.idea.blaze.base.run.testmap;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Queues;
@@ -51,7 +50,7 @@ public class FilteredTargetMap {
       TargetMap targetMap,
       Predicate<TargetIdeInfo> filter) {
     this.project = project;
-    this.rootsMap = createRootsMap(decoder, targetMap.targets());
+    this.rootsMap = createRootsMap(decoder, targetMap);
     this.targetMap = targetMap;
     this.filter = filter;
   }
@@ -70,7 +69,7 @@ public class FilteredTargetMap {
   }
 
   private ImmutableSet<TargetIdeInfo> targetsForSourceFilesImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, Collection<File> sourceFiles) {
+      ReverseDependencyMap rdepsMap, Collection<File> sourceFiles) {
     ImmutableSet.Builder<TargetIdeInfo> result = ImmutableSet.builder();
     Set<TargetKey> roots =
         sourceFiles.stream()
@@ -96,14 +95,16 @@ public class FilteredTargetMap {
   }
 
   private static Multimap<File, TargetKey> createRootsMap(
-      ArtifactLocationDecoder decoder, Collection<TargetIdeInfo> targets) {
+      ArtifactLocationDecoder decoder, TargetMap targetMap) {
     Multimap<File, TargetKey> result = ArrayListMultimap.create();
-    for (TargetIdeInfo target : targets) {
-      target.getSources().stream()
-          .map(decoder::resolveSource)
-          .filter(Objects::nonNull)
-          .forEach(f -> result.put(f, target.getKey()));
-    }
+    targetMap
+        .stream()
+        .forEach(
+            target ->
+                target.getSources().stream()
+                    .map(decoder::resolveSource)
+                    .filter(Objects::nonNull)
+                    .forEach(f -> result.put(f, target.getKey())));
     return result;
   }
 }
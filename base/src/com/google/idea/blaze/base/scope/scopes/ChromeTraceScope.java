@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.scope.scopes;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.BlazeScope;
+import com.intellij.openapi.diagnostic.Logger;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Records the {@link TimingScope} tree, along with any other spans reported via {@link #trace} and
+ * JVM garbage collection pauses, as Chrome trace events. These are written to a JSON file when the
+ * scope ends, which can be loaded in chrome://tracing or https://ui.perfetto.dev.
+ *
+ * <p>Nothing is recorded unless this scope is on the context stack.
+ */
+public class ChromeTraceScope implements BlazeScope {
+
+  private static final Logger logger = Logger.getInstance(ChromeTraceScope.class);
+
+  // a pseudo thread id for GC pauses, which aren't attributable to any one thread
+  private static final long GC_THREAD_ID = 0;
+
+  /** A single complete ('X') trace event. */
+  private static class TraceEvent {
+    final String name;
+    final String category;
+    final long startMicros;
+    final long durationMicros;
+    final long threadId;
+
+    TraceEvent(
+        String name, String category, long startMicros, long durationMicros, long threadId) {
+      this.name = name;
+      this.category = category;
+      this.startMicros = startMicros;
+      this.durationMicros = durationMicros;
+      this.threadId = threadId;
+    }
+  }
+
+  private final File outputFile;
+  // spans can be reported from any thread (e.g. parallel build shards)
+  private final Queue<TraceEvent> events = new ConcurrentLinkedQueue<>();
+  private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+  private final List<NotificationEmitter> gcEmitters = new ArrayList<>();
+  private final NotificationListener gcListener = this::onGarbageCollection;
+
+  public ChromeTraceScope(File outputFile) {
+    this.outputFile = outputFile;
+  }
+
+  /**
+   * Runs the given operation, recording it as a span if the context is being traced. Does nothing
+   * extra otherwise.
+   */
+  public static <T> T trace(
+      BlazeContext context, String name, String category, Supplier<T> operation) {
+    ChromeTraceScope scope = context.getScope(ChromeTraceScope.class);
+    if (scope == null) {
+      return operation.get();
+    }
+    Instant start = Instant.now();
+    try {
+      return operation.get();
+    } finally {
+      scope.addEvent(name, category, start, Duration.between(start, Instant.now()));
+    }
+  }
+
+  /** Records a span which ran on the current thread. */
+  void addEvent(String name, String category, Instant start, Duration duration) {
+    Thread thread = Thread.currentThread();
+    threadNames.putIfAbsent(thread.getId(), thread.getName());
+    events.add(
+        new TraceEvent(name, category, toMicros(start), toMicros(duration), thread.getId()));
+  }
+
+  @Override
+  public void onScopeBegin(BlazeContext context) {
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (bean instanceof NotificationEmitter) {
+        NotificationEmitter emitter = (NotificationEmitter) bean;
+        emitter.addNotificationListener(gcListener, /* filter= */ null, /* handback= */ null);
+        gcEmitters.add(emitter);
+      }
+    }
+  }
+
+  @Override
+  public void onScopeEnd(BlazeContext context) {
+    for (NotificationEmitter emitter : gcEmitters) {
+      try {
+        emitter.removeNotificationListener(gcListener);
+      } catch (ListenerNotFoundException e) {
+        // ignore
+      }
+    }
+    gcEmitters.clear();
+    try {
+      write(outputFile);
+    } catch (IOException e) {
+      logger.warn("Failed to write trace file: " + outputFile, e);
+    }
+  }
+
+  private void onGarbageCollection(Notification notification, @Nullable Object handback) {
+    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+        notification.getType())) {
+      return;
+    }
+    GarbageCollectionNotificationInfo info =
+        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+    GcInfo gcInfo = info.getGcInfo();
+    // GC times are relative to the JVM start time
+    long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    events.add(
+        new TraceEvent(
+            info.getGcName() + " (" + info.getGcCause() + ")",
+            "GC",
+            (jvmStartMillis + gcInfo.getStartTime()) * 1000,
+            gcInfo.getDuration() * 1000,
+            GC_THREAD_ID));
+  }
+
+  @VisibleForTesting
+  void write(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null) {
+      Files.createDirectories(parent.toPath());
+    }
+    // write to a temp file first, so a partially-written trace never replaces a complete one
+    File temp = new File(file.getPath() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp.toPath(), UTF_8)) {
+      writeJson(writer);
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void writeJson(Writer writer) throws IOException {
+    writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+    writeThreadName(writer, GC_THREAD_ID, "GC");
+    for (Map.Entry<Long, String> entry : threadNames.entrySet()) {
+      writer.write(",\n");
+      writeThreadName(writer, entry.getKey(), entry.getValue());
+    }
+    for (TraceEvent event : events) {
+      writer.write(",\n");
+      writer.write("{\"ph\":\"X\",\"pid\":1,\"tid\":");
+      writer.write(Long.toString(event.threadId));
+      writer.write(",\"ts\":");
+      writer.write(Long.toString(event.startMicros));
+      writer.write(",\"dur\":");
+      writer.write(Long.toString(event.durationMicros));
+      writer.write(",\"cat\":");
+      writeString(writer, event.category);
+      writer.write(",\"name\":");
+      writeString(writer, event.name);
+      writer.write('}');
+    }
+    writer.write("\n]}\n");
+  }
+
+  private static void writeThreadName(Writer writer, long threadId, String name)
+      throws IOException {
+    writer.write("{\"ph\":\"M\",\"pid\":1,\"tid\":");
+    writer.write(Long.toString(threadId));
+    writer.write(",\"name\":\"thread_name\",\"args\":{\"name\":");
+    writeString(writer, name);
+    writer.write("}}");
+  }
+
+  private static void writeString(Writer writer, String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  private static long toMicros(Instant instant) {
+    return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+  }
+
+  private static long toMicros(Duration duration) {
+    return duration.toNanos() / 1000;
+  }
+}
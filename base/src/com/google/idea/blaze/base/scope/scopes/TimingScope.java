@@ -71,6 +71,10 @@ public class TimingScope implements BlazeScope {
 
   @Override
   public void onScopeEnd(BlazeContext context) {
+    ChromeTraceScope trace = context.getScope(ChromeTraceScope.class);
+    if (trace != null) {
+      trace.addEvent(name, eventType.name(), startTime, Duration.between(startTime, Instant.now()));
+    }
     if (context.isCancelled()) {
       duration = Optional.of(Duration.ZERO);
       return;
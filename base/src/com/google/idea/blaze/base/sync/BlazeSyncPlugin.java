@@ -118,7 +118,8 @@ public interface BlazeSyncPlugin {
 
   /**
    * Whether to refresh the execution root directory, which contains files which may have changed
-   * during sync, and aren't covered by file watchers.
+   * during sync, and aren't covered by file watchers. Where possible, only the directories
+   * containing generated and external artifacts referenced by the target map are refreshed.
    *
    * <p>Called prior to updateProjectSdk and updateProjectStructure.
    */
@@ -146,7 +147,48 @@ public interface BlazeSyncPlugin {
     return null;
   }
 
-  /** Modifies the IDE project structure in accordance with the sync data. */
+  /**
+   * A change to the IDE project structure, computed by {@link #computeProjectStructureUpdate} and
+   * applied under a write action.
+   */
+  interface ProjectStructureUpdate {
+    /**
+     * Applies the update. Called under a write action, so should be quick.
+     *
+     * @param context the sync's context. The child context the update was computed in has already
+     *     ended, so errors must be reported here to fail the sync.
+     */
+    void apply(
+        BlazeContext context,
+        ModuleEditor moduleEditor,
+        Module workspaceModule,
+        ModifiableRootModel workspaceModifiableModel);
+  }
+
+  /**
+   * Computes the changes this plugin makes to the IDE project structure, without touching the
+   * project model.
+   *
+   * <p>Called concurrently for all plugins, on a background thread and outside of any read or
+   * write action. Each call gets its own child {@link BlazeContext}. Plugins should do any
+   * expensive computation here, returning an update which is quick to apply. If non-null, the
+   * update is applied in place of {@link #updateProjectStructure}.
+   */
+  @Nullable
+  default ProjectStructureUpdate computeProjectStructureUpdate(
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      BlazeProjectData blazeProjectData,
+      @Nullable BlazeProjectData oldBlazeProjectData) {
+    return null;
+  }
+
+  /**
+   * Modifies the IDE project structure in accordance with the sync data. Not called if {@link
+   * #computeProjectStructureUpdate} returned an update.
+   */
   default void updateProjectStructure(
       Project project,
       BlazeContext context,
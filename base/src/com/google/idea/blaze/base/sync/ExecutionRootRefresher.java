@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Refreshes only those directories under the execution root which contain artifacts referenced by
+ * the target map, rather than recursively refreshing the entire execution root. Artifacts which are
+ * themselves directories (e.g. tree artifacts) are refreshed recursively.
+ */
+final class ExecutionRootRefresher {
+
+  private ExecutionRootRefresher() {}
+
+  /**
+   * Refreshes the directories containing generated or external artifacts of the project's targets,
+   * in a single batched, non-recursive VFS refresh, then recursively refreshes any directory
+   * artifacts already in the VFS. Must be called off the EDT, without a read lock.
+   */
+  static void refresh(BlazeProjectData blazeProjectData) {
+    File executionRoot = blazeProjectData.getBlazeInfo().getExecutionRoot();
+    ImmutableSet<File> artifacts =
+        getLocalArtifacts(
+            blazeProjectData.getTargetMap(), blazeProjectData.getArtifactLocationDecoder());
+    LocalFileSystem fileSystem = VirtualFileSystemProvider.getInstance().getSystem();
+    VirtualFile[] directories =
+        findCachedAncestors(fileSystem, executionRoot, parentDirectories(artifacts));
+    if (directories.length != 0) {
+      VfsUtil.markDirtyAndRefresh(
+          /* async= */ false, /* recursive= */ false, /* reloadChildren= */ true, directories);
+    }
+    VirtualFile[] directoryArtifacts =
+        getCachedDirectoryArtifacts(fileSystem, artifacts).toArray(VirtualFile.EMPTY_ARRAY);
+    if (directoryArtifacts.length != 0) {
+      // their contents aren't otherwise rescanned, since only their parents are refreshed above
+      VfsUtil.markDirtyAndRefresh(
+          /* async= */ false,
+          /* recursive= */ true,
+          /* reloadChildren= */ true,
+          directoryArtifacts);
+    }
+  }
+
+  /**
+   * Returns the parent directories of all locally available, non-workspace artifacts referenced by
+   * the target map: generated and external sources, and java jars.
+   */
+  @VisibleForTesting
+  static ImmutableSet<File> getDirectoriesToRefresh(
+      TargetMap targetMap, ArtifactLocationDecoder decoder) {
+    return parentDirectories(getLocalArtifacts(targetMap, decoder));
+  }
+
+  /**
+   * Returns the artifacts which are directories the VFS has already loaded. Directory artifacts
+   * the VFS has never loaded can't be stale, and are picked up by refreshing their parents.
+   */
+  @VisibleForTesting
+  static ImmutableSet<VirtualFile> getCachedDirectoryArtifacts(
+      LocalFileSystem fileSystem, ImmutableSet<File> artifacts) {
+    ImmutableSet.Builder<VirtualFile> directories = ImmutableSet.builder();
+    for (File artifact : artifacts) {
+      VirtualFile file = fileSystem.findFileByPathIfCached(artifact.getPath());
+      if (file != null && file.isDirectory()) {
+        directories.add(file);
+      }
+    }
+    return directories.build();
+  }
+
+  /**
+   * Returns all locally available, non-workspace artifacts referenced by the target map: generated
+   * and external sources, and java jars.
+   */
+  @VisibleForTesting
+  static ImmutableSet<File> getLocalArtifacts(
+      TargetMap targetMap, ArtifactLocationDecoder decoder) {
+    Set<File> artifacts = new LinkedHashSet<>();
+    Consumer<ArtifactLocation> addArtifact =
+        location -> {
+          if (location == null || location.isMainWorkspaceSourceArtifact()) {
+            return;
+          }
+          // remote outputs aren't in the execution root, and are handled by RemoteOutputsCache
+          BlazeArtifact artifact = decoder.resolveOutput(location);
+          if (artifact instanceof LocalFileArtifact) {
+            artifacts.add(((LocalFileArtifact) artifact).getFile());
+          }
+        };
+    targetMap
+        .stream()
+        .forEach(
+            target -> {
+              target.getSources().forEach(addArtifact);
+              JavaIdeInfo javaIdeInfo = target.getJavaIdeInfo();
+              if (javaIdeInfo != null) {
+                forEachJar(javaIdeInfo.getJars(), addArtifact);
+                forEachJar(javaIdeInfo.getGeneratedJars(), addArtifact);
+                LibraryArtifact filteredGenJar = javaIdeInfo.getFilteredGenJar();
+                if (filteredGenJar != null) {
+                  forEachJar(ImmutableList.of(filteredGenJar), addArtifact);
+                }
+              }
+            });
+    return ImmutableSet.copyOf(artifacts);
+  }
+
+  private static ImmutableSet<File> parentDirectories(ImmutableSet<File> artifacts) {
+    return artifacts.stream()
+        .map(File::getParentFile)
+        .filter(Objects::nonNull)
+        .collect(toImmutableSet());
+  }
+
+  private static void forEachJar(
+      ImmutableList<LibraryArtifact> jars, Consumer<ArtifactLocation> consumer) {
+    for (LibraryArtifact jar : jars) {
+      consumer.accept(jar.getInterfaceJar());
+      consumer.accept(jar.getClassJar());
+      jar.getSourceJars().forEach(consumer);
+    }
+  }
+
+  /**
+   * For each directory, finds the closest ancestor (or the directory itself) already in the VFS.
+   * Directories the VFS has never loaded can't be stale, so refreshing that ancestor's children is
+   * enough to pick up newly created directories.
+   */
+  private static VirtualFile[] findCachedAncestors(
+      LocalFileSystem fileSystem, File executionRoot, ImmutableSet<File> directories) {
+    Set<VirtualFile> files = new LinkedHashSet<>();
+    for (File directory : directories) {
+      VirtualFile file = findCachedAncestor(fileSystem, executionRoot, directory);
+      if (file != null) {
+        files.add(file);
+      }
+    }
+    return files.toArray(VirtualFile.EMPTY_ARRAY);
+  }
+
+  @Nullable
+  private static VirtualFile findCachedAncestor(
+      LocalFileSystem fileSystem, File executionRoot, File directory) {
+    for (File dir = directory;
+        dir != null && FileUtil.isAncestor(executionRoot, dir, /* strict= */ false);
+        dir = dir.getParentFile()) {
+      VirtualFile file = fileSystem.findFileByPathIfCached(dir.getPath());
+      if (file != null) {
+        return file;
+      }
+    }
+    return null;
+  }
+}
@@ -15,8 +15,16 @@
  */
 package com.google.idea.blaze.base.sync;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.filecache.FileCaches;
 import com.google.idea.blaze.base.filecache.RemoteOutputsCache;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
@@ -39,6 +47,7 @@ import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin.ModuleEditor;
+import com.google.idea.blaze.base.sync.BlazeSyncPlugin.ProjectStructureUpdate;
 import com.google.idea.blaze.base.sync.SyncScope.SyncCanceledException;
 import com.google.idea.blaze.base.sync.SyncScope.SyncFailedException;
 import com.google.idea.blaze.base.sync.aspects.BlazeBuildOutputs;
@@ -55,6 +64,7 @@ import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorProvider;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoderImpl;
 import com.google.idea.blaze.base.util.SaveUtil;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.util.Transactions;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -80,6 +90,14 @@ final class ProjectUpdateSyncTask {
 
   private static final Logger logger = Logger.getInstance(ProjectUpdateSyncTask.class);
 
+  // computes each sync plugin's project structure update concurrently, outside the write action
+  private static final BoolExperiment computeProjectStructureInParallel =
+      new BoolExperiment("blaze.sync.parallel.project.structure", true);
+
+  // only refreshes execution root directories referenced by the target map, non-recursively
+  private static final BoolExperiment scopedExecutionRootRefresh =
+      new BoolExperiment("blaze.sync.scoped.execroot.refresh", true);
+
   /** Updates the project target map and related data, given the blaze build output. */
   @Nullable
   static ProjectTargetData updateTargetData(
@@ -269,10 +287,15 @@ final class ProjectUpdateSyncTask {
           } else if (Arrays.stream(BlazeSyncPlugin.EP_NAME.getExtensions())
               .anyMatch(p -> p.refreshExecutionRoot(blazeProjectData))) {
             // this refresh should happen off EDT and without read lock.
-            VirtualFile root =
-                VfsUtil.findFileByIoFile(blazeProjectData.getBlazeInfo().getExecutionRoot(), true);
-            VfsUtil.markDirtyAndRefresh(
-                /* async= */ false, /* recursive= */ true, /* reloadChildren= */ true, root);
+            if (scopedExecutionRootRefresh.getValue()) {
+              ExecutionRootRefresher.refresh(blazeProjectData);
+            } else {
+              VirtualFile root =
+                  VfsUtil.findFileByIoFile(
+                      blazeProjectData.getBlazeInfo().getExecutionRoot(), true);
+              VfsUtil.markDirtyAndRefresh(
+                  /* async= */ false, /* recursive= */ true, /* reloadChildren= */ true, root);
+            }
           }
         });
   }
@@ -296,6 +319,12 @@ final class ProjectUpdateSyncTask {
           context.push(new TimingScope("UpdateProjectStructure", EventType.Other));
           context.output(new StatusOutput("Initializing project SDKs..."));
           ApplicationManager.getApplication().invokeAndWait(() -> createSdks(newBlazeProjectData));
+          ProjectStructureComputation computation =
+              computeProjectStructure(
+                  context, projectViewSet, newBlazeProjectData, oldBlazeProjectData);
+          if (computation == null) {
+            return false;
+          }
           context.output(new StatusOutput("Committing project structure..."));
 
           try {
@@ -311,7 +340,8 @@ final class ProjectUpdateSyncTask {
                                   blazeVersionData,
                                   directoryStructure,
                                   newBlazeProjectData,
-                                  oldBlazeProjectData);
+                                  oldBlazeProjectData,
+                                  computation);
                             }));
           } catch (ProcessCanceledException e) {
             context.setCancelled();
@@ -328,6 +358,149 @@ final class ProjectUpdateSyncTask {
         });
   }
 
+  /**
+   * The parts of the project structure update which don't touch the project model, computed before
+   * taking the write action.
+   */
+  private static class ProjectStructureComputation {
+    final List<BlazeLibrary> libraries;
+    final List<BlazeSyncPlugin> plugins;
+    // the update computed by each plugin, or null if it uses updateProjectStructure instead
+    final List<ProjectStructureUpdate> pluginUpdates;
+
+    ProjectStructureComputation(
+        List<BlazeLibrary> libraries,
+        List<BlazeSyncPlugin> plugins,
+        List<ProjectStructureUpdate> pluginUpdates) {
+      this.libraries = libraries;
+      this.plugins = plugins;
+      this.pluginUpdates = pluginUpdates;
+    }
+  }
+
+  /**
+   * Collects the project libraries and computes each sync plugin's project structure update. Unless
+   * disabled by experiment, these all run concurrently.
+   *
+   * <p>Returns null if any computation failed or was cancelled.
+   */
+  @Nullable
+  private ProjectStructureComputation computeProjectStructure(
+      BlazeContext context,
+      ProjectViewSet projectViewSet,
+      BlazeProjectData newBlazeProjectData,
+      @Nullable BlazeProjectData oldBlazeProjectData) {
+    ListeningExecutorService executor =
+        computeProjectStructureInParallel.getValue()
+            ? BlazeExecutor.getInstance().getExecutor()
+            : MoreExecutors.newDirectExecutorService();
+    List<BlazeSyncPlugin> plugins = ImmutableList.copyOf(BlazeSyncPlugin.EP_NAME.getExtensions());
+
+    ListenableFuture<List<BlazeLibrary>> libraries =
+        executor.submit(
+            () ->
+                BlazeLibraryCollector.getLibraries(project, projectViewSet, newBlazeProjectData));
+    ListenableFuture<List<ProjectStructureUpdate>> pluginUpdates =
+        computePluginUpdates(
+            executor,
+            plugins,
+            project,
+            context,
+            workspaceRoot,
+            projectViewSet,
+            newBlazeProjectData,
+            oldBlazeProjectData);
+    ListenableFuture<ProjectStructureComputation> computation =
+        Futures.whenAllSucceed(libraries, pluginUpdates)
+            .call(
+                () ->
+                    new ProjectStructureComputation(
+                        Futures.getDone(libraries), plugins, Futures.getDone(pluginUpdates)),
+                MoreExecutors.directExecutor());
+    return FutureUtil.waitForFuture(context, computation)
+        .timed("ComputeProjectStructure", EventType.Other)
+        .withProgressMessage("Computing project structure...")
+        .onError("Failed to compute project structure")
+        .run()
+        .result();
+  }
+
+  /**
+   * Computes each plugin's project structure update on the given executor. The results are in the
+   * same order as the plugins, with null for plugins which didn't compute an update.
+   *
+   * <p>{@link BlazeContext} isn't thread-safe, so each plugin gets its own child context. Output
+   * is still forwarded to the parent context.
+   */
+  @VisibleForTesting
+  static ListenableFuture<List<ProjectStructureUpdate>> computePluginUpdates(
+      ListeningExecutorService executor,
+      List<BlazeSyncPlugin> plugins,
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      BlazeProjectData newBlazeProjectData,
+      @Nullable BlazeProjectData oldBlazeProjectData) {
+    // Futures.allAsList preserves order, and allows null results
+    return Futures.allAsList(
+        plugins.stream()
+            .map(
+                plugin ->
+                    executor.submit(
+                        () ->
+                            Scope.push(
+                                context,
+                                childContext -> {
+                                  return plugin.computeProjectStructureUpdate(
+                                      project,
+                                      childContext,
+                                      workspaceRoot,
+                                      projectViewSet,
+                                      newBlazeProjectData,
+                                      oldBlazeProjectData);
+                                })))
+            .collect(toImmutableList()));
+  }
+
+  /**
+   * Applies each plugin's computed update in extension order. Plugins which didn't compute an
+   * update get {@link BlazeSyncPlugin#updateProjectStructure} instead.
+   */
+  @VisibleForTesting
+  static void applyPluginUpdates(
+      List<BlazeSyncPlugin> plugins,
+      List<ProjectStructureUpdate> pluginUpdates,
+      Project project,
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      BlazeProjectData newBlazeProjectData,
+      @Nullable BlazeProjectData oldBlazeProjectData,
+      ModuleEditor moduleEditor,
+      Module workspaceModule,
+      ModifiableRootModel workspaceModifiableModel) {
+    for (int i = 0; i < plugins.size(); i++) {
+      ProjectStructureUpdate update = pluginUpdates.get(i);
+      if (update != null) {
+        update.apply(context, moduleEditor, workspaceModule, workspaceModifiableModel);
+        continue;
+      }
+      plugins
+          .get(i)
+          .updateProjectStructure(
+              project,
+              context,
+              workspaceRoot,
+              projectViewSet,
+              newBlazeProjectData,
+              oldBlazeProjectData,
+              moduleEditor,
+              workspaceModule,
+              workspaceModifiableModel);
+    }
+  }
+
   private void updateProjectStructure(
       BlazeContext context,
       BlazeImportSettings importSettings,
@@ -335,7 +508,8 @@ final class ProjectUpdateSyncTask {
       BlazeVersionData blazeVersionData,
       DirectoryStructure directoryStructure,
       BlazeProjectData newBlazeProjectData,
-      @Nullable BlazeProjectData oldBlazeProjectData) {
+      @Nullable BlazeProjectData oldBlazeProjectData,
+      ProjectStructureComputation computation) {
 
     for (BlazeSyncPlugin syncPlugin : BlazeSyncPlugin.EP_NAME.getExtensions()) {
       syncPlugin.updateProjectSdk(
@@ -370,24 +544,23 @@ final class ProjectUpdateSyncTask {
         directoryStructure,
         workspaceModifiableModel);
 
-    List<BlazeLibrary> libraries =
-        BlazeLibraryCollector.getLibraries(projectViewSet, newBlazeProjectData);
+    List<BlazeLibrary> libraries = computation.libraries;
     LibraryEditor.updateProjectLibraries(
         project, context, projectViewSet, newBlazeProjectData, libraries);
     LibraryEditor.configureDependencies(workspaceModifiableModel, libraries);
 
-    for (BlazeSyncPlugin blazeSyncPlugin : BlazeSyncPlugin.EP_NAME.getExtensions()) {
-      blazeSyncPlugin.updateProjectStructure(
-          project,
-          context,
-          workspaceRoot,
-          projectViewSet,
-          newBlazeProjectData,
-          oldBlazeProjectData,
-          moduleEditor,
-          workspaceModule,
-          workspaceModifiableModel);
-    }
+    applyPluginUpdates(
+        computation.plugins,
+        computation.pluginUpdates,
+        project,
+        context,
+        workspaceRoot,
+        projectViewSet,
+        newBlazeProjectData,
+        oldBlazeProjectData,
+        moduleEditor,
+        workspaceModule,
+        workspaceModifiableModel);
 
     createProjectDataDirectoryModule(
         moduleEditor, new File(importSettings.getProjectDataDirectory()), workspaceModuleType);
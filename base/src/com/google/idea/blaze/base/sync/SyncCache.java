@@ -16,19 +16,50 @@
 package com.google.idea.blaze.base.sync;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
-/** Computes a cache on the project data. */
+/**
+ * Computes a cache on the project data.
+ *
+ * <p>Values are computed at most once per key and project data, without holding any lock: callers
+ * requesting a value which is already being computed wait for (or are given a future for) that
+ * computation, while requests for other keys are unaffected. Values for different project data are
+ * cached separately, so values computed during sync from the new project data don't displace those
+ * for the project's current data.
+ *
+ * <p>When a sync completes, only values computed from the new project data during that sync are
+ * kept. Incremental values are retained until the following sync, to be updated from the changed
+ * targets on next access.
+ *
+ * <p>A computation can't request its own key: waiting on itself would never finish, so this throws
+ * an {@link IllegalStateException} instead. If a computation is cancelled, the other callers
+ * waiting for it don't see the {@link ProcessCanceledException}, and the first of them computes the
+ * value again.
+ */
 public class SyncCache {
   /** Computes a value based on the sync project data. */
   public interface SyncCacheComputable<T> {
@@ -36,8 +67,36 @@ public class SyncCache {
     T compute(Project project, BlazeProjectData projectData);
   }
 
+  /**
+   * A {@link SyncCacheComputable} whose value can be updated after a non-full sync from the targets
+   * which changed, rather than recomputed from scratch.
+   */
+  public interface IncrementalSyncCacheComputable<T> extends SyncCacheComputable<T> {
+    /**
+     * Returns the value for the new project data, derived from the value previously computed, or
+     * null if it needs to be recomputed from scratch.
+     *
+     * @param previousProjectData the project data the previous value was computed from
+     * @param diff the targets which changed between the previous and current project data
+     */
+    @Nullable
+    T update(
+        Project project,
+        BlazeProjectData previousProjectData,
+        T previousValue,
+        BlazeProjectData projectData,
+        TargetMapDiff diff);
+  }
+
   private final Project project;
-  private final Map<Object, Object> cache = Maps.newHashMap();
+  private final Map<CacheKey, Entry> cache = new ConcurrentHashMap<>();
+  // incremental values from before the last sync, which are updated on next access. They're only
+  // kept until the next sync completes, so old project data isn't retained indefinitely.
+  private final Map<Object, Entry> previousEntries = new ConcurrentHashMap<>();
+  // target map diffs from previous project data, shared between incremental values
+  private final Map<BlazeProjectData, LazyDiff> diffs = new IdentityHashMap<>();
+  // incremented as each sync starts. Entries record the sync they were created during.
+  private final AtomicInteger syncGeneration = new AtomicInteger();
 
   public SyncCache(Project project) {
     this.project = project;
@@ -47,29 +106,282 @@ public class SyncCache {
     return ServiceManager.getService(project, SyncCache.class);
   }
 
-  /** Computes a value derived from the sync project data and caches it until the next sync. */
+  /**
+   * Computes a value derived from the sync project data and caches it until the next sync.
+   *
+   * <p>If the value isn't yet cached it's computed on the calling thread, unless another thread is
+   * already computing it, in which case this waits for that computation to finish.
+   */
+  @Nullable
+  public <T> T get(Object key, SyncCacheComputable<T> computable) {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    return get(key, projectData, computable);
+  }
+
+  /**
+   * Computes a value derived from the given project data, which needn't yet be the project's
+   * current data. Values computed during sync from the new project data are retained once that sync
+   * completes, so they aren't computed again.
+   */
   @Nullable
   @SuppressWarnings("unchecked")
-  public synchronized <T> T get(Object key, SyncCacheComputable<T> computable) {
-    if (cache.containsKey(key)) {
-      return (T) cache.get(key);
+  public <T> T get(
+      Object key, @Nullable BlazeProjectData projectData, SyncCacheComputable<T> computable) {
+    while (true) {
+      Entry entry = getEntry(key, projectData, computable, /* executor= */ null);
+      if (entry == null) {
+        return null;
+      }
+      Thread currentThread = Thread.currentThread();
+      if (!entry.value.isDone() && entry.computingThread == currentThread) {
+        // waiting for our own computation would never return
+        throw new IllegalStateException("Recursive SyncCache computation for key " + key);
+      }
+      try {
+        return (T) Uninterruptibles.getUninterruptibly(entry.value);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ProcessCanceledException && entry.computingThread != currentThread) {
+          // another caller was cancelled, which doesn't mean this one has been. The failed entry
+          // has already been removed, so try again.
+          continue;
+        }
+        Throwables.throwIfUnchecked(cause);
+        throw new IllegalStateException(cause);
+      }
     }
-    BlazeProjectData blazeProjectData =
+  }
+
+  /**
+   * Returns a future for a value derived from the sync project data, which is cached until the next
+   * sync. If the value isn't already cached or being computed, it's computed on a pooled thread,
+   * outside of any read action.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ListenableFuture<T> getAsync(Object key, SyncCacheComputable<T> computable) {
+    BlazeProjectData projectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
+    Entry entry =
+        getEntry(key, projectData, computable, AppExecutorUtil.getAppExecutorService());
+    return entry != null ? (ListenableFuture<T>) entry.value : Futures.immediateFuture(null);
+  }
+
+  @Nullable
+  private <T> Entry getEntry(
+      Object key,
+      @Nullable BlazeProjectData projectData,
+      SyncCacheComputable<T> computable,
+      @Nullable Executor executor) {
+    if (projectData == null) {
       return null;
     }
-    T value = computable.compute(project, blazeProjectData);
-    cache.put(key, value);
-    return value;
+    CacheKey cacheKey = new CacheKey(key, projectData);
+    Entry existing = cache.get(cacheKey);
+    if (existing != null) {
+      return existing;
+    }
+    Entry entry =
+        new Entry(
+            projectData,
+            computable instanceof IncrementalSyncCacheComputable,
+            syncGeneration.get());
+    existing = cache.putIfAbsent(cacheKey, entry);
+    if (existing != null) {
+      // another thread got there first
+      return existing;
+    }
+    Runnable task = () -> computeValue(cacheKey, entry, computable);
+    if (executor != null) {
+      executor.execute(task);
+    } else {
+      task.run();
+    }
+    return entry;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void computeValue(CacheKey cacheKey, Entry entry, SyncCacheComputable<T> computable) {
+    entry.computingThread = Thread.currentThread();
+    try {
+      T value = null;
+      Entry previous =
+          computable instanceof IncrementalSyncCacheComputable
+              ? findPreviousEntry(cacheKey)
+              : null;
+      if (previous != null) {
+        T previousValue = (T) getIfDone(previous);
+        if (previousValue != null) {
+          value =
+              ((IncrementalSyncCacheComputable<T>) computable)
+                  .update(
+                      project,
+                      previous.projectData,
+                      previousValue,
+                      entry.projectData,
+                      getDiff(previous.projectData, entry.projectData));
+        }
+      }
+      if (value == null) {
+        value = computable.compute(project, entry.projectData);
+      }
+      entry.computingThread = null;
+      entry.value.set(value);
+    } catch (Throwable t) {
+      // don't cache failures; the next caller will try again
+      cache.remove(cacheKey, entry);
+      entry.value.setException(t);
+    }
+  }
+
+  /**
+   * Returns the entry to incrementally update a new value from: the one retained from before the
+   * last sync, or else the one for the project's current data (e.g. when computing a value from the
+   * new project data during sync).
+   */
+  @Nullable
+  private Entry findPreviousEntry(CacheKey cacheKey) {
+    Entry previous = previousEntries.remove(cacheKey.key);
+    if (previous != null) {
+      return previous;
+    }
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (current == null || current == cacheKey.projectData) {
+      return null;
+    }
+    return cache.get(new CacheKey(cacheKey.key, current));
+  }
+
+  @Nullable
+  private static Object getIfDone(Entry entry) {
+    if (!entry.value.isDone()) {
+      return null;
+    }
+    try {
+      return Futures.getDone(entry.value);
+    } catch (ExecutionException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private TargetMapDiff getDiff(BlazeProjectData previous, BlazeProjectData current) {
+    LazyDiff diff;
+    synchronized (diffs) {
+      diff = diffs.get(previous);
+      if (diff == null || diff.current != current) {
+        diff = new LazyDiff(previous, current);
+        diffs.put(previous, diff);
+      }
+    }
+    // computed outside the lock
+    return diff.diff.get();
   }
 
   @VisibleForTesting
-  public synchronized void clear() {
+  public void clear() {
     cache.clear();
+    previousEntries.clear();
+    synchronized (diffs) {
+      diffs.clear();
+    }
+  }
+
+  @VisibleForTesting
+  void syncStarted() {
+    syncGeneration.incrementAndGet();
+  }
+
+  /**
+   * Invalidates all cached values, other than those computed from the given project data since the
+   * sync started. The project data may be unchanged by the sync (e.g. if nothing was built), but
+   * values computed before it aren't retained, since the sync may have changed their other inputs.
+   * If requested, incremental values are retained until the next sync completes, to be updated from
+   * the changed targets on next access.
+   */
+  @VisibleForTesting
+  void invalidate(BlazeProjectData projectData, boolean retainIncremental) {
+    // values retained by the previous sync and not accessed since then are dropped
+    previousEntries.clear();
+    int generation = syncGeneration.get();
+    for (CacheKey cacheKey : cache.keySet()) {
+      Entry entry = cache.get(cacheKey);
+      if (entry == null
+          || (cacheKey.projectData == projectData && entry.generation == generation)) {
+        // computed during sync from the new project data, so still valid
+        continue;
+      }
+      if (cache.remove(cacheKey, entry) && retainIncremental && entry.incremental) {
+        // prefer the most recent value, which is likely to need the fewest changes
+        previousEntries.merge(cacheKey.key, entry, (a, b) -> b.generation > a.generation ? b : a);
+      }
+    }
+    synchronized (diffs) {
+      diffs.clear();
+    }
+  }
+
+  /** A key, scoped to the project data its value is computed from. */
+  private static final class CacheKey {
+    final Object key;
+    final BlazeProjectData projectData;
+
+    CacheKey(Object key, BlazeProjectData projectData) {
+      this.key = key;
+      this.projectData = projectData;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      // compared by identity, as elsewhere: project data equality is a deep, expensive comparison
+      return key.equals(other.key) && projectData == other.projectData;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * key.hashCode() + System.identityHashCode(projectData);
+    }
+  }
+
+  private static class Entry {
+    final BlazeProjectData projectData;
+    final boolean incremental;
+    final int generation;
+    final SettableFuture<Object> value = SettableFuture.create();
+    // the thread computing the value, kept after a failure so waiters can tell whose it was
+    @Nullable volatile Thread computingThread;
+
+    Entry(BlazeProjectData projectData, boolean incremental, int generation) {
+      this.projectData = projectData;
+      this.incremental = incremental;
+      this.generation = generation;
+    }
+  }
+
+  private static class LazyDiff {
+    final BlazeProjectData current;
+    final Supplier<TargetMapDiff> diff;
+
+    LazyDiff(BlazeProjectData previous, BlazeProjectData current) {
+      this.current = current;
+      this.diff =
+          Suppliers.memoize(
+              () -> TargetMapDiff.compute(previous.getTargetMap(), current.getTargetMap()));
+    }
   }
 
   static class ClearSyncCache implements SyncListener {
+    @Override
+    public void onSyncStart(Project project, BlazeContext context, SyncMode syncMode) {
+      getInstance(project).syncStarted();
+    }
+
     @Override
     public void onSyncComplete(
         Project project,
@@ -80,8 +392,9 @@ public class SyncCache {
         BlazeProjectData blazeProjectData,
         SyncMode syncMode,
         SyncResult syncResult) {
-      SyncCache syncCache = getInstance(project);
-      syncCache.clear();
+      // after a full sync most targets will have changed, so incremental updates won't help
+      getInstance(project)
+          .invalidate(blazeProjectData, /* retainIncremental= */ syncMode != SyncMode.FULL);
     }
   }
 }
@@ -19,6 +19,7 @@ import static java.util.stream.Collectors.joining;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -44,6 +45,7 @@ import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.BlazeConsoleScope;
+import com.google.idea.blaze.base.scope.scopes.ChromeTraceScope;
 import com.google.idea.blaze.base.scope.scopes.IdeaLogScope;
 import com.google.idea.blaze.base.scope.scopes.NotificationScope;
 import com.google.idea.blaze.base.scope.scopes.PerformanceWarningScope;
@@ -75,6 +77,7 @@ import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -170,6 +173,10 @@ final class SyncPhaseCoordinator {
   private static final BoolExperiment allowConcurrentRemoteSyncs =
       new BoolExperiment("allow.concurrent.remote.syncs", true);
 
+  // writes a Chrome trace of each sync under the project data directory
+  private static final BoolExperiment writeSyncTrace =
+      new BoolExperiment("blaze.sync.chrome.trace", false);
+
   // an application-wide cap on the number of concurrent remote builds
   private static final int MAX_BUILD_TASKS = 8;
 
@@ -540,9 +547,10 @@ final class SyncPhaseCoordinator {
               updateInMemoryState(
                   project, context, projectViewSet, projectData, syncParams.syncMode()));
         }
-        int librariesCount = BlazeLibraryCollector.getLibraries(projectViewSet, projectData).size();
+        int librariesCount =
+            BlazeLibraryCollector.getLibraries(project, projectViewSet, projectData).size();
         stats
-            .setTargetMapSize(projectData.getTargetMap().targets().size())
+            .setTargetMapSize(projectData.getTargetMap().size())
             .setLibraryCount(librariesCount);
         onSyncComplete(
             project, context, projectViewSet, buildIds, projectData, syncParams, syncResult);
@@ -579,6 +587,12 @@ final class SyncPhaseCoordinator {
     boolean notifyFinished = phase != SyncPhase.BUILD;
 
     context.push(new ExperimentScope());
+    if (writeSyncTrace.getValue()) {
+      File traceFile = getSyncTraceFile(phase);
+      if (traceFile != null) {
+        context.push(new ChromeTraceScope(traceFile));
+      }
+    }
     if (BlazeUserSettings.getInstance().getShowPerformanceWarnings()) {
       context.push(new PerformanceWarningScope());
     }
@@ -615,6 +629,22 @@ final class SyncPhaseCoordinator {
     context.output(new StatusOutput(String.format("Syncing project: %s...", syncParams)));
   }
 
+  /**
+   * Returns the file to write the sync trace to. When the build and project update phases run
+   * separately, each gets its own trace file.
+   */
+  @Nullable
+  private File getSyncTraceFile(SyncPhase phase) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    String suffix = phase == SyncPhase.ALL_PHASES ? "" : "_" + Ascii.toLowerCase(phase.name());
+    return new File(
+        BlazeDataStorage.getProjectDataDir(importSettings), "sync_trace" + suffix + ".json");
+  }
+
   private static void fillInBuildStats(
       SyncStats.Builder stats,
       @Nullable SyncProjectState projectState,
@@ -28,19 +28,20 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /** The result of the blaze build sync step. */
 public class BlazeBuildOutputs {
 
   public static BlazeBuildOutputs noOutputs(BuildResult buildResult) {
-    return new BlazeBuildOutputs(buildResult, ImmutableMap.of(), ImmutableList.of());
+    return new BlazeBuildOutputs(buildResult, ImmutableMap.of(), ImmutableList.of(), null);
   }
 
   public static BlazeBuildOutputs fromParsedBepOutput(
       BuildResult result, ParsedBepOutput parsedOutput) {
     ImmutableList<String> id =
         parsedOutput.buildId != null ? ImmutableList.of(parsedOutput.buildId) : ImmutableList.of();
-    return new BlazeBuildOutputs(result, parsedOutput.getFullArtifactData(), id);
+    return new BlazeBuildOutputs(result, parsedOutput.getFullArtifactData(), id, null);
   }
 
   public final BuildResult buildResult;
@@ -50,13 +51,18 @@ public class BlazeBuildOutputs {
   /** The artifacts transitively associated with each top-level target. */
   private final ImmutableSetMultimap<String, OutputArtifact> perTargetArtifacts;
 
+  /** Aspect outputs read while the build was still running, if any. */
+  @Nullable final IdeInfoPreloader ideInfoPreloader;
+
   private BlazeBuildOutputs(
       BuildResult buildResult,
       Map<String, BepArtifactData> artifacts,
-      ImmutableList<String> buildIds) {
+      ImmutableList<String> buildIds,
+      @Nullable IdeInfoPreloader ideInfoPreloader) {
     this.buildResult = buildResult;
     this.artifacts = ImmutableMap.copyOf(artifacts);
     this.buildIds = buildIds;
+    this.ideInfoPreloader = ideInfoPreloader;
 
     ImmutableSetMultimap.Builder<String, OutputArtifact> perTarget = ImmutableSetMultimap.builder();
     artifacts.values().forEach(a -> a.topLevelTargets.forEach(t -> perTarget.put(t, a.artifact)));
@@ -72,6 +78,11 @@ public class BlazeBuildOutputs {
         .collect(toImmutableList());
   }
 
+  /** Returns a copy of these outputs, associated with the given {@link IdeInfoPreloader}. */
+  BlazeBuildOutputs withIdeInfoPreloader(IdeInfoPreloader ideInfoPreloader) {
+    return new BlazeBuildOutputs(buildResult, artifacts, buildIds, ideInfoPreloader);
+  }
+
   /** Merges this {@link BlazeBuildOutputs} with a newer set of outputs. */
   public BlazeBuildOutputs updateOutputs(BlazeBuildOutputs nextOutputs) {
 
@@ -111,6 +122,7 @@ public class BlazeBuildOutputs {
     return new BlazeBuildOutputs(
         BuildResult.combine(buildResult, nextOutputs.buildResult),
         combined,
-        ImmutableList.<String>builder().addAll(buildIds).addAll(nextOutputs.buildIds).build());
+        ImmutableList.<String>builder().addAll(buildIds).addAll(nextOutputs.buildIds).build(),
+        nextOutputs.ideInfoPreloader != null ? nextOutputs.ideInfoPreloader : ideInfoPreloader);
   }
 }
@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.sync.aspects;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -44,6 +45,7 @@ import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArt
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelperProvider;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
 import com.google.idea.blaze.base.command.info.BlazeConfigurationHandler;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.console.BlazeConsoleLineProcessorProvider;
@@ -52,6 +54,7 @@ import com.google.idea.blaze.base.filecache.ArtifactsDiff;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
 import com.google.idea.blaze.base.lang.AdditionalLanguagesHelper;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.BlazeVersionData;
@@ -81,6 +84,7 @@ import com.google.idea.blaze.base.sync.SyncProjectState;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
@@ -92,7 +96,9 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.pom.NavigatableAdapter;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -115,6 +121,10 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
   private static final Logger logger = Logger.getInstance(BlazeIdeInterfaceAspectsImpl.class);
   private static final BoolExperiment disableValidationActionExperiment =
       new BoolExperiment("blaze.sync.disable.valication.action", true);
+  private static final BoolExperiment streamAspectOutputsExperiment =
+      new BoolExperiment("blaze.sync.stream.aspect.outputs", false);
+  private static final BoolExperiment pipelineShardOutputsExperiment =
+      new BoolExperiment("blaze.sync.pipeline.shard.outputs", false);
 
   @Override
   public BlazeBuildOutputs buildIdeArtifacts(
@@ -162,7 +172,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     if (state == null) {
       return null;
     }
-    context.output(PrintOutput.log("Target map size: " + state.targetMap.targets().size()));
+    context.output(PrintOutput.log("Target map size: " + state.targetMap.size()));
 
     RemoteOutputArtifacts oldRemoteOutputs = RemoteOutputArtifacts.fromProjectData(oldProjectData);
     // combine outputs map, then filter to remove out-of-date / unnecessary items
@@ -233,15 +243,41 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 "Total rules: %d, new/changed: %d, removed: %d",
                 targetCount, diff.getUpdatedOutputs().size(), removedCount)));
 
+    // aspect outputs which were already read while the build was running
+    ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> preloadedIdeInfo;
+    try {
+      preloadedIdeInfo =
+          buildResult.ideInfoPreloader != null
+              ? buildResult.ideInfoPreloader.getUpToDate(
+                  context, diff.getUpdatedOutputs(), diff.getNewState())
+              : ImmutableMap.of();
+    } catch (InterruptedException e) {
+      buildResult.ideInfoPreloader.cancel();
+      throw new ProcessCanceledException(e);
+    }
+    if (preloadedIdeInfo == null) {
+      // the sync was cancelled
+      return null;
+    }
+    if (!preloadedIdeInfo.isEmpty()) {
+      context.output(
+          PrintOutput.log(
+              String.format("Read %d aspect files during the build", preloadedIdeInfo.size())));
+    }
+    ImmutableList<OutputArtifact> outputsToFetch =
+        diff.getUpdatedOutputs().stream()
+            .filter(o -> !preloadedIdeInfo.containsKey(o.getKey()))
+            .collect(toImmutableList());
+
     ListenableFuture<?> downloadArtifactsFuture =
         RemoteArtifactPrefetcher.getInstance()
             .downloadArtifacts(
                 /* projectName= */ project.getName(),
-                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(diff.getUpdatedOutputs()));
+                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(outputsToFetch));
     ListenableFuture<?> loadFilesInJvmFuture =
         RemoteArtifactPrefetcher.getInstance()
             .loadFilesInJvm(
-                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(diff.getUpdatedOutputs()));
+                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(outputsToFetch));
 
     if (!FutureUtil.waitForFuture(
             context, Futures.allAsList(downloadArtifactsFuture, loadFilesInJvmFuture))
@@ -255,7 +291,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     ListenableFuture<?> fetchLocalFilesFuture =
         PrefetchService.getInstance()
             .prefetchFiles(
-                /* files= */ BlazeArtifact.getLocalFiles(diff.getUpdatedOutputs()),
+                /* files= */ BlazeArtifact.getLocalFiles(outputsToFetch),
                 /* refetchCachedFiles= */ true,
                 /* fetchFileTypes= */ false);
     if (!FutureUtil.waitForFuture(context, fetchLocalFilesFuture)
@@ -279,6 +315,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             context,
             prevState,
             diff,
+            preloadedIdeInfo,
             configHandler,
             projectState.getBlazeVersionData(),
             projectState.getLanguageSettings(),
@@ -317,6 +354,17 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
 
     boolean parallelize = buildParams.parallelizeBuilds();
 
+    // aspect outputs are read in the background as they become available, rather than waiting
+    // for every shard to finish building
+    IdeInfoPreloader preloader =
+        streamAspectOutputsExperiment.getValue() || pipelineShardOutputsExperiment.getValue()
+            ? new IdeInfoPreloader(
+                project,
+                aspectStrategy,
+                getPreviousIdeInfoState(project),
+                BlazeExecutor.getInstance().getExecutor())
+            : null;
+
     Function<Integer, String> progressMessage =
         count ->
             String.format(
@@ -333,25 +381,56 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   blazeInfo,
                   activeLanguages,
                   targets,
-                  aspectStrategy);
+                  aspectStrategy,
+                  preloader);
           if (!result.buildResult.outOfMemory()) {
+            if (preloader != null && pipelineShardOutputsExperiment.getValue()) {
+              // start reading this shard's outputs while the next shard builds. Anything already
+              // streamed during the build is skipped.
+              preloader.preload(
+                  result.getOutputGroupArtifacts(
+                      group -> group.startsWith(OutputGroup.INFO.prefix)));
+            }
             combinedResult.set(
                 combinedResult.isNull() ? result : combinedResult.get().updateOutputs(result));
           }
           return result.buildResult;
         };
-    BuildResult result =
-        shardedTargets.runShardedCommand(
-            project, context, progressMessage, invocation, parallelize);
+    BuildResult result = null;
+    try {
+      result =
+          shardedTargets.runShardedCommand(
+              project, context, progressMessage, invocation, parallelize);
+    } finally {
+      if (result == null && preloader != null) {
+        // the build threw (e.g. it was cancelled), so don't keep reading its outputs
+        preloader.cancel();
+      }
+    }
     if (combinedResult.isNull() || result.status == Status.FATAL_ERROR) {
+      if (preloader != null) {
+        preloader.cancel();
+      }
       return BlazeBuildOutputs.noOutputs(result);
     }
-    return combinedResult.get();
+    return preloader != null
+        ? combinedResult.get().withIdeInfoPreloader(preloader)
+        : combinedResult.get();
+  }
+
+  @Nullable
+  private static ImmutableMap<String, ArtifactState> getPreviousIdeInfoState(Project project) {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeIdeInterfaceState state =
+        projectData != null ? projectData.getTargetData().ideInterfaceState : null;
+    return state != null ? state.ideInfoFileState : null;
   }
 
   /**
    * Runs blaze build with the aspect's ide-info and ide-resolve output groups for a given set of
-   * targets
+   * targets. If a {@link IdeInfoPreloader} is provided and streaming is enabled, aspect outputs are
+   * passed to it as they're reported during the build.
    */
   private static BlazeBuildOutputs runBuildForTargets(
       Project project,
@@ -362,7 +441,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       BlazeInfo blazeInfo,
       ImmutableSet<LanguageClass> activeLanguages,
       List<? extends TargetExpression> targets,
-      AspectStrategy aspectStrategy) {
+      AspectStrategy aspectStrategy,
+      @Nullable IdeInfoPreloader preloader) {
     boolean onlyDirectDeps =
         viewSet.getScalarValue(AutomaticallyDeriveTargetsSection.KEY).orElse(false);
 
@@ -388,14 +468,26 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
           activeLanguages,
           onlyDirectDeps);
 
-      for (BlazeCommandRunner runner : BlazeCommandRunner.EP_NAME.getExtensions()) {
-        if (runner.isAvailable(project)) {
-          return runner.run(
-              project, builder, buildParams, buildResultHelper, workspaceRoot, context);
+      StreamingBepReader bepReader =
+          preloader != null && streamAspectOutputsExperiment.getValue()
+              ? buildResultHelper
+                  .streamBuildOutputs(preloader, AppExecutorUtil.getAppExecutorService())
+                  .orElse(null)
+              : null;
+      try {
+        for (BlazeCommandRunner runner : BlazeCommandRunner.EP_NAME.getExtensions()) {
+          if (runner.isAvailable(project)) {
+            return runner.run(
+                project, builder, buildParams, buildResultHelper, workspaceRoot, context);
+          }
+        }
+        IssueOutput.error("Failed to create build: no blaze command runner found");
+        return BlazeBuildOutputs.noOutputs(BuildResult.FATAL_ERROR);
+      } finally {
+        if (bepReader != null) {
+          bepReader.close();
         }
       }
-      IssueOutput.error("Failed to create build: no blaze command runner found");
-      return BlazeBuildOutputs.noOutputs(BuildResult.FATAL_ERROR);
     }
   }
 
@@ -425,6 +517,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       BlazeContext parentContext,
       @Nullable BlazeIdeInterfaceState prevState,
       ArtifactsDiff fileState,
+      ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> preloadedIdeInfo,
       BlazeConfigurationHandler configHandler,
       BlazeVersionData versionData,
       WorkspaceLanguageSettings languageSettings,
@@ -454,6 +547,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
               state.ideInfoFileState = ImmutableMap.copyOf(nextFileState);
 
               Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
+              // the targets which may differ from the old target map, if it's being updated
+              Set<TargetKey> touchedKeys = new HashSet<>();
               if (prevState != null && oldTargetMap != null) {
                 targetMap.putAll(oldTargetMap.map());
                 state.ideInfoToTargetKey.putAll(prevState.ideInfoFileToTargetKey);
@@ -465,6 +560,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   TargetKey key = state.ideInfoToTargetKey.remove(removed.getKey());
                   if (key != null) {
                     targetMap.remove(key);
+                    touchedKeys.add(key);
                   }
                 }
               }
@@ -480,9 +576,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 futures.add(
                     executor.submit(
                         () -> {
-                          totalSizeLoaded.addAndGet(file.getLength());
                           IntellijIdeInfo.TargetIdeInfo message =
-                              aspectStrategy.readAspectFile(file);
+                              readIdeInfo(aspectStrategy, file, preloadedIdeInfo, totalSizeLoaded);
                           TargetIdeInfo target =
                               protoToTarget(
                                   languageSettings,
@@ -507,6 +602,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                     String config = file.getConfigurationMnemonic();
                     configurations.add(config);
                     TargetKey key = targetFilePair.target.getKey();
+                    touchedKeys.add(key);
                     if (targetMap.putIfAbsent(key, targetFilePair.target) == null) {
                       state.ideInfoToTargetKey.forcePut(file.getKey(), key);
                     } else {
@@ -552,6 +648,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                         languageSettings, importRoots, target, ignoredLanguages)) {
                   state.ideInfoToTargetKey.inverse().remove(key);
                   targetMap.remove(key);
+                  touchedKeys.add(key);
                 }
               }
 
@@ -561,6 +658,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 TargetIdeInfo target = targetKey != null ? targetMap.get(targetKey) : null;
                 if (target != null) {
                   targetMap.put(targetKey, target.updateSyncTime(syncTime));
+                  touchedKeys.add(targetKey);
                 }
               }
 
@@ -569,9 +667,12 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                       languageSettings.getWorkspaceType()));
               warnIgnoredLanguages(project, context, ignoredLanguages);
 
-              return Result.of(
-                  new TargetMapAndInterfaceState(
-                      new TargetMap(ImmutableMap.copyOf(targetMap)), state.build()));
+              TargetMap newTargetMap = TargetMap.create(ImmutableMap.copyOf(targetMap));
+              if (prevState != null && oldTargetMap != null) {
+                // lets caches derived from the old targets update without comparing every target
+                TargetMapDiff.record(oldTargetMap, newTargetMap, touchedKeys);
+              }
+              return Result.of(new TargetMapAndInterfaceState(newTargetMap, state.build()));
             });
 
     if (result.error != null) {
@@ -581,6 +682,25 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return result.result;
   }
 
+  /**
+   * Returns the IDE info for an updated aspect output, reading the file unless it was already read
+   * while the build was running.
+   */
+  @VisibleForTesting
+  static IntellijIdeInfo.TargetIdeInfo readIdeInfo(
+      AspectStrategy aspectStrategy,
+      OutputArtifact file,
+      Map<String, IntellijIdeInfo.TargetIdeInfo> preloadedIdeInfo,
+      AtomicLong totalSizeLoaded)
+      throws IOException {
+    IntellijIdeInfo.TargetIdeInfo message = preloadedIdeInfo.get(file.getKey());
+    if (message != null) {
+      return message;
+    }
+    totalSizeLoaded.addAndGet(file.getLength());
+    return aspectStrategy.readAspectFile(file);
+  }
+
   private static boolean shouldIgnoreTarget(
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+
+/**
+ * Downloads and parses intellij-info aspect outputs as they're reported during the build, so that
+ * reading the IDE info overlaps with the build rather than starting after it finishes.
+ *
+ * <p>Preloaded results are only used for outputs whose {@link ArtifactState} hasn't changed by the
+ * time the target map is updated; everything else is read as usual.
+ */
+final class IdeInfoPreloader implements StreamingBepReader.Listener {
+
+  private static final Logger logger = Logger.getInstance(IdeInfoPreloader.class);
+
+  private final String projectName;
+  private final AspectStrategy aspectStrategy;
+  private final ImmutableMap<String, ArtifactState> previousState;
+  private final ListeningExecutorService executor;
+
+  private static final long CANCELLATION_CHECK_INTERVAL_MILLIS = 100;
+
+  private final Map<String, ListenableFuture<PreloadedIdeInfo>> preloaded =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param previousState the aspect output state from the previous sync. Outputs which haven't
+   *     changed since then aren't read again.
+   */
+  IdeInfoPreloader(
+      Project project,
+      AspectStrategy aspectStrategy,
+      @Nullable ImmutableMap<String, ArtifactState> previousState,
+      ListeningExecutorService executor) {
+    this.projectName = project.getName();
+    this.aspectStrategy = aspectStrategy;
+    this.previousState = previousState != null ? previousState : ImmutableMap.of();
+    this.executor = executor;
+  }
+
+  @Override
+  public void outputsReported(String outputGroup, ImmutableList<OutputArtifact> outputs) {
+    if (outputGroup.startsWith(OutputGroup.INFO.prefix)) {
+      preload(outputs);
+    }
+  }
+
+  /** Starts reading any aspect outputs which haven't already been preloaded. */
+  void preload(Collection<OutputArtifact> outputs) {
+    ImmutableList<OutputArtifact> toRead =
+        outputs.stream()
+            .filter(o -> AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE.test(o.getKey()))
+            .filter(o -> !preloaded.containsKey(o.getKey()))
+            .distinct()
+            .collect(toImmutableList());
+    if (toRead.isEmpty()) {
+      return;
+    }
+    ImmutableList<RemoteOutputArtifact> remoteOutputs = BlazeArtifact.getRemoteArtifacts(toRead);
+    ListenableFuture<?> download =
+        remoteOutputs.isEmpty()
+            ? Futures.immediateFuture(null)
+            : Futures.allAsList(
+                RemoteArtifactPrefetcher.getInstance()
+                    .downloadArtifacts(projectName, remoteOutputs),
+                RemoteArtifactPrefetcher.getInstance().loadFilesInJvm(remoteOutputs));
+    for (OutputArtifact output : toRead) {
+      preloaded.computeIfAbsent(
+          output.getKey(),
+          k -> Futures.whenAllSucceed(download).call(() -> read(output), executor));
+    }
+  }
+
+  @Nullable
+  private PreloadedIdeInfo read(OutputArtifact output) throws Exception {
+    ArtifactState state = output.toArtifactState();
+    if (state == null) {
+      return null;
+    }
+    ArtifactState previous = previousState.get(output.getKey());
+    if (previous != null && !previous.isMoreRecent(state)) {
+      // unchanged since the last sync, so won't be read again
+      return null;
+    }
+    return new PreloadedIdeInfo(state, aspectStrategy.readAspectFile(output));
+  }
+
+  /**
+   * Waits for all preloading to finish, then returns the parsed IDE info for each updated output
+   * which was preloaded and hasn't changed since. Returns null if the sync is cancelled while
+   * waiting, in which case any outstanding preloading is stopped.
+   */
+  @Nullable
+  ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> getUpToDate(
+      BlazeContext context,
+      Collection<OutputArtifact> updatedOutputs,
+      Map<String, ArtifactState> currentState)
+      throws InterruptedException {
+    Map<OutputArtifact, ListenableFuture<PreloadedIdeInfo>> pending = new LinkedHashMap<>();
+    for (OutputArtifact output : updatedOutputs) {
+      ListenableFuture<PreloadedIdeInfo> future = preloaded.get(output.getKey());
+      if (future != null && currentState.containsKey(output.getKey())) {
+        pending.put(output, future);
+      }
+    }
+    if (!waitForAll(context, pending.values())) {
+      cancel();
+      return null;
+    }
+    ImmutableMap.Builder<String, IntellijIdeInfo.TargetIdeInfo> result = ImmutableMap.builder();
+    for (Map.Entry<OutputArtifact, ListenableFuture<PreloadedIdeInfo>> entry :
+        pending.entrySet()) {
+      String key = entry.getKey().getKey();
+      PreloadedIdeInfo info;
+      try {
+        info = Futures.getDone(entry.getValue());
+      } catch (ExecutionException | CancellationException e) {
+        // fall back to reading the file again
+        logger.warn("Failed to preload aspect output " + key, e);
+        continue;
+      }
+      if (info != null && !info.state.isMoreRecent(currentState.get(key))) {
+        result.put(key, info.target);
+      }
+    }
+    return result.build();
+  }
+
+  /**
+   * Waits for the given futures to complete, successfully or not. Returns false if the sync is
+   * cancelled first.
+   */
+  private static boolean waitForAll(
+      BlazeContext context, Collection<ListenableFuture<PreloadedIdeInfo>> futures)
+      throws InterruptedException {
+    // failed preloads are read again later, so they don't fail the wait
+    ListenableFuture<?> all = Futures.successfulAsList(futures);
+    while (!context.isCancelled()) {
+      try {
+        all.get(CANCELLATION_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
+      } catch (TimeoutException e) {
+        // check for cancellation again
+      } catch (ExecutionException e) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Stops any outstanding preloading. */
+  void cancel() {
+    preloaded.values().forEach(f -> f.cancel(true));
+  }
+
+  private static class PreloadedIdeInfo {
+    private final ArtifactState state;
+    private final IntellijIdeInfo.TargetIdeInfo target;
+
+    PreloadedIdeInfo(ArtifactState state, IntellijIdeInfo.TargetIdeInfo target) {
+      this.state = state;
+      this.target = target;
+    }
+  }
+}
@@ -17,7 +17,6 @@ package com.google.idea.blaze.base.sync.autosync;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
@@ -97,8 +96,7 @@ class ProtoAutoSyncProvider implements AutoSyncProvider {
     }
     List<Label> output = new ArrayList<>();
     Queue<TargetKey> todo = Queues.newArrayDeque();
-    ImmutableMultimap<TargetKey, TargetKey> reverseDependencyMap =
-        ReverseDependencyMap.get(project);
+    ReverseDependencyMap reverseDependencyMap = ReverseDependencyMap.get(project);
     todo.addAll(reverseDependencyMap.get(target));
     Set<TargetKey> seen = Sets.newHashSet();
     while (!todo.isEmpty()) {
@@ -22,7 +22,11 @@ import com.google.idea.blaze.base.async.executor.ProgressiveTaskWithProgressIndi
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.ProjectDataCacheFile;
+import com.google.idea.blaze.base.model.ProjectDataDeltaLog;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.util.ConcurrencyUtil;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -32,6 +36,7 @@ import com.intellij.openapi.util.Disposer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 
@@ -41,12 +46,24 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static final Logger logger =
       Logger.getInstance(BlazeProjectDataManagerImpl.class.getName());
 
+  private static final BoolExperiment useIndexedCacheFile =
+      new BoolExperiment("blaze.project.data.indexed.cache", false);
+  private static final BoolExperiment useDeltaLog =
+      new BoolExperiment("blaze.project.data.delta.log", true);
+
+  // compact the delta log once it's larger than a quarter of the base file, or this size
+  private static final long MIN_COMPACTION_THRESHOLD_BYTES = 1024 * 1024;
+
   private final Project project;
   // a per-project single-threaded executor to write project data to disk
   private final ListeningExecutorService writeDataExecutor;
 
   @Nullable private volatile BlazeProjectData projectData;
 
+  // the project data last written to disk, or null if unknown. Guarded by 'this'.
+  @Nullable private BlazeProjectData persistedData;
+  @Nullable private ProjectDataDeltaLog deltaLog;
+
   public static BlazeProjectDataManagerImpl getImpl(Project project) {
     return (BlazeProjectDataManagerImpl) BlazeProjectDataManager.getInstance(project);
   }
@@ -80,33 +97,71 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
 
   @Nullable
   private synchronized BlazeProjectData loadProject(BlazeImportSettings importSettings) {
+    BuildSystem buildSystem = importSettings.getBuildSystem();
+    // read the indexed file whenever it's up to date, even if the experiment has since been turned
+    // off, so that doesn't discard the sync data
+    File indexedFile = getIndexedCacheFile(project, importSettings);
+    if (indexedFile.exists() && !isIndexedCacheFileStale(importSettings)) {
+      try {
+        BlazeProjectData base = ProjectDataCacheFile.read(buildSystem, indexedFile);
+        // always replay the delta log if present, even if no longer appending to it
+        projectData = getDeltaLog(importSettings).replay(buildSystem, base);
+        persistedData = projectData;
+        return projectData;
+      } catch (Throwable e) {
+        // fall back to the legacy cache file, if present
+        logger.warn(e);
+      }
+    }
     try {
       File file = getCacheFile(project, importSettings);
-      projectData = BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), file);
-      return projectData;
+      projectData = BlazeProjectData.loadFromDisk(buildSystem, file);
     } catch (Throwable e) {
       if (!(e instanceof FileNotFoundException)) {
         logger.warn(e);
       }
       return null;
     }
+    if (useIndexedCacheFile.getValue()) {
+      // migrate to the indexed format, so subsequent project opens can read targets lazily
+      scheduleWrite(importSettings, projectData, "Migrating sync data...");
+    }
+    return projectData;
+  }
+
+  /**
+   * Returns true if the legacy cache file was written after the indexed file and its delta log,
+   * e.g. by an earlier plugin version which doesn't know about the indexed format.
+   */
+  private boolean isIndexedCacheFileStale(BlazeImportSettings importSettings) {
+    File legacyFile = getCacheFile(project, importSettings);
+    if (!legacyFile.exists()) {
+      return false;
+    }
+    long indexedModified =
+        Math.max(
+            getIndexedCacheFile(project, importSettings).lastModified(),
+            getDeltaLog(importSettings).lastModified());
+    return indexedModified < legacyFile.lastModified();
   }
 
   public void saveProject(
       final BlazeImportSettings importSettings, final BlazeProjectData projectData) {
     this.projectData = projectData;
+    scheduleWrite(importSettings, projectData, "Saving sync data...");
+  }
+
+  private void scheduleWrite(
+      BlazeImportSettings importSettings, BlazeProjectData projectData, String title) {
     if (ApplicationManager.getApplication().isUnitTestMode()) {
       return;
     }
-    ProgressiveTaskWithProgressIndicator.builder(project, "Saving sync data...")
+    ProgressiveTaskWithProgressIndicator.builder(project, title)
         .setExecutor(writeDataExecutor)
         .submitTask(
             (ProgressIndicator indicator) -> {
               try {
-                File file = getCacheFile(project, importSettings);
-                synchronized (this) {
-                  projectData.saveToDisk(file);
-                }
+                File file = writeToDisk(importSettings, projectData);
                 logFileSize(projectData, file);
 
               } catch (Throwable e) {
@@ -115,6 +170,73 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
             });
   }
 
+  /**
+   * Writes the project data to disk, returning the file written. Where possible, only the changes
+   * since the last write are appended to the delta log.
+   */
+  private File writeToDisk(BlazeImportSettings importSettings, BlazeProjectData projectData)
+      throws IOException {
+    File legacyFile = getCacheFile(project, importSettings);
+    File indexedFile = getIndexedCacheFile(project, importSettings);
+    synchronized (this) {
+      ProjectDataDeltaLog deltaLog = getDeltaLog(importSettings);
+      BlazeProjectData previous = persistedData;
+      // if writing fails, the next write will need to replace everything
+      persistedData = null;
+      // keep writing the legacy file while the indexed format is behind an experiment, so turning
+      // the experiment off or downgrading the plugin doesn't lose the sync data. It's written
+      // first, so the indexed file is only considered stale if a later write skipped it.
+      projectData.saveToDisk(legacyFile);
+      if (!useIndexedCacheFile.getValue()) {
+        // don't leave stale data behind, in case the experiment is turned back on
+        Files.deleteIfExists(indexedFile.toPath());
+        deltaLog.clear();
+        return legacyFile;
+      }
+      if (previous != null && useDeltaLog.getValue() && indexedFile.exists()) {
+        deltaLog.append(previous, projectData);
+        if (deltaLog.size() > compactionThreshold(indexedFile)) {
+          writeDataExecutor.submit(() -> compact(importSettings));
+        }
+      } else {
+        ProjectDataCacheFile.write(projectData, indexedFile);
+        deltaLog.clear();
+      }
+      persistedData = projectData;
+      return indexedFile;
+    }
+  }
+
+  /** Folds the delta log into a new base cache file. */
+  private synchronized void compact(BlazeImportSettings importSettings) {
+    BlazeProjectData projectData = persistedData;
+    if (projectData == null || !useIndexedCacheFile.getValue()) {
+      return;
+    }
+    persistedData = null;
+    try {
+      ProjectDataCacheFile.write(projectData, getIndexedCacheFile(project, importSettings));
+      getDeltaLog(importSettings).clear();
+      persistedData = projectData;
+    } catch (Throwable e) {
+      logger.warn("Failed to compact project data delta log", e);
+    }
+  }
+
+  private static long compactionThreshold(File baseFile) {
+    return Math.max(MIN_COMPACTION_THRESHOLD_BYTES, baseFile.length() / 4);
+  }
+
+  private synchronized ProjectDataDeltaLog getDeltaLog(BlazeImportSettings importSettings) {
+    if (deltaLog == null) {
+      File cacheDir = BlazeDataStorage.getProjectCacheDir(project, importSettings);
+      deltaLog =
+          new ProjectDataDeltaLog(
+              new File(cacheDir, "cache.dat.log"), getIndexedCacheFile(project, importSettings));
+    }
+    return deltaLog;
+  }
+
   private static void logFileSize(BlazeProjectData projectData, File cacheFile) {
     ImmutableMap.Builder<String, String> data = ImmutableMap.builder();
     data.put("size", Long.toString(FileOperationProvider.getInstance().getFileSize(cacheFile)));
@@ -137,4 +259,8 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static File getCacheFile(Project project, BlazeImportSettings importSettings) {
     return new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat.gz");
   }
+
+  private static File getIndexedCacheFile(Project project, BlazeImportSettings importSettings) {
+    return new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat");
+  }
 }
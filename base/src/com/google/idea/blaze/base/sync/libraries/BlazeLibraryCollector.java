@@ -15,20 +15,95 @@
  */
 package com.google.idea.blaze.base.sync.libraries;
 
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.project.Project;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /** Collects libraries from the sync data using all contributors. */
 public class BlazeLibraryCollector {
+  private static final BoolExperiment cacheLibraries =
+      new BoolExperiment("blaze.sync.cache.libraries", true);
+
+  /**
+   * Returns the libraries for the given project data, cached in {@link SyncCache}. During sync,
+   * this may be called with the new project data before it's committed, in which case the libraries
+   * are reused once the sync completes.
+   */
+  public static ImmutableList<BlazeLibrary> getLibraries(
+      Project project, ProjectViewSet projectViewSet, BlazeProjectData blazeProjectData) {
+    CollectedLibraries libraries = getCollectedLibraries(project, projectViewSet, blazeProjectData);
+    return libraries != null
+        ? libraries.libraries
+        : ImmutableList.copyOf(getLibraries(projectViewSet, blazeProjectData));
+  }
+
+  /**
+   * Returns the library with the given key from the current project view and the given project
+   * data, or null if there's no such library.
+   */
+  @Nullable
+  public static BlazeLibrary findLibrary(
+      Project project, BlazeProjectData blazeProjectData, LibraryKey libraryKey) {
+    ProjectViewSet projectViewSet = ProjectViewManager.getInstance(project).getProjectViewSet();
+    if (projectViewSet == null) {
+      return null;
+    }
+    CollectedLibraries libraries = getCollectedLibraries(project, projectViewSet, blazeProjectData);
+    if (libraries != null) {
+      return libraries.librariesByKey.get(libraryKey);
+    }
+    return getLibraries(projectViewSet, blazeProjectData).stream()
+        .filter(library -> library.key.equals(libraryKey))
+        .findFirst()
+        .orElse(null);
+  }
+
+  /**
+   * Returns the cached libraries, or null if caching is disabled. Libraries cached for a different
+   * project view are collected again and replace the cached value.
+   */
+  @Nullable
+  private static CollectedLibraries getCollectedLibraries(
+      Project project, ProjectViewSet projectViewSet, BlazeProjectData blazeProjectData) {
+    if (!cacheLibraries.getValue()) {
+      return null;
+    }
+    AtomicReference<CollectedLibraries> cached =
+        SyncCache.getInstance(project)
+            .get(
+                BlazeLibraryCollector.class,
+                blazeProjectData,
+                (p, projectData) -> new AtomicReference<>());
+    if (cached == null) {
+      return null;
+    }
+    // project view sets don't implement equals, but are only replaced when reloaded
+    return cached.updateAndGet(
+        libraries ->
+            libraries != null && libraries.projectViewSet == projectViewSet
+                ? libraries
+                : new CollectedLibraries(projectViewSet, blazeProjectData));
+  }
+
   public static List<BlazeLibrary> getLibraries(
       ProjectViewSet projectViewSet, BlazeProjectData blazeProjectData) {
     // Use set to filter out duplicates.
@@ -54,4 +129,20 @@ public class BlazeLibraryCollector {
     return BlazeLibrarySorter.sortLibraries(
         result.stream().filter(libraryFilter).collect(Collectors.toList()));
   }
+
+  private static class CollectedLibraries {
+    final ProjectViewSet projectViewSet;
+    final ImmutableList<BlazeLibrary> libraries;
+    final ImmutableMap<LibraryKey, BlazeLibrary> librariesByKey;
+
+    CollectedLibraries(ProjectViewSet projectViewSet, BlazeProjectData blazeProjectData) {
+      this.projectViewSet = projectViewSet;
+      this.libraries = ImmutableList.copyOf(getLibraries(projectViewSet, blazeProjectData));
+      // subclasses may not deduplicate by key, so the first library with each key wins, as in
+      // findLibrary's uncached lookup
+      this.librariesByKey =
+          libraries.stream()
+              .collect(toImmutableMap(library -> library.key, library -> library, (a, b) -> a));
+    }
+  }
 }
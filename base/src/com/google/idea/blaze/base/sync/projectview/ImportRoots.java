@@ -33,11 +33,10 @@ import com.google.idea.blaze.base.projectview.section.sections.TargetSection;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.BuildSystem;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -196,36 +195,58 @@ public final class ImportRoots {
     return projectDirectories.containsWorkspacePath(workspacePath);
   }
 
+  /**
+   * Returns the root directory containing the given workspace-relative file or directory, or null
+   * if it's outside the project directories or excluded.
+   */
+  @Nullable
+  public WorkspacePath findRootDirectory(String relativePath) {
+    return projectDirectories.findRootDirectory(relativePath);
+  }
+
   static class ProjectDirectoriesHelper {
     private final ImmutableSet<WorkspacePath> rootDirectories;
     private final ImmutableSet<WorkspacePath> excludeDirectories;
+    // the root and exclude directories, omitting any roots which are themselves excluded
+    private final WorkspacePathTrie<DirectoryEntry> directories;
 
     @VisibleForTesting
     ProjectDirectoriesHelper(
         Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludeDirectories) {
       this.rootDirectories = ImmutableSet.copyOf(rootDirectories);
       this.excludeDirectories = ImmutableSet.copyOf(excludeDirectories);
+      this.directories = buildTrie(this.rootDirectories, this.excludeDirectories);
     }
 
-    boolean containsWorkspacePath(WorkspacePath workspacePath) {
-      boolean included = false;
-      boolean excluded = false;
-      for (WorkspacePath rootDirectory : rootDirectories) {
-        included = included || isSubdirectory(rootDirectory, workspacePath);
-      }
-      for (WorkspacePath excludeDirectory : excludeDirectories) {
-        excluded = excluded || isSubdirectory(excludeDirectory, workspacePath);
+    private static WorkspacePathTrie<DirectoryEntry> buildTrie(
+        Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludeDirectories) {
+      WorkspacePathTrie.Builder<DirectoryEntry> excludes = WorkspacePathTrie.builder();
+      excludeDirectories.forEach(path -> excludes.put(path, DirectoryEntry.exclude(path)));
+      WorkspacePathTrie<DirectoryEntry> excludeTrie = excludes.build();
+
+      WorkspacePathTrie.Builder<DirectoryEntry> builder = WorkspacePathTrie.builder();
+      for (WorkspacePath root : rootDirectories) {
+        if (excludeTrie.getDeepestAncestorValue(root.relativePath()) == null) {
+          builder.put(root, DirectoryEntry.include(root));
+        }
       }
-      return included && !excluded;
+      excludeDirectories.forEach(path -> builder.put(path, DirectoryEntry.exclude(path)));
+      return builder.build();
     }
 
-    private static boolean isSubdirectory(WorkspacePath ancestor, WorkspacePath descendant) {
-      if (ancestor.isWorkspaceRoot()) {
-        return true;
-      }
-      Path ancestorPath = FileSystems.getDefault().getPath(ancestor.relativePath());
-      Path descendantPath = FileSystems.getDefault().getPath(descendant.relativePath());
-      return descendantPath.startsWith(ancestorPath);
+    boolean containsWorkspacePath(WorkspacePath workspacePath) {
+      return findRootDirectory(workspacePath.relativePath()) != null;
+    }
+
+    /**
+     * Returns the root directory containing the given workspace-relative path, or null if it's not
+     * under any root directory, or is excluded.
+     */
+    @Nullable
+    WorkspacePath findRootDirectory(String relativePath) {
+      // roots under an exclude directory aren't in the trie, so the deepest entry wins
+      DirectoryEntry entry = directories.getDeepestAncestorValue(relativePath);
+      return entry != null && entry.included ? entry.directory : null;
     }
   }
 }
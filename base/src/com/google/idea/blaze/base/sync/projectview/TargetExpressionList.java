@@ -18,13 +18,18 @@ package com.google.idea.blaze.base.sync.projectview;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots.ProjectDirectoriesHelper;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -54,6 +59,15 @@ public final class TargetExpressionList {
   /** Non-null if we're auto-including targets derived from the project directories. */
   @Nullable private final ProjectDirectoriesHelper directories;
 
+  /** The wildcard target patterns, indexed by base package. */
+  private final WorkspacePathTrie<PackageExpressions> wildcardPatterns;
+
+  /** The index in {@link #reversedTargets} of the last expression for each single target. */
+  private final ImmutableMap<TargetExpression, Integer> singleTargets;
+
+  /** Packages containing a single target which isn't excluded. */
+  private final ImmutableSet<WorkspacePath> packagesWithIncludedTargets;
+
   private TargetExpressionList(
       ImmutableList<TargetData> projectTargets, @Nullable ProjectDirectoriesHelper directories) {
     // reverse list, removing trivially-excluded targets
@@ -72,6 +86,31 @@ public final class TargetExpressionList {
     }
     this.reversedTargets = builder.build();
     this.directories = directories;
+
+    Map<WorkspacePath, PackageExpressions> byPackage = new HashMap<>();
+    Map<TargetExpression, Integer> singleTargets = new HashMap<>();
+    ImmutableSet.Builder<WorkspacePath> packagesWithIncludedTargets = ImmutableSet.builder();
+    for (int i = 0; i < reversedTargets.size(); i++) {
+      TargetData target = reversedTargets.get(i);
+      if (target.wildcardPattern != null) {
+        byPackage
+            .computeIfAbsent(target.wildcardPattern.getBasePackage(), PackageExpressions::new)
+            .add(i, target.wildcardPattern.isRecursive());
+      } else if (target.unexcludedExpression instanceof Label) {
+        singleTargets.putIfAbsent(target.unexcludedExpression, i);
+        if (!target.isExcluded()) {
+          packagesWithIncludedTargets.add(((Label) target.unexcludedExpression).blazePackage());
+        }
+      }
+    }
+    WorkspacePathTrie.Builder<PackageExpressions> trie = WorkspacePathTrie.builder();
+    for (PackageExpressions expressions : byPackage.values()) {
+      expressions.inheritRecursiveExpressions(byPackage);
+      trie.put(expressions.basePackage, expressions);
+    }
+    this.wildcardPatterns = trie.build();
+    this.singleTargets = ImmutableMap.copyOf(singleTargets);
+    this.packagesWithIncludedTargets = packagesWithIncludedTargets.build();
   }
 
   /** Returns the original list of targets with trivially-excluded targets removed. */
@@ -84,10 +123,9 @@ public final class TargetExpressionList {
   /** Returns true if the entire package is covered by the target expressions. */
   public boolean includesPackage(WorkspacePath packagePath) {
     // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    int index = lastExpressionCoveringPackage(packagePath);
+    if (index != PackageExpressions.NONE) {
+      return !reversedTargets.get(index).isExcluded();
     }
     return directories != null && directories.containsWorkspacePath(packagePath);
   }
@@ -95,34 +133,81 @@ public final class TargetExpressionList {
   /** Returns true if any target in the package is covered by these target expressions. */
   public boolean includesAnyTargetInPackage(WorkspacePath packagePath) {
     // first check if the entire package is included/excluded
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    int index = lastExpressionCoveringPackage(packagePath);
+    if (index != PackageExpressions.NONE) {
+      return !reversedTargets.get(index).isExcluded();
     }
     if (directories != null && directories.containsWorkspacePath(packagePath)) {
       return true;
     }
     // fall back to looking for any unexcluded expression including a target in this package
-    for (TargetData target : reversedTargets) {
-      if (!target.isExcluded() && target.inPackage(packagePath)) {
-        return true;
-      }
-    }
-    return false;
+    return packagesWithIncludedTargets.contains(packagePath);
   }
 
   /** Returns true if the individual target is covered by this list. */
   public boolean includesTarget(Label label) {
     // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversTarget(label)) {
-        return !target.isExcluded();
-      }
+    int index =
+        Math.min(
+            lastExpressionCoveringPackage(label.blazePackage()),
+            singleTargets.getOrDefault(label, PackageExpressions.NONE));
+    if (index != PackageExpressions.NONE) {
+      return !reversedTargets.get(index).isExcluded();
     }
     return directories != null && directories.containsWorkspacePath(label.blazePackage());
   }
 
+  /**
+   * Returns the index in {@link #reversedTargets} of the last wildcard pattern covering the entire
+   * package, or {@link PackageExpressions#NONE}.
+   */
+  private int lastExpressionCoveringPackage(WorkspacePath packagePath) {
+    PackageExpressions expressions =
+        wildcardPatterns.getDeepestAncestorValue(packagePath.relativePath());
+    if (expressions == null) {
+      return PackageExpressions.NONE;
+    }
+    return expressions.basePackage.equals(packagePath)
+        ? Math.min(expressions.recursive, expressions.nonRecursive)
+        : expressions.recursive;
+  }
+
+  /** The wildcard target patterns with a given base package. */
+  private static class PackageExpressions {
+    static final int NONE = Integer.MAX_VALUE;
+
+    final WorkspacePath basePackage;
+    // indices in reversedTargets, so lower indices override higher ones
+    int ownRecursive = NONE;
+    // the last recursive pattern based at this package or any parent package
+    int recursive = NONE;
+    int nonRecursive = NONE;
+
+    PackageExpressions(WorkspacePath basePackage) {
+      this.basePackage = basePackage;
+    }
+
+    void add(int index, boolean isRecursive) {
+      if (isRecursive) {
+        ownRecursive = Math.min(ownRecursive, index);
+      } else {
+        nonRecursive = Math.min(nonRecursive, index);
+      }
+    }
+
+    void inheritRecursiveExpressions(Map<WorkspacePath, PackageExpressions> byPackage) {
+      recursive = ownRecursive;
+      for (WorkspacePath parent = basePackage.getParent();
+          parent != null;
+          parent = parent.getParent()) {
+        PackageExpressions parentExpressions = byPackage.get(parent);
+        if (parentExpressions != null) {
+          recursive = Math.min(recursive, parentExpressions.ownRecursive);
+        }
+      }
+    }
+  }
+
   /** A single {@link TargetExpression} and associated information. */
   private static class TargetData {
     private final TargetExpression originalExpression;
@@ -164,13 +249,5 @@ public final class TargetExpressionList {
               && wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage())
           : wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage());
     }
-
-    boolean inPackage(WorkspacePath path) {
-      if (coversPackage(path)) {
-        return true;
-      }
-      return unexcludedExpression instanceof Label
-          && ((Label) unexcludedExpression).blazePackage().equals(path);
-    }
   }
 }
@@ -205,7 +205,7 @@ public class BlazeBuildTargetSharder {
     }
     Map<TargetExpression, List<TargetExpression>> expandedTargets =
         WildcardTargetExpander.expandToNonRecursiveWildcardTargets(
-            project, context, pathResolver, includes);
+            project, context, pathResolver, projectViewSet, includes);
     if (expandedTargets == null) {
       return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.FATAL_ERROR);
     }
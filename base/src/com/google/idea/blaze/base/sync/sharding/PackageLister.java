@@ -15,11 +15,15 @@
  */
 package com.google.idea.blaze.base.sync.sharding;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
@@ -27,19 +31,29 @@ import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.projectview.section.sections.DirectorySection;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import com.google.idea.blaze.base.sync.projectview.BazelIgnoreParser;
+import com.google.idea.blaze.base.sync.sharding.PackageListingCache.DirectoryListing;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.util.WorkspacePathTrie;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.util.io.FileUtil;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -50,6 +64,15 @@ import javax.annotation.Nullable;
  */
 class PackageLister {
 
+  private static final BoolExperiment parallelListing =
+      new BoolExperiment("blaze.sync.parallel.package.listing", true);
+  private static final BoolExperiment cacheListings =
+      new BoolExperiment("blaze.sync.package.listing.cache", true);
+
+  // a directory modified this recently could be changed again without its modification time
+  // changing, so its listing isn't cached
+  private static final long MIN_CACHEABLE_AGE_MILLIS = 2000;
+
   private PackageLister() {}
 
   /** The set of blaze packages to prefetch prior to traversing the directory tree. */
@@ -75,17 +98,34 @@ class PackageLister {
    * Expands all-in-package-recursive wildcard targets into all-in-single-package targets by
    * traversing the file system, looking for child blaze packages.
    *
+   * <p>Directories covered by a later recursive exclude pattern, or by one of the given ignored
+   * directories, aren't traversed. Nor are directories excluded by the project view, unless the
+   * wildcard pattern itself lies within them.
+   *
    * <p>Returns null if directory traversal failed or was cancelled.
+   *
+   * @param wildcardPatterns all wildcard target patterns, including excludes, in their original
+   *     order
+   * @param excludedDirectories the directories excluded by the project view
    */
   @Nullable
   static Map<TargetExpression, List<TargetExpression>> expandPackageTargets(
       BuildSystemProvider provider,
       BlazeContext context,
       WorkspacePathResolver pathResolver,
-      Collection<WildcardTargetPattern> wildcardPatterns) {
+      List<WildcardTargetPattern> wildcardPatterns,
+      Collection<WorkspacePath> ignoredDirectories,
+      Collection<WorkspacePath> excludedDirectories,
+      PackageListingCache listingCache) {
+    boolean useCache = cacheListings.getValue();
+    ImmutableMap<String, DirectoryListing> previousListings =
+        useCache ? listingCache.getListings() : ImmutableMap.of();
+    Map<String, DirectoryListing> currentListings = useCache ? new ConcurrentHashMap<>() : null;
+
     List<ListenableFuture<Entry<TargetExpression, List<TargetExpression>>>> futures =
         Lists.newArrayList();
-    for (WildcardTargetPattern pattern : wildcardPatterns) {
+    for (int i = 0; i < wildcardPatterns.size(); i++) {
+      WildcardTargetPattern pattern = wildcardPatterns.get(i);
       if (!pattern.isRecursive() || pattern.toString().startsWith("-")) {
         continue;
       }
@@ -93,13 +133,20 @@ class PackageLister {
       if (!FileOperationProvider.getInstance().isDirectory(dir)) {
         continue;
       }
+      WorkspacePathTrie<Boolean> pruned =
+          prunedDirectories(
+              pattern,
+              wildcardPatterns.subList(i + 1, wildcardPatterns.size()),
+              ignoredDirectories,
+              excludedDirectories);
+      DirectoryWalker walker =
+          new DirectoryWalker(
+              provider, context, pathResolver, pruned, previousListings, currentListings);
       futures.add(
-          FetchExecutor.EXECUTOR.submit(
-              () -> {
-                List<TargetExpression> expandedTargets = new ArrayList<>();
-                traversePackageRecursively(provider, pathResolver, dir, expandedTargets);
-                return Maps.immutableEntry(pattern.originalPattern, expandedTargets);
-              }));
+          Futures.transform(
+              walker.walk(dir),
+              packages -> Maps.immutableEntry(pattern.originalPattern, packages),
+              MoreExecutors.directExecutor()));
     }
     if (futures.isEmpty()) {
       return ImmutableMap.of();
@@ -110,36 +157,202 @@ class PackageLister {
             .timed("ExpandWildcardTargets", EventType.Other)
             .onError("Expanding wildcard target patterns failed")
             .run();
-    if (!result.success()) {
+    if (!result.success() || context.isCancelled()) {
       return null;
     }
+    if (currentListings != null) {
+      listingCache.update(currentListings);
+    }
     return result
         .result()
         .stream()
         .collect(Collectors.toMap(Entry::getKey, Entry::getValue, (x, y) -> x));
   }
 
-  private static void traversePackageRecursively(
-      BuildSystemProvider provider,
-      WorkspacePathResolver pathResolver,
-      File dir,
-      List<TargetExpression> output) {
-    WorkspacePath path = pathResolver.getWorkspacePath(dir);
-    if (path == null) {
-      return;
-    }
-    if (provider.findBuildFileInDirectory(dir) != null) {
-      output.add(TargetExpression.allFromPackageNonRecursive(path));
-    }
-    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
-    File[] children = fileOperationProvider.listFiles(dir);
-    if (children == null) {
-      return;
-    }
-    for (File child : children) {
-      if (fileOperationProvider.isDirectory(child)) {
-        traversePackageRecursively(provider, pathResolver, child, output);
+  /**
+   * Directories never containing packages visible to recursive wildcard target patterns: the build
+   * system's artifact directories, and those listed in .bazelignore.
+   */
+  static ImmutableList<WorkspacePath> ignoredDirectories(
+      BuildSystemProvider provider, WorkspaceRoot workspaceRoot) {
+    ImmutableList.Builder<WorkspacePath> ignored = ImmutableList.builder();
+    for (String dir : provider.buildArtifactDirectories(workspaceRoot)) {
+      ignored.add(new WorkspacePath(dir));
+    }
+    ignored.addAll(new BazelIgnoreParser(workspaceRoot).getIgnoredPaths());
+    return ignored.build();
+  }
+
+  /**
+   * The directories which needn't be traversed when expanding the given pattern: those covered by
+   * one of the later recursive exclude patterns, ignored by the build system, or excluded by the
+   * project view (unless the pattern explicitly asks for packages within them).
+   */
+  private static WorkspacePathTrie<Boolean> prunedDirectories(
+      WildcardTargetPattern pattern,
+      List<WildcardTargetPattern> laterPatterns,
+      Collection<WorkspacePath> ignoredDirectories,
+      Collection<WorkspacePath> excludedDirectories) {
+    WorkspacePathTrie.Builder<Boolean> builder = WorkspacePathTrie.builder();
+    for (WildcardTargetPattern laterPattern : laterPatterns) {
+      if (laterPattern.isRecursive() && laterPattern.toString().startsWith("-")) {
+        builder.put(laterPattern.getBasePackage(), true);
+      }
+    }
+    ignoredDirectories.forEach(path -> builder.put(path, true));
+    String basePackage = pattern.getBasePackage().relativePath();
+    for (WorkspacePath excluded : excludedDirectories) {
+      if (!FileUtil.isAncestor(excluded.relativePath(), basePackage, /* strict= */ false)) {
+        builder.put(excluded, true);
+      }
+    }
+    return builder.build();
+  }
+
+  /** The directories excluded by the project view. */
+  static ImmutableList<WorkspacePath> excludedDirectories(ProjectViewSet projectViewSet) {
+    return projectViewSet.listItems(DirectorySection.KEY).stream()
+        .filter(entry -> !entry.included)
+        .map(entry -> entry.directory)
+        .collect(toImmutableList());
+  }
+
+  /** Lists the blaze packages under a directory, listing each subdirectory in its own task. */
+  private static final class DirectoryWalker {
+    private final BuildSystemProvider provider;
+    private final BlazeContext context;
+    private final WorkspacePathResolver pathResolver;
+    private final WorkspacePathTrie<Boolean> prunedDirectories;
+    private final ImmutableMap<String, DirectoryListing> previousListings;
+    // null if listings aren't being cached
+    @Nullable private final Map<String, DirectoryListing> currentListings;
+    private final FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+
+    DirectoryWalker(
+        BuildSystemProvider provider,
+        BlazeContext context,
+        WorkspacePathResolver pathResolver,
+        WorkspacePathTrie<Boolean> prunedDirectories,
+        ImmutableMap<String, DirectoryListing> previousListings,
+        @Nullable Map<String, DirectoryListing> currentListings) {
+      this.provider = provider;
+      this.context = context;
+      this.pathResolver = pathResolver;
+      this.prunedDirectories = prunedDirectories;
+      this.previousListings = previousListings;
+      this.currentListings = currentListings;
+    }
+
+    ListenableFuture<List<TargetExpression>> walk(File dir) {
+      if (parallelListing.getValue()) {
+        return listPackagesAsync(dir);
+      }
+      return FetchExecutor.EXECUTOR.submit(() -> listPackages(dir));
+    }
+
+    /** Returns the packages under the given directory, in depth-first order. */
+    private List<TargetExpression> listPackages(File dir) {
+      WorkspacePath path = pathResolver.getWorkspacePath(dir);
+      DirectoryListing listing = listIfTraversed(dir, path);
+      if (listing == null) {
+        return ImmutableList.of();
+      }
+      List<List<TargetExpression>> subdirectoryPackages = new ArrayList<>();
+      for (String name : listing.subdirectories) {
+        subdirectoryPackages.add(listPackages(new File(dir, name)));
+      }
+      return collectPackages(path, listing, subdirectoryPackages);
+    }
+
+    /**
+     * Returns the packages under the given directory, in depth-first order, listing each
+     * subdirectory in its own task on the shared fetch executor. Tasks never wait for each other,
+     * so a deep walk can't tie up the executor's threads.
+     */
+    private ListenableFuture<List<TargetExpression>> listPackagesAsync(File dir) {
+      WorkspacePath path = pathResolver.getWorkspacePath(dir);
+      ListenableFuture<DirectoryListing> future =
+          FetchExecutor.EXECUTOR.submit(() -> listIfTraversed(dir, path));
+      return Futures.transformAsync(
+          future,
+          listing -> {
+            if (listing == null) {
+              return Futures.<List<TargetExpression>>immediateFuture(ImmutableList.of());
+            }
+            List<ListenableFuture<List<TargetExpression>>> subdirectoryPackages =
+                listing.subdirectories.stream()
+                    .map(name -> listPackagesAsync(new File(dir, name)))
+                    .collect(Collectors.toList());
+            return Futures.transform(
+                Futures.allAsList(subdirectoryPackages),
+                packages -> collectPackages(path, listing, packages),
+                MoreExecutors.directExecutor());
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    /** Lists the directory, or returns null if it isn't to be traversed. */
+    @Nullable
+    private DirectoryListing listIfTraversed(File dir, @Nullable WorkspacePath path) {
+      if (path == null
+          || context.isCancelled()
+          || prunedDirectories.getDeepestAncestorValue(path.relativePath()) != null) {
+        return null;
+      }
+      return list(dir, path);
+    }
+
+    private static List<TargetExpression> collectPackages(
+        WorkspacePath path,
+        DirectoryListing listing,
+        List<List<TargetExpression>> subdirectoryPackages) {
+      List<TargetExpression> output = new ArrayList<>();
+      if (listing.isPackage) {
+        output.add(TargetExpression.allFromPackageNonRecursive(path));
+      }
+      subdirectoryPackages.forEach(output::addAll);
+      return output;
+    }
+
+    /**
+     * Lists the directory, reusing the previous sync's listing if the directory's modification
+     * time hasn't changed.
+     */
+    private DirectoryListing list(File dir, WorkspacePath path) {
+      if (currentListings == null) {
+        return new DirectoryListing(0, isPackage(dir), listSubdirectories(dir));
+      }
+      String key = path.relativePath();
+      // read the modification time before listing, so concurrent changes are seen next time
+      long modifiedTime = fileOperationProvider.getFileModifiedTime(dir);
+      DirectoryListing previous = previousListings.get(key);
+      if (previous != null && modifiedTime != 0 && previous.modifiedTime == modifiedTime) {
+        currentListings.put(key, previous);
+        return previous;
+      }
+      DirectoryListing listing =
+          new DirectoryListing(modifiedTime, isPackage(dir), listSubdirectories(dir));
+      if (modifiedTime != 0
+          && System.currentTimeMillis() - modifiedTime > MIN_CACHEABLE_AGE_MILLIS) {
+        currentListings.put(key, listing);
+      }
+      return listing;
+    }
+
+    private boolean isPackage(File dir) {
+      return provider.findBuildFileInDirectory(dir) != null;
+    }
+
+    private ImmutableList<String> listSubdirectories(File dir) {
+      File[] children = fileOperationProvider.listFiles(dir);
+      if (children == null) {
+        return ImmutableList.of();
       }
+      return Arrays.stream(children)
+          .filter(fileOperationProvider::isDirectory)
+          .map(File::getName)
+          .sorted()
+          .collect(toImmutableList());
     }
   }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * The directories listed while expanding recursive wildcard target patterns, persisted between
+ * syncs. A directory's listing is reused while its modification time is unchanged, since adding or
+ * removing a BUILD file or subdirectory updates it.
+ */
+public final class PackageListingCache {
+
+  private static final Logger logger = Logger.getInstance(PackageListingCache.class);
+
+  private static final String CACHE_FILE_NAME = "package_listing.dat";
+
+  /** A directory's contents, as of the given modification time. */
+  static final class DirectoryListing {
+    final long modifiedTime;
+    final boolean isPackage;
+    final ImmutableList<String> subdirectories;
+
+    DirectoryListing(long modifiedTime, boolean isPackage, ImmutableList<String> subdirectories) {
+      this.modifiedTime = modifiedTime;
+      this.isPackage = isPackage;
+      this.subdirectories = subdirectories;
+    }
+  }
+
+  // returns null if there's nowhere to persist listings
+  private final Supplier<File> cacheFile;
+  // single-threaded, so writes happen in order
+  private final Executor writeExecutor;
+
+  // keyed by workspace-relative path. Null until first read from disk.
+  @Nullable private volatile ImmutableMap<String, DirectoryListing> listings;
+
+  public PackageListingCache(Project project) {
+    this(
+        () -> getCacheFile(project),
+        AppExecutorUtil.createBoundedApplicationPoolExecutor("PackageListingCache", 1));
+  }
+
+  @VisibleForTesting
+  PackageListingCache(Supplier<File> cacheFile, Executor writeExecutor) {
+    this.cacheFile = cacheFile;
+    this.writeExecutor = writeExecutor;
+  }
+
+  public static PackageListingCache getInstance(Project project) {
+    return ServiceManager.getService(project, PackageListingCache.class);
+  }
+
+  /** Returns the directories listed during the previous expansion, keyed by workspace path. */
+  ImmutableMap<String, DirectoryListing> getListings() {
+    ImmutableMap<String, DirectoryListing> listings = this.listings;
+    if (listings != null) {
+      return listings;
+    }
+    synchronized (this) {
+      if (this.listings == null) {
+        this.listings = readFromDisk();
+      }
+      return this.listings;
+    }
+  }
+
+  /**
+   * Replaces the cached listings with those from the latest expansion, so directories no longer
+   * under a wildcard pattern are dropped. The new listings are written to disk in the background.
+   */
+  void update(Map<String, DirectoryListing> newListings) {
+    ImmutableMap<String, DirectoryListing> listings = ImmutableMap.copyOf(newListings);
+    this.listings = listings;
+    File file = cacheFile.get();
+    if (file == null) {
+      return;
+    }
+    writeExecutor.execute(
+        () -> {
+          try {
+            writeToDisk(listings, file);
+          } catch (IOException e) {
+            logger.warn("Failed to write package listing cache", e);
+          }
+        });
+  }
+
+  private ImmutableMap<String, DirectoryListing> readFromDisk() {
+    File file = cacheFile.get();
+    if (file == null) {
+      return ImmutableMap.of();
+    }
+    try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      ProjectData.PackageListing proto = ProjectData.PackageListing.parseFrom(in);
+      ImmutableMap.Builder<String, DirectoryListing> builder =
+          ImmutableMap.builderWithExpectedSize(proto.getDirectoriesCount());
+      for (ProjectData.PackageListing.Directory dir : proto.getDirectoriesList()) {
+        builder.put(
+            dir.getPath(),
+            new DirectoryListing(
+                dir.getModifiedTime(),
+                dir.getIsPackage(),
+                ImmutableList.copyOf(dir.getSubdirectoriesList())));
+      }
+      return builder.build();
+    } catch (FileNotFoundException e) {
+      return ImmutableMap.of();
+    } catch (IOException e) {
+      logger.warn("Failed to read package listing cache", e);
+      return ImmutableMap.of();
+    }
+  }
+
+  private static void writeToDisk(ImmutableMap<String, DirectoryListing> listings, File file)
+      throws IOException {
+    ProjectData.PackageListing.Builder proto = ProjectData.PackageListing.newBuilder();
+    listings.forEach(
+        (path, listing) ->
+            proto.addDirectories(
+                ProjectData.PackageListing.Directory.newBuilder()
+                    .setPath(path)
+                    .setModifiedTime(listing.modifiedTime)
+                    .setIsPackage(listing.isPackage)
+                    .addAllSubdirectories(listing.subdirectories)));
+    File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+    try (OutputStream out =
+        new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      proto.build().writeTo(out);
+    }
+    Files.move(
+        tempFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Nullable
+  private static File getCacheFile(Project project) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), CACHE_FILE_NAME)
+        : null;
+  }
+}
@@ -30,6 +30,8 @@ import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
+import com.google.idea.blaze.base.scope.scopes.ChromeTraceScope;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.google.idea.common.experiments.IntExperiment;
@@ -37,6 +39,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.util.concurrency.AppExecutorUtil;
 import java.util.List;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /** Partitioned list of blaze targets. */
 public class ShardedTargetList {
@@ -106,12 +109,12 @@ public class ShardedTargetList {
     BuildResult output = null;
     for (int i = 0; i < shardedTargets.size(); i++, progress++) {
       context.output(new StatusOutput(progressMessage.apply(i + 1)));
-      BuildResult result = invocation.apply(shardedTargets.get(i));
+      BuildResult result = runShard(context, i, invocation);
       if (result.outOfMemory() && progress > 0) {
         // re-try now that blaze server has restarted
         progress = 0;
         IssueOutput.warn(retryOnOomMessage(project, i)).submit(context);
-        result = invocation.apply(shardedTargets.get(i));
+        result = runShard(context, i, invocation);
       }
       output = output == null ? result : BuildResult.combine(output, result);
       if (output.status == BuildResult.Status.FATAL_ERROR) {
@@ -135,8 +138,8 @@ public class ShardedTargetList {
 
     ListenableFuture<List<BuildResult>> future =
         Futures.allAsList(
-            shardedTargets.stream()
-                .map(s -> executor.submit(() -> invocation.apply(s)))
+            IntStream.range(0, shardedTargets.size())
+                .mapToObj(i -> executor.submit(() -> runShard(context, i, invocation)))
                 .collect(toImmutableList()));
 
     String buildSystem = Blaze.buildSystemName(project);
@@ -151,6 +154,19 @@ public class ShardedTargetList {
     return results.stream().reduce(BuildResult::combine).orElse(BuildResult.FATAL_ERROR);
   }
 
+  /** Runs the invocation on a single shard, recording a span if the sync is being traced. */
+  private BuildResult runShard(
+      BlazeContext context,
+      int shardIndex,
+      Function<List<? extends TargetExpression>, BuildResult> invocation) {
+    String name = String.format("Shard %s of %s", shardIndex + 1, shardedTargets.size());
+    return ChromeTraceScope.trace(
+        context,
+        name,
+        EventType.BlazeInvocation.name(),
+        () -> invocation.apply(shardedTargets.get(shardIndex)));
+  }
+
   private String retryOnOomMessage(Project project, int shardIndex) {
     String buildSystem = Blaze.buildSystemName(project);
     return String.format(
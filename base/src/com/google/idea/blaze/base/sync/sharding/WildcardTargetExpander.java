@@ -20,11 +20,14 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.process.ExternalTask;
 import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
 import com.google.idea.blaze.base.command.BlazeCommand;
 import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.console.BlazeConsoleLineProcessorProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.TempDirectoryProvider;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -33,8 +36,10 @@ import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.query.BlazeQueryLabelKindParser;
 import com.google.idea.blaze.base.query.BlazeQueryLabelKindParser.RuleTypeAndLabel;
+import com.google.idea.blaze.base.query.BlazeQueryStreamedProtoParser;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
@@ -47,6 +52,11 @@ import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +71,14 @@ public class WildcardTargetExpander {
   private static final BoolExperiment filterByRuleType =
       new BoolExperiment("blaze.build.filter.by.rule.type", true);
 
+  /**
+   * Expand all target patterns with a single 'query --output=streamed_proto' invocation, rather
+   * than a series of sharded 'label_kind' queries. Requires a blaze version supporting
+   * '--output=streamed_proto' and '--query_file'.
+   */
+  private static final BoolExperiment singleStreamedQuery =
+      new BoolExperiment("blaze.sync.expand.targets.streamed.query", false);
+
   static class ExpandedTargetsResult {
     final List<TargetExpression> singleTargets;
     final BuildResult buildResult;
@@ -94,6 +112,7 @@ public class WildcardTargetExpander {
       Project project,
       BlazeContext context,
       WorkspacePathResolver pathResolver,
+      ProjectViewSet projectViewSet,
       List<WildcardTargetPattern> wildcardPatterns) {
 
     Set<WildcardTargetPattern> excludes =
@@ -122,8 +141,15 @@ public class WildcardTargetExpander {
       return null;
     }
 
+    BuildSystemProvider provider = Blaze.getBuildSystemProvider(project);
     return PackageLister.expandPackageTargets(
-        Blaze.getBuildSystemProvider(project), context, pathResolver, includes);
+        provider,
+        context,
+        pathResolver,
+        wildcardPatterns,
+        PackageLister.ignoredDirectories(provider, WorkspaceRoot.fromProject(project)),
+        PackageLister.excludedDirectories(projectViewSet),
+        PackageListingCache.getInstance(project));
   }
 
   /** Runs a sharded blaze query to expand wildcard targets to individual blaze targets */
@@ -151,11 +177,23 @@ public class WildcardTargetExpander {
       BlazeBuildParams buildParams,
       ProjectViewSet projectViewSet,
       List<TargetExpression> allTargets) {
+    Predicate<String> handledRulesPredicate = handledRuleTypes(projectViewSet);
+    boolean excludeManualTargets = excludeManualTargets(project, projectViewSet);
+    if (singleStreamedQuery.getValue()) {
+      // the blaze server runs one command at a time, so a single query avoids a round-trip per
+      // shard
+      context.output(new StatusOutput("Expanding wildcard target patterns..."));
+      return queryIndividualTargetsStreamed(
+          context,
+          workspaceRoot,
+          buildParams,
+          handledRulesPredicate,
+          allTargets,
+          excludeManualTargets);
+    }
     ImmutableList<ImmutableList<TargetExpression>> shards =
         BlazeBuildTargetSharder.shardTargetsRetainingOrdering(
             allTargets, BlazeBuildTargetSharder.PACKAGE_SHARD_SIZE);
-    Predicate<String> handledRulesPredicate = handledRuleTypes(projectViewSet);
-    boolean excludeManualTargets = excludeManualTargets(project, projectViewSet);
     ExpandedTargetsResult output = null;
     for (int i = 0; i < shards.size(); i++) {
       List<TargetExpression> shard = shards.get(i);
@@ -214,31 +252,103 @@ public class WildcardTargetExpander {
             .addBlazeFlags("--output=label_kind")
             .addBlazeFlags(query);
 
-    // it's fine to include wildcards here; they're guaranteed not to clash with actual labels.
-    Set<String> explicitTargets =
-        targetPatterns.stream().map(TargetExpression::toString).collect(Collectors.toSet());
-    Predicate<RuleTypeAndLabel> filter =
-        !filterByRuleType.getValue()
-            ? t -> true
-            : t -> handledRulesPredicate.test(t.ruleType) || explicitTargets.contains(t.label);
-
-    BlazeQueryLabelKindParser outputProcessor = new BlazeQueryLabelKindParser(filter);
+    BlazeQueryLabelKindParser outputProcessor =
+        new BlazeQueryLabelKindParser(targetFilter(handledRulesPredicate, targetPatterns));
 
     int retVal =
-        ExternalTask.builder(workspaceRoot)
-            .addBlazeCommand(builder.build())
-            .context(context)
-            .stdout(LineProcessingOutputStream.of(outputProcessor))
-            .stderr(
-                LineProcessingOutputStream.of(
-                    BlazeConsoleLineProcessorProvider.getAllStderrLineProcessors(context)))
-            .build()
-            .run();
+        runQuery(
+            context,
+            workspaceRoot,
+            builder.build(),
+            LineProcessingOutputStream.of(outputProcessor));
 
     BuildResult buildResult = BuildResult.fromExitCode(retVal);
     return new ExpandedTargetsResult(outputProcessor.getTargetLabels(), buildResult);
   }
 
+  /**
+   * Runs a single blaze query to expand the input target patterns to individual blaze targets,
+   * parsing the streamed proto output as it arrives. The query is passed via a file, since it can
+   * be too long for a command-line argument.
+   */
+  private static ExpandedTargetsResult queryIndividualTargetsStreamed(
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      BlazeBuildParams buildParams,
+      Predicate<String> handledRulesPredicate,
+      List<TargetExpression> targetPatterns,
+      boolean excludeManualTargets) {
+    String query = queryString(targetPatterns, excludeManualTargets);
+    if (query.isEmpty()) {
+      // will be empty if there are no non-excluded targets
+      return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.SUCCESS);
+    }
+    Path queryFile;
+    try {
+      queryFile = writeQueryFile(query);
+    } catch (IOException e) {
+      IssueOutput.error("Couldn't write blaze query file: " + e.getMessage()).submit(context);
+      return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.FATAL_ERROR);
+    }
+    try {
+      BlazeCommand command =
+          BlazeCommand.builder(buildParams.blazeBinaryPath(), BlazeCommandName.QUERY)
+              .addBlazeFlags(BlazeFlags.KEEP_GOING)
+              .addBlazeFlags("--output=streamed_proto")
+              // only the rule class and name are needed
+              .addBlazeFlags("--proto:output_rule_attrs=", "--noproto:rule_inputs_and_outputs")
+              .addBlazeFlags("--query_file=" + queryFile)
+              .build();
+      BlazeQueryStreamedProtoParser outputProcessor =
+          new BlazeQueryStreamedProtoParser(targetFilter(handledRulesPredicate, targetPatterns));
+      int retVal = runQuery(context, workspaceRoot, command, outputProcessor);
+      return new ExpandedTargetsResult(
+          outputProcessor.getTargetLabels(), BuildResult.fromExitCode(retVal));
+    } finally {
+      try {
+        Files.deleteIfExists(queryFile);
+      } catch (IOException e) {
+        // ignore; the file is also deleted on exit
+      }
+    }
+  }
+
+  private static Path writeQueryFile(String query) throws IOException {
+    Path tempDir = TempDirectoryProvider.getInstance().getTempDirectory();
+    Path queryFile =
+        FileOperationProvider.getInstance().createTempFile(tempDir, "blaze-query-", ".txt");
+    queryFile.toFile().deleteOnExit();
+    Files.write(queryFile, query.getBytes(StandardCharsets.UTF_8));
+    return queryFile;
+  }
+
+  private static Predicate<RuleTypeAndLabel> targetFilter(
+      Predicate<String> handledRulesPredicate, List<TargetExpression> targetPatterns) {
+    if (!filterByRuleType.getValue()) {
+      return t -> true;
+    }
+    // it's fine to include wildcards here; they're guaranteed not to clash with actual labels.
+    Set<String> explicitTargets =
+        targetPatterns.stream().map(TargetExpression::toString).collect(Collectors.toSet());
+    return t -> handledRulesPredicate.test(t.ruleType) || explicitTargets.contains(t.label);
+  }
+
+  private static int runQuery(
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      BlazeCommand command,
+      OutputStream stdout) {
+    return ExternalTask.builder(workspaceRoot)
+        .addBlazeCommand(command)
+        .context(context)
+        .stdout(stdout)
+        .stderr(
+            LineProcessingOutputStream.of(
+                BlazeConsoleLineProcessorProvider.getAllStderrLineProcessors(context)))
+        .build()
+        .run();
+  }
+
   private static Predicate<String> handledRuleTypes(ProjectViewSet projectViewSet) {
     return LanguageSupport.createWorkspaceLanguageSettings(projectViewSet)
         .getAvailableTargetKinds();
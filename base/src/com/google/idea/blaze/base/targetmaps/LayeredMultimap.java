@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable multimap which can be updated in time proportional to the keys which changed.
+ *
+ * <p>Changes are kept as layers over a flattened base, each replacing the values of some keys. A
+ * layer is merged into the one below once it's at least half that layer's size, so there are only
+ * logarithmically many layers, and all layers are flattened into the base once they hold more keys
+ * than half the base.
+ */
+final class LayeredMultimap<K, V> {
+  private final ImmutableMultimap<K, V> base;
+  // the newest layer is last. Empty values mean the key has been removed.
+  private final ImmutableList<ImmutableMap<K, ImmutableList<V>>> layers;
+
+  private LayeredMultimap(
+      ImmutableMultimap<K, V> base, ImmutableList<ImmutableMap<K, ImmutableList<V>>> layers) {
+    this.base = base;
+    this.layers = layers;
+  }
+
+  static <K, V> LayeredMultimap<K, V> of(ImmutableMultimap<K, V> base) {
+    return new LayeredMultimap<>(base, ImmutableList.of());
+  }
+
+  ImmutableCollection<V> get(K key) {
+    for (int i = layers.size() - 1; i >= 0; i--) {
+      ImmutableList<V> values = layers.get(i).get(key);
+      if (values != null) {
+        return values;
+      }
+    }
+    return base.get(key);
+  }
+
+  /**
+   * Returns a copy of this multimap with the values of the given keys replaced. Keys mapped to an
+   * empty collection are removed.
+   */
+  LayeredMultimap<K, V> withReplacedValues(Map<K, ? extends Collection<V>> replacements) {
+    if (replacements.isEmpty()) {
+      return this;
+    }
+    List<ImmutableMap<K, ImmutableList<V>>> newLayers = new ArrayList<>(layers);
+    ImmutableMap.Builder<K, ImmutableList<V>> layer = ImmutableMap.builder();
+    replacements.forEach((key, values) -> layer.put(key, ImmutableList.copyOf(values)));
+    newLayers.add(layer.build());
+    int last = newLayers.size() - 1;
+    while (last > 0 && newLayers.get(last).size() * 2 >= newLayers.get(last - 1).size()) {
+      newLayers.set(last - 1, merge(newLayers.get(last - 1), newLayers.remove(last)));
+      last--;
+    }
+    int layeredKeys = newLayers.stream().mapToInt(Map::size).sum();
+    if (layeredKeys * 2 > base.keySet().size()) {
+      return of(flatten(base, newLayers));
+    }
+    return new LayeredMultimap<>(base, ImmutableList.copyOf(newLayers));
+  }
+
+  /** Returns the contents as a single multimap. This takes time proportional to its size. */
+  @VisibleForTesting
+  ImmutableMultimap<K, V> toMultimap() {
+    return layers.isEmpty() ? base : flatten(base, layers);
+  }
+
+  @VisibleForTesting
+  int layerCount() {
+    return layers.size();
+  }
+
+  private static <K, V> ImmutableMap<K, ImmutableList<V>> merge(
+      ImmutableMap<K, ImmutableList<V>> older, ImmutableMap<K, ImmutableList<V>> newer) {
+    Map<K, ImmutableList<V>> merged = new LinkedHashMap<>(older);
+    merged.putAll(newer);
+    return ImmutableMap.copyOf(merged);
+  }
+
+  private static <K, V> ImmutableMultimap<K, V> flatten(
+      ImmutableMultimap<K, V> base, List<ImmutableMap<K, ImmutableList<V>>> layers) {
+    ImmutableMap<K, ImmutableList<V>> changes = ImmutableMap.of();
+    for (ImmutableMap<K, ImmutableList<V>> layer : layers) {
+      changes = merge(changes, layer);
+    }
+    ImmutableMultimap.Builder<K, V> builder = ImmutableMultimap.builder();
+    for (Map.Entry<K, Collection<V>> entry : base.asMap().entrySet()) {
+      if (!changes.containsKey(entry.getKey())) {
+        builder.putAll(entry.getKey(), entry.getValue());
+      }
+    }
+    changes.forEach((key, values) -> builder.putAll(key, values));
+    return builder.build();
+  }
+}
@@ -16,38 +16,144 @@
 package com.google.idea.blaze.base.targetmaps;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.idea.blaze.base.ideinfo.Dependency;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.intellij.openapi.project.Project;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /** Handy class to create an reverse dep map of all targets */
-public class ReverseDependencyMap {
-  public static ImmutableMultimap<TargetKey, TargetKey> get(Project project) {
-    ImmutableMultimap<TargetKey, TargetKey> map =
-        SyncCache.getInstance(project)
-            .get(ReverseDependencyMap.class, ReverseDependencyMap::createRdepsMap);
-    return map != null ? map : ImmutableMultimap.of();
+public final class ReverseDependencyMap {
+  private static final ReverseDependencyMap EMPTY =
+      new ReverseDependencyMap(
+          LayeredMultimap.of(ImmutableMultimap.of()), LayeredMultimap.of(ImmutableMultimap.of()));
+
+  private final LayeredMultimap<TargetKey, TargetKey> rdeps;
+  // reverse dependencies of keys not in the target map, in case they're added by a later sync
+  private final LayeredMultimap<TargetKey, TargetKey> danglingRdeps;
+
+  private ReverseDependencyMap(
+      LayeredMultimap<TargetKey, TargetKey> rdeps,
+      LayeredMultimap<TargetKey, TargetKey> danglingRdeps) {
+    this.rdeps = rdeps;
+    this.danglingRdeps = danglingRdeps;
+  }
+
+  public static ReverseDependencyMap get(Project project) {
+    ReverseDependencyMap rdeps =
+        SyncCache.getInstance(project).get(ReverseDependencyMap.class, new Computable());
+    return rdeps != null ? rdeps : EMPTY;
+  }
+
+  /** Returns the keys of the targets which directly depend on the given target. */
+  public ImmutableCollection<TargetKey> get(TargetKey key) {
+    return rdeps.get(key);
   }
 
   @VisibleForTesting
   static ImmutableMultimap<TargetKey, TargetKey> createRdepsMap(
       Project project, BlazeProjectData projectData) {
-    TargetMap targetMap = projectData.getTargetMap();
-    ImmutableMultimap.Builder<TargetKey, TargetKey> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      TargetKey key = target.getKey();
-      for (Dependency dep : target.getDependencies()) {
-        TargetKey depKey = dep.getTargetKey();
-        if (targetMap.contains(depKey)) {
-          builder.put(depKey, key);
+    return new Computable().compute(project, projectData).rdeps.toMultimap();
+  }
+
+  @VisibleForTesting
+  static ImmutableMultimap<TargetKey, TargetKey> updateRdepsMap(
+      Project project, BlazeProjectData previousProjectData, BlazeProjectData projectData) {
+    Computable computable = new Computable();
+    return computable
+        .update(
+            project,
+            previousProjectData,
+            computable.compute(project, previousProjectData),
+            projectData,
+            TargetMapDiff.compute(previousProjectData.getTargetMap(), projectData.getTargetMap()))
+        .rdeps
+        .toMultimap();
+  }
+
+  private static class Computable
+      implements SyncCache.IncrementalSyncCacheComputable<ReverseDependencyMap> {
+
+    @Override
+    public ReverseDependencyMap compute(Project project, BlazeProjectData projectData) {
+      TargetMap targetMap = projectData.getTargetMap();
+      ImmutableMultimap.Builder<TargetKey, TargetKey> rdeps = ImmutableMultimap.builder();
+      ImmutableMultimap.Builder<TargetKey, TargetKey> dangling = ImmutableMultimap.builder();
+      for (TargetKey key : targetMap.keys()) {
+        for (TargetKey depKey : targetMap.getDependencyKeys(key)) {
+          if (targetMap.contains(depKey)) {
+            rdeps.put(depKey, key);
+          } else {
+            dangling.put(depKey, key);
+          }
         }
       }
+      return new ReverseDependencyMap(
+          LayeredMultimap.of(rdeps.build()), LayeredMultimap.of(dangling.build()));
+    }
+
+    /** Updates only the reverse dependencies of the changed targets and their dependencies. */
+    @Override
+    public ReverseDependencyMap update(
+        Project project,
+        BlazeProjectData previousProjectData,
+        ReverseDependencyMap previous,
+        BlazeProjectData projectData,
+        TargetMapDiff diff) {
+      if (diff.isEmpty()) {
+        return previous;
+      }
+      TargetMap previousTargets = previousProjectData.getTargetMap();
+      TargetMap targetMap = projectData.getTargetMap();
+
+      // the dependency keys whose reverse dependencies may have changed
+      Set<TargetKey> affected = new HashSet<>();
+      affected.addAll(diff.added);
+      affected.addAll(diff.removed);
+      SetMultimap<TargetKey, TargetKey> removedEdges = HashMultimap.create();
+      for (TargetKey key : diff.changedOrRemoved()) {
+        for (TargetKey depKey : previousTargets.getDependencyKeys(key)) {
+          removedEdges.put(depKey, key);
+          affected.add(depKey);
+        }
+      }
+      ListMultimap<TargetKey, TargetKey> addedEdges = ArrayListMultimap.create();
+      for (TargetKey key : diff.addedOrChanged()) {
+        for (TargetKey depKey : targetMap.getDependencyKeys(key)) {
+          addedEdges.put(depKey, key);
+          affected.add(depKey);
+        }
+      }
+
+      Map<TargetKey, List<TargetKey>> rdeps = new HashMap<>();
+      Map<TargetKey, List<TargetKey>> dangling = new HashMap<>();
+      for (TargetKey depKey : affected) {
+        List<TargetKey> sources = new ArrayList<>();
+        sources.addAll(previous.rdeps.get(depKey));
+        sources.addAll(previous.danglingRdeps.get(depKey));
+        sources.removeAll(removedEdges.get(depKey));
+        sources.addAll(addedEdges.get(depKey));
+        boolean inTargetMap = targetMap.contains(depKey);
+        rdeps.put(depKey, inTargetMap ? sources : ImmutableList.of());
+        dangling.put(depKey, inTargetMap ? ImmutableList.of() : sources);
+      }
+      return new ReverseDependencyMap(
+          previous.rdeps.withReplacedValues(rdeps),
+          previous.danglingRdeps.withReplacedValues(dangling));
     }
-    return builder.build();
   }
 }
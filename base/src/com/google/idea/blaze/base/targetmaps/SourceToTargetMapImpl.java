@@ -17,12 +17,16 @@ package com.google.idea.blaze.base.targetmaps;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.SyncCache;
@@ -30,7 +34,14 @@ import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /** Maps source files to their respective targets */
@@ -61,7 +72,7 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
 
   @Override
   public ImmutableCollection<TargetKey> getRulesForSourceFile(File sourceFile) {
-    ImmutableMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap();
+    LayeredMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap();
     if (sourceToTargetMap == null) {
       return ImmutableList.of();
     }
@@ -69,25 +80,83 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
   }
 
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
-    return SyncCache.getInstance(project)
-        .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
+  private synchronized LayeredMultimap<File, TargetKey> getSourceToTargetMap() {
+    return SyncCache.getInstance(project).get(SourceToTargetMapImpl.class, new Computable());
   }
 
-  @SuppressWarnings("unused")
-  private static ImmutableMultimap<File, TargetKey> computeSourceToTargetMap(
-      Project project, BlazeProjectData blazeProjectData) {
-    ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
-    ImmutableMultimap.Builder<File, TargetKey> sourceToTargetMap = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : blazeProjectData.getTargetMap().targets()) {
-      TargetKey key = target.getKey();
-      for (ArtifactLocation sourceArtifact : target.getSources()) {
-        File file = decoder.resolveSource(sourceArtifact);
-        if (file != null) {
-          sourceToTargetMap.put(file, key);
+  @VisibleForTesting
+  static class Computable
+      implements SyncCache.IncrementalSyncCacheComputable<LayeredMultimap<File, TargetKey>> {
+
+    @Override
+    public LayeredMultimap<File, TargetKey> compute(
+        Project project, BlazeProjectData blazeProjectData) {
+      ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
+      ImmutableMultimap.Builder<File, TargetKey> sourceToTargetMap = ImmutableMultimap.builder();
+      blazeProjectData
+          .getTargetMap()
+          .stream()
+          .forEach(
+              target -> {
+                for (File file : resolveSources(decoder, target)) {
+                  sourceToTargetMap.put(file, target.getKey());
+                }
+              });
+      return LayeredMultimap.of(sourceToTargetMap.build());
+    }
+
+    /** Replaces the targets of only the source files of the changed targets. */
+    @Nullable
+    @Override
+    public LayeredMultimap<File, TargetKey> update(
+        Project project,
+        BlazeProjectData previousProjectData,
+        LayeredMultimap<File, TargetKey> previous,
+        BlazeProjectData projectData,
+        TargetMapDiff diff) {
+      ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+      if (!decoder.equals(previousProjectData.getArtifactLocationDecoder())) {
+        // source files may resolve differently
+        return null;
+      }
+      if (diff.isEmpty()) {
+        return previous;
+      }
+      ImmutableSet<TargetKey> staleTargets = diff.changedOrRemoved();
+      Set<File> affectedFiles = new HashSet<>();
+      for (TargetKey key : staleTargets) {
+        affectedFiles.addAll(
+            resolveSources(decoder, previousProjectData.getTargetMap().get(key)));
+      }
+      ListMultimap<File, TargetKey> addedSources = ArrayListMultimap.create();
+      for (TargetKey key : diff.addedOrChanged()) {
+        for (File file : resolveSources(decoder, projectData.getTargetMap().get(key))) {
+          addedSources.put(file, key);
+          affectedFiles.add(file);
         }
       }
+
+      Map<File, List<TargetKey>> replacements = new HashMap<>();
+      for (File file : affectedFiles) {
+        List<TargetKey> targets =
+            previous.get(file).stream()
+                .filter(key -> !staleTargets.contains(key))
+                .collect(Collectors.toCollection(ArrayList::new));
+        targets.addAll(addedSources.get(file));
+        replacements.put(file, targets);
+      }
+      return previous.withReplacedValues(replacements);
+    }
+
+    private static ImmutableList<File> resolveSources(
+        ArtifactLocationDecoder decoder, @Nullable TargetIdeInfo target) {
+      if (target == null) {
+        return ImmutableList.of();
+      }
+      return target.getSources().stream()
+          .map(decoder::resolveSource)
+          .filter(Objects::nonNull)
+          .collect(toImmutableList());
     }
-    return sourceToTargetMap.build();
   }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An index over the dependency graph of a {@link TargetMap}, answering transitive dependency
+ * queries without traversing the target map.
+ *
+ * <p>Every target key (including dependencies outside the map) is assigned a dense int id. The
+ * graph is condensed into its strongly connected components, which are numbered in topological
+ * order, dependencies first, so a component can only depend on components with lower numbers.
+ * Each component's transitive closure is computed on first use as a bitset over component
+ * numbers, reusing the closures of its dependencies where already computed. Closures and
+ * traversal results are softly cached, so they can be reclaimed under memory pressure.
+ *
+ * <p>As with {@link TransitiveDependencyMap#getTransitiveDependenciesStream}, dependencies are
+ * followed via their plain target keys.
+ */
+final class TransitiveClosureIndex {
+
+  private final Map<TargetKey, Integer> ids;
+  private final TargetKey[] keys;
+  /** The direct dependencies of each node, in declaration order, without duplicates. */
+  private final int[][] dependencies;
+
+  /** The component containing each node. */
+  private final int[] components;
+  /** The components each component directly depends on, excluding itself. */
+  private final int[][] componentDependencies;
+  /** Whether each component's nodes depend on themselves, i.e. it contains a cycle. */
+  private final boolean[] cyclic;
+
+  private final AtomicReferenceArray<SoftReference<BitSet>> closures;
+  private final AtomicReferenceArray<SoftReference<ImmutableSet<TargetKey>>> traversals;
+
+  static TransitiveClosureIndex create(TargetMap targetMap) {
+    Map<TargetKey, Integer> ids = new HashMap<>();
+    Set<TargetKey> targetKeys = targetMap.keys();
+    TargetKey[] keys = new TargetKey[targetKeys.size()];
+    for (TargetKey key : targetKeys) {
+      keys[ids.size()] = key;
+      ids.put(key, ids.size());
+    }
+    int targetCount = keys.length;
+    int[][] dependencies = new int[targetCount][];
+    for (int i = 0; i < targetCount; i++) {
+      LinkedHashSet<Integer> deps = new LinkedHashSet<>();
+      for (TargetKey dep : targetMap.getDependencyKeys(keys[i])) {
+        TargetKey plainKey = TargetKey.forPlainTarget(dep.getLabel());
+        Integer id = ids.get(plainKey);
+        if (id == null) {
+          id = ids.size();
+          ids.put(plainKey, id);
+          if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2 + 1);
+          }
+          keys[id] = plainKey;
+        }
+        deps.add(id);
+      }
+      dependencies[i] = deps.stream().mapToInt(Integer::intValue).toArray();
+    }
+    // nodes outside the target map have no dependencies
+    keys = Arrays.copyOf(keys, ids.size());
+    dependencies = Arrays.copyOf(dependencies, ids.size());
+    for (int i = targetCount; i < dependencies.length; i++) {
+      dependencies[i] = new int[0];
+    }
+    return new TransitiveClosureIndex(ids, keys, dependencies);
+  }
+
+  private TransitiveClosureIndex(Map<TargetKey, Integer> ids, TargetKey[] keys, int[][] deps) {
+    this.ids = ids;
+    this.keys = keys;
+    this.dependencies = deps;
+    this.components = findComponents(deps);
+    int componentCount = 0;
+    for (int component : components) {
+      componentCount = Math.max(componentCount, component + 1);
+    }
+    this.componentDependencies = new int[componentCount][];
+    this.cyclic = new boolean[componentCount];
+    condense(componentCount);
+    this.closures = new AtomicReferenceArray<>(componentCount);
+    this.traversals = new AtomicReferenceArray<>(keys.length);
+  }
+
+  /**
+   * Returns the strongly connected component of each node, numbered in the order Tarjan's
+   * algorithm completes them. A component is only completed after every component reachable from
+   * it, so this is a topological order with dependencies first.
+   *
+   * <p>The traversal uses explicit stacks, since dependency chains can be deep.
+   */
+  private static int[] findComponents(int[][] deps) {
+    int n = deps.length;
+    int[] index = new int[n];
+    Arrays.fill(index, -1);
+    int[] lowLink = new int[n];
+    int[] components = new int[n];
+    boolean[] onStack = new boolean[n];
+    int[] stack = new int[n];
+    int stackSize = 0;
+    int[] callStack = new int[n];
+    int[] nextEdge = new int[n];
+    int nextIndex = 0;
+    int nextComponent = 0;
+
+    for (int root = 0; root < n; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+      int callDepth = 0;
+      callStack[callDepth++] = root;
+      index[root] = lowLink[root] = nextIndex++;
+      stack[stackSize++] = root;
+      onStack[root] = true;
+      while (callDepth > 0) {
+        int node = callStack[callDepth - 1];
+        if (nextEdge[node] < deps[node].length) {
+          int dep = deps[node][nextEdge[node]++];
+          if (index[dep] == -1) {
+            index[dep] = lowLink[dep] = nextIndex++;
+            stack[stackSize++] = dep;
+            onStack[dep] = true;
+            callStack[callDepth++] = dep;
+          } else if (onStack[dep]) {
+            lowLink[node] = Math.min(lowLink[node], index[dep]);
+          }
+          continue;
+        }
+        if (lowLink[node] == index[node]) {
+          int member;
+          do {
+            member = stack[--stackSize];
+            onStack[member] = false;
+            components[member] = nextComponent;
+          } while (member != node);
+          nextComponent++;
+        }
+        callDepth--;
+        if (callDepth > 0) {
+          int caller = callStack[callDepth - 1];
+          lowLink[caller] = Math.min(lowLink[caller], lowLink[node]);
+        }
+      }
+    }
+    return components;
+  }
+
+  /** Populates the component dependency graph. */
+  private void condense(int componentCount) {
+    int[] memberCounts = new int[componentCount];
+    for (int component : components) {
+      memberCounts[component]++;
+    }
+    int[][] members = new int[componentCount][];
+    for (int c = 0; c < componentCount; c++) {
+      members[c] = new int[memberCounts[c]];
+      cyclic[c] = memberCounts[c] > 1;
+    }
+    int[] filled = new int[componentCount];
+    for (int node = 0; node < components.length; node++) {
+      int c = components[node];
+      members[c][filled[c]++] = node;
+    }
+    // the last component each component was recorded as a dependency of
+    int[] lastDependent = new int[componentCount];
+    Arrays.fill(lastDependent, -1);
+    int[] buffer = new int[componentCount];
+    for (int c = 0; c < componentCount; c++) {
+      int count = 0;
+      for (int node : members[c]) {
+        for (int dep : dependencies[node]) {
+          int depComponent = components[dep];
+          if (depComponent == c) {
+            cyclic[c] = true;
+          } else if (lastDependent[depComponent] != c) {
+            lastDependent[depComponent] = c;
+            buffer[count++] = depComponent;
+          }
+        }
+      }
+      componentDependencies[c] = Arrays.copyOf(buffer, count);
+    }
+  }
+
+  /** Returns true if {@code dependent} transitively depends on {@code dependency}. */
+  boolean hasTransitiveDependency(TargetKey dependent, TargetKey dependency) {
+    Integer from = ids.get(dependent);
+    Integer to = ids.get(dependency);
+    if (from == null || to == null) {
+      return false;
+    }
+    return reachable(components[from], components[to]);
+  }
+
+  /** Returns the targets in {@code possibleDependencies} which {@code dependent} depends on. */
+  ImmutableSet<TargetKey> filterTransitiveDependencies(
+      TargetKey dependent, Collection<TargetKey> possibleDependencies) {
+    Integer from = ids.get(dependent);
+    if (from == null) {
+      return ImmutableSet.of();
+    }
+    int component = components[from];
+    ImmutableSet.Builder<TargetKey> builder = ImmutableSet.builder();
+    for (TargetKey key : possibleDependencies) {
+      Integer to = ids.get(key);
+      if (to != null && reachable(component, components[to])) {
+        builder.add(key);
+      }
+    }
+    return builder.build();
+  }
+
+  private boolean reachable(int fromComponent, int toComponent) {
+    if (fromComponent == toComponent) {
+      return cyclic[fromComponent];
+    }
+    // components only depend on lower-numbered components
+    return toComponent < fromComponent && getClosure(fromComponent).get(toComponent);
+  }
+
+  /** Returns the components transitively depended on by the given component, excluding itself. */
+  private BitSet getClosure(int component) {
+    SoftReference<BitSet> ref = closures.get(component);
+    BitSet closure = ref != null ? ref.get() : null;
+    if (closure != null) {
+      return closure;
+    }
+    closure = new BitSet(component);
+    int[] stack = new int[componentDependencies[component].length];
+    int stackSize = 0;
+    for (int dep : componentDependencies[component]) {
+      stack[stackSize++] = dep;
+    }
+    while (stackSize > 0) {
+      int c = stack[--stackSize];
+      if (closure.get(c)) {
+        continue;
+      }
+      closure.set(c);
+      SoftReference<BitSet> depRef = closures.get(c);
+      BitSet depClosure = depRef != null ? depRef.get() : null;
+      if (depClosure != null) {
+        closure.or(depClosure);
+        continue;
+      }
+      for (int dep : componentDependencies[c]) {
+        if (!closure.get(dep)) {
+          if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2 + 1);
+          }
+          stack[stackSize++] = dep;
+        }
+      }
+    }
+    closures.set(component, new SoftReference<>(closure));
+    return closure;
+  }
+
+  /**
+   * Returns the transitive dependencies of the given target, in breadth-first order. This matches
+   * the order of {@link TransitiveDependencyMap#getTransitiveDependenciesStream}.
+   */
+  ImmutableSet<TargetKey> getTransitiveDependencies(TargetKey key) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      return ImmutableSet.of();
+    }
+    SoftReference<ImmutableSet<TargetKey>> ref = traversals.get(id);
+    ImmutableSet<TargetKey> result = ref != null ? ref.get() : null;
+    if (result == null) {
+      result = traverse(ImmutableList.of(id));
+      traversals.set(id, new SoftReference<>(result));
+    }
+    return result;
+  }
+
+  /** Returns the transitive dependencies of the given targets, in breadth-first order. */
+  ImmutableCollection<TargetKey> getTransitiveDependencies(Collection<TargetKey> keys) {
+    ImmutableList.Builder<Integer> roots = ImmutableList.builder();
+    for (TargetKey key : keys) {
+      Integer id = ids.get(key);
+      if (id != null) {
+        roots.add(id);
+      }
+    }
+    return traverse(roots.build());
+  }
+
+  private ImmutableSet<TargetKey> traverse(ImmutableList<Integer> roots) {
+    BitSet seen = new BitSet(keys.length);
+    int[] queue = new int[16];
+    int head = 0;
+    int tail = 0;
+    for (int root : roots) {
+      for (int dep : dependencies[root]) {
+        if (!seen.get(dep)) {
+          seen.set(dep);
+          if (tail == queue.length) {
+            queue = Arrays.copyOf(queue, Math.min(queue.length * 2, keys.length));
+          }
+          queue[tail++] = dep;
+        }
+      }
+    }
+    ImmutableSet.Builder<TargetKey> builder = ImmutableSet.builder();
+    while (head < tail) {
+      int node = queue[head++];
+      builder.add(keys[node]);
+      for (int dep : dependencies[node]) {
+        if (!seen.get(dep)) {
+          seen.set(dep);
+          if (tail == queue.length) {
+            queue = Arrays.copyOf(queue, Math.min(queue.length * 2, keys.length));
+          }
+          queue[tail++] = dep;
+        }
+      }
+    }
+    return builder.build();
+  }
+}
@@ -24,7 +24,9 @@ import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 import java.util.Collection;
@@ -34,9 +36,13 @@ import java.util.LinkedHashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Handy class to find all transitive dependencies of a given target */
 public class TransitiveDependencyMap {
+  private static final BoolExperiment useClosureIndex =
+      new BoolExperiment("blaze.transitive.dependency.index", true);
+
   private final Project project;
 
   public static TransitiveDependencyMap getInstance(Project project) {
@@ -60,6 +66,10 @@ public class TransitiveDependencyMap {
       return false;
     }
 
+    TransitiveClosureIndex index = getIndex();
+    if (index != null) {
+      return index.hasTransitiveDependency(possibleDependent, possibleDependency);
+    }
     return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
         .anyMatch(possibleDependency::equals);
   }
@@ -79,6 +89,10 @@ public class TransitiveDependencyMap {
       return ImmutableSet.of();
     }
     ImmutableSet<TargetKey> possibleDepsSet = ImmutableSet.copyOf(possibleDependencies);
+    TransitiveClosureIndex index = getIndex();
+    if (index != null) {
+      return index.filterTransitiveDependencies(possibleDependent, possibleDepsSet);
+    }
     return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
         .filter(possibleDepsSet::contains)
         .distinct()
@@ -92,10 +106,25 @@ public class TransitiveDependencyMap {
     if (blazeProjectData == null) {
       return ImmutableSet.of();
     }
-    // TODO: see if we need caching.
+    TransitiveClosureIndex index = getIndex();
+    if (index != null) {
+      return index.getTransitiveDependencies(targetKey);
+    }
     return getTransitiveDependencies(targetKey, blazeProjectData.getTargetMap());
   }
 
+  /** Returns the dependency graph index for the current project data, built once per sync. */
+  @Nullable
+  private TransitiveClosureIndex getIndex() {
+    if (!useClosureIndex.getValue()) {
+      return null;
+    }
+    return SyncCache.getInstance(project)
+        .get(
+            TransitiveClosureIndex.class,
+            (p, projectData) -> TransitiveClosureIndex.create(projectData.getTargetMap()));
+  }
+
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
       TargetKey targetKey, TargetMap targetMap) {
     return getTransitiveDependencies(ImmutableList.of(targetKey), targetMap);
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable map from workspace directories to values, indexed by path segment. Finding the
+ * values attached to a path and all its ancestors takes time proportional to the depth of the path,
+ * independent of the number of directories in the trie.
+ */
+public final class WorkspacePathTrie<T> {
+
+  private final Node<T> root;
+
+  private WorkspacePathTrie(Node<T> root) {
+    this.root = root;
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /** Returns the value attached to exactly this path, or null if there is none. */
+  @Nullable
+  public T get(WorkspacePath path) {
+    Node<T> node = root;
+    int start = 0;
+    String relativePath = path.relativePath();
+    while (node != null && (start = nextSegmentStart(relativePath, start)) != -1) {
+      int end = segmentEnd(relativePath, start);
+      node = node.children.get(relativePath.substring(start, end));
+      start = end;
+    }
+    return node != null ? node.value : null;
+  }
+
+  /**
+   * Calls the consumer for each value attached to the given path or one of its ancestors, starting
+   * from the workspace root.
+   *
+   * @param relativePath a workspace-relative path, using '/' as the separator. This needn't be a
+   *     directory.
+   */
+  public void forEachAncestorValue(String relativePath, Consumer<? super T> consumer) {
+    Node<T> node = root;
+    int start = 0;
+    while (true) {
+      if (node.value != null) {
+        consumer.accept(node.value);
+      }
+      start = nextSegmentStart(relativePath, start);
+      if (start == -1) {
+        return;
+      }
+      int end = segmentEnd(relativePath, start);
+      node = node.children.get(relativePath.substring(start, end));
+      if (node == null) {
+        return;
+      }
+      start = end;
+    }
+  }
+
+  /**
+   * Returns the value attached to the deepest of the given path and its ancestors, or null if none
+   * of them have a value.
+   */
+  @Nullable
+  public T getDeepestAncestorValue(String relativePath) {
+    Node<T> node = root;
+    T deepest = root.value;
+    int start = 0;
+    while ((start = nextSegmentStart(relativePath, start)) != -1) {
+      int end = segmentEnd(relativePath, start);
+      node = node.children.get(relativePath.substring(start, end));
+      if (node == null) {
+        break;
+      }
+      if (node.value != null) {
+        deepest = node.value;
+      }
+      start = end;
+    }
+    return deepest;
+  }
+
+  /**
+   * Returns the start of the next non-trivial path segment at or after the given index, or -1 if
+   * there are none. Empty and '.' segments are skipped.
+   */
+  private static int nextSegmentStart(String path, int index) {
+    while (index < path.length()) {
+      char c = path.charAt(index);
+      if (c == '/') {
+        index++;
+      } else if (c == '.' && (index + 1 == path.length() || path.charAt(index + 1) == '/')) {
+        index++;
+      } else {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private static int segmentEnd(String path, int start) {
+    int end = path.indexOf('/', start);
+    return end == -1 ? path.length() : end;
+  }
+
+  private static final class Node<T> {
+    // never modified once the trie is built
+    private final Map<String, Node<T>> children = new HashMap<>();
+    @Nullable private T value;
+  }
+
+  /** Builder for a {@link WorkspacePathTrie}. Shouldn't be modified after calling build(). */
+  public static final class Builder<T> {
+    private final Node<T> root = new Node<>();
+
+    private Builder() {}
+
+    /** Attaches a value to the given path, replacing any value previously attached to it. */
+    public Builder<T> put(WorkspacePath path, T value) {
+      Node<T> node = root;
+      String relativePath = path.relativePath();
+      int start = 0;
+      while ((start = nextSegmentStart(relativePath, start)) != -1) {
+        int end = segmentEnd(relativePath, start);
+        node = node.children.computeIfAbsent(relativePath.substring(start, end), k -> new Node<>());
+        start = end;
+      }
+      node.value = value;
+      return this;
+    }
+
+    public WorkspacePathTrie<T> build() {
+      return new WorkspacePathTrie<>(root);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base;
+
+import java.util.Arrays;
+
+/**
+ * A minimal timing harness for the manually-run benchmarks. Each operation is run for a number of
+ * warmup iterations before being measured, and its results are consumed so they can't be
+ * optimized away.
+ */
+public final class Benchmark {
+
+  /** An operation to measure. The returned value is consumed, and may be null. */
+  public interface Operation {
+    Object run() throws Exception;
+  }
+
+  /** Timings for the measured iterations of an operation. */
+  public static final class Result {
+    public final String name;
+    public final double meanMillis;
+    public final double minMillis;
+    public final double maxMillis;
+
+    private Result(String name, double meanMillis, double minMillis, double maxMillis) {
+      this.name = name;
+      this.meanMillis = meanMillis;
+      this.minMillis = minMillis;
+      this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%-60s %10.3f ms/op (min %.3f, max %.3f)", name, meanMillis, minMillis, maxMillis);
+    }
+  }
+
+  // consumes operation results
+  @SuppressWarnings("unused")
+  private static volatile int sink;
+
+  private Benchmark() {}
+
+  /** Measures the given operation, printing and returning the timings. */
+  public static Result run(
+      String name, int warmupIterations, int measuredIterations, Operation operation)
+      throws Exception {
+    for (int i = 0; i < warmupIterations; i++) {
+      consume(operation.run());
+    }
+    long[] nanos = new long[measuredIterations];
+    for (int i = 0; i < measuredIterations; i++) {
+      long start = System.nanoTime();
+      Object result = operation.run();
+      nanos[i] = System.nanoTime() - start;
+      consume(result);
+    }
+    Result result =
+        new Result(
+            name,
+            Arrays.stream(nanos).average().orElse(0) / 1e6,
+            Arrays.stream(nanos).min().orElse(0) / 1e6,
+            Arrays.stream(nanos).max().orElse(0) / 1e6);
+    System.out.println(result);
+    return result;
+  }
+
+  private static void consume(Object result) {
+    sink ^= System.identityHashCode(result);
+  }
+}
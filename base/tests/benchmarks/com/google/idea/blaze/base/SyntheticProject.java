@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.ConfigurationId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetCompletedId;
+import com.google.devtools.intellij.aspect.Common;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Generates synthetic project fixtures for benchmarks, so they run without a blaze binary or a
+ * real workspace.
+ *
+ * <p>Target i is a 'proto_library' with java sources and jars, depending on the targets
+ * immediately before it. Callers need the 'proto_library' kind registered (e.g. via {@link
+ * com.google.idea.blaze.base.model.primitives.GenericBlazeRules}).
+ */
+public final class SyntheticProject {
+
+  public static final int SOURCES_PER_TARGET = 10;
+  public static final int DEPS_PER_TARGET = 15;
+
+  private static final String BLAZE_BIN = "bazel-out/k8-fastbuild/bin";
+  private static final String EXEC_ROOT = "/usr/workspace/1234/execroot";
+
+  private SyntheticProject() {}
+
+  /** Returns the target map proto for a project with the given number of targets. */
+  public static ProjectData.TargetMap targetMapProto(int targetCount) {
+    ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
+    for (int i = 0; i < targetCount; i++) {
+      builder.addTargets(targetProto(i));
+    }
+    return builder.build();
+  }
+
+  public static ImmutableMap<TargetKey, TargetIdeInfo> targets(int targetCount) {
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder =
+        ImmutableMap.builderWithExpectedSize(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo target = TargetIdeInfo.fromProto(targetProto(i));
+      builder.put(target.getKey(), target);
+    }
+    return builder.build();
+  }
+
+  public static TargetMap targetMap(int targetCount) {
+    return new TargetMap(targets(targetCount));
+  }
+
+  public static IntellijIdeInfo.TargetIdeInfo targetProto(int index) {
+    String pkg = packageName(index);
+    IntellijIdeInfo.JavaIdeInfo.Builder javaInfo = IntellijIdeInfo.JavaIdeInfo.newBuilder();
+    for (int i = 0; i < SOURCES_PER_TARGET; i++) {
+      javaInfo.addSources(source(pkg + "/Source" + i + ".java"));
+    }
+    javaInfo.addJars(
+        IntellijIdeInfo.LibraryArtifact.newBuilder()
+            .setJar(generated(pkg + "/libtarget.jar"))
+            .setInterfaceJar(generated(pkg + "/libtarget-hjar.jar"))
+            .addSourceJars(generated(pkg + "/libtarget-src.jar")));
+
+    IntellijIdeInfo.TargetIdeInfo.Builder target =
+        IntellijIdeInfo.TargetIdeInfo.newBuilder()
+            .setKey(key(index))
+            .setKindString("proto_library")
+            .setBuildFileArtifactLocation(source(pkg + "/BUILD"))
+            .setJavaIdeInfo(javaInfo);
+    for (int i = 1; i <= DEPS_PER_TARGET && index - i >= 0; i++) {
+      target.addDeps(
+          IntellijIdeInfo.Dependency.newBuilder()
+              .setTarget(key(index - i))
+              .setDependencyType(IntellijIdeInfo.Dependency.DependencyType.COMPILE_TIME));
+    }
+    return target.build();
+  }
+
+  /**
+   * Returns a serialized build event stream, as recorded from a sync build of the given number of
+   * targets. Each target reports its ide-info file and jars in separate output groups, and every
+   * file has a digest.
+   */
+  public static byte[] bepStream(int targetCount) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      BuildEvent.newBuilder()
+          .setId(
+              BuildEventId.newBuilder()
+                  .setConfiguration(ConfigurationId.newBuilder().setId("config")))
+          .setConfiguration(BuildEventStreamProtos.Configuration.newBuilder().setMnemonic("k8"))
+          .build()
+          .writeDelimitedTo(output);
+      for (int i = 0; i < targetCount; i++) {
+        String pkg = packageName(i);
+        writeNamedSet(output, "info-" + i, pkg + "/target.java-manifest.intellij-info.txt");
+        writeNamedSet(
+            output,
+            "resolve-" + i,
+            pkg + "/libtarget.jar",
+            pkg + "/libtarget-hjar.jar",
+            pkg + "/libtarget-src.jar");
+        BuildEvent.newBuilder()
+            .setId(
+                BuildEventId.newBuilder()
+                    .setTargetCompleted(
+                        TargetCompletedId.newBuilder()
+                            .setLabel(label(i))
+                            .setConfiguration(ConfigurationId.newBuilder().setId("config"))))
+            .setCompleted(
+                BuildEventStreamProtos.TargetComplete.newBuilder()
+                    .addOutputGroup(outputGroup("intellij-info-java", "info-" + i))
+                    .addOutputGroup(outputGroup("intellij-resolve-java", "resolve-" + i)))
+            .build()
+            .writeDelimitedTo(output);
+      }
+    } catch (IOException e) {
+      // can't happen when writing to a byte array
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteArray();
+  }
+
+  private static void writeNamedSet(ByteArrayOutputStream output, String id, String... paths)
+      throws IOException {
+    BuildEventStreamProtos.NamedSetOfFiles.Builder files =
+        BuildEventStreamProtos.NamedSetOfFiles.newBuilder();
+    for (String path : paths) {
+      files.addFiles(
+          BuildEventStreamProtos.File.newBuilder()
+              .setName(path)
+              .setUri("file://" + EXEC_ROOT + "/" + BLAZE_BIN + "/" + path)
+              .addPathPrefix("bazel-out")
+              .addPathPrefix("k8-fastbuild")
+              .addPathPrefix("bin")
+              .setDigest(String.format("%064x", path.hashCode() & 0xffffffffL)));
+    }
+    BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setNamedSet(NamedSetOfFilesId.newBuilder().setId(id)))
+        .setNamedSetOfFiles(files)
+        .build()
+        .writeDelimitedTo(output);
+  }
+
+  private static BuildEventStreamProtos.OutputGroup outputGroup(String name, String fileSetId) {
+    return BuildEventStreamProtos.OutputGroup.newBuilder()
+        .setName(name)
+        .addFileSets(NamedSetOfFilesId.newBuilder().setId(fileSetId))
+        .build();
+  }
+
+  public static String packageName(int index) {
+    return String.format("java/com/google/project%d/module%d", index % 100, index);
+  }
+
+  public static String label(int index) {
+    return "//" + packageName(index) + ":target";
+  }
+
+  private static IntellijIdeInfo.TargetKey key(int index) {
+    return IntellijIdeInfo.TargetKey.newBuilder().setLabel(label(index)).build();
+  }
+
+  private static Common.ArtifactLocation source(String relativePath) {
+    return Common.ArtifactLocation.newBuilder()
+        .setRelativePath(relativePath)
+        .setIsSource(true)
+        .build();
+  }
+
+  private static Common.ArtifactLocation generated(String relativePath) {
+    return Common.ArtifactLocation.newBuilder()
+        .setRootExecutionPathFragment(BLAZE_BIN)
+        .setRelativePath(relativePath)
+        .build();
+  }
+}
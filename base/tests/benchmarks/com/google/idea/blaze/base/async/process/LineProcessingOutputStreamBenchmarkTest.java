@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures the throughput of {@link LineProcessingOutputStream} on build output.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'. To use a recorded
+ * build log rather than synthetic output, pass
+ * '--jvmopt=-Dblaze.benchmark.build.log=/path/to/log'.
+ */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamBenchmarkTest {
+
+  private static final int SYNTHETIC_LOG_BYTES = 200 * 1024 * 1024;
+  // the typical size of a chunk of process output
+  private static final int CHUNK_SIZE = 8 * 1024;
+  private static final int ITERATIONS = 5;
+
+  @Test
+  public void measureThroughput() throws IOException {
+    byte[] log = loadLog();
+    long expectedLines = countLineBreaks(log);
+
+    long bestNanos = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      AtomicLong lines = new AtomicLong();
+      LineProcessingOutputStream stream =
+          LineProcessingOutputStream.of(
+              line -> {
+                lines.incrementAndGet();
+                return true;
+              });
+      long start = System.nanoTime();
+      for (int off = 0; off < log.length; off += CHUNK_SIZE) {
+        stream.write(log, off, Math.min(CHUNK_SIZE, log.length - off));
+      }
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+      assertThat(lines.get()).isEqualTo(expectedLines);
+    }
+    System.out.println(
+        String.format(
+            "LineProcessingOutputStream: %d MB, %d lines, best of %d: %d ms (%.1f MB/s)",
+            log.length / (1024 * 1024),
+            expectedLines,
+            ITERATIONS,
+            bestNanos / 1_000_000,
+            (log.length / (1024.0 * 1024.0)) / (bestNanos / 1e9)));
+  }
+
+  private static byte[] loadLog() throws IOException {
+    String path = System.getProperty("blaze.benchmark.build.log");
+    if (path != null) {
+      byte[] log = Files.readAllBytes(Paths.get(path));
+      // make sure the last line is terminated, so every line is processed
+      return log.length == 0 || log[log.length - 1] == '\n' ? log : append(log, '\n');
+    }
+    return syntheticLog();
+  }
+
+  /** Output resembling a build with --subcommands: mostly long command lines. */
+  private static byte[] syntheticLog() {
+    Random random = new Random(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(SYNTHETIC_LOG_BYTES + 64 * 1024);
+    StringBuilder line = new StringBuilder();
+    int lineNumber = 0;
+    while (out.size() < SYNTHETIC_LOG_BYTES) {
+      line.setLength(0);
+      switch (random.nextInt(4)) {
+        case 0:
+          line.append("SUBCOMMAND: # //java/com/google/foo:lib_").append(lineNumber);
+          line.append(" [action 'Compiling Java headers']\n(cd /execroot && exec env - \\\\\n");
+          for (int i = 0; i < 200; i++) {
+            line.append(" bazel-out/k8-fastbuild/bin/java/com/google/dep_");
+            line.append(i).append(".jar");
+          }
+          line.append('\n');
+          break;
+        case 1:
+          line.append("java/com/google/foo/Foo.java:").append(lineNumber);
+          line.append(": warning: [deprecation] Bar in com.google.bar has been deprecated\r\n");
+          break;
+        case 2:
+          line.append("INFO: From Compiling: résumé/世界/file_");
+          line.append(lineNumber).append(".cc\n");
+          break;
+        default:
+          line.append('[').append(lineNumber).append(" / 100,000] 16 actions running\n");
+          break;
+      }
+      byte[] bytes = line.toString().getBytes(UTF_8);
+      out.write(bytes, 0, bytes.length);
+      lineNumber++;
+    }
+    return out.toByteArray();
+  }
+
+  /** Counts '\n', '\r\n' and lone '\r' line breaks. */
+  private static long countLineBreaks(byte[] log) {
+    long count = 0;
+    for (int i = 0; i < log.length; i++) {
+      if (log[i] == '\n' || (log[i] == '\r' && (i + 1 == log.length || log[i + 1] != '\n'))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static byte[] append(byte[] bytes, char c) {
+    byte[] result = new byte[bytes.length + 1];
+    System.arraycopy(bytes, 0, result, 0, bytes.length);
+    result[bytes.length] = (byte) c;
+    return result;
+  }
+}
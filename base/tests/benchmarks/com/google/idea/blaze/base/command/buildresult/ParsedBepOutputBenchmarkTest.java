@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.Benchmark;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.SyntheticProject;
+import java.io.ByteArrayInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures parsing of a recorded sync build event stream, for synthetic builds of 10k and 100k
+ * targets.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class ParsedBepOutputBenchmarkTest extends BlazeTestCase {
+
+  @Test
+  public void measureParse10k() throws Exception {
+    measure(10_000);
+  }
+
+  @Test
+  public void measureParse100k() throws Exception {
+    measure(100_000);
+  }
+
+  private static void measure(int targetCount) throws Exception {
+    byte[] bep = SyntheticProject.bepStream(targetCount);
+    assertThat(
+            ParsedBepOutput.parseBepArtifacts(new ByteArrayInputStream(bep))
+                .getAllOutputArtifacts(path -> true))
+        .hasSize(targetCount * 4);
+
+    Benchmark.run(
+        String.format("ParsedBepOutput.parseBepArtifacts (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> ParsedBepOutput.parseBepArtifacts(new ByteArrayInputStream(bep)));
+
+    ParsedBepOutput output = ParsedBepOutput.parseBepArtifacts(new ByteArrayInputStream(bep));
+    Benchmark.run(
+        String.format("ParsedBepOutput.getOutputGroupArtifacts (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> output.getOutputGroupArtifacts("intellij-info-java", path -> true));
+  }
+}
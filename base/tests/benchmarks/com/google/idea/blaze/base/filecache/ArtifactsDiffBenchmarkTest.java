@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.Benchmark;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.SyntheticProject;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link ArtifactsDiff} for the output artifacts of synthetic builds of 10k and 100k
+ * targets. Artifacts carry digests, as reported in the build event stream, so no files are read.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class ArtifactsDiffBenchmarkTest extends BlazeTestCase {
+
+  private static final int ARTIFACTS_PER_TARGET = 4;
+
+  @Test
+  public void measure10k() throws Exception {
+    measure(10_000);
+  }
+
+  @Test
+  public void measure100k() throws Exception {
+    measure(100_000);
+  }
+
+  private static void measure(int targetCount) throws Exception {
+    ImmutableList<OutputArtifact> artifacts = artifacts(targetCount, /* version= */ 0);
+    // every tenth target's outputs have changed
+    ImmutableList<OutputArtifact> updatedArtifacts = artifacts(targetCount, /* version= */ 1);
+    ArtifactsDiff initial = ArtifactsDiff.diffArtifacts(null, artifacts);
+    assertThat(
+            ArtifactsDiff.diffArtifacts(initial.getNewState(), updatedArtifacts)
+                .getUpdatedOutputs())
+        .hasSize(targetCount / 10 * ARTIFACTS_PER_TARGET);
+
+    Benchmark.run(
+        String.format("ArtifactsDiff, no previous state (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> ArtifactsDiff.diffArtifacts(null, artifacts));
+    Benchmark.run(
+        String.format("ArtifactsDiff, 10%% changed (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> ArtifactsDiff.diffArtifacts(initial.getNewState(), updatedArtifacts));
+  }
+
+  private static ImmutableList<OutputArtifact> artifacts(int targetCount, int version) {
+    ImmutableList.Builder<OutputArtifact> builder = ImmutableList.builder();
+    for (int i = 0; i < targetCount; i++) {
+      String pkg = SyntheticProject.packageName(i);
+      int digestVersion = i % 10 == 0 ? version : 0;
+      for (int j = 0; j < ARTIFACTS_PER_TARGET; j++) {
+        String path = String.format("k8-fastbuild/bin/%s/output%d", pkg, j);
+        builder.add(
+            new LocalFileOutputArtifact(
+                new File("/execroot/bazel-out/" + path),
+                path,
+                "k8-fastbuild",
+                String.format("%032x%032x", path.hashCode(), digestVersion)));
+      }
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.SyntheticProject;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.util.function.Supplier;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares the retained heap of the default and compact {@link TargetMap} representations, for a
+ * synthetic project.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'. Heap usage is
+ * measured via {@link Runtime}, so results are approximate.
+ */
+@RunWith(JUnit4.class)
+public class TargetMapHeapBenchmarkTest extends BlazeTestCase {
+
+  private static final int TARGET_COUNT = 100_000;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void measureRetainedHeap() {
+    long mapBytes = retainedBytes(() -> new TargetMap(SyntheticProject.targets(TARGET_COUNT)));
+    long compactBytes =
+        retainedBytes(() -> TargetMap.compact(SyntheticProject.targets(TARGET_COUNT)));
+
+    System.out.println(
+        String.format(
+            "%d targets: default TargetMap %d MB, compact TargetMap %d MB (%.1f%%)",
+            TARGET_COUNT,
+            mapBytes >> 20,
+            compactBytes >> 20,
+            100.0 * compactBytes / mapBytes));
+    assertThat(compactBytes).isLessThan(mapBytes);
+  }
+
+  /** Returns the approximate heap retained by the object returned from the supplier. */
+  private static long retainedBytes(Supplier<TargetMap> supplier) {
+    long before = usedHeap();
+    TargetMap targetMap = supplier.get();
+    long after = usedHeap();
+    // keep the map reachable until after the measurement
+    assertThat(targetMap.size()).isEqualTo(TARGET_COUNT);
+    return after - before;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
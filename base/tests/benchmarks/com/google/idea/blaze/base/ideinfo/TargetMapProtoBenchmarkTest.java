@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.Benchmark;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.SyntheticProject;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link TargetMap} proto deserialization and serialization, for synthetic projects of
+ * 10k and 100k targets.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class TargetMapProtoBenchmarkTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+  }
+
+  @Test
+  public void measureFromProto10k() throws Exception {
+    measure(10_000);
+  }
+
+  @Test
+  public void measureFromProto100k() throws Exception {
+    measure(100_000);
+  }
+
+  private static void measure(int targetCount) throws Exception {
+    ProjectData.TargetMap proto = SyntheticProject.targetMapProto(targetCount);
+    assertThat(TargetMap.fromProto(proto).size()).isEqualTo(targetCount);
+
+    Benchmark.run(
+        String.format("TargetMap.fromProto (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> TargetMap.fromProto(proto));
+
+    TargetMap targetMap = TargetMap.fromProto(proto);
+    Benchmark.run(
+        String.format("TargetMap.toProto (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        targetMap::toProto);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures {@link SyncCache} read latency for already-cached values, while other (slow) values are
+ * being computed concurrently.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class SyncCacheContentionBenchmarkTest extends BlazeTestCase {
+
+  private static final int READER_THREADS = 8;
+  private static final long SLOW_COMPUTATION_MILLIS = 200;
+  private static final long DURATION_MILLIS = 5_000;
+
+  private SyncCache syncCache;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    projectServices.register(
+        BlazeProjectDataManager.class,
+        new MockBlazeProjectDataManager(MockBlazeProjectDataBuilder.builder().build()));
+    syncCache = new SyncCache(project);
+  }
+
+  @Test
+  public void measureReadLatencyUnderContention() throws Exception {
+    syncCache.get("cached", (project, projectData) -> "value");
+
+    ExecutorService executor = Executors.newFixedThreadPool(READER_THREADS + 1);
+    AtomicBoolean done = new AtomicBoolean();
+    try {
+      executor.submit(
+          () -> {
+            // a stream of slow computations, each for a different key
+            for (int i = 0; !done.get(); i++) {
+              syncCache.get("slow" + i, (project, projectData) -> sleep(SLOW_COMPUTATION_MILLIS));
+            }
+          });
+      List<Future<long[]>> readers = new ArrayList<>();
+      for (int i = 0; i < READER_THREADS; i++) {
+        readers.add(executor.submit(() -> readRepeatedly(done)));
+      }
+      Thread.sleep(DURATION_MILLIS);
+      done.set(true);
+
+      long reads = 0;
+      long maxLatencyNanos = 0;
+      for (Future<long[]> reader : readers) {
+        long[] result = reader.get(1, TimeUnit.MINUTES);
+        reads += result[0];
+        maxLatencyNanos = Math.max(maxLatencyNanos, result[1]);
+      }
+      System.out.println(
+          String.format(
+              "SyncCache: %d reader threads, %d reads in %d ms (%.0f reads/ms), max read latency"
+                  + " %.3f ms",
+              READER_THREADS,
+              reads,
+              DURATION_MILLIS,
+              (double) reads / DURATION_MILLIS,
+              maxLatencyNanos / 1e6));
+
+      // reads of cached values should never wait for an unrelated computation
+      assertThat(maxLatencyNanos)
+          .isLessThan(TimeUnit.MILLISECONDS.toNanos(SLOW_COMPUTATION_MILLIS));
+    } finally {
+      done.set(true);
+      executor.shutdownNow();
+    }
+  }
+
+  /** Returns the number of reads, and the maximum latency of a single read in nanoseconds. */
+  private long[] readRepeatedly(AtomicBoolean done) {
+    long reads = 0;
+    long maxLatencyNanos = 0;
+    while (!done.get()) {
+      long start = System.nanoTime();
+      syncCache.get("cached", (project, projectData) -> "value");
+      maxLatencyNanos = Math.max(maxLatencyNanos, System.nanoTime() - start);
+      reads++;
+    }
+    return new long[] {reads, maxLatencyNanos};
+  }
+
+  private static String sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "slow";
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.Benchmark;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.SyntheticProject;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures construction of the reverse dependency and source to target maps, for synthetic
+ * projects of 10k and 100k targets.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class TargetMapIndexBenchmarkTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+  }
+
+  @Test
+  public void measure10k() throws Exception {
+    measure(10_000);
+  }
+
+  @Test
+  public void measure100k() throws Exception {
+    measure(100_000);
+  }
+
+  private void measure(int targetCount) throws Exception {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(SyntheticProject.targetMap(targetCount))
+            .build();
+    SourceToTargetMapImpl.Computable sourceToTargetMap = new SourceToTargetMapImpl.Computable();
+    assertThat(sourceToTargetMap.compute(getProject(), projectData).toMultimap().size())
+        .isEqualTo(targetCount * SyntheticProject.SOURCES_PER_TARGET);
+
+    Benchmark.run(
+        String.format("ReverseDependencyMap.createRdepsMap (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> ReverseDependencyMap.createRdepsMap(getProject(), projectData));
+    Benchmark.run(
+        String.format("SourceToTargetMapImpl.compute (%d targets)", targetCount),
+        /* warmupIterations= */ 2,
+        /* measuredIterations= */ 5,
+        () -> sourceToTargetMap.compute(getProject(), projectData));
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Compares transitive dependency queries answered by {@link TransitiveClosureIndex} with a
+ * breadth-first traversal of the target map, on a synthetic 100k-target graph.
+ *
+ * <p>Run manually with 'bazel test //base:benchmarks --test_output=streamed'.
+ */
+@RunWith(JUnit4.class)
+public class TransitiveClosureIndexBenchmarkTest extends BlazeTestCase {
+
+  private static final int TARGET_COUNT = 100_000;
+  private static final int DEPS_PER_TARGET = 5;
+  // each target depends on targets at most this far before it, bounding closure sizes
+  private static final int DEPENDENCY_WINDOW = 2_000;
+  private static final int QUERIES = 200;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> ep =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    ep.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void measureQueryLatency() {
+    TargetMap targetMap = buildTargetMap();
+    Random random = new Random(0);
+    TargetKey[] dependents = new TargetKey[QUERIES];
+    TargetKey[] dependencies = new TargetKey[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      dependents[i] = key(TARGET_COUNT / 2 + random.nextInt(TARGET_COUNT / 2));
+      dependencies[i] = key(random.nextInt(TARGET_COUNT));
+    }
+
+    long start = System.nanoTime();
+    TransitiveClosureIndex index = TransitiveClosureIndex.create(targetMap);
+    long buildNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int traversalMatches = 0;
+    for (int i = 0; i < QUERIES; i++) {
+      TargetKey dependency = dependencies[i];
+      if (TransitiveDependencyMap.getTransitiveDependenciesStream(dependents[i], targetMap)
+          .anyMatch(dependency::equals)) {
+        traversalMatches++;
+      }
+    }
+    long traversalNanos = System.nanoTime() - start;
+
+    long coldNanos = timeReachabilityQueries(index, dependents, dependencies);
+    long warmNanos = timeReachabilityQueries(index, dependents, dependencies);
+
+    start = System.nanoTime();
+    for (TargetKey dependent : dependents) {
+      index.getTransitiveDependencies(dependent);
+    }
+    long allDepsColdNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (TargetKey dependent : dependents) {
+      index.getTransitiveDependencies(dependent);
+    }
+    long allDepsWarmNanos = System.nanoTime() - start;
+
+    System.out.println(
+        String.format(
+            "TransitiveClosureIndex: %d targets, index built in %d ms\n"
+                + "  hasTransitiveDependency: traversal %.3f ms/query, index %.3f ms/query (cold),"
+                + " %.4f ms/query (warm)\n"
+                + "  getTransitiveDependencies: %.3f ms/query (cold), %.4f ms/query (warm)",
+            TARGET_COUNT,
+            TimeUnit.NANOSECONDS.toMillis(buildNanos),
+            traversalNanos / 1e6 / QUERIES,
+            coldNanos / 1e6 / QUERIES,
+            warmNanos / 1e6 / QUERIES,
+            allDepsColdNanos / 1e6 / QUERIES,
+            allDepsWarmNanos / 1e6 / QUERIES));
+
+    int indexMatches = 0;
+    for (int i = 0; i < QUERIES; i++) {
+      if (index.hasTransitiveDependency(dependents[i], dependencies[i])) {
+        indexMatches++;
+      }
+    }
+    assertThat(indexMatches).isEqualTo(traversalMatches);
+    assertThat(warmNanos / QUERIES).isLessThan(TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  private static long timeReachabilityQueries(
+      TransitiveClosureIndex index, TargetKey[] dependents, TargetKey[] dependencies) {
+    long start = System.nanoTime();
+    for (int i = 0; i < dependents.length; i++) {
+      index.hasTransitiveDependency(dependents[i], dependencies[i]);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static TargetMap buildTargetMap() {
+    Random random = new Random(0);
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (int i = 0; i < TARGET_COUNT; i++) {
+      TargetIdeInfo.Builder target =
+          TargetIdeInfo.builder().setLabel(label(i)).setKind("proto_library");
+      for (int j = 0; i > 0 && j < DEPS_PER_TARGET; j++) {
+        target.addDependency(label(i - 1 - random.nextInt(Math.min(i, DEPENDENCY_WINDOW))));
+      }
+      builder.addTarget(target);
+    }
+    return builder.build();
+  }
+
+  private static TargetKey key(int i) {
+    return TargetKey.forPlainTarget(label(i));
+  }
+
+  private static Label label(int i) {
+    return Label.create("//pkg" + (i / 100) + ":target" + i);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamTest {
+
+  private final List<String> lines = new ArrayList<>();
+  private final LineProcessingOutputStream stream =
+      LineProcessingOutputStream.of(
+          line -> {
+            lines.add(line);
+            return true;
+          });
+
+  @Test
+  public void testSplitsOnAllLineBreaks() {
+    write("first\nsecond\r\nthird\rfourth\n\nlast");
+
+    assertThat(lines).containsExactly("first", "second", "third", "fourth", "").inOrder();
+  }
+
+  @Test
+  public void testLineSplitAcrossWrites() {
+    write("fir");
+    write("st\nsec");
+    write("ond\n");
+
+    assertThat(lines).containsExactly("first", "second").inOrder();
+  }
+
+  @Test
+  public void testCarriageReturnLineFeedSplitAcrossWrites() {
+    write("first\r");
+    write("\nsecond\r");
+    write("\r\n");
+
+    assertThat(lines).containsExactly("first", "second", "").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharacterSplitAcrossWrites() {
+    byte[] bytes = "héllo 世界\n".getBytes(UTF_8);
+    for (byte b : bytes) {
+      stream.write(new byte[] {b}, 0, 1);
+    }
+
+    assertThat(lines).containsExactly("héllo 世界");
+  }
+
+  @Test
+  public void testLaterProcessorsSkippedIfProcessingStops() {
+    List<String> secondLines = new ArrayList<>();
+    LineProcessingOutputStream stream =
+        LineProcessingOutputStream.of(
+            line -> !line.equals("stop"),
+            line -> {
+              secondLines.add(line);
+              return true;
+            });
+    byte[] bytes = "go\nstop\ngo again\n".getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+
+    assertThat(secondLines).containsExactly("go", "go again").inOrder();
+  }
+
+  private void write(String text) {
+    byte[] bytes = ("ignored" + text).getBytes(UTF_8);
+    int offset = "ignored".length();
+    stream.write(bytes, offset, bytes.length - offset);
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.ConfigurationId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetCompletedId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TestResultId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Configuration;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetComplete;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TestResult;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TestStatus;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResult;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StreamingBepReader}. */
+@RunWith(JUnit4.class)
+public class StreamingBepReaderTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final ListMultimap<String, File> reported =
+      Multimaps.synchronizedListMultimap(LinkedListMultimap.create());
+  private final List<BlazeTestResult> testResults =
+      Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<OutputArtifactParser> parserEp =
+        registerExtensionPoint(OutputArtifactParser.EP_NAME, OutputArtifactParser.class);
+    parserEp.registerExtension(new OutputArtifactParser.LocalFileParser());
+  }
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testOutputsReportedBeforeBuildFinishes() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+    StreamingBepReader reader = StreamingBepReader.start(bepFile, this::record, executor);
+    try (OutputStream output = new FileOutputStream(bepFile)) {
+      configuration("config-id", "k8-opt").build().writeDelimitedTo(output);
+      setOfFiles(ImmutableList.of("/out/foo.intellij-info.txt"), "set-id", ImmutableList.of())
+          .build()
+          .writeDelimitedTo(output);
+      targetComplete("//foo:foo", "config-id", outputGroup("intellij-info-java", "set-id"))
+          .build()
+          .writeDelimitedTo(output);
+      output.flush();
+
+      waitForReportedOutputs(1);
+      assertThat(reported.get("intellij-info-java"))
+          .containsExactly(new File("/out/foo.intellij-info.txt"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testRemainingEventsDrainedOnClose() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+    try (OutputStream output = new FileOutputStream(bepFile)) {
+      configuration("config-id", "k8-opt").build().writeDelimitedTo(output);
+      setOfFiles(ImmutableList.of("/out/foo.jar"), "set-id", ImmutableList.of())
+          .build()
+          .writeDelimitedTo(output);
+      targetComplete("//foo:foo", "config-id", outputGroup("intellij-resolve-java", "set-id"))
+          .build()
+          .writeDelimitedTo(output);
+    }
+    StreamingBepReader.start(bepFile, this::record, executor).close();
+
+    assertThat(reported.get("intellij-resolve-java")).containsExactly(new File("/out/foo.jar"));
+  }
+
+  @Test
+  public void testTransitiveFileSetsOnlyReportedOnce() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+    try (OutputStream output = new FileOutputStream(bepFile)) {
+      configuration("config-id", "k8-opt").build().writeDelimitedTo(output);
+      setOfFiles(ImmutableList.of("/out/dep.intellij-info.txt"), "dep-set", ImmutableList.of())
+          .build()
+          .writeDelimitedTo(output);
+      setOfFiles(
+              ImmutableList.of("/out/foo.intellij-info.txt"),
+              "foo-set",
+              ImmutableList.of("dep-set"))
+          .build()
+          .writeDelimitedTo(output);
+      setOfFiles(
+              ImmutableList.of("/out/bar.intellij-info.txt"),
+              "bar-set",
+              ImmutableList.of("dep-set"))
+          .build()
+          .writeDelimitedTo(output);
+      targetComplete("//foo:foo", "config-id", outputGroup("intellij-info-java", "foo-set"))
+          .build()
+          .writeDelimitedTo(output);
+      targetComplete("//bar:bar", "config-id", outputGroup("intellij-info-java", "bar-set"))
+          .build()
+          .writeDelimitedTo(output);
+    }
+    StreamingBepReader.start(bepFile, this::record, executor).close();
+
+    assertThat(reported.get("intellij-info-java"))
+        .containsExactly(
+            new File("/out/foo.intellij-info.txt"),
+            new File("/out/dep.intellij-info.txt"),
+            new File("/out/bar.intellij-info.txt"));
+  }
+
+  @Test
+  public void testTargetWithUnknownConfigurationIgnored() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+    try (OutputStream output = new FileOutputStream(bepFile)) {
+      setOfFiles(ImmutableList.of("/out/foo.jar"), "set-id", ImmutableList.of())
+          .build()
+          .writeDelimitedTo(output);
+      targetComplete("//foo:foo", "config-id", outputGroup("intellij-resolve-java", "set-id"))
+          .build()
+          .writeDelimitedTo(output);
+    }
+    StreamingBepReader.start(bepFile, this::record, executor).close();
+
+    assertThat(reported).isEmpty();
+  }
+
+  @Test
+  public void testTestResultsReportedPerShard() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+    StreamingBepReader reader =
+        StreamingBepReader.start(
+            bepFile,
+            new StreamingBepReader.Listener() {
+              @Override
+              public void outputsReported(
+                  String outputGroup, ImmutableList<OutputArtifact> outputs) {}
+
+              @Override
+              public void testResultReported(BlazeTestResult result) {
+                testResults.add(result);
+              }
+            },
+            executor);
+    try (OutputStream output = new FileOutputStream(bepFile)) {
+      testResult("//foo:test", TestStatus.FAILED, "/out/shard_1_of_2/test.xml")
+          .build()
+          .writeDelimitedTo(output);
+      output.flush();
+
+      waitFor(() -> testResults.size() >= 1);
+      assertThat(testResults).hasSize(1);
+      assertThat(testResults.get(0).getLabel()).isEqualTo(Label.create("//foo:test"));
+      assertThat(testResults.get(0).getTestStatus()).isEqualTo(BlazeTestResult.TestStatus.FAILED);
+
+      testResult("//foo:test", TestStatus.PASSED, "/out/shard_2_of_2/test.xml")
+          .build()
+          .writeDelimitedTo(output);
+    } finally {
+      reader.close();
+    }
+    assertThat(testResults).hasSize(2);
+    assertThat(BlazeArtifact.getLocalFiles(testResults.get(1).getOutputXmlFiles()))
+        .containsExactly(new File("/out/shard_2_of_2/test.xml"));
+  }
+
+  private void record(String outputGroup, ImmutableList<OutputArtifact> outputs) {
+    reported.putAll(outputGroup, BlazeArtifact.getLocalFiles(outputs));
+  }
+
+  private void waitForReportedOutputs(int count) throws InterruptedException {
+    waitFor(() -> reported.size() >= count);
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static BuildEvent.Builder testResult(String label, TestStatus status, String xmlPath) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setTestResult(TestResultId.newBuilder().setLabel(label)))
+        .setTestResult(
+            TestResult.newBuilder().setStatus(status).addTestActionOutput(toFileEvent(xmlPath)));
+  }
+
+  private static BuildEvent.Builder targetComplete(
+      String label, String configId, OutputGroup outputGroup) {
+    return BuildEvent.newBuilder()
+        .setId(
+            BuildEventId.newBuilder()
+                .setTargetCompleted(
+                    TargetCompletedId.newBuilder()
+                        .setConfiguration(ConfigurationId.newBuilder().setId(configId).build())
+                        .setLabel(label)))
+        .setCompleted(TargetComplete.newBuilder().addOutputGroup(outputGroup));
+  }
+
+  private static OutputGroup outputGroup(String name, String fileSet) {
+    return OutputGroup.newBuilder()
+        .setName(name)
+        .addFileSets(NamedSetOfFilesId.newBuilder().setId(fileSet))
+        .build();
+  }
+
+  private static BuildEvent.Builder configuration(String name, String mnemonic) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setConfiguration(ConfigurationId.newBuilder().setId(name)))
+        .setConfiguration(Configuration.newBuilder().setMnemonic(mnemonic));
+  }
+
+  private static BuildEvent.Builder setOfFiles(
+      List<String> filePaths, String id, List<String> fileSetDeps) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setNamedSet(NamedSetOfFilesId.newBuilder().setId(id)))
+        .setNamedSetOfFiles(
+            NamedSetOfFiles.newBuilder()
+                .addAllFiles(
+                    filePaths.stream()
+                        .map(StreamingBepReaderTest::toFileEvent)
+                        .collect(toImmutableList()))
+                .addAllFileSets(
+                    fileSetDeps.stream()
+                        .map(dep -> NamedSetOfFilesId.newBuilder().setId(dep).build())
+                        .collect(toImmutableList())));
+  }
+
+  private static BuildEventStreamProtos.File toFileEvent(String filePath) {
+    return BuildEventStreamProtos.File.newBuilder()
+        .setUri(new File(filePath).toURI().toString())
+        .setName(filePath)
+        .build();
+  }
+}
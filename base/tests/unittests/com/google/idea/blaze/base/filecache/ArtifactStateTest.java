@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.filecache;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -42,4 +43,34 @@ public class ArtifactStateTest {
     String key = "/abs/path/to/bazel-out/then/file.java";
     assertThat(ArtifactState.migrateOldKeyFormat(key)).isEqualTo("then/file.java");
   }
+
+  @Test
+  public void localFileState_sameDigestNotMoreRecent() {
+    LocalFileState old = new LocalFileState("k8/file.txt", 1, "abc");
+    LocalFileState touched = new LocalFileState("k8/file.txt", 2, "abc");
+    assertThat(old.isMoreRecent(touched)).isFalse();
+  }
+
+  @Test
+  public void localFileState_differentDigestMoreRecent() {
+    LocalFileState old = new LocalFileState("k8/file.txt", 2, "abc");
+    LocalFileState updated = new LocalFileState("k8/file.txt", 1, "def");
+    assertThat(old.isMoreRecent(updated)).isTrue();
+  }
+
+  @Test
+  public void localFileState_missingDigestFallsBackToTimestamp() {
+    LocalFileState old = new LocalFileState("k8/file.txt", 1);
+    assertThat(old.isMoreRecent(new LocalFileState("k8/file.txt", 2))).isTrue();
+    assertThat(old.isMoreRecent(new LocalFileState("k8/file.txt", 1))).isFalse();
+    assertThat(old.isMoreRecent(new LocalFileState("k8/file.txt", 1, "abc"))).isTrue();
+  }
+
+  @Test
+  public void localFileState_digestSurvivesSerialization() {
+    LocalFileState state = new LocalFileState("k8/file.txt", 0, "abc");
+    LocalFileState parsed = new LocalFileState(state.serializeToProto().getLocalFile());
+    assertThat(state.isMoreRecent(parsed)).isFalse();
+    assertThat(parsed.isMoreRecent(new LocalFileState("k8/file.txt", 0, "def"))).isTrue();
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the compact {@link TargetMap} encoding. */
+@RunWith(JUnit4.class)
+public class CompactTargetMapTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testCompactMapMatchesOriginal() {
+    TargetMap targetMap = buildTargetMap();
+    TargetMap compact = TargetMap.compact(targetMap.map());
+
+    assertThat(compact.size()).isEqualTo(2);
+    assertThat(compact.map()).isEqualTo(targetMap.map());
+    assertThat(compact.get(key("//l:l1"))).isEqualTo(targetMap.get(key("//l:l1")));
+    assertThat(compact.toProto()).isEqualTo(targetMap.toProto());
+  }
+
+  @Test
+  public void testRepeatedStringsStoredOnce() {
+    CompactTargetStore store = CompactTargetStore.create(buildTargetMap().map());
+
+    // the kind, labels, build file path and tag, each stored once
+    assertThat(store.stringTableSize()).isEqualTo(6);
+  }
+
+  @Test
+  public void testEqualsComparesCompactForm() {
+    TargetMap targetMap = buildTargetMap();
+    TargetMap compact = TargetMap.compact(targetMap.map());
+    TargetMap reordered =
+        TargetMap.compact(
+            ImmutableMap.of(
+                key("//l:l2"), targetMap.get(key("//l:l2")),
+                key("//l:l1"), targetMap.get(key("//l:l1"))));
+    TargetIdeInfo retagged =
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("l/BUILD"))
+            .setLabel("//l:l2")
+            .setKind("proto_library")
+            .addTag("manual")
+            .build();
+    TargetMap changed =
+        TargetMap.compact(
+            ImmutableMap.of(
+                key("//l:l1"), targetMap.get(key("//l:l1")), retagged.getKey(), retagged));
+
+    assertThat(compact).isEqualTo(reordered);
+    assertThat(compact.hashCode()).isEqualTo(reordered.hashCode());
+    assertThat(compact).isEqualTo(targetMap);
+    assertThat(compact.hashCode()).isEqualTo(targetMap.hashCode());
+    assertThat(compact).isNotEqualTo(changed);
+  }
+
+  @Test
+  public void testDependencyOutsideMapNotContained() {
+    TargetMap compact = TargetMap.compact(buildTargetMap().map());
+
+    assertThat(compact.contains(key("//l:l2"))).isTrue();
+    assertThat(compact.contains(key("//external:dep"))).isFalse();
+    assertThat(compact.get(key("//external:dep"))).isNull();
+  }
+
+  @Test
+  public void testDependencyKeys() {
+    TargetMap targetMap = buildTargetMap();
+    TargetMap compact = TargetMap.compact(targetMap.map());
+
+    assertThat(compact.getDependencyKeys(key("//l:l1")))
+        .containsExactly(key("//l:l2"), key("//external:dep"))
+        .inOrder();
+    assertThat(compact.getDependencyKeys(key("//l:l1")))
+        .isEqualTo(targetMap.getDependencyKeys(key("//l:l1")));
+    assertThat(compact.getDependencyKeys(key("//l:l2"))).isEmpty();
+  }
+
+  @Test
+  public void testKeysAndStreamMatchOriginal() {
+    TargetMap targetMap = buildTargetMap();
+    TargetMap compact = TargetMap.compact(targetMap.map());
+
+    assertThat(compact.keys()).containsExactly(key("//l:l1"), key("//l:l2"));
+    assertThat(compact.stream().collect(toImmutableList()))
+        .containsExactlyElementsIn(targetMap.targets());
+  }
+
+  @Test
+  public void testWithChangesKeysAndStream() {
+    TargetMap compact = TargetMap.compact(buildTargetMap().map());
+    TargetIdeInfo added =
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("l/BUILD"))
+            .setLabel("//l:l3")
+            .setKind("proto_library")
+            .build();
+    TargetMap changed =
+        compact.withChanges(
+            ImmutableMap.of(added.getKey(), added), ImmutableSet.of(key("//l:l2")));
+
+    assertThat(changed.keys()).containsExactly(key("//l:l1"), key("//l:l3"));
+    assertThat(changed.stream().collect(toImmutableList()))
+        .containsExactly(compact.get(key("//l:l1")), added);
+  }
+
+  @Test
+  public void testWithChangesDoesNotRebuildTargetsOnRepeatedCalls() {
+    TargetMap targetMap = buildTargetMap();
+    TargetMap changed =
+        TargetMap.compact(targetMap.map())
+            .withChanges(ImmutableMap.of(), ImmutableSet.of(key("//l:l2")));
+
+    assertThat(changed.targets()).containsExactly(targetMap.get(key("//l:l1")));
+    assertThat(changed.targets()).isSameInstanceAs(changed.targets());
+    assertThat(changed.map()).isSameInstanceAs(changed.map());
+  }
+
+  @Test
+  public void testWithChangesToProto() {
+    TargetMap targetMap = buildTargetMap();
+    TargetIdeInfo updated =
+        TargetIdeInfo.builder()
+            .setBuildFile(sourceRoot("l/BUILD"))
+            .setLabel("//l:l2")
+            .setKind("proto_library")
+            .addTag("updated")
+            .build();
+    TargetMap changed =
+        TargetMap.compact(targetMap.map())
+            .withChanges(ImmutableMap.of(updated.getKey(), updated), ImmutableSet.of());
+
+    assertThat(changed.toProto())
+        .isEqualTo(
+            new TargetMap(
+                    ImmutableMap.of(
+                        key("//l:l1"), targetMap.get(key("//l:l1")), updated.getKey(), updated))
+                .toProto());
+  }
+
+  private static TargetMap buildTargetMap() {
+    return TargetMapBuilder.builder()
+        .addTarget(
+            TargetIdeInfo.builder()
+                .setBuildFile(sourceRoot("l/BUILD"))
+                .setLabel("//l:l1")
+                .setKind("proto_library")
+                .addTag("manual")
+                .addDependency("//l:l2")
+                .addDependency("//external:dep"))
+        .addTarget(
+            TargetIdeInfo.builder()
+                .setBuildFile(sourceRoot("l/BUILD"))
+                .setLabel("//l:l2")
+                .setKind("proto_library"))
+        .build();
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
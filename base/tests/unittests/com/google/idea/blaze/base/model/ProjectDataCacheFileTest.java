@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProjectDataCacheFile}. */
+@RunWith(JUnit4.class)
+public class ProjectDataCacheFileTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    registerExtensionPoint(
+        SyncData.Extractor.EP_NAME,
+        (Class<SyncData.Extractor<?>>) (Class<?>) SyncData.Extractor.class);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(buildTargetMap(1000)).build();
+    File file = tmpFolder.newFile("cache.dat");
+
+    ProjectDataCacheFile.write(projectData, file);
+    BlazeProjectData read = ProjectDataCacheFile.read(BuildSystem.Bazel, file);
+
+    assertThat(read.getTargetMap().size()).isEqualTo(1000);
+    assertThat(read.getTargetMap().get(key(500)))
+        .isEqualTo(projectData.getTargetMap().get(key(500)));
+    assertThat(read).isEqualTo(projectData);
+    assertThat(read.toProto()).isEqualTo(projectData.toProto());
+  }
+
+  @Test
+  public void testUnknownTargetNotContained() throws IOException {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(buildTargetMap(10)).build();
+    File file = tmpFolder.newFile("cache.dat");
+
+    ProjectDataCacheFile.write(projectData, file);
+    TargetMap targetMap = ProjectDataCacheFile.read(BuildSystem.Bazel, file).getTargetMap();
+
+    assertThat(targetMap.contains(key(9))).isTrue();
+    assertThat(targetMap.contains(key(10))).isFalse();
+    assertThat(targetMap.get(key(10))).isNull();
+  }
+
+  @Test(expected = IOException.class)
+  public void testLegacyFileRejected() throws IOException {
+    File file = tmpFolder.newFile("cache.dat.gz");
+    MockBlazeProjectDataBuilder.builder().build().saveToDisk(file);
+
+    ProjectDataCacheFile.read(BuildSystem.Bazel, file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFileRejected() throws IOException {
+    File file = tmpFolder.newFile("cache.dat");
+    ProjectDataCacheFile.write(
+        MockBlazeProjectDataBuilder.builder().setTargetMap(buildTargetMap(10)).build(), file);
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+    ProjectDataCacheFile.read(BuildSystem.Bazel, file);
+  }
+
+  private static TargetMap buildTargetMap(int targetCount) {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo.Builder target =
+          TargetIdeInfo.builder()
+              .setBuildFile(sourceRoot("pkg" + i + "/BUILD"))
+              .setLabel(label(i))
+              .setKind("proto_library");
+      if (i > 0) {
+        target.addDependency(label(i - 1));
+      }
+      builder.addTarget(target);
+    }
+    return builder.build();
+  }
+
+  private static Label label(int index) {
+    return Label.create("//pkg" + index + ":target");
+  }
+
+  private static TargetKey key(int index) {
+    return TargetKey.forPlainTarget(label(index));
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
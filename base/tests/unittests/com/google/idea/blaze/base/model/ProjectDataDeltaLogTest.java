@@ -0,0 +1,254 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.devtools.intellij.model.ProjectData.LocalFile;
+import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.BuildSystem;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProjectDataDeltaLog}. */
+@RunWith(JUnit4.class)
+public class ProjectDataDeltaLogTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private File baseFile;
+  private File logFile;
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    registerExtensionPoint(
+        SyncData.Extractor.EP_NAME,
+        (Class<SyncData.Extractor<?>>) (Class<?>) SyncData.Extractor.class);
+  }
+
+  @Before
+  public final void setUpFiles() {
+    baseFile = new File(tmpFolder.getRoot(), "cache.dat");
+    logFile = new File(tmpFolder.getRoot(), "cache.dat.log");
+  }
+
+  @Test
+  public void testReplayAppliesChanges() throws IOException {
+    BlazeProjectData base = projectData(target("//a:a"), target("//b:b"), target("//c:c"));
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData updated =
+        projectData(target("//a:a"), target("//b:b").addTag("changed"), target("//d:d"));
+
+    ProjectDataDeltaLog log = new ProjectDataDeltaLog(logFile, baseFile);
+    log.append(base, updated);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+
+    assertThat(replayed).isEqualTo(updated);
+    TargetMap targetMap = replayed.getTargetMap();
+    assertThat(targetMap.size()).isEqualTo(3);
+    assertThat(targetMap.contains(key("//c:c"))).isFalse();
+    assertThat(targetMap.get(key("//b:b")).getTags()).containsExactly("changed");
+  }
+
+  @Test
+  public void testOnlyChangedTargetsWritten() throws IOException {
+    BlazeProjectData base = projectData(target("//a:a"), target("//b:b"));
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData updated = projectData(target("//a:a"), target("//b:b").addTag("changed"));
+
+    ProjectDataDeltaLog log = new ProjectDataDeltaLog(logFile, baseFile);
+    log.append(base, updated);
+    long singleChangeSize = log.size();
+    log.append(updated, updated);
+
+    assertThat(log.size() - singleChangeSize).isLessThan(singleChangeSize);
+  }
+
+  @Test
+  public void testOneTargetChange_onlyChangedIdeInterfaceStateEntriesWritten() throws IOException {
+    int targetCount = 1000;
+    TargetIdeInfo.Builder[] baseTargets = new TargetIdeInfo.Builder[targetCount];
+    TargetIdeInfo.Builder[] updatedTargets = new TargetIdeInfo.Builder[targetCount];
+    for (int i = 0; i < targetCount; i++) {
+      baseTargets[i] = target("//pkg:target" + i);
+      updatedTargets[i] = i == 0 ? target("//pkg:target0").addTag("changed") : baseTargets[i];
+    }
+    BlazeProjectData base = projectData(ideInterfaceState(targetCount, 0), baseTargets);
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData updated = projectData(ideInterfaceState(targetCount, 1), updatedTargets);
+
+    ProjectDataDeltaLog log = new ProjectDataDeltaLog(logFile, baseFile);
+    log.append(base, updated);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+
+    assertThat(replayed).isEqualTo(updated);
+    long fullStateSize =
+        updated.getTargetData().ideInterfaceState.toProto().getSerializedSize();
+    // the delta holds one target and one aspect output file, plus some fixed-size metadata
+    assertThat(log.size()).isLessThan(fullStateSize / 20);
+  }
+
+  @Test
+  public void testRemovedIdeInterfaceStateEntriesReplayed() throws IOException {
+    BlazeProjectData base =
+        projectData(ideInterfaceState(2, 0), target("//pkg:target0"), target("//pkg:target1"));
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData updated = projectData(ideInterfaceState(1, 0), target("//pkg:target0"));
+
+    new ProjectDataDeltaLog(logFile, baseFile).append(base, updated);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+
+    assertThat(replayed).isEqualTo(updated);
+    assertThat(replayed.getTargetData().ideInterfaceState.toProto().getFileToTargetMap())
+        .containsExactly(ideInfoFile(0), key("//pkg:target0").toProto());
+  }
+
+  @Test
+  public void testMultipleDeltasReplayedInOrder() throws IOException {
+    BlazeProjectData base = projectData(target("//a:a"));
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData first = projectData(target("//a:a"), target("//b:b"));
+    BlazeProjectData second = projectData(target("//a:a").addTag("changed"));
+
+    ProjectDataDeltaLog log = new ProjectDataDeltaLog(logFile, baseFile);
+    log.append(base, first);
+    log.append(first, second);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+
+    assertThat(replayed).isEqualTo(second);
+  }
+
+  @Test
+  public void testIncompleteDeltaIgnoredAndOverwritten() throws IOException {
+    BlazeProjectData base = projectData(target("//a:a"));
+    ProjectDataCacheFile.write(base, baseFile);
+    BlazeProjectData updated = projectData(target("//a:a"), target("//b:b"));
+    new ProjectDataDeltaLog(logFile, baseFile).append(base, updated);
+    try (OutputStream out = new FileOutputStream(logFile, /* append= */ true)) {
+      // the length prefix of a delta which was never written
+      out.write(100);
+    }
+
+    ProjectDataDeltaLog log = new ProjectDataDeltaLog(logFile, baseFile);
+    assertThat(log.replay(BuildSystem.Bazel, readBase())).isEqualTo(updated);
+
+    BlazeProjectData latest = projectData(target("//c:c"));
+    log.append(updated, latest);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+    assertThat(replayed).isEqualTo(latest);
+  }
+
+  @Test
+  public void testLogForDifferentBaseFileIgnored() throws IOException {
+    BlazeProjectData base = projectData(target("//a:a"));
+    ProjectDataCacheFile.write(base, baseFile);
+    new ProjectDataDeltaLog(logFile, baseFile).append(base, projectData(target("//b:b")));
+
+    BlazeProjectData newBase = projectData(target("//a:a"), target("//c:c"));
+    ProjectDataCacheFile.write(newBase, baseFile);
+    BlazeProjectData replayed =
+        new ProjectDataDeltaLog(logFile, baseFile).replay(BuildSystem.Bazel, readBase());
+
+    assertThat(replayed).isEqualTo(newBase);
+  }
+
+  private BlazeProjectData readBase() throws IOException {
+    return ProjectDataCacheFile.read(BuildSystem.Bazel, baseFile);
+  }
+
+  private static BlazeProjectData projectData(TargetIdeInfo.Builder... targets) {
+    return projectData(/* ideInterfaceState= */ null, targets);
+  }
+
+  private static BlazeProjectData projectData(
+      @Nullable BlazeIdeInterfaceState ideInterfaceState, TargetIdeInfo.Builder... targets) {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (TargetIdeInfo.Builder target : targets) {
+      builder.addTarget(target);
+    }
+    return MockBlazeProjectDataBuilder.builder()
+        .setTargetMap(builder.build())
+        .setIdeInterfaceState(ideInterfaceState)
+        .build();
+  }
+
+  /**
+   * Returns the ide interface state for '//pkg:target0' to '//pkg:target{count - 1}'. The first
+   * {@code changedCount} aspect output files have a later timestamp.
+   */
+  private static BlazeIdeInterfaceState ideInterfaceState(int count, int changedCount) {
+    ProjectData.BlazeIdeInterfaceState.Builder state =
+        ProjectData.BlazeIdeInterfaceState.newBuilder();
+    for (int i = 0; i < count; i++) {
+      state.putFileToTarget(ideInfoFile(i), key("//pkg:target" + i).toProto());
+      state.addIdeInfoFiles(
+          LocalFileOrOutputArtifact.newBuilder()
+              .setLocalFile(
+                  LocalFile.newBuilder()
+                      .setRelativePath(ideInfoFile(i))
+                      .setTimestamp(i < changedCount ? 2 : 1)));
+    }
+    return BlazeIdeInterfaceState.fromProto(state.build());
+  }
+
+  private static String ideInfoFile(int index) {
+    return String.format("k8-fastbuild/bin/pkg/target%d.intellij-info.txt", index);
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(
+            ArtifactLocation.builder().setRelativePath("BUILD").setIsSource(true).build())
+        .setLabel(label)
+        .setKind("proto_library");
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.SourceFile;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BlazeQueryStreamedProtoParser}. */
+@RunWith(JUnit4.class)
+public class BlazeQueryStreamedProtoParserTest {
+
+  @Test
+  public void testParsesRulesWrittenAtOnce() throws IOException {
+    byte[] output = streamedOutput();
+    BlazeQueryStreamedProtoParser parser = new BlazeQueryStreamedProtoParser(t -> true);
+
+    parser.write(output);
+
+    assertThat(parser.getTargetLabels())
+        .containsExactly(Label.create("//foo:lib"), Label.create("//foo:test"))
+        .inOrder();
+    assertThat(parser.getTargets().get(1).kindString).isEqualTo("java_test");
+  }
+
+  @Test
+  public void testParsesMessagesSplitAcrossWrites() throws IOException {
+    byte[] output = streamedOutput();
+    BlazeQueryStreamedProtoParser parser = new BlazeQueryStreamedProtoParser(t -> true);
+
+    for (byte b : output) {
+      parser.write(b);
+    }
+
+    assertThat(parser.getTargetLabels())
+        .containsExactly(Label.create("//foo:lib"), Label.create("//foo:test"))
+        .inOrder();
+  }
+
+  @Test
+  public void testFilteredTargetsIgnored() throws IOException {
+    BlazeQueryStreamedProtoParser parser =
+        new BlazeQueryStreamedProtoParser(t -> t.ruleType.equals("java_library"));
+
+    parser.write(streamedOutput());
+
+    assertThat(parser.getTargetLabels()).containsExactly(Label.create("//foo:lib"));
+  }
+
+  @Test
+  public void testIncompleteMessageNotParsed() throws IOException {
+    byte[] output = streamedOutput();
+    BlazeQueryStreamedProtoParser parser = new BlazeQueryStreamedProtoParser(t -> true);
+
+    parser.write(output, 0, output.length - 1);
+
+    assertThat(parser.getTargetLabels()).containsExactly(Label.create("//foo:lib"));
+  }
+
+  private static byte[] streamedOutput() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    rule("//foo:lib", "java_library").writeDelimitedTo(out);
+    Target.newBuilder()
+        .setType(Target.Discriminator.SOURCE_FILE)
+        .setSourceFile(SourceFile.newBuilder().setName("//foo:Foo.java"))
+        .build()
+        .writeDelimitedTo(out);
+    rule("//foo:test", "java_test").writeDelimitedTo(out);
+    return out.toByteArray();
+  }
+
+  private static Target rule(String label, String ruleClass) {
+    return Target.newBuilder()
+        .setType(Target.Discriminator.RULE)
+        .setRule(Rule.newBuilder().setName(label).setRuleClass(ruleClass))
+        .build();
+  }
+}
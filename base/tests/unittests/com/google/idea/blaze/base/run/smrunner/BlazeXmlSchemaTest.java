@@ -212,6 +212,28 @@ public class BlazeXmlSchemaTest {
     assertThat(BlazeXmlSchema.getErrorContent(testCase.errors.get(0))).isNull();
   }
 
+  @Test
+  public void testUnknownElementsSkipped() {
+    TestSuite parsed =
+        parseXml(
+            "<?xml version='1.0' encoding='UTF-8'?>",
+            "<testsuites>",
+            "  <testsuite name='com.google.ConfigTest' tests='1'>",
+            "    <properties><property name='p' value='v'/></properties>",
+            "    <testcase name='testCase1' status='run' time='1'>",
+            "      <failure message='failed'><details><testcase name='nested'/></details>",
+            "        Error message</failure>",
+            "    </testcase>",
+            "  </testsuite>",
+            "</testsuites>");
+
+    TestSuite testSuite = Iterables.getOnlyElement(parsed.testSuites);
+    TestCase testCase = Iterables.getOnlyElement(testSuite.testCases);
+    assertThat(testCase.name).isEqualTo("testCase1");
+    assertThat(BlazeXmlSchema.getErrorContent(Iterables.getOnlyElement(testCase.failures)))
+        .isEqualTo("Error message");
+  }
+
   private static TestSuite parseXml(String... lines) {
     InputStream stream =
         new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
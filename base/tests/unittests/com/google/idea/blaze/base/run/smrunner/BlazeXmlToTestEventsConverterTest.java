@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.smrunner;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import com.google.idea.blaze.base.command.buildresult.StreamingBepReader;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResult;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResult.TestStatus;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResultFinderStrategy;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResults;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.execution.testframework.TestConsoleProperties;
+import com.intellij.execution.testframework.sm.runner.GeneralTestEventsProcessor;
+import com.intellij.execution.testframework.sm.runner.events.TestStartedEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** Unit tests for {@link BlazeXmlToTestEventsConverter}. */
+@RunWith(JUnit4.class)
+public class BlazeXmlToTestEventsConverterTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final FakeResultFinder resultFinder = new FakeResultFinder();
+  private final GeneralTestEventsProcessor processor = mock(GeneralTestEventsProcessor.class);
+  private BlazeXmlToTestEventsConverter converter;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    MockExperimentService experimentService = new MockExperimentService();
+    experimentService.setExperimentRaw("blaze.test.results.streaming", true);
+    applicationServices.register(ExperimentService.class, experimentService);
+    registerExtensionPoint(BlazeTestEventsHandler.EP_NAME, BlazeTestEventsHandler.class);
+
+    converter =
+        new BlazeXmlToTestEventsConverter(
+            "Blaze", mock(TestConsoleProperties.class), resultFinder);
+    converter.setProcessor(processor);
+  }
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testStreamedResultsNotReportedAgainOnTermination() throws Exception {
+    BlazeTestResult first = testResult("//foo:first", "testFirst");
+    BlazeTestResult second = testResult("//foo:second", "testSecond");
+
+    converter.onStartTesting();
+    resultFinder.listener.testResultReported(first);
+    assertThat(reportedTests()).containsExactly("testFirst");
+
+    resultFinder.finalResults = BlazeTestResults.fromFlatList(ImmutableList.of(first, second));
+    converter.flushBufferOnProcessTermination(0);
+
+    assertThat(reportedTests()).containsExactly("testFirst", "testSecond").inOrder();
+  }
+
+  @Test
+  public void testStreamedShardNotReportedAgainOnTermination() throws Exception {
+    BlazeTestResult shard1 = testResult("//foo:sharded", "testShard1");
+    BlazeTestResult shard2 = testResult("//foo:sharded", "testShard2");
+
+    converter.onStartTesting();
+    resultFinder.listener.testResultReported(shard1);
+    resultFinder.finalResults = BlazeTestResults.fromFlatList(ImmutableList.of(shard1, shard2));
+    converter.flushBufferOnProcessTermination(0);
+
+    assertThat(reportedTests()).containsExactly("testShard1", "testShard2").inOrder();
+  }
+
+  @Test
+  public void testResultStreamedAfterTerminationReportedOnce() throws Exception {
+    BlazeTestResult result = testResult("//foo:test", "testFoo");
+
+    converter.onStartTesting();
+    resultFinder.finalResults = BlazeTestResults.fromFlatList(ImmutableList.of(result));
+    converter.flushBufferOnProcessTermination(0);
+    resultFinder.listener.testResultReported(result);
+
+    assertThat(reportedTests()).containsExactly("testFoo");
+  }
+
+  @Test
+  public void testNoRuntimeErrorWhenAllResultsStreamed() throws Exception {
+    converter.onStartTesting();
+    resultFinder.listener.testResultReported(testResult("//foo:test", "testFoo"));
+    resultFinder.finalResults = BlazeTestResults.NO_RESULTS;
+    converter.flushBufferOnProcessTermination(0);
+
+    assertThat(reportedTests()).containsExactly("testFoo");
+    verify(processor, never()).onTestFailure(any());
+  }
+
+  private ImmutableList<String> reportedTests() {
+    ArgumentCaptor<TestStartedEvent> started = ArgumentCaptor.forClass(TestStartedEvent.class);
+    verify(processor, atLeast(0)).onTestStarted(started.capture());
+    return started.getAllValues().stream()
+        .map(TestStartedEvent::getName)
+        .collect(toImmutableList());
+  }
+
+  private BlazeTestResult testResult(String label, String testName) throws IOException {
+    File xml = tmpFolder.newFile();
+    String contents =
+        "<testsuites><testsuite name=\"Suite\">"
+            + String.format("<testcase name=\"%s\" classname=\"Suite\" status=\"run\"/>", testName)
+            + "</testsuite></testsuites>";
+    Files.write(xml.toPath(), contents.getBytes(UTF_8));
+    return BlazeTestResult.create(
+        Label.create(label),
+        /* targetKind= */ null,
+        TestStatus.PASSED,
+        ImmutableSet.of(new SourceArtifact(xml)));
+  }
+
+  /** Captures the streaming listener, and returns the given results once blaze terminates. */
+  private class FakeResultFinder implements BlazeTestResultFinderStrategy {
+    @Nullable private StreamingBepReader.Listener listener;
+    @Nullable private BlazeTestResults finalResults;
+
+    @Override
+    public Optional<StreamingBepReader> streamTestResults(
+        StreamingBepReader.Listener listener, ExecutorService unused) {
+      this.listener = listener;
+      File bepFile = new File(tmpFolder.getRoot(), "bep-output");
+      return Optional.of(StreamingBepReader.start(bepFile, listener, executor));
+    }
+
+    @Nullable
+    @Override
+    public BlazeTestResults findTestResults() {
+      return finalResults;
+    }
+
+    @Override
+    public void deleteTemporaryOutputXmlFiles() {}
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.scope.scopes;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ChromeTraceScope}. */
+@RunWith(JUnit4.class)
+public class ChromeTraceScopeTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testTimingScopesAndSpansWrittenOnScopeEnd() throws Exception {
+    File traceFile = new File(folder.getRoot(), "trace/sync_trace.json");
+    BlazeContext root = new BlazeContext();
+    root.push(new ChromeTraceScope(traceFile));
+
+    BlazeContext child = new BlazeContext(root);
+    child.push(new TimingScope("Build \"phase\"", EventType.Other));
+    int result = ChromeTraceScope.trace(child, "Shard 1 of 2", "BlazeInvocation", () -> 42);
+    child.endScope();
+
+    assertThat(result).isEqualTo(42);
+    assertThat(traceFile.exists()).isFalse();
+
+    root.endScope();
+
+    String trace = new String(Files.readAllBytes(traceFile.toPath()), UTF_8);
+    assertThat(trace).startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    assertThat(trace).contains("\"cat\":\"Other\",\"name\":\"Build \\\"phase\\\"\"");
+    assertThat(trace).contains("\"cat\":\"BlazeInvocation\",\"name\":\"Shard 1 of 2\"");
+    assertThat(trace).contains("\"args\":{\"name\":\"GC\"}");
+    assertThat(trace.trim()).endsWith("]}");
+  }
+
+  @Test
+  public void testTraceWithoutScopeJustRunsOperation() {
+    BlazeContext context = new BlazeContext();
+    assertThat(ChromeTraceScope.trace(context, "name", "Other", () -> "result"))
+        .isEqualTo("result");
+    context.endScope();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.JavaIdeInfo;
+import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ExecutionRootRefresher}. */
+@RunWith(JUnit4.class)
+public class ExecutionRootRefresherTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testWorkspaceSourcesIgnored() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//py:lib")
+                    .setKind("proto_library")
+                    .addSource(source("py/a.py")))
+            .build();
+
+    assertThat(directoriesToRefresh(targetMap)).isEmpty();
+  }
+
+  @Test
+  public void testGeneratedAndExternalSourceDirectoriesIncluded() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//py:lib")
+                    .setKind("proto_library")
+                    .addSource(source("py/a.py"))
+                    .addSource(generated("py/gen/b.py"))
+                    .addSource(generated("py/gen/c.py"))
+                    .addSource(external("external/dep/d.py")))
+            .build();
+
+    assertThat(directoriesToRefresh(targetMap))
+        .containsExactly(new File("py/gen"), new File("external/dep"));
+  }
+
+  @Test
+  public void testJarDirectoriesIncluded() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//java:lib")
+                    .setKind("proto_library")
+                    .setJavaInfo(
+                        JavaIdeInfo.builder()
+                            .addJar(
+                                LibraryArtifact.builder()
+                                    .setInterfaceJar(generated("java/ijar/lib-ijar.jar"))
+                                    .setClassJar(generated("java/lib.jar"))
+                                    .addSourceJar(generated("java/lib-src.jar")))
+                            .addGeneratedJar(
+                                LibraryArtifact.builder()
+                                    .setClassJar(generated("java/gen/lib-gen.jar")))))
+            .build();
+
+    assertThat(directoriesToRefresh(targetMap))
+        .containsExactly(new File("java/ijar"), new File("java"), new File("java/gen"));
+  }
+
+  @Test
+  public void testCachedDirectoryArtifactsRefreshedRecursively() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//py:lib")
+                    .setKind("proto_library")
+                    .addSource(generated("py/gen/b.py"))
+                    .addSource(generated("py/gen/tree"))
+                    .addSource(generated("py/uncached_tree")))
+            .build();
+    VirtualFile file = mock(VirtualFile.class);
+    VirtualFile directory = mock(VirtualFile.class);
+    when(directory.isDirectory()).thenReturn(true);
+    LocalFileSystem fileSystem = mock(LocalFileSystem.class);
+    when(fileSystem.findFileByPathIfCached(new File("py/gen/b.py").getPath())).thenReturn(file);
+    when(fileSystem.findFileByPathIfCached(new File("py/gen/tree").getPath()))
+        .thenReturn(directory);
+
+    ImmutableSet<File> artifacts =
+        ExecutionRootRefresher.getLocalArtifacts(targetMap, new MockArtifactLocationDecoder());
+
+    assertThat(ExecutionRootRefresher.getCachedDirectoryArtifacts(fileSystem, artifacts))
+        .containsExactly(directory);
+    assertThat(directoriesToRefresh(targetMap)).containsExactly(new File("py/gen"), new File("py"));
+  }
+
+  private static ImmutableList<File> directoriesToRefresh(TargetMap targetMap) {
+    return ExecutionRootRefresher.getDirectoriesToRefresh(
+            targetMap, new MockArtifactLocationDecoder())
+        .asList();
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static ArtifactLocation generated(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRootExecutionPathFragment("blaze-out/bin")
+        .setRelativePath(relativePath)
+        .setIsSource(false)
+        .build();
+  }
+
+  private static ArtifactLocation external(String relativePath) {
+    return ArtifactLocation.builder()
+        .setRelativePath(relativePath)
+        .setIsSource(true)
+        .setIsExternal(true)
+        .build();
+  }
+}
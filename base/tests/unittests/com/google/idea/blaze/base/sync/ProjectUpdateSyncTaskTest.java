@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.OutputSink.Propagation;
+import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
+import com.google.idea.blaze.base.sync.BlazeSyncPlugin.ModuleEditor;
+import com.google.idea.blaze.base.sync.BlazeSyncPlugin.ProjectStructureUpdate;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModifiableRootModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the sync plugin project structure updates in {@link ProjectUpdateSyncTask}. */
+@RunWith(JUnit4.class)
+public class ProjectUpdateSyncTaskTest extends BlazeTestCase {
+
+  private final ListeningExecutorService executor =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(3));
+  private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/root"));
+  private final ProjectViewSet projectViewSet = ProjectViewSet.builder().build();
+  private final BlazeProjectData projectData = MockBlazeProjectDataBuilder.builder().build();
+  private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testUpdatesAppliedInExtensionOrder() throws Exception {
+    // the first plugin finishes computing last
+    CountDownLatch lastComputed = new CountDownLatch(1);
+    RecordingPlugin first = new RecordingPlugin("first", /* computesUpdate= */ true);
+    first.waitFor = lastComputed;
+    RecordingPlugin second = new RecordingPlugin("second", /* computesUpdate= */ true);
+    RecordingPlugin third = new RecordingPlugin("third", /* computesUpdate= */ true);
+    third.onComputed = lastComputed;
+    List<BlazeSyncPlugin> plugins = ImmutableList.of(first, second, third);
+
+    List<ProjectStructureUpdate> updates = computeUpdates(plugins, new BlazeContext());
+    applyUpdates(plugins, updates);
+
+    assertThat(events.subList(0, 3))
+        .containsExactly("compute first", "compute second", "compute third");
+    assertThat(events.get(2)).isEqualTo("compute first");
+    assertThat(events.subList(3, events.size()))
+        .containsExactly("apply first", "apply second", "apply third")
+        .inOrder();
+  }
+
+  @Test
+  public void testNullUpdateFallsBackToUpdateProjectStructure() throws Exception {
+    List<BlazeSyncPlugin> plugins =
+        ImmutableList.of(
+            new RecordingPlugin("first", /* computesUpdate= */ true),
+            new RecordingPlugin("second", /* computesUpdate= */ false),
+            new RecordingPlugin("third", /* computesUpdate= */ true));
+
+    List<ProjectStructureUpdate> updates = computeUpdates(plugins, new BlazeContext());
+    events.clear();
+    applyUpdates(plugins, updates);
+
+    assertThat(updates.get(1)).isNull();
+    assertThat(events)
+        .containsExactly("apply first", "updateProjectStructure second", "apply third")
+        .inOrder();
+  }
+
+  @Test
+  public void testEachPluginComputesInItsOwnContext() throws Exception {
+    RecordingPlugin first = new RecordingPlugin("first", /* computesUpdate= */ true);
+    RecordingPlugin second = new RecordingPlugin("second", /* computesUpdate= */ true);
+    List<String> output = Collections.synchronizedList(new ArrayList<>());
+    BlazeContext context = new BlazeContext();
+    context.addOutputSink(
+        PrintOutput.class,
+        printOutput -> {
+          output.add(printOutput.getText());
+          return Propagation.Continue;
+        });
+
+    computeUpdates(ImmutableList.of(first, second), context);
+
+    assertThat(first.context).isNotSameAs(context);
+    assertThat(second.context).isNotSameAs(context);
+    assertThat(first.context).isNotSameAs(second.context);
+    assertThat(output).containsExactly("first", "second");
+  }
+
+  @Test
+  public void testErrorDuringApplyReachesSyncContext() throws Exception {
+    RecordingPlugin plugin = new RecordingPlugin("failing", /* computesUpdate= */ true);
+    plugin.failsToApply = true;
+    List<BlazeSyncPlugin> plugins = ImmutableList.of(plugin);
+    BlazeContext context = new BlazeContext();
+
+    List<ProjectStructureUpdate> updates = computeUpdates(plugins, context);
+    assertThat(context.hasErrors()).isFalse();
+    applyUpdates(plugins, updates, context);
+
+    assertThat(context.hasErrors()).isTrue();
+    assertThat(context.shouldContinue()).isFalse();
+  }
+
+  private List<ProjectStructureUpdate> computeUpdates(
+      List<BlazeSyncPlugin> plugins, BlazeContext context) throws Exception {
+    return ProjectUpdateSyncTask.computePluginUpdates(
+            executor,
+            plugins,
+            getProject(),
+            context,
+            workspaceRoot,
+            projectViewSet,
+            projectData,
+            /* oldBlazeProjectData= */ null)
+        .get(10, TimeUnit.SECONDS);
+  }
+
+  private void applyUpdates(List<BlazeSyncPlugin> plugins, List<ProjectStructureUpdate> updates) {
+    applyUpdates(plugins, updates, new BlazeContext());
+  }
+
+  private void applyUpdates(
+      List<BlazeSyncPlugin> plugins, List<ProjectStructureUpdate> updates, BlazeContext context) {
+    ProjectUpdateSyncTask.applyPluginUpdates(
+        plugins,
+        updates,
+        getProject(),
+        context,
+        workspaceRoot,
+        projectViewSet,
+        projectData,
+        /* oldBlazeProjectData= */ null,
+        mock(ModuleEditor.class),
+        mock(Module.class),
+        mock(ModifiableRootModel.class));
+  }
+
+  /** Records the project structure calls made to it. */
+  private class RecordingPlugin implements BlazeSyncPlugin {
+    private final String name;
+    private final boolean computesUpdate;
+    private boolean failsToApply;
+    @Nullable private CountDownLatch waitFor;
+    @Nullable private CountDownLatch onComputed;
+    @Nullable private volatile BlazeContext context;
+
+    RecordingPlugin(String name, boolean computesUpdate) {
+      this.name = name;
+      this.computesUpdate = computesUpdate;
+    }
+
+    @Nullable
+    @Override
+    public ProjectStructureUpdate computeProjectStructureUpdate(
+        Project project,
+        BlazeContext context,
+        WorkspaceRoot workspaceRoot,
+        ProjectViewSet projectViewSet,
+        BlazeProjectData blazeProjectData,
+        @Nullable BlazeProjectData oldBlazeProjectData) {
+      this.context = context;
+      context.output(PrintOutput.log(name));
+      if (waitFor != null) {
+        try {
+          waitFor.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+      events.add("compute " + name);
+      if (onComputed != null) {
+        onComputed.countDown();
+      }
+      if (!computesUpdate) {
+        return null;
+      }
+      return (syncContext, moduleEditor, workspaceModule, workspaceModifiableModel) -> {
+        events.add("apply " + name);
+        if (failsToApply) {
+          IssueOutput.error("failed to apply " + name).submit(syncContext);
+        }
+      };
+    }
+
+    @Override
+    public void updateProjectStructure(
+        Project project,
+        BlazeContext context,
+        WorkspaceRoot workspaceRoot,
+        ProjectViewSet projectViewSet,
+        BlazeProjectData blazeProjectData,
+        @Nullable BlazeProjectData oldBlazeProjectData,
+        ModuleEditor moduleEditor,
+        Module workspaceModule,
+        ModifiableRootModel workspaceModifiableModel) {
+      events.add("updateProjectStructure " + name);
+    }
+  }
+}
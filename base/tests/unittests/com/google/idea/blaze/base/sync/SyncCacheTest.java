@@ -0,0 +1,361 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SyncCache}. */
+@RunWith(JUnit4.class)
+public class SyncCacheTest extends BlazeTestCase {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private SyncCache syncCache;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    projectServices.register(
+        BlazeProjectDataManager.class,
+        new MockBlazeProjectDataManager(MockBlazeProjectDataBuilder.builder().build()));
+    syncCache = new SyncCache(project);
+  }
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentRequestsComputeOnce() throws Exception {
+    AtomicInteger computations = new AtomicInteger();
+    CountDownLatch computing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SyncCache.SyncCacheComputable<String> computable =
+        (project, projectData) -> {
+          computations.incrementAndGet();
+          computing.countDown();
+          awaitUninterruptibly(release);
+          return "value";
+        };
+
+    Future<String> first = executor.submit(() -> syncCache.get("key", computable));
+    computing.await();
+    Future<String> second = executor.submit(() -> syncCache.get("key", computable));
+    release.countDown();
+
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(computations.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSlowComputationDoesNotBlockOtherKeys() throws Exception {
+    CountDownLatch computing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> slow =
+        executor.submit(
+            () ->
+                syncCache.get(
+                    "slow",
+                    (project, projectData) -> {
+                      computing.countDown();
+                      awaitUninterruptibly(release);
+                      return "slow";
+                    }));
+    computing.await();
+
+    Future<String> fast =
+        executor.submit(() -> syncCache.get("fast", (project, projectData) -> "fast"));
+
+    assertThat(fast.get(10, TimeUnit.SECONDS)).isEqualTo("fast");
+    assertThat(slow.isDone()).isFalse();
+    release.countDown();
+    assertThat(slow.get(10, TimeUnit.SECONDS)).isEqualTo("slow");
+  }
+
+  @Test
+  public void testFailedComputationNotCached() {
+    try {
+      syncCache.get(
+          "key",
+          (project, projectData) -> {
+            throw new IllegalStateException("failed");
+          });
+      fail("Expected the computation's exception to be rethrown");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageThat().isEqualTo("failed");
+    }
+
+    assertThat(syncCache.get("key", (project, projectData) -> "value")).isEqualTo("value");
+  }
+
+  @Test
+  public void testRecursiveComputationThrows() {
+    try {
+      syncCache.get("key", (project, projectData) -> syncCache.get("key", (p, d) -> "value"));
+      fail("Expected a recursive computation to throw rather than wait for itself");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageThat().contains("Recursive");
+    }
+
+    assertThat(syncCache.get("key", (project, projectData) -> "value")).isEqualTo("value");
+  }
+
+  @Test
+  public void testCancelledComputationRecomputedByWaitingCaller() throws Exception {
+    CountDownLatch computing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> cancelled =
+        executor.submit(
+            () ->
+                syncCache.get(
+                    "key",
+                    (project, projectData) -> {
+                      computing.countDown();
+                      awaitUninterruptibly(release);
+                      throw new ProcessCanceledException();
+                    }));
+    computing.await();
+    Future<String> waiting =
+        executor.submit(() -> syncCache.get("key", (project, projectData) -> "value"));
+    release.countDown();
+
+    try {
+      cancelled.get(10, TimeUnit.SECONDS);
+      fail("Expected the cancelled caller to see its cancellation");
+    } catch (ExecutionException e) {
+      assertThat(e).hasCauseThat().isInstanceOf(ProcessCanceledException.class);
+    }
+    assertThat(waiting.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+  }
+
+  @Test
+  public void testValueCachedUntilCleared() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    syncCache.clear();
+    assertThat(syncCache.get("key", computable)).isEqualTo(2);
+  }
+
+  @Test
+  public void testValueForExplicitProjectDataReusedOnceCurrent() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeProjectData other = MockBlazeProjectDataBuilder.builder().build();
+
+    assertThat(syncCache.get("key", other, computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", current, computable)).isEqualTo(2);
+    assertThat(syncCache.get("key", computable)).isEqualTo(2);
+  }
+
+  @Test
+  public void testValuesForPendingAndCurrentProjectDataCachedSeparately() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeProjectData pending = MockBlazeProjectDataBuilder.builder().build();
+
+    assertThat(syncCache.get("key", current, computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", pending, computable)).isEqualTo(2);
+    assertThat(syncCache.get("key", current, computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", pending, computable)).isEqualTo(2);
+    assertThat(computations.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testValueForPendingProjectDataUpdatedFromCurrentValue() {
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeProjectData pending = MockBlazeProjectDataBuilder.builder().build();
+
+    assertThat(syncCache.get("key", current, new AppendingComputable())).isEqualTo("computed");
+    assertThat(syncCache.get("key", pending, new AppendingComputable()))
+        .isEqualTo("computed, updated");
+    assertThat(syncCache.get("key", current, new AppendingComputable())).isEqualTo("computed");
+  }
+
+  @Test
+  public void testSyncWithUnchangedProjectDataClearsValuesFromBeforeSync() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+
+    syncCache.syncStarted();
+    syncCache.invalidate(current, /* retainIncremental= */ false);
+
+    assertThat(syncCache.get("key", computable)).isEqualTo(2);
+  }
+
+  @Test
+  public void testOnlyValuesComputedDuringSyncFromNewProjectDataRetained() {
+    AtomicInteger computations = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (project, projectData) -> computations.incrementAndGet();
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeProjectData stale = MockBlazeProjectDataBuilder.builder().build();
+    BlazeProjectData synced = MockBlazeProjectDataBuilder.builder().build();
+    assertThat(syncCache.get("key", stale, computable)).isEqualTo(1);
+
+    syncCache.syncStarted();
+    assertThat(syncCache.get("key", current, computable)).isEqualTo(2);
+    assertThat(syncCache.get("key", synced, computable)).isEqualTo(3);
+    syncCache.invalidate(synced, /* retainIncremental= */ false);
+
+    assertThat(syncCache.get("key", synced, computable)).isEqualTo(3);
+    assertThat(syncCache.get("key", current, computable)).isEqualTo(4);
+    assertThat(syncCache.get("key", stale, computable)).isEqualTo(5);
+  }
+
+  @Test
+  public void testIncrementalValueUpdatedAfterSyncWithUnchangedProjectData() {
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    assertThat(syncCache.get("key", new AppendingComputable())).isEqualTo("computed");
+
+    syncCache.syncStarted();
+    syncCache.invalidate(current, /* retainIncremental= */ true);
+
+    assertThat(syncCache.get("key", new AppendingComputable())).isEqualTo("computed, updated");
+  }
+
+  @Test
+  public void testIncrementalValueOnlyRetainedUntilNextSync() {
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    assertThat(syncCache.get("key", new AppendingComputable())).isEqualTo("computed");
+
+    syncCache.syncStarted();
+    syncCache.invalidate(current, /* retainIncremental= */ true);
+    syncCache.syncStarted();
+    syncCache.invalidate(current, /* retainIncremental= */ true);
+
+    assertThat(syncCache.get("key", new AppendingComputable())).isEqualTo("computed");
+  }
+
+  @Test
+  public void testIncrementalValueUpdatedFromRecordedDiff() {
+    TargetMap previousTargets =
+        TargetMapBuilder.builder()
+            .addTarget(TargetIdeInfo.builder().setLabel("//a:a"))
+            .build();
+    TargetMap targets =
+        TargetMapBuilder.builder()
+            .addTarget(previousTargets.get(key("//a:a")))
+            .addTarget(TargetIdeInfo.builder().setLabel("//b:b"))
+            .build();
+    TargetMapDiff recorded =
+        TargetMapDiff.record(previousTargets, targets, ImmutableList.of(key("//b:b")));
+    BlazeProjectData current = BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    BlazeProjectData previous =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(previousTargets).build();
+    BlazeProjectData synced = MockBlazeProjectDataBuilder.builder().setTargetMap(targets).build();
+    DiffRecordingComputable computable = new DiffRecordingComputable();
+    assertThat(syncCache.get("key", previous, computable)).isEqualTo("computed");
+
+    syncCache.syncStarted();
+    syncCache.invalidate(current, /* retainIncremental= */ true);
+
+    assertThat(syncCache.get("key", synced, computable)).isEqualTo("updated");
+    assertThat(computable.diff).isSameAs(recorded);
+    assertThat(recorded.added).containsExactly(key("//b:b"));
+  }
+
+  /** Computes "computed", and appends ", updated" to the previous value when updating. */
+  private static class AppendingComputable
+      implements SyncCache.IncrementalSyncCacheComputable<String> {
+    @Override
+    public String compute(Project project, BlazeProjectData projectData) {
+      return "computed";
+    }
+
+    @Override
+    public String update(
+        Project project,
+        BlazeProjectData previousProjectData,
+        String previousValue,
+        BlazeProjectData projectData,
+        TargetMapDiff diff) {
+      return previousValue + ", updated";
+    }
+  }
+
+  /** Records the diff it's updated from. */
+  private static class DiffRecordingComputable
+      implements SyncCache.IncrementalSyncCacheComputable<String> {
+    TargetMapDiff diff;
+
+    @Override
+    public String compute(Project project, BlazeProjectData projectData) {
+      return "computed";
+    }
+
+    @Override
+    public String update(
+        Project project,
+        BlazeProjectData previousProjectData,
+        String previousValue,
+        BlazeProjectData projectData,
+        TargetMapDiff diff) {
+      this.diff = diff;
+      return "updated";
+    }
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
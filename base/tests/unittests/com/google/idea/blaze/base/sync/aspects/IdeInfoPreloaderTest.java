@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link IdeInfoPreloader}. */
+@RunWith(JUnit4.class)
+public class IdeInfoPreloaderTest extends BlazeTestCase {
+
+  private final ListeningExecutorService executor =
+      MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+
+  @After
+  public final void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testGetUpToDate_returnsPreloadedOutputs() throws Exception {
+    FakeOutput a = new FakeOutput("//foo:a", 1);
+    FakeOutput b = new FakeOutput("//foo:b", 1);
+    IdeInfoPreloader preloader = createPreloader(ImmutableMap.of());
+    preloader.preload(ImmutableList.of(a, b));
+
+    ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> result =
+        preloader.getUpToDate(new BlazeContext(), ImmutableList.of(a, b), currentState(a, b));
+
+    assertThat(result.keySet()).containsExactly(a.getKey(), b.getKey());
+  }
+
+  @Test
+  public void testPreloadedShards_mergedAndOnlyRemainingOutputsReadInFinalPass()
+      throws Exception {
+    FakeOutput shard1 = new FakeOutput("//foo:a", 1);
+    FakeOutput shard2 = new FakeOutput("//foo:b", 1);
+    FakeOutput notPreloaded = new FakeOutput("//foo:c", 1);
+    IdeInfoPreloader preloader = createPreloader(ImmutableMap.of());
+    // each shard's outputs are preloaded once it's built; outputs already streamed aren't read
+    // again
+    preloader.preload(ImmutableList.of(shard1));
+    preloader.preload(ImmutableList.of(shard1, shard2));
+
+    ImmutableList<OutputArtifact> updated = ImmutableList.of(shard1, shard2, notPreloaded);
+    ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> preloaded =
+        preloader.getUpToDate(
+            new BlazeContext(), updated, currentState(shard1, shard2, notPreloaded));
+    ImmutableMap<String, String> labels = readAll(updated, preloaded);
+
+    assertThat(preloaded.keySet()).containsExactly(shard1.getKey(), shard2.getKey());
+    assertThat(labels)
+        .containsExactly(
+            shard1.getKey(),
+            "//foo:a",
+            shard2.getKey(),
+            "//foo:b",
+            notPreloaded.getKey(),
+            "//foo:c");
+    assertThat(shard1.reads.get()).isEqualTo(1);
+    assertThat(shard2.reads.get()).isEqualTo(1);
+    assertThat(notPreloaded.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testOutputChangedAfterPreload_readAgainInFinalPass() throws Exception {
+    FakeOutput preloadedOutput = new FakeOutput("//foo:a", 1);
+    IdeInfoPreloader preloader = createPreloader(ImmutableMap.of());
+    preloader.preload(ImmutableList.of(preloadedOutput));
+
+    // a later shard rebuilt the output after it was preloaded
+    FakeOutput rebuilt = new FakeOutput("//foo:a", 2);
+    ImmutableList<OutputArtifact> updated = ImmutableList.of(rebuilt);
+    ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> preloaded =
+        preloader.getUpToDate(new BlazeContext(), updated, currentState(rebuilt));
+    readAll(updated, preloaded);
+
+    assertThat(preloaded).isEmpty();
+    assertThat(rebuilt.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testOutputUnchangedSinceLastSync_notPreloaded() throws Exception {
+    FakeOutput output = new FakeOutput("//foo:a", 1);
+    IdeInfoPreloader preloader =
+        createPreloader(ImmutableMap.of(output.getKey(), output.toArtifactState()));
+    preloader.preload(ImmutableList.of(output));
+
+    ImmutableMap<String, IntellijIdeInfo.TargetIdeInfo> preloaded =
+        preloader.getUpToDate(new BlazeContext(), ImmutableList.of(output), currentState(output));
+
+    assertThat(preloaded).isEmpty();
+    assertThat(output.reads.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testGetUpToDate_cancelledSync_returnsWithoutWaiting() throws Exception {
+    CountDownLatch neverReleased = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    FakeOutput output =
+        new FakeOutput("//foo:a", 1) {
+          @Override
+          void beforeRead() throws IOException {
+            try {
+              neverReleased.await();
+            } catch (InterruptedException e) {
+              interrupted.countDown();
+              throw new InterruptedIOException();
+            }
+          }
+        };
+    IdeInfoPreloader preloader = createPreloader(ImmutableMap.of());
+    preloader.preload(ImmutableList.of(output));
+    BlazeContext context = new BlazeContext();
+    context.setCancelled();
+
+    assertThat(preloader.getUpToDate(context, ImmutableList.of(output), currentState(output)))
+        .isNull();
+    // the outstanding read is stopped
+    assertThat(interrupted.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private IdeInfoPreloader createPreloader(ImmutableMap<String, ArtifactState> previousState) {
+    return new IdeInfoPreloader(getProject(), new FakeAspectStrategy(), previousState, executor);
+  }
+
+  /** Reads the target label of each updated output, as the final 'Reading IDE info' pass does. */
+  private static ImmutableMap<String, String> readAll(
+      List<OutputArtifact> updated, Map<String, IntellijIdeInfo.TargetIdeInfo> preloaded)
+      throws IOException {
+    ImmutableMap.Builder<String, String> labels = ImmutableMap.builder();
+    for (OutputArtifact output : updated) {
+      IntellijIdeInfo.TargetIdeInfo info =
+          BlazeIdeInterfaceAspectsImpl.readIdeInfo(
+              new FakeAspectStrategy(), output, preloaded, new AtomicLong());
+      labels.put(output.getKey(), info.getKey().getLabel());
+    }
+    return labels.build();
+  }
+
+  private static ImmutableMap<String, ArtifactState> currentState(FakeOutput... outputs) {
+    ImmutableMap.Builder<String, ArtifactState> state = ImmutableMap.builder();
+    for (FakeOutput output : outputs) {
+      state.put(output.getKey(), output.toArtifactState());
+    }
+    return state.build();
+  }
+
+  /** An aspect output for a single target, counting the number of times it's read. */
+  private static class FakeOutput implements OutputArtifact {
+    private final String label;
+    private final long timestamp;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    FakeOutput(String label, long timestamp) {
+      this.label = label;
+      this.timestamp = timestamp;
+    }
+
+    void beforeRead() throws IOException {}
+
+    @Override
+    public long getLength() {
+      return 0;
+    }
+
+    @Override
+    public BufferedInputStream getInputStream() throws IOException {
+      beforeRead();
+      reads.incrementAndGet();
+      String proto = String.format("key { label: \"%s\" }", label);
+      return new BufferedInputStream(new ByteArrayInputStream(proto.getBytes(UTF_8)));
+    }
+
+    @Override
+    public String getConfigurationMnemonic() {
+      return "k8-fastbuild";
+    }
+
+    @Override
+    public String getRelativePath() {
+      return "k8-fastbuild/bin/" + label.replace(':', '/') + ".intellij-info.txt";
+    }
+
+    @Nullable
+    @Override
+    public ArtifactState toArtifactState() {
+      return new LocalFileState(getKey(), timestamp);
+    }
+  }
+
+  private static class FakeAspectStrategy extends AspectStrategy {
+    FakeAspectStrategy() {
+      super(/* aspectSupportsDirectDepsTrimming= */ true);
+    }
+
+    @Override
+    public String getName() {
+      return "FakeAspectStrategy";
+    }
+
+    @Override
+    protected List<String> getAspectFlags() {
+      return ImmutableList.of();
+    }
+  }
+}
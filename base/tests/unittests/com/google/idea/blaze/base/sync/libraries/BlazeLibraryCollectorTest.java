@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.MockProjectViewManager;
+import com.google.idea.blaze.base.model.BlazeLibrary;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.projectview.ProjectViewManager;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.sync.BlazeSyncPlugin;
+import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.libraries.Library;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BlazeLibraryCollector}. */
+@RunWith(JUnit4.class)
+public class BlazeLibraryCollectorTest extends BlazeTestCase {
+
+  private final MockProjectViewManager projectViewManager = new MockProjectViewManager();
+  private final List<BlazeLibrary> libraries =
+      ImmutableList.of(
+          new TestLibrary("foo", "first"),
+          new TestLibrary("foo", "second"),
+          new TestLibrary("bar", "only"));
+  private int collections = 0;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    projectServices.register(ProjectViewManager.class, projectViewManager);
+    projectServices.register(SyncCache.class, new SyncCache(project));
+    registerExtensionPoint(BlazeSyncPlugin.EP_NAME, BlazeSyncPlugin.class)
+        .registerExtension(new TestSyncPlugin());
+    registerExtensionPoint(BlazeLibrarySorter.EP_NAME, BlazeLibrarySorter.class);
+  }
+
+  @Test
+  public void testFindLibraryWithDuplicateKeysReturnsFirst() {
+    BlazeProjectData projectData = MockBlazeProjectDataBuilder.builder().build();
+
+    assertThat(
+            BlazeLibraryCollector.findLibrary(
+                project, projectData, LibraryKey.fromIntelliJLibraryName("foo")))
+        .isSameAs(libraries.get(0));
+    assertThat(
+            BlazeLibraryCollector.findLibrary(
+                project, projectData, LibraryKey.fromIntelliJLibraryName("bar")))
+        .isSameAs(libraries.get(2));
+  }
+
+  @Test
+  public void testGetLibrariesKeepsDuplicateKeys() {
+    BlazeProjectData projectData = MockBlazeProjectDataBuilder.builder().build();
+
+    assertThat(
+            BlazeLibraryCollector.getLibraries(
+                project, projectViewManager.getProjectViewSet(), projectData))
+        .containsExactlyElementsIn(libraries)
+        .inOrder();
+  }
+
+  @Test
+  public void testLibrariesRecollectedOnceAfterProjectViewReload() {
+    BlazeProjectData projectData = MockBlazeProjectDataBuilder.builder().build();
+    ProjectViewSet original = projectViewManager.getProjectViewSet();
+    ProjectViewSet reloaded = ProjectViewSet.builder().build();
+
+    BlazeLibraryCollector.getLibraries(project, original, projectData);
+    BlazeLibraryCollector.getLibraries(project, reloaded, projectData);
+    BlazeLibraryCollector.getLibraries(project, reloaded, projectData);
+    BlazeLibraryCollector.getLibraries(project, reloaded, projectData);
+
+    assertThat(collections).isEqualTo(2);
+  }
+
+  private class TestSyncPlugin implements BlazeSyncPlugin {
+    @Nullable
+    @Override
+    public LibrarySource getLibrarySource(
+        ProjectViewSet projectViewSet, BlazeProjectData blazeProjectData) {
+      collections++;
+      return new LibrarySource.Adapter() {
+        @Override
+        public List<? extends BlazeLibrary> getLibraries() {
+          return libraries;
+        }
+      };
+    }
+  }
+
+  /** A library which, unlike the base class, isn't equal to other libraries with the same key. */
+  private static class TestLibrary extends BlazeLibrary {
+    private final String contents;
+
+    TestLibrary(String name, String contents) {
+      super(LibraryKey.fromIntelliJLibraryName(name));
+      this.contents = contents;
+    }
+
+    @Override
+    public void modifyLibraryModel(
+        Project project,
+        ArtifactLocationDecoder artifactLocationDecoder,
+        Library.ModifiableModel libraryModel) {}
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof TestLibrary
+          && super.equals(other)
+          && contents.equals(((TestLibrary) other).contents);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * super.hashCode() + contents.hashCode();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackageLister}. */
+@RunWith(JUnit4.class)
+public class PackageListerTest extends BlazeTestCase {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final RecordingFileOperationProvider fileOperationProvider =
+      new RecordingFileOperationProvider();
+  private WorkspaceRoot workspaceRoot;
+  private WorkspacePathResolver pathResolver;
+  private PackageListingCache listingCache;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
+    workspaceRoot = new WorkspaceRoot(folder.getRoot());
+    pathResolver = new WorkspacePathResolverImpl(workspaceRoot);
+    listingCache = new PackageListingCache(() -> null, MoreExecutors.directExecutor());
+  }
+
+  @Test
+  public void testLaterRecursiveExcludeNotTraversed() throws IOException {
+    createPackages("java", "java/a", "java/excluded", "java/excluded/sub");
+
+    List<TargetExpression> packages =
+        expand(ImmutableList.of(), "//java/...", "-//java/excluded/...");
+
+    assertThat(packages).containsExactly(allInPackage("java"), allInPackage("java/a")).inOrder();
+    assertThat(fileOperationProvider.listedDirectories())
+        .containsNoneOf("java/excluded", "java/excluded/sub");
+  }
+
+  @Test
+  public void testEarlierRecursiveExcludeStillTraversed() throws IOException {
+    createPackages("java", "java/excluded");
+
+    List<TargetExpression> packages =
+        expand(ImmutableList.of(), "-//java/excluded/...", "//java/...");
+
+    assertThat(packages)
+        .containsExactly(allInPackage("java"), allInPackage("java/excluded"))
+        .inOrder();
+  }
+
+  @Test
+  public void testArtifactAndBazelIgnoredDirectoriesNotTraversed() throws IOException {
+    String workspaceArtifactDir = "bazel-" + folder.getRoot().getName();
+    createPackages(
+        "a", "bazel-out/k8-fastbuild", workspaceArtifactDir, "ignored", "ignored/sub", "kept");
+    Files.write(
+        new File(folder.getRoot(), ".bazelignore").toPath(),
+        ImmutableList.of("# comment", "ignored/"),
+        StandardCharsets.UTF_8);
+
+    ImmutableList<WorkspacePath> ignoredDirectories =
+        PackageLister.ignoredDirectories(new BazelBuildSystemProvider(), workspaceRoot);
+    assertThat(ignoredDirectories)
+        .containsAllOf(
+            new WorkspacePath("bazel-out"),
+            new WorkspacePath(workspaceArtifactDir),
+            new WorkspacePath("ignored"));
+
+    List<TargetExpression> packages = expand(ignoredDirectories, "//...");
+
+    assertThat(packages).containsExactly(allInPackage("a"), allInPackage("kept")).inOrder();
+    assertThat(fileOperationProvider.listedDirectories())
+        .containsNoneOf("bazel-out", workspaceArtifactDir, "ignored", "ignored/sub");
+  }
+
+  @Test
+  public void testProjectViewExcludedDirectoriesNotTraversed() throws IOException {
+    createPackages("java", "java/a", "java/excluded", "java/excluded/sub");
+
+    List<TargetExpression> packages =
+        expand(
+            ImmutableList.of(), ImmutableList.of(new WorkspacePath("java/excluded")), "//java/...");
+
+    assertThat(packages).containsExactly(allInPackage("java"), allInPackage("java/a")).inOrder();
+    assertThat(fileOperationProvider.listedDirectories())
+        .containsNoneOf("java/excluded", "java/excluded/sub");
+  }
+
+  @Test
+  public void testPatternWithinProjectViewExcludedDirectoryStillTraversed() throws IOException {
+    createPackages("java/excluded", "java/excluded/sub");
+
+    List<TargetExpression> packages =
+        expand(
+            ImmutableList.of(),
+            ImmutableList.of(new WorkspacePath("java/excluded")),
+            "//java/excluded/sub/...");
+
+    assertThat(packages).containsExactly(allInPackage("java/excluded/sub"));
+  }
+
+  @Test
+  public void testUnchangedDirectoryListingsReused() throws IOException {
+    createPackages("java", "java/a");
+    setOld("java", "java/a");
+    expand(ImmutableList.of(), "//java/...");
+    fileOperationProvider.listed.clear();
+
+    List<TargetExpression> packages = expand(ImmutableList.of(), "//java/...");
+
+    assertThat(packages).containsExactly(allInPackage("java"), allInPackage("java/a")).inOrder();
+    assertThat(fileOperationProvider.listedDirectories()).isEmpty();
+  }
+
+  @Test
+  public void testModifiedDirectoryListedAgain() throws IOException {
+    createPackages("java", "java/a");
+    setOld("java", "java/a");
+    expand(ImmutableList.of(), "//java/...");
+    fileOperationProvider.listed.clear();
+
+    // adding a subdirectory updates the parent's modification time
+    createPackages("java/b");
+    List<TargetExpression> packages = expand(ImmutableList.of(), "//java/...");
+
+    assertThat(packages)
+        .containsExactly(allInPackage("java"), allInPackage("java/a"), allInPackage("java/b"))
+        .inOrder();
+    assertThat(fileOperationProvider.listedDirectories()).containsExactly("java", "java/b");
+  }
+
+  private List<TargetExpression> expand(
+      Collection<WorkspacePath> ignoredDirectories, String... patterns) {
+    return expand(ignoredDirectories, ImmutableList.of(), patterns);
+  }
+
+  private List<TargetExpression> expand(
+      Collection<WorkspacePath> ignoredDirectories,
+      Collection<WorkspacePath> excludedDirectories,
+      String... patterns) {
+    List<WildcardTargetPattern> wildcardPatterns =
+        Arrays.stream(patterns)
+            .map(TargetExpression::fromStringSafe)
+            .map(WildcardTargetPattern::fromExpression)
+            .collect(toImmutableList());
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        PackageLister.expandPackageTargets(
+            new BazelBuildSystemProvider(),
+            new BlazeContext(),
+            pathResolver,
+            wildcardPatterns,
+            ignoredDirectories,
+            excludedDirectories,
+            listingCache);
+    assertThat(expanded).isNotNull();
+    return expanded.values().stream().flatMap(List::stream).collect(toImmutableList());
+  }
+
+  private void createPackages(String... paths) throws IOException {
+    for (String path : paths) {
+      File dir = new File(folder.getRoot(), path);
+      dir.mkdirs();
+      new File(dir, "BUILD").createNewFile();
+    }
+  }
+
+  /** Backdates the directories, so their listings can be cached. */
+  private void setOld(String... paths) {
+    long time = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10);
+    for (String path : paths) {
+      new File(folder.getRoot(), path).setLastModified(time);
+    }
+  }
+
+  private static TargetExpression allInPackage(String path) {
+    return TargetExpression.allFromPackageNonRecursive(new WorkspacePath(path));
+  }
+
+  /** Records which directories are listed. */
+  private class RecordingFileOperationProvider extends FileOperationProvider {
+    final Set<File> listed = ConcurrentHashMap.newKeySet();
+
+    @Nullable
+    @Override
+    public File[] listFiles(File file) {
+      listed.add(file);
+      return super.listFiles(file);
+    }
+
+    /** Returns the workspace-relative paths of the listed directories. */
+    ImmutableList<String> listedDirectories() {
+      return listed.stream()
+          .map(file -> workspaceRoot.workspacePathFor(file).relativePath())
+          .collect(toImmutableList());
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.sync.sharding.PackageListingCache.DirectoryListing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackageListingCache}. */
+@RunWith(JUnit4.class)
+public class PackageListingCacheTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testListingsPersistedBetweenInstances() {
+    File cacheFile = new File(folder.getRoot(), "package_listing.dat");
+    newCache(cacheFile)
+        .update(
+            ImmutableMap.of(
+                "java",
+                new DirectoryListing(1234, true, ImmutableList.of("a", "b")),
+                "java/a",
+                new DirectoryListing(5678, false, ImmutableList.of())));
+
+    ImmutableMap<String, DirectoryListing> listings = newCache(cacheFile).getListings();
+
+    assertThat(listings.keySet()).containsExactly("java", "java/a");
+    DirectoryListing java = listings.get("java");
+    assertThat(java.modifiedTime).isEqualTo(1234);
+    assertThat(java.isPackage).isTrue();
+    assertThat(java.subdirectories).containsExactly("a", "b").inOrder();
+    DirectoryListing javaA = listings.get("java/a");
+    assertThat(javaA.modifiedTime).isEqualTo(5678);
+    assertThat(javaA.isPackage).isFalse();
+    assertThat(javaA.subdirectories).isEmpty();
+  }
+
+  @Test
+  public void testUpdateDropsDirectoriesNoLongerListed() {
+    File cacheFile = new File(folder.getRoot(), "package_listing.dat");
+    PackageListingCache cache = newCache(cacheFile);
+    cache.update(
+        ImmutableMap.of(
+            "old", new DirectoryListing(1, true, ImmutableList.of()),
+            "kept", new DirectoryListing(2, true, ImmutableList.of())));
+    cache.update(ImmutableMap.of("kept", new DirectoryListing(2, true, ImmutableList.of())));
+
+    assertThat(cache.getListings().keySet()).containsExactly("kept");
+    assertThat(newCache(cacheFile).getListings().keySet()).containsExactly("kept");
+  }
+
+  @Test
+  public void testMissingCacheFileGivesNoListings() {
+    File cacheFile = new File(folder.getRoot(), "package_listing.dat");
+
+    assertThat(newCache(cacheFile).getListings()).isEmpty();
+  }
+
+  @Test
+  public void testCorruptCacheFileGivesNoListings() throws IOException {
+    File cacheFile = folder.newFile("package_listing.dat");
+    Files.write(cacheFile.toPath(), new byte[] {1, 2, 3});
+
+    assertThat(newCache(cacheFile).getListings()).isEmpty();
+  }
+
+  private static PackageListingCache newCache(File cacheFile) {
+    // write synchronously, so the file is up to date as soon as update returns
+    return new PackageListingCache(() -> cacheFile, MoreExecutors.directExecutor());
+  }
+}
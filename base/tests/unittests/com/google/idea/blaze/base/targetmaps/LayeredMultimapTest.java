@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LayeredMultimap}. */
+@RunWith(JUnit4.class)
+public class LayeredMultimapTest {
+
+  @Test
+  public void testReplacedValuesOverrideBase() {
+    LayeredMultimap<Integer, String> map =
+        LayeredMultimap.of(base(100))
+            .withReplacedValues(
+                ImmutableMap.of(1, ImmutableList.of("x", "y"), 2, ImmutableList.of()));
+
+    assertThat(map.get(1)).containsExactly("x", "y");
+    assertThat(map.get(2)).isEmpty();
+    assertThat(map.get(3)).containsExactly("3");
+    assertThat(map.get(1000)).isEmpty();
+    assertThat(map.layerCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testUpdateDoesNotChangePreviousMap() {
+    LayeredMultimap<Integer, String> previous = LayeredMultimap.of(base(100));
+    LayeredMultimap<Integer, String> map =
+        previous.withReplacedValues(ImmutableMap.of(1, ImmutableList.of("x")));
+
+    assertThat(previous.get(1)).containsExactly("1");
+    assertThat(map.get(1)).containsExactly("x");
+  }
+
+  @Test
+  public void testSmallUpdatesKeepFewLayers() {
+    LayeredMultimap<Integer, String> map = LayeredMultimap.of(base(10_000));
+    for (int i = 0; i < 1000; i++) {
+      map = map.withReplacedValues(ImmutableMap.of(i, ImmutableList.of("updated " + i)));
+      assertThat(map.layerCount()).isAtMost(15);
+    }
+
+    assertThat(map.get(0)).containsExactly("updated 0");
+    assertThat(map.get(999)).containsExactly("updated 999");
+    assertThat(map.get(1000)).containsExactly("1000");
+    assertThat(map.toMultimap().size()).isEqualTo(10_000);
+  }
+
+  @Test
+  public void testLargeUpdateFlattensLayers() {
+    ImmutableMap.Builder<Integer, ImmutableList<String>> replacements = ImmutableMap.builder();
+    for (int i = 0; i < 60; i++) {
+      replacements.put(i, ImmutableList.of());
+    }
+    LayeredMultimap<Integer, String> map =
+        LayeredMultimap.of(base(100)).withReplacedValues(replacements.build());
+
+    assertThat(map.layerCount()).isEqualTo(0);
+    assertThat(map.toMultimap().keySet()).hasSize(40);
+    assertThat(map.get(0)).isEmpty();
+    assertThat(map.get(60)).containsExactly("60");
+  }
+
+  private static ImmutableMultimap<Integer, String> base(int size) {
+    ImmutableMultimap.Builder<Integer, String> builder = ImmutableMultimap.builder();
+    for (int i = 0; i < size; i++) {
+      builder.put(i, String.valueOf(i));
+    }
+    return builder.build();
+  }
+}
@@ -24,6 +24,7 @@ import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
 import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.Kind;
@@ -206,6 +207,65 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
             TargetKey.forPlainTarget(Label.create("//l:l5")));
   }
 
+  @Test
+  public void testIncrementalUpdateMatchesFullComputation() {
+    TargetMap previousTargetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("proto_library")
+                    .addDependency("//l:l2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l2")
+                    .setKind("proto_library"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l3")
+                    .setKind("proto_library")
+                    .addDependency("//l:l4"))
+            .build();
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l1")
+                    .setKind("proto_library")
+                    .addDependency("//l:l3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l3")
+                    .setKind("proto_library")
+                    .addDependency("//l:l4"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//l:l4")
+                    .setKind("proto_library"))
+            .build();
+    BlazeProjectData previousProjectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(previousTargetMap).build();
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build();
+
+    ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
+        ReverseDependencyMap.updateRdepsMap(getProject(), previousProjectData, projectData);
+    assertThat(reverseDependencies)
+        .containsExactly(
+            TargetKey.forPlainTarget(Label.create("//l:l3")),
+            TargetKey.forPlainTarget(Label.create("//l:l1")),
+            TargetKey.forPlainTarget(Label.create("//l:l4")),
+            TargetKey.forPlainTarget(Label.create("//l:l3")));
+    assertThat(reverseDependencies)
+        .containsExactlyEntriesIn(ReverseDependencyMap.createRdepsMap(getProject(), projectData));
+  }
+
   private static ArtifactLocation sourceRoot(String relativePath) {
     return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
   }
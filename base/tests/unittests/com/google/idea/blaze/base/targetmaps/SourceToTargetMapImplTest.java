@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.ideinfo.TargetMapDiff;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the source to target map computation in {@link SourceToTargetMapImpl}. */
+@RunWith(JUnit4.class)
+public class SourceToTargetMapImplTest extends BlazeTestCase {
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testIncrementalUpdateMatchesFullComputation() {
+    TargetMap previousTargetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("l/BUILD"))
+                    .setLabel("//l:changed")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("l/Old.sh"))
+                    .addSource(sourceRoot("l/Shared.sh")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("l/BUILD"))
+                    .setLabel("//l:removed")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("l/Removed.sh"))
+                    .addSource(sourceRoot("l/Shared.sh")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("l/BUILD"))
+                    .setLabel("//l:unchanged")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("l/Unchanged.sh")))
+            .build();
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("l/BUILD"))
+                    .setLabel("//l:changed")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("l/New.sh"))
+                    .addSource(sourceRoot("l/Shared.sh")))
+            .addTarget(previousTargetMap.get(key("//l:unchanged")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("l/BUILD"))
+                    .setLabel("//l:added")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("l/Added.sh"))
+                    .addSource(sourceRoot("l/Unchanged.sh")))
+            .build();
+    BlazeProjectData previousProjectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(previousTargetMap).build();
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(targetMap)
+            .setArtifactLocationDecoder(previousProjectData.getArtifactLocationDecoder())
+            .build();
+
+    SourceToTargetMapImpl.Computable computable = new SourceToTargetMapImpl.Computable();
+    ImmutableMultimap<File, TargetKey> updated =
+        computable
+            .update(
+                getProject(),
+                previousProjectData,
+                computable.compute(getProject(), previousProjectData),
+                projectData,
+                TargetMapDiff.compute(previousTargetMap, targetMap))
+            .toMultimap();
+
+    assertThat(updated)
+        .containsExactly(
+            new File("/l/New.sh"), key("//l:changed"),
+            new File("/l/Shared.sh"), key("//l:changed"),
+            new File("/l/Unchanged.sh"), key("//l:unchanged"),
+            new File("/l/Unchanged.sh"), key("//l:added"),
+            new File("/l/Added.sh"), key("//l:added"));
+    assertThat(updated)
+        .containsExactlyEntriesIn(computable.compute(getProject(), projectData).toMultimap());
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation sourceRoot(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
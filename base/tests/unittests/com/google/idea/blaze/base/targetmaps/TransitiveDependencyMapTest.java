@@ -29,7 +29,10 @@ import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
 import java.io.File;
 import java.util.Collection;
@@ -54,12 +57,14 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
         registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
     ep.registerExtension(new GenericBlazeRules());
     applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
 
     targetMap = buildTargetMap();
     projectServices.register(
         BlazeProjectDataManager.class,
         new MockBlazeProjectDataManager(
             MockBlazeProjectDataBuilder.builder(workspaceRoot).setTargetMap(targetMap).build()));
+    projectServices.register(SyncCache.class, new SyncCache(project));
     projectServices.register(TransitiveDependencyMap.class, new TransitiveDependencyMap(project));
     transitiveDependencyMap = TransitiveDependencyMap.getInstance(project);
   }
@@ -154,6 +159,46 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
     assertThat(transitiveDependencyMap.getTransitiveDependencies(bogus)).isEmpty();
   }
 
+  @Test
+  public void testGetCycleDependencies() {
+    TargetKey cycleA = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:a"));
+    TargetKey cycleB = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:b"));
+    TargetKey cycleC = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:c"));
+    TargetKey cycleD = TargetKey.forPlainTarget(Label.create("//com/google/example/cycle:d"));
+
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleA))
+        .containsExactly(cycleB, cycleC, cycleA);
+    assertThat(transitiveDependencyMap.getTransitiveDependencies(cycleD))
+        .containsExactly(cycleA, cycleB, cycleC);
+    assertThat(transitiveDependencyMap.hasTransitiveDependency(cycleA, cycleA)).isTrue();
+    assertThat(transitiveDependencyMap.hasTransitiveDependency(cycleC, cycleB)).isTrue();
+    assertThat(transitiveDependencyMap.hasTransitiveDependency(cycleA, cycleD)).isFalse();
+  }
+
+  @Test
+  public void testTraversalOrderMatchesStream() {
+    for (TargetKey key : targetMap.map().keySet()) {
+      assertThat(transitiveDependencyMap.getTransitiveDependencies(key))
+          .containsExactlyElementsIn(
+              TransitiveDependencyMap.getTransitiveDependenciesStream(key, targetMap)
+                  .collect(Collectors.toList()))
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void testFilterPossibleTransitiveDeps() {
+    TargetKey diamondA = TargetKey.forPlainTarget(Label.create("//com/google/example/diamond:a"));
+    TargetKey diamondBB = TargetKey.forPlainTarget(Label.create("//com/google/example/diamond:bb"));
+    TargetKey diamondC = TargetKey.forPlainTarget(Label.create("//com/google/example/diamond:c"));
+    TargetKey chainD = TargetKey.forPlainTarget(Label.create("//com/google/example/chain:d"));
+
+    assertThat(
+            transitiveDependencyMap.filterPossibleTransitiveDeps(
+                diamondBB, ImmutableSet.of(diamondA, diamondBB, diamondC, chainD)))
+        .containsExactly(diamondC);
+  }
+
   private static TargetMap buildTargetMap() {
     Label simpleA = Label.create("//com/google/example/simple:a");
     Label simpleB = Label.create("//com/google/example/simple:b");
@@ -168,6 +213,10 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
     Label diamondC = Label.create("//com/google/example/diamond:c");
     Label diamondCC = Label.create("//com/google/example/diamond:cc");
     Label diamondCCC = Label.create("//com/google/example/diamond:ccc");
+    Label cycleA = Label.create("//com/google/example/cycle:a");
+    Label cycleB = Label.create("//com/google/example/cycle:b");
+    Label cycleC = Label.create("//com/google/example/cycle:c");
+    Label cycleD = Label.create("//com/google/example/cycle:d");
     return TargetMapBuilder.builder()
         .addTarget(mockTargetIdeInfoBuilder().setLabel(simpleA).addDependency(simpleB))
         .addTarget(mockTargetIdeInfoBuilder().setLabel(simpleB))
@@ -197,6 +246,10 @@ public class TransitiveDependencyMapTest extends BlazeTestCase {
         .addTarget(mockTargetIdeInfoBuilder().setLabel(diamondC))
         .addTarget(mockTargetIdeInfoBuilder().setLabel(diamondCC))
         .addTarget(mockTargetIdeInfoBuilder().setLabel(diamondCCC))
+        .addTarget(mockTargetIdeInfoBuilder().setLabel(cycleA).addDependency(cycleB))
+        .addTarget(mockTargetIdeInfoBuilder().setLabel(cycleB).addDependency(cycleC))
+        .addTarget(mockTargetIdeInfoBuilder().setLabel(cycleC).addDependency(cycleA))
+        .addTarget(mockTargetIdeInfoBuilder().setLabel(cycleD).addDependency(cycleA))
         .build();
   }
 
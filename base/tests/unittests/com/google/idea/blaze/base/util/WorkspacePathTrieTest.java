@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link WorkspacePathTrie}. */
+@RunWith(JUnit4.class)
+public class WorkspacePathTrieTest {
+
+  private static final WorkspacePathTrie<String> TRIE =
+      WorkspacePathTrie.<String>builder()
+          .put(new WorkspacePath("foo"), "foo")
+          .put(new WorkspacePath("foo/bar/baz"), "baz")
+          .put(new WorkspacePath("other"), "other")
+          .build();
+
+  @Test
+  public void testExactLookup() {
+    assertThat(TRIE.get(new WorkspacePath("foo"))).isEqualTo("foo");
+    assertThat(TRIE.get(new WorkspacePath("foo/bar/baz"))).isEqualTo("baz");
+    assertThat(TRIE.get(new WorkspacePath("foo/bar"))).isNull();
+    assertThat(TRIE.get(new WorkspacePath(""))).isNull();
+  }
+
+  @Test
+  public void testDeepestAncestorMatchesWholeSegmentsOnly() {
+    assertThat(TRIE.getDeepestAncestorValue("foo/bar/Foo.java")).isEqualTo("foo");
+    assertThat(TRIE.getDeepestAncestorValue("foo/bar/baz/sub/Foo.java")).isEqualTo("baz");
+    assertThat(TRIE.getDeepestAncestorValue("foo/bar/bazz")).isEqualTo("foo");
+    assertThat(TRIE.getDeepestAncestorValue("food/Foo.java")).isNull();
+    assertThat(TRIE.getDeepestAncestorValue("")).isNull();
+  }
+
+  @Test
+  public void testWorkspaceRootIsAncestorOfEverything() {
+    WorkspacePathTrie<String> trie =
+        WorkspacePathTrie.<String>builder()
+            .put(new WorkspacePath(""), "root")
+            .put(new WorkspacePath("foo"), "foo")
+            .build();
+
+    assertThat(trie.getDeepestAncestorValue("bar/Bar.java")).isEqualTo("root");
+    assertThat(trie.getDeepestAncestorValue("foo/Foo.java")).isEqualTo("foo");
+  }
+
+  @Test
+  public void testForEachAncestorValueVisitsShallowestFirst() {
+    List<String> values = new ArrayList<>();
+    TRIE.forEachAncestorValue("foo/bar/baz/Foo.java", values::add);
+
+    assertThat(values).containsExactly("foo", "baz").inOrder();
+  }
+
+  @Test
+  public void testRedundantSeparatorsIgnored() {
+    assertThat(TRIE.getDeepestAncestorValue("foo//bar/./baz/Foo.java")).isEqualTo("baz");
+  }
+}
@@ -21,6 +21,7 @@ import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.model.primitives.WorkspaceType;
+import com.google.idea.blaze.base.sync.aspects.BlazeIdeInterfaceState;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoderImpl;
@@ -45,6 +46,7 @@ public class MockBlazeProjectDataBuilder {
   private ArtifactLocationDecoder artifactLocationDecoder;
   private WorkspaceLanguageSettings workspaceLanguageSettings;
   private SyncState syncState;
+  private BlazeIdeInterfaceState ideInterfaceState;
 
   private MockBlazeProjectDataBuilder(WorkspaceRoot workspaceRoot) {
     this.workspaceRoot = workspaceRoot;
@@ -101,6 +103,12 @@ public class MockBlazeProjectDataBuilder {
     return this;
   }
 
+  public MockBlazeProjectDataBuilder setIdeInterfaceState(
+      BlazeIdeInterfaceState ideInterfaceState) {
+    this.ideInterfaceState = ideInterfaceState;
+    return this;
+  }
+
   public BlazeProjectData build() {
     TargetMap targetMap =
         this.targetMap != null ? this.targetMap : new TargetMap(ImmutableMap.of());
@@ -134,8 +142,7 @@ public class MockBlazeProjectDataBuilder {
         this.syncState != null ? this.syncState : new SyncState(ImmutableMap.of());
 
     return new BlazeProjectData(
-        new ProjectTargetData(
-            targetMap, /* ideInterfaceState= */ null, RemoteOutputArtifacts.EMPTY),
+        new ProjectTargetData(targetMap, ideInterfaceState, RemoteOutputArtifacts.EMPTY),
         blazeInfo,
         blazeVersionData,
         workspacePathResolver,
@@ -18,6 +18,7 @@ package com.google.idea.blaze.java.libraries;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
@@ -54,6 +55,7 @@ import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.settings.BlazeJavaUserSettings;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
+import com.google.idea.common.experiments.IntExperiment;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -63,6 +65,7 @@ import com.intellij.util.PathUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -73,6 +76,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -90,6 +94,15 @@ public class JarCache {
 
   private static final Logger logger = Logger.getInstance(JarCache.class);
 
+  private static final IntExperiment sharedStoreMaxUnlinkedMb =
+      new IntExperiment("blaze.java.shared.jar.store.max.mb", 10240);
+
+  /**
+   * Records the source timestamps of local jars linked from the shared store. Linked files share
+   * their modification time with every other project linking them, so can't be compared directly.
+   */
+  private static final String LINKED_TIMESTAMPS_FILE = ".linked_timestamps";
+
   private final Project project;
   private final File cacheDir;
 
@@ -97,6 +110,10 @@ public class JarCache {
   private volatile ImmutableMap<String, File> cacheState = ImmutableMap.of();
 
   private boolean enabled;
+  private boolean useSharedStore;
+
+  /** Source timestamps of linked local jars, keyed by cache key. Loaded lazily. */
+  @Nullable private volatile Map<String, Long> linkedTimestamps;
 
   public JarCache(Project project) {
     BlazeImportSettings importSettings =
@@ -115,6 +132,7 @@ public class JarCache {
         !ApplicationManager.getApplication().isUnitTestMode()
             && (BlazeJavaUserSettings.getInstance().getUseJarCache()
                 || Blaze.getBuildSystemProvider(project).syncingRemotely());
+    this.useSharedStore = enabled && BlazeJavaUserSettings.getInstance().getUseSharedJarStore();
     return enabled;
   }
 
@@ -176,11 +194,14 @@ public class JarCache {
     }
 
     ImmutableMap<String, BlazeArtifact> projectState =
-        getArtifactsToCache(projectViewSet, projectData);
+        getArtifactsToCache(project, projectViewSet, projectData);
     ImmutableMap<String, File> cachedFiles = readFileState();
     try {
       Map<String, BlazeArtifact> updated =
           FileCacheDiffer.findUpdatedOutputs(projectState, cachedFiles, previousOutputs);
+      if (useSharedStore) {
+        updated = filterUnchangedLinkedJars(updated, cachedFiles, getLinkedTimestamps());
+      }
 
       List<File> removed = new ArrayList<>();
       if (removeMissingFiles) {
@@ -209,6 +230,11 @@ public class JarCache {
       }
 
       Futures.allAsList(futures).get();
+      if (useSharedStore) {
+        removed.forEach(f -> getLinkedTimestamps().remove(f.getName()));
+        writeLinkedTimestamps();
+        SharedJarStore.getInstance().evict(sharedStoreMaxUnlinkedMb.getValue() * 1024L * 1024L);
+      }
       if (!updated.isEmpty()) {
         context.output(PrintOutput.log(String.format("Copied %d jars", updated.size())));
       }
@@ -247,9 +273,9 @@ public class JarCache {
    * Returns a map from cache key to BlazeArtifact, for all the artifacts which should be cached.
    */
   private static ImmutableMap<String, BlazeArtifact> getArtifactsToCache(
-      ProjectViewSet projectViewSet, BlazeProjectData projectData) {
+      Project project, ProjectViewSet projectViewSet, BlazeProjectData projectData) {
     List<LibraryArtifact> jarLibraries =
-        BlazeLibraryCollector.getLibraries(projectViewSet, projectData).stream()
+        BlazeLibraryCollector.getLibraries(project, projectViewSet, projectData).stream()
             .filter(library -> library instanceof BlazeJarLibrary)
             .map(library -> ((BlazeJarLibrary) library).libraryArtifact)
             .collect(Collectors.toList());
@@ -276,7 +302,11 @@ public class JarCache {
                 FetchExecutor.EXECUTOR.submit(
                     () -> {
                       try {
-                        copyLocally(artifact, cacheFileForKey(key));
+                        if (useSharedStore) {
+                          linkLocally(key, artifact);
+                        } else {
+                          copyLocally(artifact, cacheFileForKey(key));
+                        }
                       } catch (IOException e) {
                         logger.warn(
                             String.format("Fail to copy artifact %s to %s", artifact, cacheDir), e);
@@ -300,6 +330,91 @@ public class JarCache {
     }
   }
 
+  private void linkLocally(String key, BlazeArtifact artifact) throws IOException {
+    // read the timestamp first, so a concurrent rebuild is picked up by the next refresh
+    long timestamp =
+        artifact instanceof LocalFileArtifact
+            ? ((LocalFileArtifact) artifact).getFile().lastModified()
+            : 0;
+    File destination = cacheFileForKey(key);
+    if (!SharedJarStore.getInstance().link(artifact, destination)) {
+      copyLocally(artifact, destination);
+      getLinkedTimestamps().remove(key);
+    } else if (artifact instanceof LocalFileArtifact) {
+      getLinkedTimestamps().put(key, timestamp);
+    }
+  }
+
+  /**
+   * Removes local jars which the differ considers out of date only because the linked file's
+   * modification time comes from the shared store.
+   */
+  @VisibleForTesting
+  static Map<String, BlazeArtifact> filterUnchangedLinkedJars(
+      Map<String, BlazeArtifact> updated,
+      Map<String, File> cachedFiles,
+      Map<String, Long> timestamps) {
+    return updated.entrySet().stream()
+        .filter(
+            e -> {
+              if (!(e.getValue() instanceof LocalFileArtifact)
+                  || !cachedFiles.containsKey(e.getKey())) {
+                return true;
+              }
+              Long linked = timestamps.get(e.getKey());
+              File source = ((LocalFileArtifact) e.getValue()).getFile();
+              return linked == null || linked != source.lastModified();
+            })
+        .collect(toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
+  }
+
+  private Map<String, Long> getLinkedTimestamps() {
+    Map<String, Long> timestamps = linkedTimestamps;
+    if (timestamps != null) {
+      return timestamps;
+    }
+    synchronized (this) {
+      if (linkedTimestamps == null) {
+        linkedTimestamps = readLinkedTimestamps(new File(cacheDir, LINKED_TIMESTAMPS_FILE));
+      }
+      return linkedTimestamps;
+    }
+  }
+
+  private static Map<String, Long> readLinkedTimestamps(File file) {
+    Map<String, Long> timestamps = new ConcurrentHashMap<>();
+    if (!file.exists()) {
+      return timestamps;
+    }
+    try {
+      for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+        int separator = line.lastIndexOf('\t');
+        if (separator > 0) {
+          timestamps.put(
+              line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // linked jars will be re-linked on the next refresh
+      logger.warn("Failed to read linked jar timestamps", e);
+      timestamps.clear();
+    }
+    return timestamps;
+  }
+
+  private void writeLinkedTimestamps() {
+    List<String> lines =
+        getLinkedTimestamps().entrySet().stream()
+            .map(e -> e.getKey() + "\t" + e.getValue())
+            .collect(Collectors.toList());
+    try {
+      Files.write(
+          new File(cacheDir, LINKED_TIMESTAMPS_FILE).toPath(), lines, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      logger.warn("Failed to write linked jar timestamps", e);
+    }
+  }
+
   private Collection<ListenableFuture<?>> deleteCacheFiles(Collection<File> files) {
     return files.stream()
         .map(
@@ -321,6 +436,7 @@ public class JarCache {
 
   private void clearCache(BlazeContext context, boolean blockOnCompletion) {
     cacheState = ImmutableMap.of();
+    linkedTimestamps = new ConcurrentHashMap<>();
     File[] cacheFiles = cacheDir.listFiles();
     if (cacheFiles == null) {
       return;
@@ -15,9 +15,11 @@
  */
 package com.google.idea.blaze.java.libraries;
 
+import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.LibraryKey;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.intellij.ide.projectView.impl.nodes.NamedLibraryElementNode;
@@ -76,6 +78,12 @@ public final class LibraryActionHelper {
       Messages.showErrorDialog(project, "Project isn't synced. Please resync project.", "Error");
       return null;
     }
+    // also covers jar libraries contributed by other sync plugins
+    BlazeLibrary blazeLibrary =
+        BlazeLibraryCollector.findLibrary(project, blazeProjectData, libraryKey);
+    if (blazeLibrary instanceof BlazeJarLibrary) {
+      return (BlazeJarLibrary) blazeLibrary;
+    }
     return syncData.getImportResult().libraries.get(libraryKey);
   }
 
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A machine-wide, content-addressed store of jars, shared by the jar caches of all projects.
+ *
+ * <p>Jars are stored once per digest, and project caches hard-link to them, so identical jars in
+ * several checkouts (or re-built after a clean) are only written to disk once. Where hard links
+ * aren't supported (e.g. the project is on a different file system), the store isn't used.
+ *
+ * <p>Jars no longer linked from any project cache are evicted least-recently-used first once
+ * their total size exceeds a bound. Use is tracked via the last access time, since the shared
+ * modification time is visible to every project linking the jar.
+ */
+final class SharedJarStore {
+
+  private static final Logger logger = Logger.getInstance(SharedJarStore.class);
+
+  // temp files aren't '.jar' files, so they're never evicted while being written
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final SharedJarStore INSTANCE =
+      new SharedJarStore(new File(PathManager.getSystemPath(), "blaze/shared_jars").toPath());
+
+  private final Path root;
+  // whether each destination directory supports hard links into the store
+  private final Map<Path, Boolean> hardLinksSupported = new ConcurrentHashMap<>();
+
+  static SharedJarStore getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  SharedJarStore(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Places the artifact at the given destination, linked to the stored copy with the same
+   * contents. The artifact is only added to the store if no such copy exists.
+   *
+   * @return false if the destination doesn't support hard links to the store, in which case
+   *     nothing is written
+   */
+  boolean link(BlazeArtifact artifact, File destination) throws IOException {
+    Path target = destination.toPath();
+    if (!supportsHardLinks(target.getParent())) {
+      return false;
+    }
+    for (int attempt = 0; ; attempt++) {
+      Path stored = getOrStore(artifact);
+      Files.deleteIfExists(target);
+      try {
+        Files.createLink(target, stored);
+        markAccessed(stored);
+        return true;
+      } catch (NoSuchFileException e) {
+        // evicted by another process in the meantime
+        if (attempt > 0) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the stored copy of the artifact, storing it first if necessary.
+   *
+   * <p>Remote artifacts are addressed by their ID, which changes with their contents, so they
+   * needn't be downloaded if already stored. Local artifacts are addressed by a digest of their
+   * contents, computed while copying them into the store.
+   */
+  private Path getOrStore(BlazeArtifact artifact) throws IOException {
+    Path stored = null;
+    if (artifact instanceof RemoteOutputArtifact) {
+      String id = ((RemoteOutputArtifact) artifact).getHashId();
+      stored = root.resolve(storePath(Hashing.sha256().hashString(id, UTF_8).toString()));
+      if (Files.exists(stored)) {
+        return stored;
+      }
+    }
+    Files.createDirectories(root);
+    Path tempFile = Files.createTempFile(root, "store", TEMP_SUFFIX);
+    try {
+      HashCode digest;
+      try (HashingInputStream stream =
+          new HashingInputStream(Hashing.sha256(), artifact.getInputStream())) {
+        Files.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        digest = stream.hash();
+      }
+      if (stored == null) {
+        stored = root.resolve(storePath(digest.toString()));
+        if (Files.exists(stored)) {
+          return stored;
+        }
+      }
+      Files.createDirectories(stored.getParent());
+      try {
+        Files.move(tempFile, stored, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+        // stored concurrently by another project; the contents are identical
+      }
+      return stored;
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private boolean supportsHardLinks(Path directory) {
+    Boolean supported = hardLinksSupported.get(directory);
+    if (supported == null) {
+      supported = canHardLink(directory);
+      hardLinksSupported.put(directory, supported);
+    }
+    return supported;
+  }
+
+  /** Checks whether a file in the store can be hard-linked from the given directory. */
+  private boolean canHardLink(Path directory) {
+    Path probe = null;
+    Path link = null;
+    try {
+      Files.createDirectories(root);
+      probe = Files.createTempFile(root, "probe", TEMP_SUFFIX);
+      link = directory.resolve(probe.getFileName());
+      Files.createLink(link, probe);
+      return true;
+    } catch (UnsupportedOperationException | IOException e) {
+      logger.info("Can't link " + directory + " to the shared jar store; not using it", e);
+      return false;
+    } finally {
+      deleteQuietly(link);
+      deleteQuietly(probe);
+    }
+  }
+
+  private static void deleteQuietly(@Nullable Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // ignored
+    }
+  }
+
+  private static String storePath(String digest) {
+    // shard by prefix, to keep directory sizes manageable
+    return digest.substring(0, 2) + File.separator + digest + ".jar";
+  }
+
+  private static void markAccessed(Path stored) {
+    try {
+      Files.getFileAttributeView(stored, BasicFileAttributeView.class)
+          .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+    } catch (IOException e) {
+      // only affects eviction order
+    }
+  }
+
+  /**
+   * Deletes least-recently-used jars not linked from any project cache, until the total size of
+   * such jars is at most the given number of bytes.
+   */
+  void evict(long maxUnlinkedBytes) {
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    List<StoredJar> unlinked = new ArrayList<>();
+    long totalBytes = 0;
+    try (Stream<Path> files = Files.walk(root, 2)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        if (!path.getFileName().toString().endsWith(".jar")) {
+          continue;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attributes.isRegularFile() || linkCount(path) > 1) {
+          continue;
+        }
+        unlinked.add(new StoredJar(path, attributes));
+        totalBytes += attributes.size();
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to read shared jar store", e);
+      return;
+    }
+    unlinked.sort(Comparator.comparing(jar -> jar.lastAccessTime));
+    for (StoredJar jar : unlinked) {
+      if (totalBytes <= maxUnlinkedBytes) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(jar.path);
+        totalBytes -= jar.size;
+      } catch (IOException e) {
+        logger.warn("Failed to evict " + jar.path, e);
+      }
+    }
+  }
+
+  /** Returns the number of hard links to the file, or 1 if unknown. */
+  private static int linkCount(Path path) {
+    try {
+      return (Integer) Files.getAttribute(path, "unix:nlink");
+    } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+      return 1;
+    }
+  }
+
+  private static final class StoredJar {
+    final Path path;
+    final FileTime lastAccessTime;
+    final long size;
+
+    StoredJar(Path path, BasicFileAttributes attributes) {
+      this.path = path;
+      this.lastAccessTime = attributes.lastAccessTime();
+      this.size = attributes.size();
+    }
+  }
+}
@@ -17,15 +17,17 @@ package com.google.idea.blaze.java.run.coverage;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TIntIntHashMap;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /** Blaze coverage data class. Parsed from LCOV-formatted blaze output. */
 class BlazeCoverageData {
@@ -33,7 +35,24 @@ class BlazeCoverageData {
   private static final Logger logger = Logger.getInstance(BlazeCoverageData.class);
 
   static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-    return LcovParser.parse(inputStream);
+    return parse(ImmutableList.of(inputStream), source -> true);
+  }
+
+  /**
+   * Parses and merges the given LCOV tracefiles (e.g. one per test shard) in a single pass. Hits
+   * for the same source line are summed.
+   *
+   * @param includeSource records for sources not matching this predicate are skipped without
+   *     being parsed
+   */
+  static BlazeCoverageData parse(List<InputStream> inputStreams, Predicate<String> includeSource)
+      throws IOException {
+    Map<String, FileData> map = new HashMap<>();
+    for (InputStream inputStream : inputStreams) {
+      new LcovParser(inputStream, includeSource, map).parse();
+    }
+    map.values().removeIf(data -> data.lineHits.isEmpty());
+    return new BlazeCoverageData(ImmutableMap.copyOf(map));
   }
 
   static class FileData {
@@ -52,48 +71,146 @@ class BlazeCoverageData {
     this.perFileData = perFileData;
   }
 
+  /**
+   * Reads LCOV records directly from bytes. Only 'SF' lines allocate (for the source path), and
+   * lines outside included records aren't parsed at all.
+   */
   private static class LcovParser {
     // there are other valid lcov tracefile prefixes, but they're all ignored here
-    static final String SF = "SF:";
-    static final String DA = "DA:";
-    static final String END_OF_RECORD = "end_of_record";
-
-    private static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-      Map<String, FileData> map = new HashMap<>();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(SF)) {
-          String source = line.substring(SF.length());
-          TIntIntHashMap hits = parseHits(reader);
-          if (!hits.isEmpty()) {
-            map.put(source, new FileData(source, hits));
+    private static final byte[] SF = "SF:".getBytes(UTF_8);
+    private static final byte[] DA = "DA:".getBytes(UTF_8);
+    private static final byte[] END_OF_RECORD = "end_of_record".getBytes(UTF_8);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream input;
+    private final Predicate<String> includeSource;
+    private final Map<String, FileData> perFileData;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+
+    // the current line, excluding any line terminator
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+
+    LcovParser(
+        InputStream input, Predicate<String> includeSource, Map<String, FileData> perFileData) {
+      this.input = input;
+      this.includeSource = includeSource;
+      this.perFileData = perFileData;
+    }
+
+    void parse() throws IOException {
+      // null outside a record, or inside an excluded record
+      TIntIntHashMap hits = null;
+      while (readLine()) {
+        if (startsWith(SF)) {
+          String source = new String(line, SF.length, lineLength - SF.length, UTF_8);
+          hits = includeSource.test(source) ? getHits(source) : null;
+        } else if (hits != null && startsWith(DA)) {
+          parseHits(hits);
+        } else if (startsWith(END_OF_RECORD)) {
+          hits = null;
+        }
+      }
+    }
+
+    private TIntIntHashMap getHits(String source) {
+      return perFileData.computeIfAbsent(source, s -> new FileData(s, new TIntIntHashMap()))
+          .lineHits;
+    }
+
+    /** Parses a 'DA:line,hits[,checksum]' line. */
+    private void parseHits(TIntIntHashMap hits) {
+      int pos = DA.length;
+      long lineNumber = 0;
+      int digits = 0;
+      for (; pos < lineLength && line[pos] != ','; pos++, digits++) {
+        int digit = line[pos] - '0';
+        if (digit < 0 || digit > 9 || lineNumber > Integer.MAX_VALUE) {
+          digits = -1;
+          break;
+        }
+        lineNumber = lineNumber * 10 + digit;
+      }
+      long count = 0;
+      int countDigits = 0;
+      if (digits > 0 && pos < lineLength) {
+        for (pos++; pos < lineLength && line[pos] != ','; pos++, countDigits++) {
+          int digit = line[pos] - '0';
+          if (digit < 0 || digit > 9) {
+            countDigits = -1;
+            break;
           }
+          // saturate rather than overflow
+          count = Math.min(count * 10 + digit, Integer.MAX_VALUE);
         }
       }
-      return new BlazeCoverageData(ImmutableMap.copyOf(map));
+      if (digits <= 0 || countDigits <= 0 || lineNumber > Integer.MAX_VALUE) {
+        logger.warn("Cannot parse LCOV line: " + new String(line, 0, lineLength, UTF_8));
+        return;
+      }
+      // get() returns 0 for absent lines
+      long merged = hits.get((int) lineNumber) + count;
+      hits.put((int) lineNumber, (int) Math.min(merged, Integer.MAX_VALUE));
     }
 
-    private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
-      TIntIntHashMap hits = new TIntIntHashMap();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(END_OF_RECORD)) {
-          return hits;
+    private boolean startsWith(byte[] prefix) {
+      if (lineLength < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (line[i] != prefix[i]) {
+          return false;
         }
-        if (line.startsWith(DA)) {
-          // DA:line,hits
-          int comma = line.indexOf(',');
-          try {
-            hits.put(
-                Integer.parseInt(line.substring(DA.length(), comma)),
-                Integer.parseInt(line.substring(comma + 1)));
-          } catch (NumberFormatException e) {
-            logger.warn("Cannot parse LCOV line: " + line, e);
+      }
+      return true;
+    }
+
+    /** Reads the next line into {@link #line}, returning false at the end of the input. */
+    private boolean readLine() throws IOException {
+      lineLength = 0;
+      boolean readAny = false;
+      while (true) {
+        if (bufferPos == bufferLimit) {
+          bufferLimit = input.read(buffer, 0, buffer.length);
+          bufferPos = 0;
+          if (bufferLimit <= 0) {
+            bufferLimit = 0;
+            stripCarriageReturn();
+            return readAny;
           }
         }
+        readAny = true;
+        int start = bufferPos;
+        while (bufferPos < bufferLimit && buffer[bufferPos] != '\n') {
+          bufferPos++;
+        }
+        append(start, bufferPos);
+        if (bufferPos < bufferLimit) {
+          // skip the newline, and any preceding carriage return
+          bufferPos++;
+          stripCarriageReturn();
+          return true;
+        }
+      }
+    }
+
+    private void stripCarriageReturn() {
+      if (lineLength > 0 && line[lineLength - 1] == '\r') {
+        lineLength--;
+      }
+    }
+
+    private void append(int start, int end) {
+      int length = end - start;
+      if (lineLength + length > line.length) {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
       }
-      return hits;
+      System.arraycopy(buffer, start, line, lineLength, length);
+      lineLength += length;
     }
   }
 }
@@ -16,10 +16,13 @@
 package com.google.idea.blaze.java.run.coverage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.java.run.coverage.BlazeCoverageData.FileData;
 import com.intellij.coverage.CoverageEngine;
@@ -33,6 +36,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
 /** Loads coverage data when blaze invocation is complete. */
@@ -52,19 +56,39 @@ public class BlazeCoverageRunner extends CoverageRunner {
     if (blazeProjectData == null) {
       return null;
     }
+    ImportRoots importRoots = ImportRoots.forProjectSafe(suite.getProject());
+    Predicate<String> includeSource =
+        importRoots != null ? path -> inProject(importRoots, path) : path -> true;
     try (FileInputStream stream = new FileInputStream(sessionDataFile)) {
-      return parseCoverage(blazeProjectData.getWorkspacePathResolver(), stream);
+      return parseCoverage(blazeProjectData.getWorkspacePathResolver(), stream, includeSource);
     } catch (IOException e) {
       logger.warn(e);
     }
     return null;
   }
 
+  /**
+   * Coverage data for sources outside the project's import roots isn't shown, so needn't be
+   * parsed. Paths which aren't workspace-relative are always included.
+   */
+  private static boolean inProject(ImportRoots importRoots, String path) {
+    return !WorkspacePath.isValid(path)
+        || importRoots.containsWorkspacePath(new WorkspacePath(path));
+  }
+
   @VisibleForTesting
   static ProjectData parseCoverage(WorkspacePathResolver pathResolver, InputStream stream)
       throws IOException {
+    return parseCoverage(pathResolver, stream, path -> true);
+  }
+
+  @VisibleForTesting
+  static ProjectData parseCoverage(
+      WorkspacePathResolver pathResolver, InputStream stream, Predicate<String> includeSource)
+      throws IOException {
     ProjectData data = new ProjectData();
-    BlazeCoverageData blazeData = BlazeCoverageData.parse(stream);
+    BlazeCoverageData blazeData =
+        BlazeCoverageData.parse(ImmutableList.of(stream), includeSource);
     for (String filePath : blazeData.perFileData.keySet()) {
       File file = pathResolver.resolveToFile(filePath);
       ClassData classData = data.getOrCreateClassData(file.getPath());
@@ -47,8 +47,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
-import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 
 /** Manages hotswapping for blaze java_binary run configurations. */
@@ -136,10 +136,10 @@ public final class BlazeHotSwapManager {
   private static Map<String, File> copyClassFilesLocally(
       File destination, File jar, Collection<String> classes) throws ExecutionException {
     ImmutableMap.Builder<String, File> map = ImmutableMap.builder();
-    try {
-      JarFile jarFile = new JarFile(jar);
+    // only the changed entries are inflated
+    try (ZipFile jarFile = new ZipFile(jar)) {
       for (String path : classes) {
-        ZipEntry entry = jarFile.getJarEntry(path);
+        ZipEntry entry = jarFile.getEntry(path);
         if (entry == null) {
           throw new ExecutionException(
               String.format("Couldn't find class file %s inside jar %s.", path, jar));
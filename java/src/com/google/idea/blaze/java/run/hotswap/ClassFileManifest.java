@@ -16,28 +16,30 @@
 package com.google.idea.blaze.java.run.hotswap;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
-import com.google.idea.blaze.base.filecache.FilesDiff;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.RunCanceledByUserException;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 
 /** A manifest of .class file hashes for jars needed at runtime. Used for HotSwapping. */
@@ -54,13 +56,13 @@ public class ClassFileManifest {
     }
   }
 
-  // jar file timestamps
-  private final ImmutableMap<File, Long> jarFileState;
+  // jar file timestamps and sizes
+  private final ImmutableMap<File, JarState> jarFileState;
   // per-jar manifest of .class file hashes
   private final ImmutableMap<File, JarManifest> jarManifests;
 
   private ClassFileManifest(
-      ImmutableMap<File, Long> jarFileState, ImmutableMap<File, JarManifest> jarManifests) {
+      ImmutableMap<File, JarState> jarFileState, ImmutableMap<File, JarManifest> jarManifests) {
     this.jarFileState = jarFileState;
     this.jarManifests = jarManifests;
   }
@@ -87,21 +89,28 @@ public class ClassFileManifest {
       Collection<File> jars, @Nullable ClassFileManifest previousManifest)
       throws ExecutionException {
     try {
-      FilesDiff<File, File> diff =
-          FilesDiff.diffFileTimestamps(
-              previousManifest != null ? previousManifest.jarFileState : null, jars);
+      ImmutableMap<File, JarState> jarFileState = readJarStates(jars);
 
+      // jars with an unchanged timestamp and size reuse their previous manifest
       ImmutableMap.Builder<File, JarManifest> jarManifests = ImmutableMap.builder();
-      jars.forEach(
-          f -> {
-            if (!diff.getUpdatedFiles().contains(f) && previousManifest != null) {
-              jarManifests.put(f, previousManifest.jarManifests.get(f));
-            }
-          });
-      buildJarManifests(diff.getUpdatedFiles()).stream()
+      List<File> updatedJars = new ArrayList<>();
+      for (Map.Entry<File, JarState> entry : jarFileState.entrySet()) {
+        File jar = entry.getKey();
+        JarManifest previous =
+            previousManifest != null
+                    && entry.getValue().equals(previousManifest.jarFileState.get(jar))
+                ? previousManifest.jarManifests.get(jar)
+                : null;
+        if (previous != null) {
+          jarManifests.put(jar, previous);
+        } else {
+          updatedJars.add(jar);
+        }
+      }
+      buildJarManifests(updatedJars).stream()
           .filter(Objects::nonNull)
           .forEach(m -> jarManifests.put(m.jar, m));
-      return new ClassFileManifest(diff.getNewFileState(), jarManifests.build());
+      return new ClassFileManifest(jarFileState, jarManifests.build());
     } catch (InterruptedException e) {
       throw new RunCanceledByUserException();
     } catch (java.util.concurrent.ExecutionException e) {
@@ -109,6 +118,27 @@ public class ClassFileManifest {
     }
   }
 
+  /** Reads the timestamp and size of each jar, in parallel. Missing jars are omitted. */
+  private static ImmutableMap<File, JarState> readJarStates(Collection<File> jars)
+      throws java.util.concurrent.ExecutionException, InterruptedException {
+    BlazeExecutor executor = BlazeExecutor.getInstance();
+    List<JarState> states =
+        Futures.allAsList(
+                jars.stream()
+                    .map(f -> executor.submit(() -> JarState.read(f)))
+                    .collect(Collectors.toList()))
+            .get();
+    Map<File, JarState> map = new LinkedHashMap<>();
+    int i = 0;
+    for (File jar : jars) {
+      JarState state = states.get(i++);
+      if (state != null) {
+        map.put(jar, state);
+      }
+    }
+    return ImmutableMap.copyOf(map);
+  }
+
   private static List<JarManifest> buildJarManifests(Collection<File> jars)
       throws java.util.concurrent.ExecutionException, InterruptedException {
     BlazeExecutor executor = BlazeExecutor.getInstance();
@@ -119,34 +149,91 @@ public class ClassFileManifest {
         .get();
   }
 
-  /** .class file manifest for a single jar. */
+  /** The timestamp and size of a jar, used to skip re-reading unchanged jars. */
+  private static class JarState {
+    private final long timestamp;
+    private final long size;
+
+    private JarState(long timestamp, long size) {
+      this.timestamp = timestamp;
+      this.size = size;
+    }
+
+    @Nullable
+    static JarState read(File file) {
+      try {
+        BasicFileAttributes attributes =
+            Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return new JarState(attributes.lastModifiedTime().toMillis(), attributes.size());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof JarState)) {
+        return false;
+      }
+      JarState other = (JarState) o;
+      return timestamp == other.timestamp && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(timestamp, size);
+    }
+  }
+
+  /**
+   * .class file manifest for a single jar.
+   *
+   * <p>Built from the jar's central directory alone: each class is keyed by its CRC-32 and
+   * uncompressed size, so no entries are inflated.
+   */
   private static class JarManifest {
     private final File jar;
     private final ImmutableMap<String, Long> nameToHash;
 
     @Nullable
     static JarManifest build(File file) {
-      try {
-        JarFile jar = new JarFile(file);
-        return new JarManifest(
-            file,
-            jar.stream()
-                .filter(e -> e.getName().endsWith(".class"))
-                .collect(
-                    toImmutableMap(JarEntry::getName, ZipEntry::getCrc, (first, second) -> first)));
+      // ZipFile only reads the central directory when opened; JarFile would also parse the
+      // manifest and signatures, which we don't need
+      try (ZipFile zip = new ZipFile(file)) {
+        Map<String, Long> nameToHash = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.getName().endsWith(".class")) {
+            nameToHash.putIfAbsent(entry.getName(), hash(entry));
+          }
+        }
+        return new JarManifest(file, ImmutableMap.copyOf(nameToHash));
       } catch (IOException e) {
         logger.warn("Error reading jar file: " + file, e);
         return null;
       }
     }
 
+    /** Combines the entry's CRC-32 and (truncated) uncompressed size into a single value. */
+    private static long hash(ZipEntry entry) {
+      return (entry.getCrc() << 32) | (entry.getSize() & 0xffffffffL);
+    }
+
     private JarManifest(File jar, ImmutableMap<String, Long> nameToHash) {
       this.jar = jar;
       this.nameToHash = nameToHash;
     }
 
     /** Returns the list of classes changed in the new manifest. */
-    static ImmutableList<String> diff(JarManifest oldManifest, JarManifest newManifest) {
+    static ImmutableList<String> diff(@Nullable JarManifest oldManifest, JarManifest newManifest) {
+      if (oldManifest == null) {
+        // a newly added (or previously unreadable) jar, so there's nothing to diff against
+        return ImmutableList.of();
+      }
       return newManifest
           .nameToHash
           .entrySet()
@@ -31,6 +31,7 @@ import com.intellij.util.xmlb.XmlSerializerUtil;
 @State(name = "BlazeJavaUserSettings", storages = @Storage("blaze.java.user.settings.xml"))
 public class BlazeJavaUserSettings implements PersistentStateComponent<BlazeJavaUserSettings> {
   private boolean useJarCache = getDefaultJarCacheValue();
+  private boolean useSharedJarStore = false;
 
   public static BlazeJavaUserSettings getInstance() {
     return ServiceManager.getService(BlazeJavaUserSettings.class);
@@ -58,6 +59,14 @@ public class BlazeJavaUserSettings implements PersistentStateComponent<BlazeJava
     this.useJarCache = useJarCache;
   }
 
+  public boolean getUseSharedJarStore() {
+    return useSharedJarStore;
+  }
+
+  public void setUseSharedJarStore(boolean useSharedJarStore) {
+    this.useSharedJarStore = useSharedJarStore;
+  }
+
   static class SettingsLogger implements LoggedSettingsProvider {
     @Override
     public String getNamespace() {
@@ -70,6 +79,7 @@ public class BlazeJavaUserSettings implements PersistentStateComponent<BlazeJava
 
       ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
       builder.put("useJarCache", Boolean.toString(settings.useJarCache));
+      builder.put("useSharedJarStore", Boolean.toString(settings.useSharedJarStore));
       return builder.build();
     }
   }
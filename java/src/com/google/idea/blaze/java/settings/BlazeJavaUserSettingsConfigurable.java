@@ -52,8 +52,18 @@ class BlazeJavaUserSettingsConfigurable extends AutoConfigurable {
           .hideIf(() -> !BlazeJavaUserSettings.allowJarCache())
           .componentFactory(SimpleComponent::createCheckBox);
 
+  private static final ConfigurableSetting<?, ?> USE_SHARED_JAR_STORE =
+      ConfigurableSetting.builder(BlazeJavaUserSettings::getInstance)
+          .label(
+              "Share identical cached jars between projects."
+                  + " Saves disk space and copying when several checkouts use the same jars.")
+          .getter(BlazeJavaUserSettings::getUseSharedJarStore)
+          .setter(BlazeJavaUserSettings::setUseSharedJarStore)
+          .hideIf(() -> !BlazeJavaUserSettings.allowJarCache())
+          .componentFactory(SimpleComponent::createCheckBox);
+
   private static final ImmutableList<ConfigurableSetting<?, ?>> SETTINGS =
-      ImmutableList.of(USE_JAR_CACHE);
+      ImmutableList.of(USE_JAR_CACHE, USE_SHARED_JAR_STORE);
 
   private BlazeJavaUserSettingsConfigurable() {
     super(SETTINGS);
@@ -56,6 +56,7 @@ import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
 import com.google.idea.blaze.java.sync.model.BlazeJavaSyncData;
 import com.google.idea.blaze.java.sync.projectstructure.JavaSourceFolderProvider;
 import com.google.idea.blaze.java.sync.projectstructure.Jdks;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackages;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.common.util.Transactions;
 import com.intellij.openapi.module.ModuleType;
@@ -163,6 +164,10 @@ public class BlazeJavaSyncPlugin implements BlazeSyncPlugin {
                 .addAll(projectViewSet.listItems(ExcludedLibrarySection.KEY))
                 .build());
     syncStateBuilder.put(new BlazeJavaSyncData(importResult, excludedLibraries));
+    JavaSourcePackages sourcePackages = blazeJavaWorkspaceImporter.getSourcePackages();
+    if (sourcePackages != null) {
+      syncStateBuilder.put(sourcePackages);
+    }
   }
 
   @Override
@@ -52,6 +52,7 @@ import com.google.idea.blaze.java.sync.jdeps.JdepsMap;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.blaze.java.sync.model.BlazeJavaImportResult;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackages;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
 import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
@@ -81,6 +82,7 @@ public final class BlazeJavaWorkspaceImporter {
   private final List<BlazeJavaSyncAugmenter> augmenters;
   private final ProjectViewSet projectViewSet;
   @Nullable private final SyncState oldSyncState;
+  @Nullable private JavaSourcePackages sourcePackages;
 
   public BlazeJavaWorkspaceImporter(
       Project project,
@@ -115,7 +117,9 @@ public final class BlazeJavaWorkspaceImporter {
           workspaceBuilder, target, sourceFilter.targetToJavaSources.get(target.getKey()));
     }
 
-    SourceDirectoryCalculator sourceDirectoryCalculator = new SourceDirectoryCalculator();
+    SourceDirectoryCalculator sourceDirectoryCalculator =
+        new SourceDirectoryCalculator(
+            oldSyncState != null ? oldSyncState.get(JavaSourcePackages.class) : null);
     ImmutableList<BlazeContentEntry> contentEntries =
         sourceDirectoryCalculator.calculateContentEntries(
             project,
@@ -125,6 +129,7 @@ public final class BlazeJavaWorkspaceImporter {
             importRoots,
             workspaceBuilder.sourceArtifacts,
             workspaceBuilder.javaPackageManifests);
+    sourcePackages = sourceDirectoryCalculator.getSourcePackages();
 
     int totalContentEntryCount = 0;
     for (BlazeContentEntry contentEntry : contentEntries) {
@@ -149,6 +154,15 @@ public final class BlazeJavaWorkspaceImporter {
         .build();
   }
 
+  /**
+   * Returns the packages of the java source files read by {@link #importWorkspace}, to be cached
+   * in the sync state. Returns null if they aren't being cached.
+   */
+  @Nullable
+  public JavaSourcePackages getSourcePackages() {
+    return sourcePackages;
+  }
+
   private ImmutableMap<LibraryKey, BlazeJarLibrary> buildLibraries(
       BlazeContext context,
       WorkspaceBuilder workspaceBuilder,
@@ -325,7 +339,7 @@ public final class BlazeJavaWorkspaceImporter {
 
   @Nullable
   private String findSourceVersion(TargetMap targetMap) {
-    return targetMap.targets().stream()
+    return targetMap.stream()
         .filter(t -> t.getJavaToolchainIdeInfo() != null)
         .map(t -> t.getJavaToolchainIdeInfo().getSourceVersion())
         .max(Comparator.naturalOrder())
@@ -56,21 +56,17 @@ public class JavaSourceFilter {
     ProjectViewTargetImportFilter importFilter =
         new ProjectViewTargetImportFilter(buildSystem, workspaceRoot, projectViewSet);
 
-    List<TargetIdeInfo> excludedTargets =
-        targetMap
-            .targets()
-            .stream()
-            .filter(importFilter::excludeTarget)
-            .collect(Collectors.toList());
-    excludedTargets.forEach(t -> jdepsPathsForExcludedJars.addAll(relativeArtifactPaths(t)));
-
-    List<TargetIdeInfo> includedTargets = new ArrayList<>(targetMap.targets());
-    includedTargets.removeAll(excludedTargets);
-
-    List<TargetIdeInfo> javaTargets =
-        includedTargets.stream()
-            .filter(target -> target.getJavaIdeInfo() != null)
-            .collect(Collectors.toList());
+    List<TargetIdeInfo> javaTargets = new ArrayList<>();
+    targetMap
+        .stream()
+        .forEach(
+            target -> {
+              if (importFilter.excludeTarget(target)) {
+                jdepsPathsForExcludedJars.addAll(relativeArtifactPaths(target));
+              } else if (target.getJavaIdeInfo() != null) {
+                javaTargets.add(target);
+              }
+            });
 
     targetToJavaSources = Maps.newHashMap();
     Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.java.sync.source.JavaSourcePackages.SourcePackage;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Wraps a {@link JavaPackageReader}, only reading source files which have changed since the
+ * previous sync. Records the packages of all sources read, for use in the next sync.
+ */
+final class CachingJavaSourcePackageReader extends JavaPackageReader {
+
+  private final JavaPackageReader delegate;
+  private final JavaSourcePackages previousPackages;
+  private final Map<String, SourcePackage> currentPackages = new ConcurrentHashMap<>();
+
+  CachingJavaSourcePackageReader(
+      JavaPackageReader delegate, @Nullable JavaSourcePackages previousPackages) {
+    this.delegate = delegate;
+    this.previousPackages = previousPackages != null ? previousPackages : JavaSourcePackages.EMPTY;
+  }
+
+  @Override
+  @Nullable
+  String getDeclaredPackageOfJavaFile(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      SourceArtifact sourceArtifact) {
+    if (sourceArtifact.artifactLocation.isGenerated()) {
+      return delegate.getDeclaredPackageOfJavaFile(
+          context, artifactLocationDecoder, sourceArtifact);
+    }
+    File file = artifactLocationDecoder.resolveSource(sourceArtifact.artifactLocation);
+    // check the modification time before reading, so a concurrent edit is picked up next sync
+    long modifiedTime =
+        file != null ? FileOperationProvider.getInstance().getFileModifiedTime(file) : 0;
+    if (modifiedTime == 0) {
+      // the file doesn't exist, or its modification time can't be read
+      return delegate.getDeclaredPackageOfJavaFile(
+          context, artifactLocationDecoder, sourceArtifact);
+    }
+    String path = file.getPath();
+    SourcePackage cached = previousPackages.get(path);
+    if (cached != null && cached.modifiedTime == modifiedTime) {
+      currentPackages.put(path, cached);
+      return cached.packageName;
+    }
+    String packageName =
+        delegate.getDeclaredPackageOfJavaFile(context, artifactLocationDecoder, sourceArtifact);
+    if (packageName != null) {
+      currentPackages.put(path, new SourcePackage(modifiedTime, packageName));
+    }
+    return packageName;
+  }
+
+  /** Returns the packages of all source files read so far. */
+  JavaSourcePackages getSourcePackages() {
+    return new JavaSourcePackages(currentPackages);
+  }
+}
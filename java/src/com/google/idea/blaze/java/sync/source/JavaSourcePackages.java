@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.model.SyncData;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * The declared packages of java source files read during sync, keyed by file path and modification
+ * time. Persisted between syncs, so unchanged source files needn't be read again.
+ */
+public final class JavaSourcePackages implements SyncData<ProjectData.JavaSourcePackages> {
+
+  static final JavaSourcePackages EMPTY = new JavaSourcePackages(ImmutableMap.of());
+
+  /** The declared package of a source file, as of the given modification time. */
+  static final class SourcePackage {
+    final long modifiedTime;
+    final String packageName;
+
+    SourcePackage(long modifiedTime, String packageName) {
+      this.modifiedTime = modifiedTime;
+      this.packageName = packageName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof SourcePackage)) {
+        return false;
+      }
+      SourcePackage that = (SourcePackage) o;
+      return modifiedTime == that.modifiedTime && packageName.equals(that.packageName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(modifiedTime, packageName);
+    }
+  }
+
+  private final ImmutableMap<String, SourcePackage> packages;
+
+  JavaSourcePackages(Map<String, SourcePackage> packages) {
+    this.packages = ImmutableMap.copyOf(packages);
+  }
+
+  /** Returns the cached package of the file at the given path, or null if there is none. */
+  @Nullable
+  SourcePackage get(String filePath) {
+    return packages.get(filePath);
+  }
+
+  int size() {
+    return packages.size();
+  }
+
+  private static JavaSourcePackages fromProto(ProjectData.JavaSourcePackages proto) {
+    ImmutableMap.Builder<String, SourcePackage> packages =
+        ImmutableMap.builderWithExpectedSize(proto.getEntriesCount());
+    for (ProjectData.JavaSourcePackages.Entry entry : proto.getEntriesList()) {
+      packages.put(
+          entry.getFilePath(), new SourcePackage(entry.getModifiedTime(), entry.getPackageName()));
+    }
+    return new JavaSourcePackages(packages.build());
+  }
+
+  @Override
+  public ProjectData.JavaSourcePackages toProto() {
+    ProjectData.JavaSourcePackages.Builder proto = ProjectData.JavaSourcePackages.newBuilder();
+    packages.forEach(
+        (path, sourcePackage) ->
+            proto.addEntries(
+                ProjectData.JavaSourcePackages.Entry.newBuilder()
+                    .setFilePath(path)
+                    .setModifiedTime(sourcePackage.modifiedTime)
+                    .setPackageName(sourcePackage.packageName)));
+    return proto.build();
+  }
+
+  @Override
+  public void insert(ProjectData.SyncState.Builder builder) {
+    builder.setJavaSourcePackages(toProto());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return packages.equals(((JavaSourcePackages) o).packages);
+  }
+
+  @Override
+  public int hashCode() {
+    return packages.hashCode();
+  }
+
+  static class Extractor implements SyncData.Extractor<JavaSourcePackages> {
+    @Nullable
+    @Override
+    public JavaSourcePackages extract(ProjectData.SyncState syncState) {
+      return syncState.hasJavaSourcePackages()
+          ? JavaSourcePackages.fromProto(syncState.getJavaSourcePackages())
+          : null;
+    }
+  }
+}
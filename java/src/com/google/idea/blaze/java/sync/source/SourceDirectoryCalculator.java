@@ -46,6 +46,7 @@ import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.util.PackagePrefixCalculator;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeSourceDirectory;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
@@ -70,9 +71,43 @@ public final class SourceDirectoryCalculator {
   private static final Joiner PACKAGE_JOINER = Joiner.on('.');
   private static final Joiner PATH_JOINER = Joiner.on('/');
 
+  private static final BoolExperiment parallelPackageReads =
+      new BoolExperiment("blaze.java.sync.parallel.package.reads", true);
+  private static final BoolExperiment cacheSourcePackages =
+      new BoolExperiment("blaze.java.sync.cache.source.packages", true);
+
+  // the number of source files whose packages are read by each parallel task
+  private static final int SOURCES_PER_TASK = 256;
+
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+
+  @Nullable private final JavaSourcePackages previousSourcePackages;
+  @Nullable private CachingJavaSourcePackageReader cachingSourcePackageReader;
+
+  public SourceDirectoryCalculator() {
+    this(null);
+  }
+
+  /**
+   * @param previousSourcePackages the packages of source files read during the previous sync, if
+   *     any. Unchanged source files won't be read again.
+   */
+  public SourceDirectoryCalculator(@Nullable JavaSourcePackages previousSourcePackages) {
+    this.previousSourcePackages = previousSourcePackages;
+  }
+
+  /**
+   * Returns the packages of the java source files read by the last call to {@link
+   * #calculateContentEntries}, to be passed to the next sync. Returns null if source packages
+   * aren't being cached.
+   */
+  @Nullable
+  public JavaSourcePackages getSourcePackages() {
+    return cachingSourcePackageReader != null
+        ? cachingSourcePackageReader.getSourcePackages()
+        : null;
+  }
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -99,11 +134,15 @@ public final class SourceDirectoryCalculator {
               return new ManifestFilePackageReader(manifestMap);
             });
 
+    JavaPackageReader sourcePackageReader = JavaSourcePackageReader.getInstance();
+    if (cacheSourcePackages.getValue()) {
+      cachingSourcePackageReader =
+          new CachingJavaSourcePackageReader(sourcePackageReader, previousSourcePackages);
+      sourcePackageReader = cachingSourcePackageReader;
+    }
     final List<JavaPackageReader> javaPackageReaders =
         Lists.newArrayList(
-            manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
-            generatedFileJavaPackageReader);
+            manifestFilePackageReader, sourcePackageReader, generatedFileJavaPackageReader);
 
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
 
@@ -146,29 +185,15 @@ public final class SourceDirectoryCalculator {
     Multimap<WorkspacePath, SourceArtifact> result = ArrayListMultimap.create();
 
     for (SourceArtifact sourceArtifact : sources) {
-      String sourcePath = sourceArtifact.artifactLocation.getRelativePath();
-      if (importRoots.excludeDirectories().stream()
-          .anyMatch(excluded -> isUnderRootDirectory(excluded, sourcePath))) {
-        continue;
+      WorkspacePath rootDirectory =
+          importRoots.findRootDirectory(sourceArtifact.artifactLocation.getRelativePath());
+      if (rootDirectory != null) {
+        result.put(rootDirectory, sourceArtifact);
       }
-      importRoots.rootDirectories().stream()
-          .filter(rootDirectory -> isUnderRootDirectory(rootDirectory, sourcePath))
-          .findFirst()
-          .ifPresent(foundWorkspacePath -> result.put(foundWorkspacePath, sourceArtifact));
     }
     return result;
   }
 
-  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
-    if (rootDirectory.isWorkspaceRoot()) {
-      return true;
-    }
-    String rootDirectoryString = rootDirectory.toString();
-    return relativePath.startsWith(rootDirectoryString)
-        && (relativePath.length() == rootDirectoryString.length()
-            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
-  }
-
   /** Calculates all source directories for a single content root. */
   private ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
       BlazeContext context,
@@ -224,21 +249,33 @@ public final class SourceDirectoryCalculator {
 
     List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
 
-    // Get java sources
-    List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
-    for (final SourceArtifact sourceArtifact : javaArtifacts) {
-      ListenableFuture<SourceRoot> future =
-          executorService.submit(
-              () ->
-                  sourceRootForJavaSource(
-                      context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
+    // Get java sources, in batches to avoid scheduling a task per file
+    ListeningExecutorService executor =
+        parallelPackageReads.getValue()
+            ? FetchExecutor.EXECUTOR
+            : MoreExecutors.newDirectExecutorService();
+    List<ListenableFuture<List<SourceRoot>>> sourceRootFutures = Lists.newArrayList();
+    for (List<SourceArtifact> batch :
+        Lists.partition(ImmutableList.copyOf(javaArtifacts), SOURCES_PER_TASK)) {
+      ListenableFuture<List<SourceRoot>> future =
+          executor.submit(
+              () -> {
+                List<SourceRoot> sourceRoots = Lists.newArrayList();
+                for (SourceArtifact sourceArtifact : batch) {
+                  SourceRoot sourceRoot =
+                      sourceRootForJavaSource(
+                          context, artifactLocationDecoder, sourceArtifact, javaPackageReaders);
+                  if (sourceRoot != null) {
+                    sourceRoots.add(sourceRoot);
+                  }
+                }
+                return sourceRoots;
+              });
       sourceRootFutures.add(future);
     }
     try {
-      for (SourceRoot sourceRoot : Futures.allAsList(sourceRootFutures).get()) {
-        if (sourceRoot != null) {
-          sourceRootsPerFile.add(sourceRoot);
-        }
+      for (List<SourceRoot> sourceRoots : Futures.allAsList(sourceRootFutures).get()) {
+        sourceRootsPerFile.addAll(sourceRoots);
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
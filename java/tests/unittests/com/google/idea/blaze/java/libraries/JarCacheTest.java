@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JarCache}. */
+@RunWith(JUnit4.class)
+public class JarCacheTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testFilterUnchangedLinkedJars() throws IOException {
+    SourceArtifact unchanged = newJar("unchanged.jar", 1000);
+    SourceArtifact changed = newJar("changed.jar", 2000);
+    SourceArtifact unlinked = newJar("unlinked.jar", 1000);
+    SourceArtifact uncached = newJar("uncached.jar", 1000);
+    ImmutableMap<String, BlazeArtifact> updated =
+        ImmutableMap.of(
+            "unchanged", unchanged, "changed", changed, "unlinked", unlinked, "uncached", uncached);
+    ImmutableMap<String, File> cachedFiles =
+        ImmutableMap.of(
+            "unchanged", folder.newFile("cached_unchanged.jar"),
+            "changed", folder.newFile("cached_changed.jar"),
+            "unlinked", folder.newFile("cached_unlinked.jar"));
+    ImmutableMap<String, Long> timestamps =
+        ImmutableMap.of("unchanged", 1000L, "changed", 1000L, "uncached", 1000L);
+
+    Map<String, BlazeArtifact> filtered =
+        JarCache.filterUnchangedLinkedJars(updated, cachedFiles, timestamps);
+
+    assertThat(filtered)
+        .containsExactly("changed", changed, "unlinked", unlinked, "uncached", uncached);
+  }
+
+  private SourceArtifact newJar(String name, long lastModified) throws IOException {
+    File file = folder.newFile(name);
+    assertThat(file.setLastModified(lastModified)).isTrue();
+    return new SourceArtifact(file);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SharedJarStore}. */
+@RunWith(JUnit4.class)
+public class SharedJarStoreTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path root;
+  private SharedJarStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    root = folder.newFolder("store").toPath();
+    store = new SharedJarStore(root);
+  }
+
+  @Test
+  public void testIdenticalJarsLinkedToSameStoredCopy() throws IOException {
+    File first = writeFile("out1/lib.jar", "contents");
+    File second = writeFile("out2/lib.jar", "contents");
+    File firstCached = new File(folder.newFolder("cache1"), "lib.jar");
+    File secondCached = new File(folder.newFolder("cache2"), "lib.jar");
+
+    assertThat(store.link(new SourceArtifact(first), firstCached)).isTrue();
+    assertThat(store.link(new SourceArtifact(second), secondCached)).isTrue();
+
+    assertThat(Files.isSameFile(firstCached.toPath(), secondCached.toPath())).isTrue();
+    assertThat(readFile(secondCached)).isEqualTo("contents");
+    assertThat(storedJars()).hasSize(1);
+  }
+
+  @Test
+  public void testChangedJarRelinked() throws IOException {
+    File jar = writeFile("out/lib.jar", "old");
+    File cached = new File(folder.newFolder("cache"), "lib.jar");
+    store.link(new SourceArtifact(jar), cached);
+
+    writeFile("out/lib.jar", "new");
+    store.link(new SourceArtifact(jar), cached);
+
+    assertThat(readFile(cached)).isEqualTo("new");
+    assertThat(storedJars()).hasSize(2);
+  }
+
+  @Test
+  public void testStoreLeavesNoTempFiles() throws IOException {
+    File jar = writeFile("out/lib.jar", "contents");
+    store.link(new SourceArtifact(jar), new File(folder.newFolder("cache"), "lib.jar"));
+
+    try (Stream<Path> files = Files.walk(root)) {
+      assertThat(files.filter(Files::isRegularFile).collect(Collectors.toList()))
+          .containsExactlyElementsIn(storedJars());
+    }
+  }
+
+  @Test
+  public void testEvictRemovesLeastRecentlyUsedUnlinkedJars() throws IOException {
+    File cacheDir = folder.newFolder("cache");
+    File older = new File(cacheDir, "older.jar");
+    File newer = new File(cacheDir, "newer.jar");
+    File linked = new File(cacheDir, "linked.jar");
+    store.link(new SourceArtifact(writeFile("out/older.jar", "aaaa")), older);
+    store.link(new SourceArtifact(writeFile("out/newer.jar", "bbbb")), newer);
+    store.link(new SourceArtifact(writeFile("out/linked.jar", "cccc")), linked);
+    Path olderStored = storedCopy(older);
+    Path newerStored = storedCopy(newer);
+    Path linkedStored = storedCopy(linked);
+    setLastAccessTime(olderStored, 1000);
+    setLastAccessTime(newerStored, 2000);
+    setLastAccessTime(linkedStored, 0);
+    Files.delete(older.toPath());
+    Files.delete(newer.toPath());
+
+    store.evict(/* maxUnlinkedBytes= */ 4);
+
+    assertThat(storedJars()).containsExactly(newerStored, linkedStored);
+  }
+
+  @Test
+  public void testEvictWithinBoundKeepsAllJars() throws IOException {
+    File cached = new File(folder.newFolder("cache"), "lib.jar");
+    store.link(new SourceArtifact(writeFile("out/lib.jar", "aaaa")), cached);
+    Files.delete(cached.toPath());
+
+    store.evict(/* maxUnlinkedBytes= */ 4);
+
+    assertThat(storedJars()).hasSize(1);
+  }
+
+  private File writeFile(String path, String contents) throws IOException {
+    File file = new File(folder.getRoot(), path);
+    Files.createDirectories(file.toPath().getParent());
+    Files.write(file.toPath(), contents.getBytes(UTF_8));
+    return file;
+  }
+
+  private static String readFile(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+
+  private List<Path> storedJars() throws IOException {
+    try (Stream<Path> files = Files.walk(root)) {
+      return files.filter(p -> p.toString().endsWith(".jar")).collect(Collectors.toList());
+    }
+  }
+
+  private Path storedCopy(File cached) throws IOException {
+    for (Path stored : storedJars()) {
+      if (Files.isSameFile(stored, cached.toPath())) {
+        return stored;
+      }
+    }
+    throw new AssertionError("No stored copy of " + cached);
+  }
+
+  private static void setLastAccessTime(Path path, long millis) throws IOException {
+    Files.getFileAttributeView(path, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(millis), null);
+  }
+}
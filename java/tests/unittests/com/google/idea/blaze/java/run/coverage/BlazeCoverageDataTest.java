@@ -18,6 +18,7 @@ package com.google.idea.blaze.java.run.coverage;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.idea.blaze.java.run.coverage.BlazeCoverageData.FileData;
 import gnu.trove.TIntIntHashMap;
@@ -81,6 +82,58 @@ public class BlazeCoverageDataTest {
     assertThat(data.perFileData.keySet()).containsExactly("path/to/another/file.txt");
   }
 
+  @Test
+  public void testMergeMultipleFiles() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            ImmutableList.of(
+                inputStream(
+                    "SF:path/to/file.txt",
+                    "DA:1,1",
+                    "DA:2,0",
+                    "end_of_record",
+                    "SF:path/to/shard1.txt",
+                    "DA:7,1",
+                    "end_of_record"),
+                inputStream("SF:path/to/file.txt", "DA:1,2", "DA:3,4", "end_of_record")),
+            source -> true);
+    assertThat(data.perFileData.keySet())
+        .containsExactly("path/to/file.txt", "path/to/shard1.txt");
+    assertThat(toMap(data.perFileData.get("path/to/file.txt").lineHits))
+        .containsExactly(1, 3, 2, 0, 3, 4);
+  }
+
+  @Test
+  public void testExcludedSourcesSkipped() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            ImmutableList.of(
+                inputStream(
+                    "SF:external/dep/file.txt",
+                    "DA:1,1",
+                    "end_of_record",
+                    "SF:path/to/file.txt",
+                    "DA:1,1",
+                    "end_of_record")),
+            source -> !source.startsWith("external/"));
+    assertThat(data.perFileData.keySet()).containsExactly("path/to/file.txt");
+  }
+
+  @Test
+  public void testChecksumsAndMalformedLines() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream(
+                "SF:path/to/file.txt\r",
+                "DA:1,2,PF4Rz2r7RTliO9u6bZ7h6g\r",
+                "DA:x,1\r",
+                "DA:3\r",
+                "DA:4,5\r",
+                "end_of_record\r"));
+    assertThat(toMap(data.perFileData.get("path/to/file.txt").lineHits))
+        .containsExactly(1, 2, 4, 5);
+  }
+
   private static ImmutableMap<Integer, Integer> toMap(TIntIntHashMap troveMap) {
     return Arrays.stream(troveMap.keys())
         .boxed()
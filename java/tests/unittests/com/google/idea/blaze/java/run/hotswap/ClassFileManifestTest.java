@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClassFileManifest}. */
+@RunWith(JUnit4.class)
+public class ClassFileManifestTest extends BlazeTestCase {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(BlazeExecutor.class, new MockBlazeExecutor());
+  }
+
+  @Test
+  public void testUnchangedTimestampAndSizeReusesPreviousManifest() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    writeJar(jar, ImmutableMap.of("com/foo/A.class", "aaaa"), 1000);
+    ClassFileManifest oldManifest = ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    // same size and timestamp, so the jar isn't read again
+    writeJar(jar, ImmutableMap.of("com/foo/A.class", "bbbb"), 1000);
+    ClassFileManifest newManifest = ClassFileManifest.build(ImmutableList.of(jar), oldManifest);
+
+    assertThat(modifiedClasses(oldManifest, newManifest)).isEmpty();
+  }
+
+  @Test
+  public void testChangedSizeRebuildsManifest() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    writeJar(jar, ImmutableMap.of("com/foo/A.class", "aaaa"), 1000);
+    ClassFileManifest oldManifest = ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    writeJar(jar, ImmutableMap.of("com/foo/A.class", "aaaaaa"), 1000);
+    ClassFileManifest newManifest = ClassFileManifest.build(ImmutableList.of(jar), oldManifest);
+
+    assertThat(modifiedClasses(oldManifest, newManifest)).containsExactly("com/foo/A.class");
+  }
+
+  @Test
+  public void testDiffReportsClassesWithChangedCrcOrSize() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    writeJar(
+        jar,
+        ImmutableMap.of(
+            "com/foo/Unchanged.class", "same",
+            "com/foo/ChangedContents.class", "aaaa",
+            "com/foo/ChangedSize.class", "aaaa",
+            "com/foo/res.txt", "text"),
+        1000);
+    ClassFileManifest oldManifest = ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    writeJar(
+        jar,
+        ImmutableMap.of(
+            "com/foo/Unchanged.class", "same",
+            "com/foo/ChangedContents.class", "bbbb",
+            "com/foo/ChangedSize.class", "aaaaa",
+            "com/foo/Added.class", "new",
+            "com/foo/res.txt", "changed text"),
+        2000);
+    ClassFileManifest newManifest = ClassFileManifest.build(ImmutableList.of(jar), oldManifest);
+
+    assertThat(modifiedClasses(oldManifest, newManifest))
+        .containsExactly(
+            "com/foo/ChangedContents.class", "com/foo/ChangedSize.class", "com/foo/Added.class");
+  }
+
+  @Test
+  public void testNewJarHasNoModifiedClasses() throws Exception {
+    File existing = tmpFolder.newFile("existing.jar");
+    File added = tmpFolder.newFile("added.jar");
+    writeJar(existing, ImmutableMap.of("com/foo/A.class", "aaaa"), 1000);
+    writeJar(added, ImmutableMap.of("com/foo/B.class", "bbbb"), 1000);
+    ClassFileManifest oldManifest = ClassFileManifest.build(ImmutableList.of(existing), null);
+
+    ClassFileManifest newManifest =
+        ClassFileManifest.build(ImmutableList.of(existing, added), oldManifest);
+
+    assertThat(ClassFileManifest.modifiedClasses(oldManifest, newManifest).perJarModifiedClasses)
+        .isEmpty();
+  }
+
+  private static ImmutableList<String> modifiedClasses(
+      ClassFileManifest oldManifest, ClassFileManifest newManifest) {
+    return ImmutableList.copyOf(
+        ClassFileManifest.modifiedClasses(oldManifest, newManifest).perJarModifiedClasses.values());
+  }
+
+  /** Writes uncompressed entries, so the jar's size only depends on the entries' sizes. */
+  private static void writeJar(File jar, Map<String, String> entries, long timestamp)
+      throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        byte[] contents = entry.getValue().getBytes(UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(contents.length);
+        zipEntry.setCrc(crc.getValue());
+        zipEntry.setTime(0);
+        out.putNextEntry(zipEntry);
+        out.write(contents);
+        out.closeEntry();
+      }
+    }
+    assertThat(jar.setLastModified(timestamp)).isTrue();
+  }
+}
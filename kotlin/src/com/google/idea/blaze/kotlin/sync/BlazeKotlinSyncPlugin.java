@@ -49,7 +49,6 @@ import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.pom.java.LanguageLevel;
 import java.util.Arrays;
 import java.util.Collection;
@@ -254,34 +253,34 @@ public class BlazeKotlinSyncPlugin implements BlazeSyncPlugin {
         "plugin:" + AndroidCommandLineProcessor.Companion.getANDROID_COMPILER_PLUGIN_ID() + ":");
   }
 
+  @Nullable
   @Override
-  public void updateProjectStructure(
+  public ProjectStructureUpdate computeProjectStructureUpdate(
       Project project,
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
-      @Nullable BlazeProjectData oldBlazeProjectData,
-      ModuleEditor moduleEditor,
-      Module workspaceModule,
-      ModifiableRootModel workspaceModifiableModel) {
+      @Nullable BlazeProjectData oldBlazeProjectData) {
     if (!blazeProjectData.getWorkspaceLanguageSettings().isLanguageActive(LanguageClass.KOTLIN)) {
-      return;
+      return null;
     }
-
-    KotlinFacet kotlinFacet = getOrCreateKotlinFacet(workspaceModule);
-    updatePluginOptions(
-        kotlinFacet,
+    // collecting plugin options walks the whole target map, so is done outside the write action
+    List<String> pluginOptions =
         Arrays.stream(KotlinPluginOptionsProvider.EP_NAME.getExtensions())
             .map(
                 provider ->
                     provider.collectKotlinPluginOptions(blazeProjectData.getTargetMap().targets()))
             .flatMap(Collection::stream)
-            .collect(Collectors.toList()));
-    setJavaLanguageLevel(
-        kotlinFacet,
+            .collect(Collectors.toList());
+    LanguageLevel javaLanguageLevel =
         JavaLanguageLevelHelper.getJavaLanguageLevel(
-            projectViewSet, blazeProjectData, LanguageLevel.JDK_1_8));
+            projectViewSet, blazeProjectData, LanguageLevel.JDK_1_8);
+    return (syncContext, moduleEditor, workspaceModule, workspaceModifiableModel) -> {
+      KotlinFacet kotlinFacet = getOrCreateKotlinFacet(workspaceModule);
+      updatePluginOptions(kotlinFacet, pluginOptions);
+      setJavaLanguageLevel(kotlinFacet, javaLanguageLevel);
+    };
   }
 
   /**
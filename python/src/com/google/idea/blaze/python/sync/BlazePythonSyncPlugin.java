@@ -118,23 +118,24 @@ public class BlazePythonSyncPlugin implements BlazeSyncPlugin {
     return GenericSourceFolderProvider.INSTANCE;
   }
 
+  @Nullable
   @Override
-  public void updateProjectStructure(
+  public ProjectStructureUpdate computeProjectStructureUpdate(
       Project project,
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
-      @Nullable BlazeProjectData oldBlazeProjectData,
-      ModuleEditor moduleEditor,
-      Module workspaceModule,
-      ModifiableRootModel workspaceModifiableModel) {
+      @Nullable BlazeProjectData oldBlazeProjectData) {
+    // no python targets, so there is no facet to configure
     if (blazeProjectData.getTargetMap().targets().stream()
         .allMatch(target -> target.getPyIdeInfo() == null)) {
-      return;
+      return null;
     }
-    updatePythonFacet(
-        project, context, blazeProjectData, workspaceModule, workspaceModifiableModel);
+    // errors (e.g. a missing SDK) are reported to the sync's context when the update is applied
+    return (syncContext, moduleEditor, workspaceModule, workspaceModifiableModel) ->
+        updatePythonFacet(
+            project, syncContext, blazeProjectData, workspaceModule, workspaceModifiableModel);
   }
 
   @Override